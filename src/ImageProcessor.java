@@ -3,13 +3,18 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
+import imagecontroller.BatchCoordinator;
+import imagecontroller.BatchRunner;
 import imagecontroller.ImageControllerExtension;
 import imagecontroller.ImageControllerImpl;
-import imageguicontroller.Controller;
-import imageguiview.IView;
-import imageguiview.IViewImpl;
+import imagecontroller.ScriptServer;
+import imageguicontroller.GuiLauncher;
+import imageprocessor.Filters;
 import imageprocessor.ImageModelExtension;
+import imageprocessor.ImageUtil;
 
 import static java.lang.System.exit;
 
@@ -27,6 +32,19 @@ import static java.lang.System.exit;
  * And to run a text file of commands, the user would type:
  * java -jar ImageProcessing.jar -script full-path-of-script-file
  *
+ * And to run one script template over a directory or glob of images in parallel, the user
+ * would type:
+ * java -jar ImageProcessing.jar -batch template-file input-directory-or-glob output-directory
+ * [threads] [--shard i/n | --workers n]
+ *
+ * And to filter a TIFF too large for memory tile by tile, the user would type:
+ * java -jar ImageProcessing.jar -tiled input.tif output.tif filtertype [filtertype ...]
+ *
+ * And to keep a warm JVM that runs scripts sent to it, and to send it a script, the user would
+ * type:
+ * java -jar ImageProcessing.jar -daemon [port-or-socket-file]
+ * java -jar ImageProcessing.jar -submit full-path-of-script-file [port-or-socket-file]
+ *
  * Warning: If a user runs a text file command, the user must enter the full filepath of
  * any file they wish to load or save. They can find the full filepath of the current directory
  * by typing "pwd" on most command lines.
@@ -42,7 +60,16 @@ public class ImageProcessor {
    * "-script filepath" on the command line. If the user enters "interactive", the main will
    * launch the GUI image processor. If the user enters "script" and a valid full filepath,
    * the main will launch an ImageProcessorImpl without a GUI and complete the user's script.
+   * If the user enters "batch", a script template, the inputs and an output directory, the main
+   * will run the template over every input file in parallel and print a report.
+   * If the user enters "tiled", an input TIFF, an output TIFF and one or more filters, the main
+   * will filter the image tile by tile with bounded memory.
+   * If the user enters "daemon" and optionally a port or socket file, the main will keep running
+   * and run every script sent to it. If the user enters "submit" and a script, the main will send
+   * the script to a running daemon and print its answer.
    * Otherwise, if the user enters an invalid command, the program will print an error and exit.
+   * Every mode other than interactive runs headless and never loads the GUI classes, so scripts
+   * start faster and also run on servers without a display.
    * </p>
    *
    * @param args default argument for a main function.
@@ -50,10 +77,11 @@ public class ImageProcessor {
   public static void main(String[] args) {
     if (args.length > 0) {
       if (args[0].equals("-interactive")) {
-        ImageModelExtension model = null;
-        IView view = new IViewImpl("Image Processor");
-        Controller controller = new Controller(model, view);
-      } else if (args[0].equals("-script")) {
+        GuiLauncher.launch();
+        return;
+      }
+      System.setProperty("java.awt.headless", "true");
+      if (args[0].equals("-script")) {
         ImageModelExtension model = null;
         File filepath = new File(args[1]);
         try {
@@ -65,6 +93,47 @@ public class ImageProcessor {
           System.out.print("We could not find that file.\n");
           exit(0);
         }
+      } else if (args[0].equals("-batch") && args.length > 3) {
+        try {
+          runBatch(args);
+        } catch (IOException e) {
+          System.out.print("We could not find that file.\n");
+          exit(0);
+        } catch (IllegalArgumentException e) {
+          System.out.print("Error: The thread, shard and worker counts must be positive"
+                  + " numbers.\n");
+          exit(0);
+        }
+      } else if (args[0].equals("-daemon")) {
+        try {
+          new ScriptServer(args.length > 1 ? args[1] : ScriptServer.DEFAULT_ADDRESS).serve();
+        } catch (IOException e) {
+          System.out.print("We could not listen on that address.\n");
+          exit(0);
+        }
+      } else if (args[0].equals("-submit") && args.length > 1) {
+        try {
+          String script = new String(Files.readAllBytes(Paths.get(args[1])));
+          System.out.print(ScriptServer.submit(
+                  args.length > 2 ? args[2] : ScriptServer.DEFAULT_ADDRESS, script) + "\n");
+        } catch (IOException e) {
+          System.out.print("We could not find that file or reach the daemon.\n");
+          exit(0);
+        }
+      } else if (args[0].equals("-tiled") && args.length > 3) {
+        try {
+          Filters[] filters = new Filters[args.length - 3];
+          for (int i = 3; i < args.length; i++) {
+            filters[i - 3] = Filters.valueOf(args[i].toUpperCase());
+          }
+          ImageUtil.applyFiltersTiled(args[1], args[2], filters);
+        } catch (IOException e) {
+          System.out.print("We could not read or write that file.\n");
+          exit(0);
+        } catch (IllegalArgumentException e) {
+          System.out.print("Error: Not a valid filter type for tiled processing.\n");
+          exit(0);
+        }
       } else {
         System.out.print("Invalid filepath. Please enter -interactive to use the GUI, or -script"
                 + " and a filepath to run a text file processor without a GUI. Must use a filepath"
@@ -73,5 +142,48 @@ public class ImageProcessor {
       }
     }
   }
-}
 
+  /**
+   * The runBatch method runs a batch from the command line arguments "-batch template inputs
+   * output [threads] [--shard i/n | --workers n]" and prints its report. With "--shard i/n" only
+   * the i-th of n shards of the inputs is run, counting from 1, and progress lines are printed
+   * while it runs. With "--workers n" the batch is split into n shards, each run by its own
+   * worker JVM, and the threads are the threads of each worker.
+   *
+   * @param args the command line arguments.
+   * @throws IOException if the template or inputs cannot be read or the outputs written.
+   * @throws IllegalArgumentException if a count or the shard is not valid.
+   */
+  private static void runBatch(String[] args) throws IOException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean threadsGiven = false;
+    int shard = 1;
+    int shards = 1;
+    int workers = 0;
+    for (int i = 4; i < args.length; i++) {
+      if (args[i].equals("--shard") && i + 1 < args.length) {
+        String[] parts = args[++i].split("/");
+        if (parts.length != 2) {
+          throw new IllegalArgumentException("Error: Not a valid shard.");
+        }
+        shard = Integer.parseInt(parts[0]);
+        shards = Integer.parseInt(parts[1]);
+      } else if (args[i].equals("--workers") && i + 1 < args.length) {
+        workers = Integer.parseInt(args[++i]);
+      } else {
+        threads = Integer.parseInt(args[i]);
+        threadsGiven = true;
+      }
+    }
+    if (workers != 0) {
+      BatchCoordinator coordinator = threadsGiven
+              ? new BatchCoordinator(args[1], args[2], args[3], workers, threads)
+              : new BatchCoordinator(args[1], args[2], args[3], workers);
+      System.out.print(coordinator.run(System.out));
+      return;
+    }
+    String template = new String(Files.readAllBytes(Paths.get(args[1])));
+    BatchRunner runner = new BatchRunner(template, args[2], args[3], threads, shard - 1, shards);
+    System.out.print(runner.run(shards > 1 ? System.out : null));
+  }
+}
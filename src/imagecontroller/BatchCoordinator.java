@@ -0,0 +1,335 @@
+package imagecontroller;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The BatchCoordinator class splits a batch into shards and runs each shard in its own worker
+ * JVM on this machine, so that a large machine is not held back by the garbage collector and
+ * memory bandwidth of a single JVM.
+ *
+ * <p>Each worker is started with the same Java command, class path and JVM options as the
+ * coordinator, so options such as -Xmx and the result cache properties apply to every worker,
+ * each with its own heap. Options that only one JVM at a time can use are left out, as every
+ * worker after the first would fail to start or overwrite the others' files: agents such as a
+ * debugger listening on a port (-agentlib:jdwp=...,address=5005), class data sharing archives
+ * being dumped (-XX:ArchiveClassesAtExit, -Xshare:dump), flight recordings, and JVM logging
+ * (-Xlog, -Xloggc), which would write over one log file or mix into the workers' reports.
+ * The workers split the cores between them. While they run, the
+ * coordinator adds up their progress lines into one, and when they have all finished it merges
+ * their manifests into the main manifest of the output directory and their reports into one
+ * report. A worker that dies is reported as a failure of its shard; running the batch again
+ * resumes it.</p>
+ *
+ * <p>To spread a batch over several machines that share a filesystem, run
+ * "-batch ... --shard i/n" on each machine instead, with the same arguments apart from i.</p>
+ */
+public class BatchCoordinator {
+
+  /**
+   * The PROCESSED_PATTERN attribute matches the last line of a worker's report.
+   */
+  private static final Pattern PROCESSED_PATTERN = Pattern.compile(
+          "Processed (\\d+) files: (\\d+) succeeded, (\\d+) up to date, (\\d+) failed\\.");
+
+  /**
+   * The FINISHED_PATTERN attribute matches a worker's progress lines.
+   */
+  private static final Pattern FINISHED_PATTERN =
+          Pattern.compile("Finished (\\d+) of (\\d+) files\\.");
+
+  private static final String FAILED_PREFIX = "FAILED ";
+
+  /**
+   * The UNSHARED_OPTIONS attribute lists the starts of the JVM options that are not passed on to
+   * the workers, because several JVMs cannot use them at the same time.
+   */
+  private static final List<String> UNSHARED_OPTIONS = List.of("-agentlib:", "-agentpath:",
+          "-Xrunjdwp", "-Xdebug", "-XX:ArchiveClassesAtExit", "-XX:+DumpSharedSpaces",
+          "-Xshare:dump", "-XX:StartFlightRecording", "-Xloggc:", "-Xlog:");
+
+  private final String templateFile;
+  private final String inputs;
+  private final String outputDirectory;
+  private final int workers;
+  private final int threadsPerWorker;
+
+  /**
+   * Constructs a BatchCoordinator that splits the cores evenly between the workers.
+   *
+   * @param templateFile    the path of the script template file.
+   * @param inputs          a directory, or a glob such as "photos/*.jpg".
+   * @param outputDirectory the directory that $output points into.
+   * @param workers         the number of worker JVMs.
+   * @throws IllegalArgumentException if an argument is null or workers is less than one.
+   */
+  public BatchCoordinator(String templateFile, String inputs, String outputDirectory,
+                          int workers) {
+    this(templateFile, inputs, outputDirectory, workers,
+            Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, workers)));
+  }
+
+  /**
+   * Constructs a BatchCoordinator.
+   *
+   * @param templateFile     the path of the script template file.
+   * @param inputs           a directory, or a glob such as "photos/*.jpg".
+   * @param outputDirectory  the directory that $output points into.
+   * @param workers          the number of worker JVMs.
+   * @param threadsPerWorker the number of threads in each worker.
+   * @throws IllegalArgumentException if an argument is null, or workers or threadsPerWorker is
+   *                                  less than one.
+   */
+  public BatchCoordinator(String templateFile, String inputs, String outputDirectory,
+                          int workers, int threadsPerWorker) {
+    if (templateFile == null || inputs == null || outputDirectory == null) {
+      throw new IllegalArgumentException("Error: Cannot be null.");
+    }
+    if (workers < 1 || threadsPerWorker < 1) {
+      throw new IllegalArgumentException("Error: There must be at least one thread.");
+    }
+    this.templateFile = templateFile;
+    this.inputs = inputs;
+    this.outputDirectory = outputDirectory;
+    this.workers = workers;
+    this.threadsPerWorker = threadsPerWorker;
+  }
+
+  /**
+   * The run method starts the workers, waits for all of them to finish and merges their
+   * results.
+   *
+   * @param progress where to write combined progress lines, or null for none.
+   * @return the merged report of every shard.
+   * @throws IOException if a worker cannot be started or the manifests cannot be merged.
+   */
+  public BatchRunner.BatchReport run(Appendable progress) throws IOException {
+    Files.createDirectories(Paths.get(outputDirectory));
+    //merge what an earlier run left behind, so every worker starts from the same manifest
+    new BatchManifest(Paths.get(outputDirectory)).close();
+    Set<String> files = new HashSet<>();
+    for (Path file : new BatchRunner("", inputs, outputDirectory).listInputs()) {
+      files.add(file.toString());
+    }
+    int total = files.size();
+
+    List<Process> processes = new ArrayList<>();
+    List<Thread> readers = new ArrayList<>();
+    int[] finished = new int[workers];
+    String[] reports = new String[workers];
+    try {
+      for (int i = 0; i < workers; i++) {
+        Process process = new ProcessBuilder(command(i))
+                .redirectErrorStream(true)
+                .start();
+        processes.add(process);
+        int shard = i;
+        Thread reader = new Thread(() -> readWorker(process, shard, finished, reports,
+                total, progress));
+        reader.start();
+        readers.add(reader);
+      }
+      for (Thread reader : readers) {
+        reader.join();
+      }
+      for (Process process : processes) {
+        process.waitFor();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      for (Process process : processes) {
+        process.destroy();
+      }
+    }
+    new BatchManifest(Paths.get(outputDirectory)).close();
+    return mergeReports(processes, reports, files);
+  }
+
+  /**
+   * The command method builds the command line of one worker.
+   *
+   * @param shard the shard the worker runs, counting from zero.
+   * @return the command line.
+   */
+  private List<String> command(int shard) {
+    List<String> command = new ArrayList<>();
+    command.add(ProcessHandle.current().info().command()
+            .orElse(System.getProperty("java.home") + File.separator + "bin" + File.separator
+                    + "java"));
+    command.addAll(workerOptions(ManagementFactory.getRuntimeMXBean().getInputArguments()));
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add("ImageProcessor");
+    command.add("-batch");
+    command.add(templateFile);
+    command.add(inputs);
+    command.add(outputDirectory);
+    command.add(String.valueOf(threadsPerWorker));
+    command.add("--shard");
+    command.add((shard + 1) + "/" + workers);
+    return command;
+  }
+
+  /**
+   * The workerOptions method picks the JVM options of the coordinator that are passed on to the
+   * workers, leaving out those listed in UNSHARED_OPTIONS.
+   *
+   * @param options the JVM options of the coordinator.
+   * @return the options to start each worker with.
+   */
+  static List<String> workerOptions(List<String> options) {
+    List<String> shared = new ArrayList<>();
+    for (String option : options) {
+      boolean unshared = false;
+      for (String start : UNSHARED_OPTIONS) {
+        unshared |= option.startsWith(start);
+      }
+      if (!unshared) {
+        shared.add(option);
+      }
+    }
+    return shared;
+  }
+
+  /**
+   * The readWorker method reads the output of one worker until it exits. Progress lines update
+   * the combined progress, and every other line is kept as the worker's report.
+   *
+   * @param process  the worker.
+   * @param shard    the shard the worker runs.
+   * @param finished the number of files each worker has finished.
+   * @param reports  the report of each worker.
+   * @param total    the number of files in the whole batch.
+   * @param progress where to write combined progress lines, or null for none.
+   */
+  private void readWorker(Process process, int shard, int[] finished, String[] reports,
+                          int total, Appendable progress) {
+    StringBuilder report = new StringBuilder();
+    try (BufferedReader output = new BufferedReader(
+            new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = output.readLine()) != null) {
+        Matcher matcher = FINISHED_PATTERN.matcher(line);
+        if (matcher.matches()) {
+          synchronized (finished) {
+            finished[shard] = Integer.parseInt(matcher.group(1));
+            printProgress(finished, total, progress);
+          }
+        } else {
+          report.append(line).append("\n");
+        }
+      }
+    } catch (IOException e) {
+      //the worker has gone; its missing report marks the shard as failed
+    }
+    synchronized (finished) {
+      reports[shard] = report.toString();
+    }
+  }
+
+  /**
+   * The printProgress method writes one progress line for all of the workers together.
+   *
+   * @param finished the number of files each worker has finished.
+   * @param total    the number of files in the whole batch.
+   * @param progress where to write the line, or null for none.
+   */
+  private static void printProgress(int[] finished, int total, Appendable progress) {
+    if (progress == null) {
+      return;
+    }
+    int done = 0;
+    for (int count : finished) {
+      done += count;
+    }
+    try {
+      progress.append("Finished " + done + " of " + total + " files.\n");
+    } catch (IOException e) {
+      //progress is only informative; the batch carries on
+    }
+  }
+
+  /**
+   * The mergeReports method adds up the reports of the workers. A worker that exited without a
+   * report is recorded as a failure of its whole shard.
+   *
+   * <p>A failure line reads "FAILED path: message", and both the path and the message may
+   * contain ": " themselves, so the path is taken to be the longest input file of the batch
+   * that the line starts with. A line naming no known file is split at its first ": ".</p>
+   *
+   * @param processes the workers.
+   * @param reports   the output of each worker.
+   * @param files     the paths of the input files of the whole batch, as the workers list them.
+   * @return the merged report.
+   */
+  static BatchRunner.BatchReport mergeReports(List<Process> processes, String[] reports,
+                                              Set<String> files) {
+    int workers = reports.length;
+    int total = 0;
+    int succeeded = 0;
+    int upToDate = 0;
+    Map<String, String> failures = new TreeMap<>();
+    for (int i = 0; i < workers; i++) {
+      String report = reports[i] != null ? reports[i] : "";
+      Matcher matcher = PROCESSED_PATTERN.matcher(report);
+      if (!matcher.find()) {
+        String shard = "shard " + (i + 1) + "/" + workers;
+        String exit = i < processes.size() && !processes.get(i).isAlive()
+                ? " with code " + processes.get(i).exitValue() : "";
+        String cause = report.trim().isEmpty() ? "" : " " + report.trim().split("\n")[0];
+        failures.put(shard, "Error: Worker stopped" + exit + "." + cause);
+        continue;
+      }
+      total += Integer.parseInt(matcher.group(1));
+      succeeded += Integer.parseInt(matcher.group(2));
+      upToDate += Integer.parseInt(matcher.group(3));
+      for (String line : report.split("\n")) {
+        if (!line.startsWith(FAILED_PREFIX)) {
+          continue;
+        }
+        int separator = failureSeparator(line, files);
+        if (separator > 0) {
+          failures.put(line.substring(FAILED_PREFIX.length(), separator),
+                  line.substring(separator + 2));
+        }
+      }
+    }
+    return new BatchRunner.BatchReport(total, succeeded, upToDate, failures);
+  }
+
+  /**
+   * The failureSeparator method finds the ": " that ends the path of a failure line. Each
+   * ": " in the line is tried from the last one back, and the first whose prefix is an input
+   * file is taken, so the cost depends on the length of the line and not on the number of files.
+   *
+   * @param line  the failure line, starting with FAILED_PREFIX.
+   * @param files the paths of the input files of the batch.
+   * @return the index of the separator, or -1 if the line has none.
+   */
+  private static int failureSeparator(String line, Set<String> files) {
+    int start = FAILED_PREFIX.length();
+    for (int separator = line.lastIndexOf(": "); separator >= start;
+         separator = line.lastIndexOf(": ", separator - 1)) {
+      if (files.contains(line.substring(start, separator))) {
+        return separator;
+      }
+    }
+    return line.indexOf(": ", start);
+  }
+}
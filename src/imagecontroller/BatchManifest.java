@@ -0,0 +1,370 @@
+package imagecontroller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The BatchManifest class records which input files of a batch have been processed, so that a
+ * batch run again, whether after a crash or after some inputs changed, only processes the files
+ * whose outputs are out of date.
+ *
+ * <p>The manifest is an append-only journal kept in the output directory. Each finished file
+ * adds one line holding the input's size, modification time and SHA-256 digest, a digest of the
+ * script it was run with, and the files the script saved. A failed file adds a line saying so.
+ * A line is only written after the script for its file has finished and every output it saved
+ * has been forced to the disk, and the line is forced to the disk before the file counts as
+ * done. A line cut short by a crash is ignored when the journal is read back, so even after a
+ * power failure a file is either recorded as done with all its outputs written or it is run
+ * again.</p>
+ *
+ * <p>A file is up to date when its latest line says it is done, it was run with the same script,
+ * every output it saved still exists, and the input has not changed. An input whose size and
+ * modification time match is taken as unchanged without reading it; one that was only touched
+ * or copied is read and compared by digest. When the manifest is opened, the journal is
+ * rewritten with only the latest line for each file, so it does not grow without bound.</p>
+ *
+ * <p>A shard of a batch writes its own journal next to the main one, named after the shard, so
+ * that several processes never write to the same file. Every manifest reads all of the journals
+ * in the directory, so a shard knows what earlier runs did with any number of shards. Opening
+ * the main manifest merges the shard journals into it and deletes them.</p>
+ */
+class BatchManifest implements Closeable {
+
+  /**
+   * The FILE_NAME attribute is the name of the journal inside the output directory.
+   */
+  static final String FILE_NAME = ".batch-manifest";
+
+  /**
+   * The HEADER attribute is the first line of every journal, so that a file of another format
+   * is never read as one.
+   */
+  private static final String HEADER = "imageprocessor batch manifest 1";
+
+  private static final String DONE = "DONE";
+  private static final String FAILED = "FAILED";
+
+  private final Path file;
+
+  /**
+   * The entries attribute holds the latest line of the journal for each input file, keyed by
+   * the input's absolute path, so that the same file is found again when the batch is run from
+   * another working directory or with its input directory spelled differently.
+   */
+  private final Map<String, String[]> entries = new LinkedHashMap<>();
+
+  private final FileChannel journal;
+
+  /**
+   * Constructs the main BatchManifest of a directory, reading back and merging every journal
+   * in it.
+   *
+   * @param directory the output directory of the batch.
+   * @throws IOException if the journals cannot be read or written.
+   */
+  BatchManifest(Path directory) throws IOException {
+    this(directory, null);
+  }
+
+  /**
+   * Constructs a BatchManifest for one shard of a batch, reading back every journal in the
+   * directory. The shard's own journal is appended to and never rewritten, since the other
+   * shards may be reading it.
+   *
+   * @param directory the output directory of the batch.
+   * @param shard     the name of the shard, such as "2-of-8", or null for the main manifest.
+   * @throws IOException if the journals cannot be read or written.
+   */
+  BatchManifest(Path directory, String shard) throws IOException {
+    Path main = directory.resolve(FILE_NAME);
+    List<Path> shardFiles = listShardJournals(directory);
+    replay(main);
+    for (Path shardFile : shardFiles) {
+      replay(shardFile);
+    }
+    if (shard == null) {
+      this.file = main;
+      compact();
+      for (Path shardFile : shardFiles) {
+        Files.deleteIfExists(shardFile);
+      }
+    } else {
+      this.file = directory.resolve(FILE_NAME + "." + shard);
+      startJournal();
+    }
+    this.journal = FileChannel.open(file, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+  }
+
+  /**
+   * The isUpToDate method checks whether an input file was already processed with a script and
+   * nothing has changed since.
+   *
+   * @param input      the input file.
+   * @param scriptHash the digest of the script the file would be run with.
+   * @return true if the file does not need to be processed again.
+   */
+  synchronized boolean isUpToDate(Path input, String scriptHash) {
+    String[] entry = entries.get(key(input));
+    if (entry == null || !entry[0].equals(DONE) || !entry[5].equals(scriptHash)) {
+      return false;
+    }
+    for (int i = 6; i < entry.length; i++) {
+      if (!Files.isRegularFile(Paths.get(entry[i]))) {
+        return false;
+      }
+    }
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(input, BasicFileAttributes.class);
+      if (attributes.size() != Long.parseLong(entry[2])) {
+        return false;
+      }
+      if (attributes.lastModifiedTime().toMillis() == Long.parseLong(entry[3])) {
+        return true;
+      }
+      if (!ResultCache.digest(input).equals(entry[4])) {
+        return false;
+      }
+      //same contents with a new time; remember the new time so it is not read again
+      String[] refreshed = entry.clone();
+      refreshed[3] = String.valueOf(attributes.lastModifiedTime().toMillis());
+      append(refreshed);
+      return true;
+    } catch (IOException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * The recordDone method records that an input file was processed. Its outputs are forced to
+   * the disk before the line is written, and the line is forced to the disk after it.
+   *
+   * @param input      the input file.
+   * @param attributes the attributes of the input file, read before it was processed.
+   * @param scriptHash the digest of the script it was run with.
+   * @param outputs    the files the script saved.
+   * @throws IOException if the input or an output cannot be read, or the journal cannot be
+   *                     written.
+   */
+  void recordDone(Path input, BasicFileAttributes attributes, String scriptHash,
+                  List<String> outputs) throws IOException {
+    List<String> entry = new ArrayList<>(Arrays.asList(DONE, key(input),
+            String.valueOf(attributes.size()),
+            String.valueOf(attributes.lastModifiedTime().toMillis()),
+            ResultCache.digest(input), scriptHash));
+    for (String output : outputs) {
+      force(Paths.get(output));
+      entry.add(key(Paths.get(output)));
+    }
+    synchronized (this) {
+      append(entry.toArray(new String[0]));
+      journal.force(false);
+    }
+  }
+
+  /**
+   * The recordFailed method records that an input file failed, so that it is run again next
+   * time.
+   *
+   * @param input   the input file.
+   * @param message the error message.
+   * @throws IOException if the journal cannot be written.
+   */
+  synchronized void recordFailed(Path input, String message) throws IOException {
+    append(new String[] {FAILED, key(input), message});
+  }
+
+  /**
+   * The close method closes the journal.
+   *
+   * @throws IOException if the journal cannot be closed.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    journal.close();
+  }
+
+  /**
+   * The key method returns the absolute, normalized form of a path, under which it is recorded.
+   *
+   * @param path the path.
+   * @return the path as it is recorded in the journal.
+   */
+  private static String key(Path path) {
+    return path.toAbsolutePath().normalize().toString();
+  }
+
+  /**
+   * The append method writes one line to the end of the journal and remembers it as the latest
+   * line for its file. Lines are written in one call each, so a crash leaves at most the last
+   * line cut short.
+   *
+   * @param entry the fields of the line.
+   * @throws IOException if the journal cannot be written.
+   */
+  private void append(String[] entry) throws IOException {
+    ByteBuffer line = ByteBuffer.wrap(format(entry).getBytes(StandardCharsets.UTF_8));
+    while (line.hasRemaining()) {
+      journal.write(line);
+    }
+    entries.put(entry[1], entry);
+  }
+
+  /**
+   * The replay method reads a journal back, keeping the latest complete line for each file.
+   *
+   * @param file the journal, which need not exist.
+   * @throws IOException if the journal cannot be read.
+   */
+  private void replay(Path file) throws IOException {
+    if (!Files.isRegularFile(file)) {
+      return;
+    }
+    String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    String[] lines = text.split("\n", -1);
+    if (lines.length == 0 || !lines[0].equals(HEADER)) {
+      return;
+    }
+    //the last piece has no line break after it: it is empty, or a line cut short by a crash
+    for (int i = 1; i < lines.length - 1; i++) {
+      String[] entry = parse(lines[i]);
+      if (entry.length >= 6 && entry[0].equals(DONE)
+              || entry.length == 3 && entry[0].equals(FAILED)) {
+        entries.remove(entry[1]);
+        entries.put(entry[1], entry);
+      }
+    }
+  }
+
+  /**
+   * The compact method rewrites the journal with only the latest line for each file. The new
+   * journal is written under a temporary name, forced to the disk and moved into place, so a
+   * crash leaves either the old journal or the new one.
+   *
+   * @throws IOException if the journal cannot be written.
+   */
+  private void compact() throws IOException {
+    StringBuilder text = new StringBuilder(HEADER).append('\n');
+    for (String[] entry : entries.values()) {
+      text.append(format(entry));
+    }
+    Path temporary = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+    try {
+      Files.write(temporary, text.toString().getBytes(StandardCharsets.UTF_8));
+      force(temporary);
+      Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE,
+              StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * The force method forces the contents of a file to the disk.
+   *
+   * @param path the file.
+   * @throws IOException if the file cannot be opened or forced.
+   */
+  private static void force(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.force(true);
+    }
+  }
+
+  /**
+   * The startJournal method gets a shard's journal ready to be appended to: it writes the header
+   * of a new journal, and ends a line cut short by a crash so the next line starts afresh.
+   *
+   * @throws IOException if the journal cannot be written.
+   */
+  private void startJournal() throws IOException {
+    if (!Files.isRegularFile(file) || Files.size(file) == 0) {
+      Files.write(file, (HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      ByteBuffer last = ByteBuffer.allocate(1);
+      channel.read(last, channel.size() - 1);
+      if (last.get(0) != '\n') {
+        channel.write(ByteBuffer.wrap(new byte[] {'\n'}), channel.size());
+      }
+    }
+  }
+
+  /**
+   * The listShardJournals method lists the journals of shards in a directory, sorted by name.
+   *
+   * @param directory the output directory of the batch.
+   * @return the shard journals.
+   * @throws IOException if the directory cannot be read.
+   */
+  private static List<Path> listShardJournals(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(path -> path.getFileName().toString().startsWith(FILE_NAME + "."))
+              .filter(path -> !path.getFileName().toString().endsWith(".tmp"))
+              .sorted()
+              .collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * The format method writes the fields of a line separated by tabs, with tabs, line breaks and
+   * backslashes inside a field escaped.
+   *
+   * @param entry the fields.
+   * @return the line, ending with a line break.
+   */
+  private static String format(String[] entry) {
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < entry.length; i++) {
+      if (i > 0) {
+        line.append('\t');
+      }
+      line.append(entry[i].replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n")
+              .replace("\r", "\\r"));
+    }
+    return line.append('\n').toString();
+  }
+
+  /**
+   * The parse method splits a line written by format back into its fields.
+   *
+   * @param line the line, without its line break.
+   * @return the fields.
+   */
+  private static String[] parse(String line) {
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '\t') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else if (c == '\\' && i + 1 < line.length()) {
+        char next = line.charAt(++i);
+        field.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString());
+    return fields.toArray(new String[0]);
+  }
+}
@@ -0,0 +1,597 @@
+package imagecontroller;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import imageprocessor.ImageUtil;
+
+/**
+ * The BatchRunner class applies one script template to every image in a directory or matching
+ * a glob, running the files in parallel inside a single JVM.
+ *
+ * <p>The template is an ordinary script in which "$input" is replaced with the path of each
+ * input file and "$output" with the output directory joined with the input's file name, minus
+ * its extension. For example, "load $input apply blur save $output.png" blurs every image into
+ * the output directory as a PNG. Script commands are separated by whitespace, so an input file
+ * or output directory whose path contains whitespace cannot be put into a script: such a file
+ * fails with a message saying so, and such an output directory is rejected up front. Input files
+ * whose names differ only in their directory or extension, such as a/x.jpg, b/x.jpg and x.png,
+ * would write over each other's outputs, so when the template uses $output they all fail.</p>
+ *
+ * <p>Files are run on a worker pool with one thread per core. Each file filters one image at a
+ * time, as the pool already keeps every core busy. Each file also reserves an estimate of the
+ * memory its image needs from a budget of 3/4 of the maximum heap, so large images run fewer at
+ * a time instead of running out of memory. A file that fails is recorded in the report and does
+ * not stop the rest of the batch.</p>
+ *
+ * <p>The batch keeps a manifest of the files it has finished in the output directory. Running
+ * the same batch again skips every file whose outputs are up to date, so a batch that was
+ * stopped or crashed part of the way through resumes where it stopped, and a batch run after
+ * some inputs or the template changed only processes what changed. Delete the manifest file,
+ * ".batch-manifest", to process every file again.</p>
+ */
+public class BatchRunner {
+
+  /**
+   * The IMAGE_EXTENSIONS attribute lists the file extensions picked up when the input is a
+   * directory.
+   */
+  private static final List<String> IMAGE_EXTENSIONS = List.of("jpg", "jpeg", "png", "gif",
+          "bmp", "qoi", "ppm", "pgm", "pam", "raw", "tif", "tiff");
+
+  /**
+   * The BYTES_PER_PIXEL attribute is a rough estimate of the heap needed per pixel while a
+   * script runs: an int[3] per pixel in the source, the result and one intermediate image.
+   */
+  private static final long BYTES_PER_PIXEL = 3 * 40;
+
+  private final String template;
+  private final String inputs;
+  private final Path outputDirectory;
+  private final int threads;
+  private final int shardIndex;
+  private final int shardCount;
+
+  /**
+   * Constructs a BatchRunner with one worker thread per available core.
+   *
+   * @param template        the script template, with $input and $output placeholders.
+   * @param inputs          a directory, or a glob such as "photos/*.jpg".
+   * @param outputDirectory the directory that $output points into.
+   */
+  public BatchRunner(String template, String inputs, String outputDirectory) {
+    this(template, inputs, outputDirectory, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructs a BatchRunner with a given number of worker threads.
+   *
+   * @param template        the script template, with $input and $output placeholders.
+   * @param inputs          a directory, or a glob such as "photos/*.jpg".
+   * @param outputDirectory the directory that $output points into.
+   * @param threads         the number of worker threads.
+   * @throws IllegalArgumentException if an argument is null or threads is less than one.
+   */
+  public BatchRunner(String template, String inputs, String outputDirectory, int threads) {
+    this(template, inputs, outputDirectory, threads, 0, 1);
+  }
+
+  /**
+   * Constructs a BatchRunner that runs only one shard of the input files. Every input file
+   * belongs to exactly one of shardCount shards, chosen by a hash of its path, so several
+   * processes, on one machine or on several machines sharing a filesystem, can split a batch
+   * between them without talking to each other. Every shard must be given the same inputs
+   * argument, spelled the same way.
+   *
+   * @param template        the script template, with $input and $output placeholders.
+   * @param inputs          a directory, or a glob such as "photos/*.jpg".
+   * @param outputDirectory the directory that $output points into.
+   * @param threads         the number of worker threads.
+   * @param shardIndex      the shard to run, counting from zero.
+   * @param shardCount      the number of shards the batch is split into.
+   * @throws IllegalArgumentException if an argument is null, threads is less than one, the
+   *                                  shard is not between zero and shardCount - 1, or the
+   *                                  output directory contains whitespace.
+   */
+  public BatchRunner(String template, String inputs, String outputDirectory, int threads,
+                     int shardIndex, int shardCount) {
+    if (template == null || inputs == null || outputDirectory == null) {
+      throw new IllegalArgumentException("Error: Cannot be null.");
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("Error: There must be at least one thread.");
+    }
+    if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+      throw new IllegalArgumentException("Error: Not a valid shard.");
+    }
+    if (hasWhitespace(outputDirectory)) {
+      throw new IllegalArgumentException("Error: The output directory cannot contain spaces, "
+              + "because script commands are separated by spaces.");
+    }
+    this.template = template;
+    this.inputs = inputs;
+    this.outputDirectory = Paths.get(outputDirectory);
+    this.threads = threads;
+    this.shardIndex = shardIndex;
+    this.shardCount = shardCount;
+  }
+
+  /**
+   * The run method runs the template over every input file whose outputs are not up to date,
+   * and waits for all of them to finish.
+   *
+   * @return a report of how many files succeeded, how many were already up to date, and why
+   *         each failed file failed.
+   * @throws IOException if the inputs cannot be listed, or the output directory or its manifest
+   *                     cannot be made.
+   */
+  public BatchReport run() throws IOException {
+    return run(null);
+  }
+
+  /**
+   * The run method runs the template over every input file of this runner's shard whose outputs
+   * are not up to date, and waits for all of them to finish. While it runs, it writes a line
+   * such as "Finished 120 of 500 files." to the progress output at most once a second, and once
+   * more when the last file has finished.
+   *
+   * @param progress where to write progress lines, or null for none.
+   * @return a report of how many files succeeded, how many were already up to date, and why
+   *         each failed file failed.
+   * @throws IOException if the inputs cannot be listed, or the output directory or its manifest
+   *                     cannot be made.
+   */
+  public BatchReport run(Appendable progress) throws IOException {
+    List<Path> inputFiles = listInputs();
+    Map<Path, Path> clashes = clashes(inputFiles);
+    List<Path> files = new ArrayList<>();
+    for (Path file : inputFiles) {
+      if (shardOf(file, shardCount) == shardIndex) {
+        files.add(file);
+      }
+    }
+    Files.createDirectories(outputDirectory);
+
+    long budget = Runtime.getRuntime().maxMemory() / 4 * 3;
+    int budgetMegabytes = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget >> 20));
+    Semaphore memory = new Semaphore(budgetMegabytes);
+    AtomicInteger succeeded = new AtomicInteger();
+    AtomicInteger upToDate = new AtomicInteger();
+    Map<String, String> failures = Collections.synchronizedMap(new TreeMap<>());
+    ProgressPrinter printer = new ProgressPrinter(progress, files.size());
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try (BatchManifest manifest = shardCount == 1 ? new BatchManifest(outputDirectory)
+            : new BatchManifest(outputDirectory, (shardIndex + 1) + "-of-" + shardCount)) {
+      List<Future<?>> jobs = new ArrayList<>();
+      for (Path file : files) {
+        jobs.add(pool.submit(() -> {
+          try {
+            runFile(file, clashes.get(file), manifest, memory, budgetMegabytes, succeeded,
+                    upToDate, failures);
+          } finally {
+            printer.finished();
+          }
+        }));
+      }
+      for (Future<?> job : jobs) {
+        try {
+          job.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        } catch (ExecutionException e) {
+          //every failure is already caught and recorded inside the job
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return new BatchReport(files.size(), succeeded.get(), upToDate.get(), failures);
+  }
+
+  /**
+   * The runFile method runs the template for one input file, unless its outputs are up to date,
+   * and records the outcome in the manifest and the counts of the report.
+   *
+   * @param file            the input file.
+   * @param clash           another input file with the same $output, or null if there is none.
+   * @param manifest        the manifest of the batch.
+   * @param memory          the memory budget, in megabytes.
+   * @param budgetMegabytes the size of the whole budget.
+   * @param succeeded       the count of files that succeeded.
+   * @param upToDate        the count of files that were up to date.
+   * @param failures        the error message of each failed file.
+   */
+  private void runFile(Path file, Path clash, BatchManifest manifest, Semaphore memory,
+                       int budgetMegabytes, AtomicInteger succeeded, AtomicInteger upToDate,
+                       Map<String, String> failures) {
+    String script;
+    try {
+      script = script(file, clash);
+    } catch (IllegalArgumentException e) {
+      recordFailure(file, e.getMessage(), manifest, failures);
+      return;
+    }
+    String scriptHash = ResultCache.digest(script);
+    if (manifest.isUpToDate(file, scriptHash)) {
+      upToDate.incrementAndGet();
+      return;
+    }
+    int permits = Math.min(budgetMegabytes, estimateMegabytes(file));
+    memory.acquireUninterruptibly(permits);
+    String failure = null;
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      List<String> outputs = runOne(script);
+      manifest.recordDone(file, attributes, scriptHash, outputs);
+      succeeded.incrementAndGet();
+    } catch (IOException e) {
+      failure = "Error: Manifest could not be written to.";
+    } catch (RuntimeException e) {
+      failure = e.getMessage() != null ? e.getMessage() : e.toString();
+    } catch (OutOfMemoryError e) {
+      failure = "Error: Out of memory.";
+    } finally {
+      memory.release(permits);
+    }
+    if (failure != null) {
+      recordFailure(file, failure, manifest, failures);
+    }
+  }
+
+  /**
+   * The recordFailure method records why an input file failed, in the manifest and in the
+   * failures of the report.
+   *
+   * @param file     the input file.
+   * @param failure  the error message.
+   * @param manifest the manifest of the batch.
+   * @param failures the error message of each failed file.
+   */
+  private static void recordFailure(Path file, String failure, BatchManifest manifest,
+                                    Map<String, String> failures) {
+    failures.put(file.toString(), failure);
+    try {
+      manifest.recordFailed(file, failure);
+    } catch (IOException e) {
+      //the file is not recorded as done either, so it runs again next time
+    }
+  }
+
+  /**
+   * The script method fills in the template for a single input file. The paths are put into
+   * the script as they are, and script commands are separated by whitespace, so a path
+   * containing whitespace cannot be expressed and the file is rejected.
+   *
+   * @param file  the input file.
+   * @param clash another input file with the same $output, or null if there is none.
+   * @return the script to run for the file.
+   * @throws IllegalArgumentException if the path of the file contains whitespace, or another
+   *                                  input file has the same $output.
+   */
+  private String script(Path file, Path clash) {
+    if (hasWhitespace(file.toString())) {
+      throw new IllegalArgumentException("Error: " + file + " cannot be used in a script, "
+              + "because its path contains spaces.");
+    }
+    if (clash != null) {
+      throw new IllegalArgumentException("Error: " + file + " has the same $output as " + clash
+              + ", so their outputs would overwrite each other.");
+    }
+    return template.replace("$input", file.toString())
+            .replace("$output", outputDirectory.resolve(stem(file)).toString());
+  }
+
+  /**
+   * The stem method returns the file name of an input file without its extension, which is
+   * what $output is made from.
+   *
+   * @param file the input file.
+   * @return the file name without its extension.
+   */
+  private static String stem(Path file) {
+    String name = file.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    return dot > 0 ? name.substring(0, dot) : name;
+  }
+
+  /**
+   * The clashes method finds the input files that share an $output with another input file.
+   * Every input file is checked, not just this runner's shard, so that all shards agree on which
+   * files fail.
+   *
+   * @param files every input file.
+   * @return for each input file that shares its $output, another input file with that $output.
+   *         The map is empty when the template does not use $output.
+   */
+  private Map<Path, Path> clashes(List<Path> files) {
+    Map<Path, Path> clashes = new HashMap<>();
+    if (!template.contains("$output")) {
+      return clashes;
+    }
+    Map<String, Path> firstWithStem = new HashMap<>();
+    for (Path file : files) {
+      Path first = firstWithStem.putIfAbsent(stem(file), file);
+      if (first != null) {
+        clashes.put(file, first);
+        clashes.putIfAbsent(first, file);
+      }
+    }
+    return clashes;
+  }
+
+  /**
+   * The hasWhitespace method checks whether a path contains any whitespace.
+   *
+   * @param path the path.
+   * @return true if the path contains whitespace.
+   */
+  private static boolean hasWhitespace(String path) {
+    for (int i = 0; i < path.length(); i++) {
+      if (Character.isWhitespace(path.charAt(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The runOne method runs the script for a single input file.
+   *
+   * @param script the script, as filled in by the script method.
+   * @return the paths of the files the script saved.
+   * @throws IllegalArgumentException if the script fails for this file.
+   */
+  private List<String> runOne(String script) {
+    ScriptPlan plan = ScriptCompiler.compile(new StringReader(script), null);
+    //the worker pool already runs one file per core
+    plan.execute(1);
+    List<String> outputs = new ArrayList<>();
+    for (ScriptPlan.Save save : plan.getSaves()) {
+      outputs.add(save.path);
+    }
+    return outputs;
+  }
+
+  /**
+   * The estimateMegabytes method estimates how much heap a script needs for an input file, from
+   * the dimensions in the file's header.
+   *
+   * @param file the input file.
+   * @return the estimate in megabytes, at least one.
+   */
+  private int estimateMegabytes(Path file) {
+    try {
+      long pixels = (long) ImageUtil.getWidth(file.toString())
+              * ImageUtil.getHeight(file.toString());
+      return (int) Math.max(1, Math.min(Integer.MAX_VALUE, pixels * BYTES_PER_PIXEL >> 20));
+    } catch (IOException | RuntimeException e) {
+      //the script itself will report the unreadable file
+      return 1;
+    }
+  }
+
+  /**
+   * The listInputs method lists the input files, sorted by path. A directory yields every image
+   * file directly inside it; anything else is treated as a glob, whose fixed leading directories
+   * are walked recursively.
+   *
+   * @return the input files.
+   * @throws IOException if the files cannot be listed.
+   */
+  List<Path> listInputs() throws IOException {
+    Path directory = Paths.get(inputs);
+    if (Files.isDirectory(directory)) {
+      try (Stream<Path> files = Files.list(directory)) {
+        return files.filter(Files::isRegularFile)
+                .filter(file -> IMAGE_EXTENSIONS.contains(extension(file)))
+                .sorted()
+                .collect(Collectors.toList());
+      }
+    }
+    String glob = inputs.replace('\\', '/');
+    int wildcard = firstWildcard(glob);
+    int slash = glob.lastIndexOf('/', wildcard);
+    Path base = slash < 0 ? Paths.get(".")
+            : Paths.get(slash == 0 ? "/" : glob.substring(0, slash));
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    if (!Files.isDirectory(base)) {
+      throw new IOException("No such directory: " + base);
+    }
+    try (Stream<Path> files = Files.walk(base)) {
+      return files.filter(Files::isRegularFile)
+              .filter(file -> matcher.matches(slash < 0 ? base.relativize(file) : file))
+              .sorted()
+              .collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * The shardOf method returns the shard an input file belongs to. The shard depends only on the
+   * path as listed, so every process running a shard of the same batch agrees on it.
+   *
+   * @param file       the input file.
+   * @param shardCount the number of shards.
+   * @return the shard, from zero to shardCount - 1.
+   */
+  static int shardOf(Path file, int shardCount) {
+    int hash = file.toString().replace('\\', '/').hashCode();
+    //mix the bits, so that paths that differ only in their last character are spread out
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return Math.floorMod(hash, shardCount);
+  }
+
+  /**
+   * The firstWildcard method finds the first glob metacharacter in a pattern.
+   *
+   * @param glob the glob pattern.
+   * @return the index of the first wildcard, or the length of the pattern if it has none.
+   */
+  private static int firstWildcard(String glob) {
+    for (int i = 0; i < glob.length(); i++) {
+      if ("*?[{".indexOf(glob.charAt(i)) >= 0) {
+        return i;
+      }
+    }
+    return glob.length();
+  }
+
+  /**
+   * The extension method returns the lower-case extension of a file.
+   *
+   * @param file the file.
+   * @return the extension without the dot, or an empty String.
+   */
+  private static String extension(Path file) {
+    String name = file.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    return dot < 0 ? "" : name.substring(dot + 1).toLowerCase();
+  }
+
+  /**
+   * The ProgressPrinter class counts finished files and writes a progress line at most once a
+   * second.
+   */
+  private static class ProgressPrinter {
+    private static final long INTERVAL_NANOS = 1000000000L;
+
+    private final Appendable output;
+    private final int total;
+    private int finished;
+    private long lastPrinted;
+
+    /**
+     * Constructs a ProgressPrinter.
+     *
+     * @param output where to write progress lines, or null for none.
+     * @param total  the number of files in the batch.
+     */
+    ProgressPrinter(Appendable output, int total) {
+      this.output = output;
+      this.total = total;
+      this.lastPrinted = System.nanoTime();
+    }
+
+    /**
+     * The finished method counts one more finished file, and writes a progress line if a second
+     * has passed since the last one or this was the last file.
+     */
+    synchronized void finished() {
+      finished++;
+      long now = System.nanoTime();
+      if (output == null || finished < total && now - lastPrinted < INTERVAL_NANOS) {
+        return;
+      }
+      lastPrinted = now;
+      try {
+        output.append("Finished " + finished + " of " + total + " files.\n");
+      } catch (IOException e) {
+        //progress is only informative; the batch carries on
+      }
+    }
+  }
+
+  /**
+   * The BatchReport class summarises a finished batch run.
+   */
+  public static class BatchReport {
+    private final int total;
+    private final int succeeded;
+    private final int upToDate;
+    private final Map<String, String> failures;
+
+    /**
+     * Constructs a BatchReport.
+     *
+     * @param total     the number of input files.
+     * @param succeeded the number of files whose script completed.
+     * @param upToDate  the number of files skipped because their outputs were up to date.
+     * @param failures  the error message of each failed file, keyed by its path.
+     */
+    BatchReport(int total, int succeeded, int upToDate, Map<String, String> failures) {
+      this.total = total;
+      this.succeeded = succeeded;
+      this.upToDate = upToDate;
+      this.failures = Collections.unmodifiableMap(new TreeMap<>(failures));
+    }
+
+    /**
+     * Returns the number of input files.
+     *
+     * @return the number of input files.
+     */
+    public int getTotal() {
+      return total;
+    }
+
+    /**
+     * Returns the number of files whose script completed.
+     *
+     * @return the number of successful files.
+     */
+    public int getSucceeded() {
+      return succeeded;
+    }
+
+    /**
+     * Returns the number of files skipped because their outputs were already up to date.
+     *
+     * @return the number of up-to-date files.
+     */
+    public int getUpToDate() {
+      return upToDate;
+    }
+
+    /**
+     * Returns the error message of each failed file, keyed by its path.
+     *
+     * @return the failures, sorted by path.
+     */
+    public Map<String, String> getFailures() {
+      return failures;
+    }
+
+    /**
+     * Returns a printable summary, with one line for each failed file.
+     *
+     * @return the summary.
+     */
+    @Override
+    public String toString() {
+      StringBuilder summary = new StringBuilder();
+      for (Map.Entry<String, String> failure : failures.entrySet()) {
+        summary.append("FAILED ").append(failure.getKey()).append(": ")
+                .append(failure.getValue()).append("\n");
+      }
+      summary.append("Processed ").append(total).append(" files: ").append(succeeded)
+              .append(" succeeded, ").append(upToDate).append(" up to date, ")
+              .append(failures.size()).append(" failed.\n");
+      return summary.toString();
+    }
+  }
+}
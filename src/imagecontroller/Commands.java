@@ -6,5 +6,5 @@ package imagecontroller;
  * command for the Model.
  */
 enum Commands {
-  LOAD,APPLY,GENERATE,SAVE
+  LOAD,APPLY,GENERATE,SAVE,BRANCH
 }
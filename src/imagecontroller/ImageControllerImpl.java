@@ -1,14 +1,8 @@
 package imagecontroller;
 
-import java.io.IOException;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
-
-import imageprocessor.Designs;
-import imageprocessor.Filters;
+import imageprocessor.CancellationToken;
 import imageprocessor.ImageModelExtension;
-import imageprocessor.ImageFactory;
-import imageprocessor.ImageUtil;
+import imageprocessor.ProgressListener;
 
 /**
  * This class represents a Controller in a Model-View-Controller design for an Image Processor.
@@ -35,155 +29,79 @@ public class ImageControllerImpl implements ImageControllerExtension {
   private Readable input;
 
   /**
-   * The constructor for ImageControllerImpl takes in two parameters, an ImageModel model
-   * implementation and a View implementation, and constructs a new ImageControllerImpl that
-   * will interact with those model and view objects.
-   *
-   * @param model the ImageModelExtension implementation to be used in the current MVC design.
-   * @param input the View implementation to be used in the current MVC design.
+   * The plan attribute stores the last script run, until its final image is read by getModel().
    */
-  public ImageControllerImpl(ImageModelExtension model, Readable input) {
-    this.model = model;
-    this.input = input;
-  }
+  private ScriptPlan plan;
 
   /**
-   * In the start() method, the controller requests information from View and then
-   * manipulates the Model. The program will terminate if the View delivers an input of Quit,
-   * or if the input from the View is null.
-   *
-   * @throws IllegalArgumentException if there is an error in formatting or reading the input.
+   * The token attribute is checked by every filter of the script.
    */
-  @Override
-  public void start() throws IllegalArgumentException {
-    Scanner sc = new Scanner(input);
-    try {
-      while (sc.hasNext()) {
-        String commandString = sc.next();
-        Commands command;
-        try {
-          command = Commands.valueOf(commandString.toUpperCase());
-        }
-        catch (IllegalArgumentException e) {
-          throw new IllegalArgumentException("Error: Not a valid command.");
-        }
-        switch (command) {
-          case LOAD:
-            loadFile(sc);
-            break;
-          case APPLY:
-            applyFilters(sc);
-            break;
-          case GENERATE:
-            generateDesignType(sc);
-            break;
-          case SAVE:
-            saveFile(sc);
-            break;
-          default:
-            throw new IllegalArgumentException("Error: Not a valid command.");
-        }
-      }
-    } catch (NoSuchElementException e) {
-      throw new IllegalArgumentException("Error: File is empty.");
-    }
-    sc.close();
-  }
+  private final CancellationToken token;
 
   /**
-   * The loadFile method acts as a helper method to the Controller in loading an image.
-   *
-   * <p>It reads the image into a 3-D int[][][] array using the ImageUtil class and establishes a
-   * new model using ImageFactory.</p>
-   *
-   * @param input the Scanner input to be converted into a 3-D array; most likely a file path.
-   * @throws IllegalArgumentException if the file cannot be loaded.
+   * The progress attribute is told each time the script has written a file.
    */
-  private void loadFile(Scanner input) throws IllegalArgumentException {
-    try {
-      int[][][] image = ImageUtil.readImage(input.next());
-      model = ImageFactory.createImage(image);
-    } catch (NoSuchElementException | IOException e) {
-      throw new IllegalArgumentException("Error: Cannot load file.");
-    }
-  }
+  private final ProgressListener progress;
 
   /**
-   * The applyFilters method acts as a helper method to the Controller. It reads the filter type
-   * that the user would like to apply, then tells the model to apply the filter.
-   *
-   * <p>The method will throw an exception if a user tries to apply a filter without a loaded
-   * file; specifically, it will throw "Error: Image not found."</p>
+   * The constructor for ImageControllerImpl takes in two parameters, an ImageModel model
+   * implementation and a View implementation, and constructs a new ImageControllerImpl that
+   * will interact with those model and view objects.
    *
-   * @param input the user's input; this should include the filter type.
-   * @throws IllegalArgumentException if the filter type does not exist or image does not exist.
+   * @param model the ImageModelExtension implementation to be used in the current MVC design.
+   * @param input the View implementation to be used in the current MVC design.
    */
-  private void applyFilters(Scanner input) throws IllegalArgumentException {
-    try {
-      String filter = input.next();
-      if (filter.equalsIgnoreCase("MOSAIC")) {
-        model.mosaic(input.nextInt());
-      }
-      else {
-        model.applyFilter(Filters.valueOf(filter.toUpperCase()));
-      }
-    } catch (NoSuchElementException e) {
-      throw new IllegalArgumentException("Error: Missing filter type.");
-    } catch (NullPointerException e) {
-      throw new IllegalArgumentException("Error: Image not found.");
-    } catch (IllegalArgumentException e) {
-      throw new IllegalArgumentException("Error: Not a valid filter type.");
-    }
+  public ImageControllerImpl(ImageModelExtension model, Readable input) {
+    this(model, input, CancellationToken.NONE, ProgressListener.NONE);
   }
 
   /**
-   * The generateDesignType method acts as a helper method to the Controller in creating Designs.
-   *
-   * <p>It matches the type of design the user wishes to generate with an available Design pattern,
-   * and tells the model to construct that Design with the given parameters.</p>
+   * Constructs an ImageControllerImpl whose script can be stopped early and reports its
+   * progress. Cancelling the token stops the script within a row of the image being filtered,
+   * and start() then throws a CancellationException.
    *
-   * @param input the input from the user; this should contain Design type and parameters.
-   * @throws IllegalArgumentException if the Design parameters are invalid.
+   * @param model    the ImageModelExtension implementation to be used in the current MVC design.
+   * @param input    the script to run.
+   * @param token    the token to check for cancellation.
+   * @param progress the listener told the number of saves written out of the total.
    */
-  private void generateDesignType(Scanner input) throws IllegalArgumentException {
-    try {
-      model = ImageFactory.generateImage(Designs.valueOf(input.next().toUpperCase()),
-              input.nextInt(), input.nextInt());
-    } catch (NoSuchElementException e) {
-      throw new IllegalArgumentException("Error: Missing design type, height, or width "
-              + "dimension.");
-    } catch (IllegalArgumentException e) {
-      throw new IllegalArgumentException("Error: Not a valid design type.");
-    }
+  public ImageControllerImpl(ImageModelExtension model, Readable input, CancellationToken token,
+                             ProgressListener progress) {
+    this.model = model;
+    this.input = input;
+    this.token = token;
+    this.progress = progress;
   }
 
   /**
-   * The saveFile method acts as a helper method to the Controller in saving out an image file.
+   * In the start() method, the controller reads the whole script from the View and compiles it
+   * into a plan before running any of it, so an invalid command anywhere in the script is
+   * reported before any image is processed. The plan is then run, computing each saved image
+   * once and skipping images that are replaced before they are saved.
    *
-   * <p>It calls upon the ImageUtil class to write the image based on the modified image
-   * obtained from the model.</p>
-   *
-   * @param input the user's input; this should contain the desired filepath of the outfile.
-   * @throws IllegalArgumentException if the image or filepath cannot be found.
+   * @throws IllegalArgumentException if there is an error in formatting or reading the input.
    */
-  private void saveFile(Scanner input) throws IllegalArgumentException {
-    try {
-      ImageUtil.writeImage(model.getModifiedImage(),model.getModifiedImage()[0].length,
-              model.getModifiedImage().length,input.next());
-    } catch (NoSuchElementException | IOException e) {
-      throw new IllegalArgumentException("Error: File path could not be written to.");
-    } catch (NullPointerException e) {
-      throw new IllegalArgumentException("Error: Image not found.");
-    }
+  @Override
+  public void start() throws IllegalArgumentException {
+    ScriptPlan compiled = ScriptCompiler.compile(input, model);
+    compiled.setCancellationToken(token);
+    compiled.setProgressListener(progress);
+    compiled.execute();
+    plan = compiled;
   }
 
   /**
-   * The getModel() method retrieves the model that this controller acts upon.
+   * The getModel() method retrieves the model that this controller acts upon. After a script
+   * has run, the image it ends with is computed the first time this method is called.
    *
    * @return an ImageModelExtension instantiation, the model this controller acts upon.
    */
   @Override
   public ImageModelExtension getModel() {
+    if (plan != null) {
+      model = plan.getFinalModel();
+      plan = null;
+    }
     return this.model;
   }
 }
\ No newline at end of file
@@ -0,0 +1,260 @@
+package imagecontroller;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * The PipelinedExecutor class runs the saves of a ScriptPlan as a three-stage pipeline, so that
+ * while one image is being filtered the next one is being decoded and the previous one encoded.
+ *
+ * <p>The load and save stages spend most of their time waiting on the disk and run on a cached
+ * pool of I/O threads. The filter stage hands each save to a fixed pool of compute threads,
+ * usually one per core, so saves whose chains share nothing, such as two separate
+ * "load ... save" groups, are filtered at the same time. Chains that share an image wait for it
+ * to be computed once rather than computing it again. The stages hand saves to each other
+ * through small bounded queues, so the load stage can only get a few images ahead of the save
+ * stage and memory stays bounded however long the script is.</p>
+ *
+ * <p>Saves are written in script order, so two saves to the same file land in the right order.
+ * A load of a file written earlier in the script waits until that save has finished. When a
+ * save fails, the saves before it have still been written and the saves after it are not, and
+ * the error is the one a plain run of the script would report: that of the earliest failing
+ * save. The saves still being filtered at that point are cancelled rather than finished.</p>
+ */
+class PipelinedExecutor {
+
+  /**
+   * The QUEUE_CAPACITY attribute is how many images may wait between two stages.
+   */
+  private static final int QUEUE_CAPACITY = 2;
+
+  /**
+   * The END attribute is passed down the pipeline after the last save.
+   */
+  private static final Job END = new Job(null);
+
+  private final ScriptPlan plan;
+  private final int threads;
+  private final BlockingQueue<Job> loaded;
+  private final BlockingQueue<Future<Job>> filtered;
+
+  /**
+   * The stopped attribute is set once the save stage has failed, so the other stages stop early.
+   */
+  private volatile boolean stopped;
+
+  /**
+   * The Job class carries one save through the pipeline.
+   */
+  private static class Job {
+    final ScriptPlan.Save save;
+    int[][][] image;
+    RuntimeException error;
+
+    /**
+     * Constructs a Job.
+     *
+     * @param save the save to run.
+     */
+    Job(ScriptPlan.Save save) {
+      this.save = save;
+    }
+  }
+
+  /**
+   * Constructs a PipelinedExecutor.
+   *
+   * @param plan    the plan to run.
+   * @param threads the number of compute threads, at least one.
+   */
+  PipelinedExecutor(ScriptPlan plan, int threads) {
+    this.plan = plan;
+    this.threads = threads;
+    this.loaded = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    this.filtered = new ArrayBlockingQueue<>(threads + QUEUE_CAPACITY);
+  }
+
+  /**
+   * The execute method runs every save of the plan and waits until they have been written.
+   *
+   * @throws IllegalArgumentException if an image cannot be computed or a file cannot be written.
+   */
+  void execute() throws IllegalArgumentException {
+    ExecutorService io = Executors.newCachedThreadPool();
+    ExecutorService compute = Executors.newFixedThreadPool(threads);
+    try {
+      io.submit(() -> {
+        loadStage();
+        return null;
+      });
+      io.submit(() -> {
+        filterStage(compute);
+        return null;
+      });
+      Future<?> saving = io.submit(() -> {
+        saveStage();
+        return null;
+      });
+      try {
+        saving.get();
+      } catch (InterruptedException e) {
+        plan.cancel();
+        Thread.currentThread().interrupt();
+        throw new IllegalArgumentException("Error: Script was interrupted.");
+      } catch (ExecutionException e) {
+        //stop the saves still being filtered, which will not be written
+        plan.cancel();
+        Throwable cause = e.getCause();
+        while (cause instanceof ExecutionException) {
+          cause = cause.getCause();
+        }
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new IllegalStateException(cause);
+      }
+    } finally {
+      stopped = true;
+      for (ScriptPlan.Save save : plan.getSaves()) {
+        save.markWritten();
+      }
+      io.shutdownNow();
+      compute.shutdownNow();
+    }
+  }
+
+  /**
+   * The loadStage method decodes the file each save starts from, in script order, and passes the
+   * saves on to the filter stage. A failed load is passed on with its error, and nothing after
+   * it is loaded.
+   *
+   * @throws InterruptedException if the pipeline is shut down while waiting.
+   */
+  private void loadStage() throws InterruptedException {
+    for (ScriptPlan.Save save : plan.getSaves()) {
+      if (stopped) {
+        return;
+      }
+      Job job = new Job(save);
+      try {
+        prepare(save);
+      } catch (RuntimeException e) {
+        job.error = e;
+      }
+      loaded.put(job);
+      if (job.error != null) {
+        return;
+      }
+    }
+    loaded.put(END);
+  }
+
+  /**
+   * The prepare method finds the load, if any, that a save still needs and decodes it. A file
+   * whose only use is a dither is left for the filter stage, which reads just the luminance
+   * channel of a JPEG. So is a file that an earlier save has not finished writing yet,
+   * so that the load stage can carry on with the saves after it. Nothing is loaded for a save
+   * whose image is already in the result cache.
+   *
+   * @param save the save.
+   * @throws IllegalArgumentException if the file cannot be loaded.
+   */
+  private void prepare(ScriptPlan.Save save) {
+    PlanNode child = null;
+    PlanNode node = save.source;
+    while (node.pixels == null && node.parent != null) {
+      child = node;
+      node = node.parent;
+    }
+    if (node.pixels != null || node.kind != PlanNode.Kind.LOAD) {
+      return;
+    }
+    if (node.after != null && !node.after.isWritten()) {
+      return;
+    }
+    if (plan.isCached(save.source)) {
+      return;
+    }
+    boolean lumaOnly = child != null && node.uses == 1 && plan.mayReadLuma(child);
+    if (!lumaOnly) {
+      plan.preload(node);
+    }
+  }
+
+  /**
+   * The filterStage method hands each save, in script order, to the compute pool, and passes the
+   * pending results on to the save stage in the same order.
+   *
+   * @param compute the compute pool.
+   * @throws InterruptedException if the pipeline is shut down while waiting.
+   */
+  private void filterStage(ExecutorService compute) throws InterruptedException {
+    while (!stopped) {
+      Job job = loaded.take();
+      if (job == END || job.error != null) {
+        filtered.put(CompletableFuture.completedFuture(job));
+        return;
+      }
+      filtered.put(compute.submit(() -> filter(job)));
+    }
+  }
+
+  /**
+   * The filter method computes the image of one save, on a compute thread. It first waits for
+   * any earlier save that writes a file this save loads.
+   *
+   * @param job the save to compute.
+   * @return the job, holding either the image or the error.
+   * @throws InterruptedException if the pipeline is shut down while waiting.
+   */
+  private Job filter(Job job) throws InterruptedException {
+    PlanNode node = job.save.source;
+    while (node.pixels == null && node.parent != null) {
+      node = node.parent;
+    }
+    if (node.pixels == null && node.after != null) {
+      node.after.awaitWritten();
+    }
+    if (!stopped) {
+      try {
+        job.image = plan.evaluate(job.save.source);
+      } catch (RuntimeException e) {
+        job.error = e;
+      }
+    }
+    return job;
+  }
+
+  /**
+   * The saveStage method writes the image of each save, in script order.
+   *
+   * @throws InterruptedException if the pipeline is shut down while waiting.
+   * @throws ExecutionException if a compute thread failed unexpectedly.
+   * @throws IllegalArgumentException if an earlier stage failed or a file cannot be written.
+   */
+  private void saveStage() throws InterruptedException, ExecutionException {
+    int done = 0;
+    while (true) {
+      Job job = filtered.take().get();
+      if (job == END) {
+        return;
+      }
+      if (job.error != null) {
+        throw job.error;
+      }
+      ScriptPlan.write(job.save, job.image);
+      plan.release(job.save.source);
+      job.save.markWritten();
+      plan.saved(++done);
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package imagecontroller;
+
+import java.util.concurrent.CompletableFuture;
+
+import imageprocessor.Designs;
+import imageprocessor.Filters;
+
+/**
+ * The PlanNode class represents one image in a compiled script: the image a script starts with,
+ * a loaded file, a generated design, or the result of applying a filter to another node.
+ *
+ * <p>Nodes form a graph in which every filter node points at the node it filters. Two commands
+ * that would produce the same image share one node, so the image is only computed once. The
+ * node also counts how many consumers still need its pixels, so the pixels can be released as
+ * soon as the last one has read them.</p>
+ */
+class PlanNode {
+
+  /**
+   * The Kind enum lists the ways a node can produce its image.
+   */
+  enum Kind {
+    INITIAL, LOAD, GENERATE, FILTER, MOSAIC
+  }
+
+  final int id;
+  final Kind kind;
+
+  /**
+   * The position attribute is the index of the command that first produced this node, counting
+   * from zero. Errors found while running the plan are reported for the earliest command.
+   */
+  final int position;
+
+  /**
+   * The parent attribute is the node a filter is applied to, or null for a source node.
+   */
+  final PlanNode parent;
+
+  final String path;
+  final Designs design;
+  final int height;
+  final int width;
+  final Filters filter;
+  final int seeds;
+
+  /**
+   * The after attribute is the save that wrote the file a load reads, if an earlier save in the
+   * script wrote it. The load must not start before that save has finished.
+   */
+  ScriptPlan.Save after;
+
+  /**
+   * The uses attribute counts the consumers that still need this node's pixels: child nodes,
+   * saves, and the final image of the script.
+   */
+  int uses;
+
+  /**
+   * The pixels attribute stores the computed image, or null if it has not been computed yet or
+   * has been released. Threads of a pipelined run read it without holding a lock.
+   */
+  volatile int[][][] pixels;
+
+  /**
+   * The cacheKey attribute stores the key of this node's image in the result cache once it has
+   * been worked out, or null if the image cannot be cached.
+   */
+  String cacheKey;
+
+  /**
+   * The cacheKeyKnown attribute is true once cacheKey has been worked out.
+   */
+  boolean cacheKeyKnown;
+
+  /**
+   * The pending attribute is set while a thread is computing this node, so that other threads
+   * needing it wait for the result instead of computing it again.
+   */
+  CompletableFuture<int[][][]> pending;
+
+  /**
+   * Constructs a PlanNode. Use the static creators rather than calling this directly.
+   *
+   * @param id       a number unique within the plan.
+   * @param kind     the kind of node.
+   * @param position the index of the command that produced the node.
+   * @param parent   the node a filter is applied to, or null.
+   * @param path     the file a load reads, or null.
+   * @param design   the design a generate creates, or null.
+   * @param height   the height of a generated design.
+   * @param width    the width of a generated design.
+   * @param filter   the filter applied, or null.
+   * @param seeds    the number of mosaic seeds.
+   */
+  private PlanNode(int id, Kind kind, int position, PlanNode parent, String path,
+                   Designs design, int height, int width, Filters filter, int seeds) {
+    this.id = id;
+    this.kind = kind;
+    this.position = position;
+    this.parent = parent;
+    this.path = path;
+    this.design = design;
+    this.height = height;
+    this.width = width;
+    this.filter = filter;
+    this.seeds = seeds;
+  }
+
+  /**
+   * Creates a node for the image the script starts with.
+   *
+   * @param id the id of the node.
+   * @return a new node.
+   */
+  static PlanNode initial(int id) {
+    return new PlanNode(id, Kind.INITIAL, -1, null, null, null, 0, 0, null, 0);
+  }
+
+  /**
+   * Creates a node that loads a file.
+   *
+   * @param id       the id of the node.
+   * @param position the index of the load command.
+   * @param path     the path of the file.
+   * @return a new node.
+   */
+  static PlanNode load(int id, int position, String path) {
+    return new PlanNode(id, Kind.LOAD, position, null, path, null, 0, 0, null, 0);
+  }
+
+  /**
+   * Creates a node that generates a design.
+   *
+   * @param id       the id of the node.
+   * @param position the index of the generate command.
+   * @param design   the design.
+   * @param height   the height of the design.
+   * @param width    the width of the design.
+   * @return a new node.
+   */
+  static PlanNode generate(int id, int position, Designs design, int height, int width) {
+    return new PlanNode(id, Kind.GENERATE, position, null, null, design, height, width, null, 0);
+  }
+
+  /**
+   * Creates a node that applies a filter to another node.
+   *
+   * @param id       the id of the node.
+   * @param position the index of the apply command.
+   * @param parent   the node the filter is applied to.
+   * @param filter   the filter.
+   * @return a new node.
+   */
+  static PlanNode filter(int id, int position, PlanNode parent, Filters filter) {
+    return new PlanNode(id, Kind.FILTER, position, parent, null, null, 0, 0, filter, 0);
+  }
+
+  /**
+   * Creates a node that applies a mosaic to another node.
+   *
+   * @param id       the id of the node.
+   * @param position the index of the apply command.
+   * @param parent   the node the mosaic is applied to.
+   * @param seeds    the number of seeds.
+   * @return a new node.
+   */
+  static PlanNode mosaic(int id, int position, PlanNode parent, int seeds) {
+    return new PlanNode(id, Kind.MOSAIC, position, parent, null, null, 0, 0, null, seeds);
+  }
+
+  /**
+   * The key method returns a String that is equal for two nodes exactly when they are
+   * guaranteed to produce the same image. Mosaic places its seeds at random, so a mosaic node
+   * is only equal to itself.
+   *
+   * @param pathVersion the number of saves to this node's file earlier in the script; a load
+   *                    after a save reads different contents from one before it.
+   * @return the key of the node.
+   */
+  String key(int pathVersion) {
+    switch (kind) {
+      case LOAD:
+        return "load " + pathVersion + " " + path;
+      case GENERATE:
+        return "generate " + design + " " + height + " " + width;
+      case FILTER:
+        return "apply " + filter + " #" + parent.id;
+      case MOSAIC:
+        return "mosaic #" + id;
+      default:
+        return "initial";
+    }
+  }
+}
@@ -0,0 +1,395 @@
+package imagecontroller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import imageprocessor.ImageUtil;
+
+/**
+ * The ResultCache class stores the results of script operations on disk, keyed by their
+ * content, so that running the same operations on the same inputs again is a file read instead
+ * of a computation.
+ *
+ * <p>The key of a result is a SHA-256 digest of where it came from: the digest of the bytes of
+ * the loaded file, or the parameters of a generated design, followed by every filter applied
+ * since. Two results with the same key are therefore the same image, whichever script or run
+ * produced them. Mosaic places its seeds at random, so its results and everything computed from
+ * them are never cached.</p>
+ *
+ * <p>Results are stored in the uncompressed raw format, which is much faster to read back than
+ * PNG or JPEG. Each file is written under a temporary name and then moved into place, so several
+ * threads or processes may share one cache. When the cache grows past its size limit, the files
+ * used least recently are deleted until it is back under 90% of the limit; reading a file counts
+ * as using it.</p>
+ *
+ * <p>The cache is off unless the system property "imageprocessor.cache.dir" names its
+ * directory. The property "imageprocessor.cache.size" sets its limit in megabytes, 1024 by
+ * default.</p>
+ */
+class ResultCache {
+
+  /**
+   * The DIRECTORY_PROPERTY attribute names the system property that turns the cache on.
+   */
+  static final String DIRECTORY_PROPERTY = "imageprocessor.cache.dir";
+
+  /**
+   * The SIZE_PROPERTY attribute names the system property for the size limit in megabytes.
+   */
+  static final String SIZE_PROPERTY = "imageprocessor.cache.size";
+
+  private static final long DEFAULT_SIZE_MEGABYTES = 1024;
+
+  /**
+   * The MAX_REMEMBERED_DIGESTS attribute bounds how many file digests are remembered.
+   */
+  private static final int MAX_REMEMBERED_DIGESTS = 100000;
+
+  /**
+   * The CACHES attribute holds one cache per directory, shared by every script in this JVM.
+   */
+  private static final Map<Path, ResultCache> CACHES = new ConcurrentHashMap<>();
+
+  private final Path directory;
+  private final long maxBytes;
+  private final AtomicLong size;
+
+  /**
+   * The fileDigests attribute remembers the digest of each loaded file, keyed by its path, size
+   * and modification time, so a daemon or batch does not hash the same file again.
+   */
+  private final Map<String, String> fileDigests = new ConcurrentHashMap<>();
+
+  /**
+   * Constructs a ResultCache and measures the files already in it.
+   *
+   * @param directory the directory holding the cache.
+   * @param maxBytes  the size limit in bytes.
+   * @throws IOException if the directory cannot be created or read.
+   */
+  private ResultCache(Path directory, long maxBytes) throws IOException {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    Files.createDirectories(directory);
+    this.size = new AtomicLong(totalSize(listEntries()));
+  }
+
+  /**
+   * The getDefault method returns the cache configured by the system properties.
+   *
+   * @return the cache, or null if the cache is off or its directory cannot be used.
+   */
+  static ResultCache getDefault() {
+    String name = System.getProperty(DIRECTORY_PROPERTY);
+    if (name == null || name.isEmpty()) {
+      return null;
+    }
+    long megabytes;
+    try {
+      megabytes = Long.parseLong(System.getProperty(SIZE_PROPERTY,
+              String.valueOf(DEFAULT_SIZE_MEGABYTES)));
+    } catch (NumberFormatException e) {
+      megabytes = DEFAULT_SIZE_MEGABYTES;
+    }
+    long maxBytes = Math.max(1, megabytes) << 20;
+    return CACHES.computeIfAbsent(Paths.get(name).toAbsolutePath().normalize(), directory -> {
+      try {
+        return new ResultCache(directory, maxBytes);
+      } catch (IOException e) {
+        return null;
+      }
+    });
+  }
+
+  /**
+   * The get method reads a result from the cache.
+   *
+   * @param key the key of the result.
+   * @return the image, or null if it is not in the cache.
+   */
+  int[][][] get(String key) {
+    Path file = entry(key);
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try {
+      int[][][] image = ImageUtil.readImage(file.toString());
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      return image;
+    } catch (IOException | RuntimeException e) {
+      //evicted or damaged while being read; compute it again
+      return null;
+    }
+  }
+
+  /**
+   * The contains method checks whether a result is in the cache, without reading it.
+   *
+   * @param key the key of the result.
+   * @return true if the result is in the cache.
+   */
+  boolean contains(String key) {
+    return Files.isRegularFile(entry(key));
+  }
+
+  /**
+   * The put method stores a result in the cache, evicting old results if the cache is full. A
+   * result that cannot be stored is simply not cached.
+   *
+   * <p>The result is first written inside a staging directory of its own and then moved into
+   * place. The staging directory lies deeper than the files listEntries looks at, so a result
+   * still being written is never counted or evicted by another thread or process.</p>
+   *
+   * @param key   the key of the result.
+   * @param image the image.
+   */
+  void put(String key, int[][][] image) {
+    Path file = entry(key);
+    Path staging = null;
+    Path temporary = null;
+    try {
+      Files.createDirectories(file.getParent());
+      staging = Files.createTempDirectory(file.getParent(), key + ".tmp");
+      temporary = staging.resolve(file.getFileName());
+      ImageUtil.writeImage(image, image[0].length, image.length, temporary.toString());
+      long bytes = Files.size(temporary);
+      long replaced = fileSize(file);
+      Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE,
+              StandardCopyOption.REPLACE_EXISTING);
+      if (size.addAndGet(bytes - replaced) > maxBytes) {
+        evict();
+      }
+    } catch (IOException e) {
+      //the result is simply not cached
+    } finally {
+      try {
+        if (temporary != null) {
+          Files.deleteIfExists(temporary);
+        }
+        if (staging != null) {
+          Files.deleteIfExists(staging);
+        }
+      } catch (IOException ignored) {
+        //nothing else to clean up
+      }
+    }
+  }
+
+  /**
+   * The fileDigest method returns the SHA-256 digest of the bytes of a file.
+   *
+   * @param path the path of the file.
+   * @return the digest as hexadecimal digits.
+   * @throws IOException if the file cannot be read.
+   */
+  String fileDigest(String path) throws IOException {
+    BasicFileAttributes attributes =
+            Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+    String stamp = path + "|" + attributes.size() + "|" + attributes.lastModifiedTime();
+    String digest = fileDigests.get(stamp);
+    if (digest == null) {
+      digest = digest(Paths.get(path));
+      if (fileDigests.size() >= MAX_REMEMBERED_DIGESTS) {
+        fileDigests.clear();
+      }
+      fileDigests.put(stamp, digest);
+    }
+    return digest;
+  }
+
+  /**
+   * The digest method returns the SHA-256 digest of the bytes of a file, without remembering it.
+   *
+   * @param file the file.
+   * @return the digest as hexadecimal digits.
+   * @throws IOException if the file cannot be read.
+   */
+  static String digest(Path file) throws IOException {
+    MessageDigest sha = sha256();
+    try (InputStream in = Files.newInputStream(file)) {
+      byte[] buffer = new byte[65536];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        sha.update(buffer, 0, count);
+      }
+    }
+    return hex(sha.digest());
+  }
+
+  /**
+   * The digest method returns the SHA-256 digest of a String.
+   *
+   * @param text the text.
+   * @return the digest as hexadecimal digits.
+   */
+  static String digest(String text) {
+    return hex(sha256().digest(text.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * The digest method returns the SHA-256 digest of the pixels of an image.
+   *
+   * @param image the image.
+   * @return the digest as hexadecimal digits.
+   */
+  static String digest(int[][][] image) {
+    MessageDigest sha = sha256();
+    sha.update((image.length + "x" + image[0].length).getBytes(StandardCharsets.UTF_8));
+    byte[] row = new byte[image[0].length * 3];
+    for (int[][] pixels : image) {
+      for (int j = 0; j < pixels.length; j++) {
+        row[j * 3] = (byte) pixels[j][0];
+        row[j * 3 + 1] = (byte) pixels[j][1];
+        row[j * 3 + 2] = (byte) pixels[j][2];
+      }
+      sha.update(row);
+    }
+    return hex(sha.digest());
+  }
+
+  /**
+   * The evict method deletes the least recently used results until the cache is back under 90%
+   * of its limit.
+   */
+  private synchronized void evict() {
+    if (size.get() <= maxBytes) {
+      return;
+    }
+    try {
+      List<Path> files = listEntries();
+      Map<Path, FileTime> times = new HashMap<>();
+      for (Path file : files) {
+        times.put(file, lastModified(file));
+      }
+      files.sort(Comparator.comparing(times::get));
+      long total = totalSize(files);
+      long target = maxBytes / 10 * 9;
+      for (Path file : files) {
+        if (total <= target) {
+          break;
+        }
+        long bytes = fileSize(file);
+        if (Files.deleteIfExists(file)) {
+          total -= bytes;
+        }
+      }
+      size.set(total);
+    } catch (IOException e) {
+      //another process may be evicting at the same time; try again on the next put
+    }
+  }
+
+  /**
+   * The entry method returns the file a result is stored in. Files are spread over
+   * subdirectories named after the first two digits of their key.
+   *
+   * @param key the key of the result.
+   * @return the path of the file.
+   */
+  private Path entry(String key) {
+    return directory.resolve(key.substring(0, 2)).resolve(key + ".raw");
+  }
+
+  /**
+   * The listEntries method lists every result file in the cache.
+   *
+   * @return the result files.
+   * @throws IOException if the directory cannot be read.
+   */
+  private List<Path> listEntries() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (Stream<Path> paths = Files.walk(directory, 2)) {
+      paths.filter(Files::isRegularFile)
+              .filter(file -> file.getFileName().toString().endsWith(".raw"))
+              .forEach(files::add);
+    }
+    return files;
+  }
+
+  /**
+   * The totalSize method adds up the sizes of some files.
+   *
+   * @param files the files.
+   * @return their total size in bytes.
+   */
+  private static long totalSize(List<Path> files) {
+    long total = 0;
+    for (Path file : files) {
+      total += fileSize(file);
+    }
+    return total;
+  }
+
+  /**
+   * The fileSize method returns the size of a file, or zero if it has gone.
+   *
+   * @param file the file.
+   * @return the size in bytes.
+   */
+  private static long fileSize(Path file) {
+    try {
+      return Files.size(file);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * The lastModified method returns when a file was last written or read from the cache.
+   *
+   * @param file the file.
+   * @return the time, or the epoch if the file has gone.
+   */
+  private static FileTime lastModified(Path file) {
+    try {
+      return Files.getLastModifiedTime(file);
+    } catch (IOException e) {
+      return FileTime.fromMillis(0);
+    }
+  }
+
+  /**
+   * The sha256 method creates a SHA-256 message digest.
+   *
+   * @return the message digest.
+   */
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is required by every Java platform.", e);
+    }
+  }
+
+  /**
+   * The hex method writes bytes as hexadecimal digits.
+   *
+   * @param bytes the bytes.
+   * @return the hexadecimal digits.
+   */
+  private static String hex(byte[] bytes) {
+    StringBuilder digits = new StringBuilder(bytes.length * 2);
+    for (byte value : bytes) {
+      digits.append(Character.forDigit((value >> 4) & 0xf, 16))
+              .append(Character.forDigit(value & 0xf, 16));
+    }
+    return digits.toString();
+  }
+}
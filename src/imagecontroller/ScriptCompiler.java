@@ -0,0 +1,347 @@
+package imagecontroller;
+
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import imageprocessor.Designs;
+import imageprocessor.Filters;
+import imageprocessor.ImageModelExtension;
+import imageprocessor.ImageUtil;
+import imageprocessor.PngFilter;
+
+/**
+ * The ScriptCompiler class reads a whole script and compiles it into a ScriptPlan before any of
+ * it is run.
+ *
+ * <p>Every command is checked while compiling, so a typo at the end of a long script is
+ * reported before any image is processed. The checks report the same errors the commands
+ * always have. Each command becomes a PlanNode, and two commands that would produce the same
+ * image share one node: loading a file that is already loaded, generating the same design
+ * again, or applying the same chain of filters to the same image for two different saves. A
+ * save to a file counts as changing it, so a later load of that file gets a new node. Mosaic is
+ * random and is never shared.</p>
+ *
+ * <p>A branch command runs a group of commands from the current image without changing it,
+ * so one decoded source can feed several outputs.</p>
+ */
+class ScriptCompiler {
+
+  /**
+   * The PNG_FILTER_PATTERN attribute matches the filter strategy names a PNG save may be
+   * followed by.
+   */
+  private static final Pattern PNG_FILTER_PATTERN =
+          Pattern.compile("(?i)none|sub|up|average|paeth|adaptive");
+
+  private final Scanner input;
+  private final ImageModelExtension initialModel;
+  private final Map<String, PlanNode> nodes = new HashMap<>();
+  private final Map<String, Integer> pathVersions = new HashMap<>();
+  private final Map<String, ScriptPlan.Save> lastSaves = new HashMap<>();
+  private final List<ScriptPlan.Save> saves = new ArrayList<>();
+  private final Set<String> branchNames = new HashSet<>();
+  private PlanNode current;
+  private int position;
+
+  /**
+   * Constructs a ScriptCompiler.
+   *
+   * @param input        the script.
+   * @param initialModel the model the script starts with, or null.
+   */
+  private ScriptCompiler(Readable input, ImageModelExtension initialModel) {
+    this.input = new Scanner(input);
+    this.initialModel = initialModel;
+  }
+
+  /**
+   * The compile method reads a whole script and compiles it into a plan.
+   *
+   * @param input        the script.
+   * @param initialModel the model the script starts with, or null.
+   * @return the compiled plan.
+   * @throws IllegalArgumentException if any command in the script is invalid.
+   */
+  static ScriptPlan compile(Readable input, ImageModelExtension initialModel)
+          throws IllegalArgumentException {
+    ScriptCompiler compiler = new ScriptCompiler(input, initialModel);
+    try {
+      return compiler.compile();
+    } finally {
+      compiler.input.close();
+    }
+  }
+
+  /**
+   * The compile method compiles every command of the script.
+   *
+   * @return the compiled plan.
+   * @throws IllegalArgumentException if any command in the script is invalid.
+   */
+  private ScriptPlan compile() throws IllegalArgumentException {
+    if (initialModel != null) {
+      current = intern(PlanNode.initial(0));
+    }
+    try {
+      compileCommands(false);
+    } catch (NoSuchElementException e) {
+      throw new IllegalArgumentException("Error: File is empty.");
+    }
+    if (current != null) {
+      current.uses++;
+    }
+    return new ScriptPlan(initialModel, saves, current);
+  }
+
+  /**
+   * The compileCommands method compiles commands until the end of the script, or until the
+   * closing brace of the branch being compiled.
+   *
+   * @param inBranch whether the commands are the body of a branch.
+   * @throws IllegalArgumentException if a command is invalid, or a branch is not closed.
+   */
+  private void compileCommands(boolean inBranch) throws IllegalArgumentException {
+    while (input.hasNext()) {
+      String commandString = input.next();
+      if (inBranch && commandString.equals("}")) {
+        return;
+      }
+      Commands command;
+      try {
+        command = Commands.valueOf(commandString.toUpperCase());
+      }
+      catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Error: Not a valid command.");
+      }
+      switch (command) {
+        case LOAD:
+          compileLoad();
+          break;
+        case APPLY:
+          compileApply();
+          break;
+        case GENERATE:
+          compileGenerate();
+          break;
+        case SAVE:
+          compileSave();
+          break;
+        case BRANCH:
+          compileBranch();
+          break;
+        default:
+          throw new IllegalArgumentException("Error: Not a valid command.");
+      }
+      position++;
+    }
+    if (inBranch) {
+      throw new IllegalArgumentException("Error: Branch is missing a closing brace.");
+    }
+  }
+
+  /**
+   * The compileBranch method compiles a branch, such as
+   * "branch thumbnail { apply blur save thumb.png }". The commands inside the braces start from
+   * the current image, and the current image after the closing brace is the one before the
+   * branch, so several branches in a row each start from the same image. Branches share
+   * everything before them, and the executor runs them in parallel.
+   *
+   * @throws IllegalArgumentException if the name or opening brace is missing, the name is
+   *                                  already used, there is no image to branch from, or a
+   *                                  command inside the branch is invalid.
+   */
+  private void compileBranch() throws IllegalArgumentException {
+    String name;
+    try {
+      name = input.next();
+      if (!input.next().equals("{")) {
+        throw new NoSuchElementException();
+      }
+    } catch (NoSuchElementException e) {
+      throw new IllegalArgumentException("Error: Missing branch name or opening brace.");
+    }
+    if (!branchNames.add(name)) {
+      throw new IllegalArgumentException("Error: Branch name is already used.");
+    }
+    if (current == null) {
+      throw new IllegalArgumentException("Error: Image not found.");
+    }
+    PlanNode trunk = current;
+    compileCommands(true);
+    current = trunk;
+  }
+
+  /**
+   * The compileLoad method compiles a load command. The file must exist, unless an earlier save
+   * in the script creates it.
+   *
+   * @throws IllegalArgumentException if the path is missing or the file cannot be read.
+   */
+  private void compileLoad() throws IllegalArgumentException {
+    String path;
+    try {
+      path = normalize(input.next());
+    } catch (NoSuchElementException e) {
+      throw new IllegalArgumentException("Error: Cannot load file.");
+    }
+    if (!pathVersions.containsKey(path) && !isReadable(path)) {
+      throw new IllegalArgumentException("Error: Cannot load file.");
+    }
+    current = intern(PlanNode.load(nodes.size(), position, path));
+    current.after = lastSaves.get(path);
+  }
+
+  /**
+   * The compileApply method compiles an apply command.
+   *
+   * @throws IllegalArgumentException if the filter is missing or invalid, or there is no image
+   *                                  to apply it to.
+   */
+  private void compileApply() throws IllegalArgumentException {
+    PlanNode node;
+    try {
+      String filter = input.next();
+      if (filter.equalsIgnoreCase("MOSAIC")) {
+        node = PlanNode.mosaic(nodes.size(), position, current, input.nextInt());
+      } else {
+        node = PlanNode.filter(nodes.size(), position, current,
+                Filters.valueOf(filter.toUpperCase()));
+      }
+    } catch (NoSuchElementException e) {
+      throw new IllegalArgumentException("Error: Missing filter type.");
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Error: Not a valid filter type.");
+    }
+    if (current == null) {
+      throw new IllegalArgumentException("Error: Image not found.");
+    }
+    if (node.kind == PlanNode.Kind.MOSAIC && node.seeds < 1) {
+      throw new IllegalArgumentException("Error: Not a valid filter type.");
+    }
+    current = intern(node);
+  }
+
+  /**
+   * The compileGenerate method compiles a generate command.
+   *
+   * @throws IllegalArgumentException if the design or a dimension is missing or invalid.
+   */
+  private void compileGenerate() throws IllegalArgumentException {
+    try {
+      Designs design = Designs.valueOf(input.next().toUpperCase());
+      int height = input.nextInt();
+      int width = input.nextInt();
+      if (height < 1 || width < 1) {
+        throw new IllegalArgumentException("Error: Not a valid design type.");
+      }
+      current = intern(PlanNode.generate(nodes.size(), position, design, height, width));
+    } catch (NoSuchElementException e) {
+      throw new IllegalArgumentException("Error: Missing design type, height, or width "
+              + "dimension.");
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Error: Not a valid design type.");
+    }
+  }
+
+  /**
+   * The compileSave method compiles a save command. A PNG save may be followed by a compression
+   * level from 0 to 9 and a filter strategy (none, sub, up, average, paeth or adaptive), for
+   * example "save out.png 1 up" to trade file size for speed. These options are ignored for
+   * other formats.
+   *
+   * @throws IllegalArgumentException if the path is missing or there is no image to save.
+   */
+  private void compileSave() throws IllegalArgumentException {
+    String path;
+    int level = ImageUtil.DEFAULT_PNG_LEVEL;
+    PngFilter filter = ImageUtil.DEFAULT_PNG_FILTER;
+    boolean hasOptions = false;
+    try {
+      path = input.next();
+      if (input.hasNextInt()) {
+        level = input.nextInt();
+        hasOptions = true;
+        if (input.hasNext(PNG_FILTER_PATTERN)) {
+          filter = PngFilter.valueOf(input.next().toUpperCase());
+        }
+      }
+    } catch (NoSuchElementException e) {
+      throw new IllegalArgumentException("Error: File path could not be written to.");
+    }
+    if (current == null) {
+      throw new IllegalArgumentException("Error: Image not found.");
+    }
+    boolean pngOptions = hasOptions && path.toLowerCase().endsWith(".png");
+    if (pngOptions && (level < 0 || level > 9)) {
+      throw new IllegalArgumentException("Error: Compression level must be between 0 and 9.");
+    }
+    current.uses++;
+    ScriptPlan.Save save = new ScriptPlan.Save(position, current, path, pngOptions, level,
+            filter);
+    saves.add(save);
+    pathVersions.merge(normalize(path), 1, Integer::sum);
+    lastSaves.put(normalize(path), save);
+  }
+
+  /**
+   * The intern method returns the node already in the plan that produces the same image as the
+   * given node, or adds the given node to the plan if there is none.
+   *
+   * @param node the new node.
+   * @return the node to use.
+   */
+  private PlanNode intern(PlanNode node) {
+    String key = node.key(node.kind == PlanNode.Kind.LOAD
+            ? pathVersions.getOrDefault(node.path, 0) : 0);
+    PlanNode existing = nodes.get(key);
+    if (existing != null) {
+      return existing;
+    }
+    nodes.put(key, node);
+    if (node.parent != null) {
+      node.parent.uses++;
+    }
+    return node;
+  }
+
+  /**
+   * The normalize method removes redundant parts such as "./" from a path, so that two
+   * spellings of the same file share one node.
+   *
+   * @param path the path as written in the script.
+   * @return the normalized path, or the path as written if it is not valid.
+   */
+  private static String normalize(String path) {
+    try {
+      return Paths.get(path).normalize().toString();
+    } catch (InvalidPathException e) {
+      return path;
+    }
+  }
+
+  /**
+   * The isReadable method checks whether a file exists and can be read.
+   *
+   * @param path the path of the file.
+   * @return true if the file can be read.
+   */
+  private static boolean isReadable(String path) {
+    try {
+      Path file = Paths.get(path);
+      return Files.isRegularFile(file) && Files.isReadable(file);
+    } catch (InvalidPathException e) {
+      return false;
+    }
+  }
+}
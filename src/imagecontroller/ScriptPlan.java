@@ -0,0 +1,527 @@
+package imagecontroller;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+
+import imageprocessor.CancellationToken;
+import imageprocessor.Filters;
+import imageprocessor.ImageFactory;
+import imageprocessor.ImageModelExtension;
+import imageprocessor.ImageUtil;
+import imageprocessor.PngFilter;
+import imageprocessor.ProgressListener;
+
+/**
+ * The ScriptPlan class is a compiled script: a graph of PlanNodes, the saves that write them,
+ * and the node holding the image the script ends with.
+ *
+ * <p>The plan is run by computing the image of each save, in script order. A node is only
+ * computed when a save or the final image needs it, so an image that is loaded or generated and
+ * then replaced before any save is never read or drawn. A node shared by several saves is
+ * computed once, and its pixels are released as soon as nothing else needs them.</p>
+ *
+ * <p>The final image is also computed only when it is asked for, since a script run from the
+ * command line never reads it back.</p>
+ *
+ * <p>Every filter of the plan checks the plan's cancellation token once per row, so a plan can
+ * be stopped part of the way through an image. The plan reports its progress as the number of
+ * saves written.</p>
+ */
+class ScriptPlan {
+
+  /**
+   * The Save class represents one save command.
+   */
+  static class Save {
+    final int position;
+    final PlanNode source;
+    final String path;
+
+    /**
+     * The pngOptions attribute is true if the save gave a compression level for a PNG file.
+     */
+    final boolean pngOptions;
+    final int level;
+    final PngFilter filter;
+
+    /**
+     * The written attribute is counted down once the file has been written, or once the run has
+     * stopped without writing it.
+     */
+    private final CountDownLatch written = new CountDownLatch(1);
+
+    /**
+     * Constructs a Save.
+     *
+     * @param position   the index of the save command.
+     * @param source     the node whose image is saved.
+     * @param path       the path of the file to write.
+     * @param pngOptions whether a level and filter strategy were given for a PNG file.
+     * @param level      the PNG compression level.
+     * @param filter     the PNG filter strategy.
+     */
+    Save(int position, PlanNode source, String path, boolean pngOptions, int level,
+         PngFilter filter) {
+      this.position = position;
+      this.source = source;
+      this.path = path;
+      this.pngOptions = pngOptions;
+      this.level = level;
+      this.filter = filter;
+    }
+
+    /**
+     * The markWritten method records that the file has been written, or will not be.
+     */
+    void markWritten() {
+      written.countDown();
+    }
+
+    /**
+     * The awaitWritten method waits until markWritten has been called.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    void awaitWritten() throws InterruptedException {
+      written.await();
+    }
+
+    /**
+     * The isWritten method checks whether markWritten has been called.
+     *
+     * @return true if the file has been written, or will not be.
+     */
+    boolean isWritten() {
+      return written.getCount() == 0;
+    }
+  }
+
+  private final ImageModelExtension initialModel;
+  private final List<Save> saves;
+  private final PlanNode finalNode;
+
+  /**
+   * The cache attribute is the result cache configured for this JVM, or null if it is off.
+   */
+  private final ResultCache cache = ResultCache.getDefault();
+
+  /**
+   * The token attribute is checked by every filter of the plan. It is cancelled when the caller
+   * cancels, or when one save of a pipelined run fails and the others should stop.
+   */
+  private CancellationToken token = new CancellationToken();
+
+  /**
+   * The progress attribute is told each time a save has been written.
+   */
+  private ProgressListener progress = ProgressListener.NONE;
+
+  /**
+   * Constructs a ScriptPlan. The use counts of the nodes must already include every child node,
+   * every save, and the final node.
+   *
+   * @param initialModel the model the script starts with, or null.
+   * @param saves        the saves, in script order.
+   * @param finalNode    the node of the image the script ends with, or null if it has none.
+   */
+  ScriptPlan(ImageModelExtension initialModel, List<Save> saves, PlanNode finalNode) {
+    this.initialModel = initialModel;
+    this.saves = Collections.unmodifiableList(saves);
+    this.finalNode = finalNode;
+  }
+
+  /**
+   * The setCancellationToken method makes the plan stop when a caller's token is cancelled. It
+   * must be called before execute.
+   *
+   * @param caller the caller's token.
+   */
+  void setCancellationToken(CancellationToken caller) {
+    token = new CancellationToken(caller);
+  }
+
+  /**
+   * The setProgressListener method sets the listener told each time a save has been written.
+   * It must be called before execute.
+   *
+   * @param listener the listener.
+   */
+  void setProgressListener(ProgressListener listener) {
+    progress = listener;
+  }
+
+  /**
+   * The cancel method stops every filter of the plan that is still running, without cancelling
+   * the caller's token.
+   */
+  void cancel() {
+    token.cancel();
+  }
+
+  /**
+   * The saved method reports that another save has been written.
+   *
+   * @param done the number of saves written so far.
+   */
+  void saved(int done) {
+    progress.progress(done, saves.size());
+  }
+
+  /**
+   * Returns the saves of the plan.
+   *
+   * @return the saves, in script order.
+   */
+  List<Save> getSaves() {
+    return saves;
+  }
+
+  /**
+   * The execute method runs every save of the plan, in script order. A plan with more than one
+   * save is run by a PipelinedExecutor, so loading, filtering and writing overlap.
+   *
+   * @throws IllegalArgumentException if an image cannot be computed or a file cannot be written.
+   */
+  void execute() throws IllegalArgumentException {
+    execute(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * The execute method runs every save of the plan like execute(), filtering at most a given
+   * number of saves at the same time. A caller that already runs several plans at once, one per
+   * core, passes one so that the plans do not start a thread per core each.
+   *
+   * @param threads the number of saves that may be filtered at the same time.
+   * @throws IllegalArgumentException if an image cannot be computed or a file cannot be written.
+   */
+  void execute(int threads) throws IllegalArgumentException {
+    if (saves.size() > 1) {
+      new PipelinedExecutor(this, threads).execute();
+      return;
+    }
+    int done = 0;
+    for (Save save : saves) {
+      write(save, evaluate(save.source));
+      release(save.source);
+      saved(++done);
+    }
+  }
+
+  /**
+   * The getFinalModel method computes the image the script ends with. It may only be called
+   * once, after execute.
+   *
+   * <p>If the script did not change the model it started with, that model is returned as it
+   * is. A file loaded at the end of the script and not otherwise used is loaded through
+   * ImageFactory, so a JPEG is still decoded lazily.</p>
+   *
+   * @return the final model, or null if the script produced no image.
+   * @throws IllegalArgumentException if the image cannot be computed.
+   */
+  ImageModelExtension getFinalModel() throws IllegalArgumentException {
+    if (finalNode == null || finalNode.kind == PlanNode.Kind.INITIAL) {
+      return initialModel;
+    }
+    ImageModelExtension model = source(finalNode);
+    if (model == null) {
+      model = ImageFactory.createImage(evaluate(finalNode));
+    }
+    release(finalNode);
+    return model;
+  }
+
+  /**
+   * The evaluate method returns the pixels of a node, computing it and the nodes it depends on
+   * if that has not happened yet. Several threads may evaluate nodes of the same plan at once;
+   * a node that another thread is already computing is waited for rather than computed again.
+   *
+   * @param node the node.
+   * @return the pixels of the node.
+   * @throws IllegalArgumentException if the image cannot be computed.
+   */
+  int[][][] evaluate(PlanNode node) throws IllegalArgumentException {
+    CompletableFuture<int[][][]> result;
+    synchronized (this) {
+      if (node.pixels != null) {
+        return node.pixels;
+      }
+      if (node.pending != null) {
+        result = node.pending;
+      } else {
+        node.pending = new CompletableFuture<>();
+        result = null;
+      }
+    }
+    if (result != null) {
+      try {
+        return result.join();
+      } catch (CompletionException e) {
+        throw (RuntimeException) e.getCause();
+      }
+    }
+    int[][][] image;
+    try {
+      image = compute(node);
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        node.pending.completeExceptionally(e);
+        node.pending = null;
+      }
+      throw e;
+    }
+    synchronized (this) {
+      node.pixels = image;
+      node.pending.complete(image);
+      node.pending = null;
+    }
+    return image;
+  }
+
+  /**
+   * The compute method computes the pixels of a node, evaluating the node it depends on first.
+   *
+   * @param node the node.
+   * @return the pixels of the node.
+   * @throws IllegalArgumentException if the image cannot be computed.
+   */
+  private int[][][] compute(PlanNode node) throws IllegalArgumentException {
+    token.throwIfCancelled();
+    switch (node.kind) {
+      case INITIAL:
+        return initialModel.getModifiedImage();
+      case LOAD:
+        return load(node).getModifiedImage();
+      case GENERATE:
+        int[][][] design = cached(node);
+        if (design == null) {
+          try {
+            design = ImageFactory.generateImage(node.design, node.height, node.width)
+                    .getModifiedImage();
+          } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Error: Not a valid design type.");
+          }
+          store(node, design);
+        }
+        return design;
+      default:
+        int[][][] result = cached(node);
+        if (result != null) {
+          release(node.parent);
+          return result;
+        }
+        ImageModelExtension model =
+                mayReadLuma(node) || !isDither(node) ? source(node.parent) : null;
+        if (model == null) {
+          model = ImageFactory.createImage(evaluate(node.parent));
+        }
+        try {
+          if (node.kind == PlanNode.Kind.MOSAIC) {
+            model.mosaic(node.seeds, token, ProgressListener.NONE);
+          } else {
+            model.applyFilter(node.filter, token, ProgressListener.NONE);
+          }
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException("Error: Not a valid filter type.");
+        }
+        int[][][] image = model.getModifiedImage();
+        release(node.parent);
+        store(node, image);
+        return image;
+    }
+  }
+
+  /**
+   * The isCached method checks whether the image of a node is in the result cache, so that the
+   * files it depends on need not be loaded.
+   *
+   * @param node the node.
+   * @return true if the cache is on and holds the node's image.
+   */
+  boolean isCached(PlanNode node) {
+    String key = cacheKey(node);
+    return key != null && cache.contains(key);
+  }
+
+  /**
+   * The cached method reads the image of a node from the result cache.
+   *
+   * @param node the node.
+   * @return the image, or null if the cache is off or does not hold it.
+   */
+  private int[][][] cached(PlanNode node) {
+    String key = cacheKey(node);
+    return key == null ? null : cache.get(key);
+  }
+
+  /**
+   * The store method writes the image of a node to the result cache, if the cache is on and the
+   * image can be cached.
+   *
+   * @param node  the node.
+   * @param image the image.
+   */
+  private void store(PlanNode node, int[][][] image) {
+    String key = cacheKey(node);
+    if (key != null) {
+      cache.put(key, image);
+    }
+  }
+
+  /**
+   * The cacheKey method works out the key of a node's image in the result cache: a digest of
+   * the loaded file's bytes, the starting image's pixels or the design's parameters, followed by
+   * each filter applied since. A mosaic, and anything computed from one, has no key.
+   *
+   * @param node the node.
+   * @return the key, or null if the cache is off or the image cannot be cached.
+   */
+  private String cacheKey(PlanNode node) {
+    if (cache == null) {
+      return null;
+    }
+    synchronized (node) {
+      if (node.cacheKeyKnown) {
+        return node.cacheKey;
+      }
+    }
+    String key;
+    switch (node.kind) {
+      case INITIAL:
+        key = ResultCache.digest(initialModel.getModifiedImage());
+        break;
+      case LOAD:
+        try {
+          key = ResultCache.digest("load " + cache.fileDigest(node.path));
+        } catch (IOException e) {
+          key = null;
+        }
+        break;
+      case GENERATE:
+        key = ResultCache.digest("generate " + node.design + " " + node.height + " "
+                + node.width);
+        break;
+      case FILTER:
+        String parentKey = cacheKey(node.parent);
+        key = parentKey == null ? null : ResultCache.digest(parentKey + " apply " + node.filter);
+        break;
+      default:
+        key = null;
+    }
+    synchronized (node) {
+      node.cacheKey = key;
+      node.cacheKeyKnown = true;
+    }
+    return key;
+  }
+
+  /**
+   * The mayReadLuma method checks whether a node may be computed from only the luminance of the
+   * JPEG file it is applied to. The luminance gives a dither that may differ by a few dots from
+   * one computed from the decoded colours, and which of the two is used depends on whether the
+   * load is shared. The result cache needs a key to stand for one image, so while the cache is
+   * on every dither is computed from the decoded colours.
+   *
+   * @param node the node.
+   * @return true if the node may be computed from the luminance alone.
+   */
+  boolean mayReadLuma(PlanNode node) {
+    return cache == null && isDither(node);
+  }
+
+  /**
+   * The isDither method checks whether a node applies the only filter that a JPEG may compute
+   * from its luminance alone.
+   *
+   * @param node the node.
+   * @return true if the node applies a dither.
+   */
+  private static boolean isDither(PlanNode node) {
+    return node.kind == PlanNode.Kind.FILTER && node.filter == Filters.DITHER;
+  }
+
+  /**
+   * The source method returns a fresh model for a load node that has not been computed and
+   * whose only consumer is about to use it. Returning the model from ImageFactory instead of
+   * its pixels keeps the lazy JPEG path, where a dither only reads the luminance channel.
+   *
+   * @param node the node.
+   * @return a fresh model, or null if the node must be computed as usual.
+   * @throws IllegalArgumentException if the file cannot be loaded.
+   */
+  private ImageModelExtension source(PlanNode node) throws IllegalArgumentException {
+    boolean lazy;
+    synchronized (this) {
+      lazy = node.kind == PlanNode.Kind.LOAD && node.pixels == null && node.pending == null
+              && node.uses == 1;
+    }
+    return lazy ? load(node) : null;
+  }
+
+  /**
+   * The preload method loads the file of a load node ahead of the filters that need it. The
+   * pixels are kept only if the node is still needed once the file has been read.
+   *
+   * @param node the load node.
+   * @throws IllegalArgumentException if the file cannot be loaded.
+   */
+  void preload(PlanNode node) throws IllegalArgumentException {
+    int[][][] image = load(node).getModifiedImage();
+    synchronized (this) {
+      if (node.pixels == null && node.pending == null && node.uses > 0) {
+        node.pixels = image;
+      }
+    }
+  }
+
+  /**
+   * The load method loads the file of a load node.
+   *
+   * @param node the load node.
+   * @return the loaded model.
+   * @throws IllegalArgumentException if the file cannot be loaded.
+   */
+  private ImageModelExtension load(PlanNode node) throws IllegalArgumentException {
+    try {
+      return ImageFactory.loadImage(node.path);
+    } catch (IOException | IllegalArgumentException e) {
+      throw new IllegalArgumentException("Error: Cannot load file.");
+    }
+  }
+
+  /**
+   * The release method records that one consumer of a node is done with it, and drops the
+   * node's pixels once no consumer is left.
+   *
+   * @param node the node.
+   */
+  synchronized void release(PlanNode node) {
+    node.uses--;
+    if (node.uses <= 0) {
+      node.pixels = null;
+    }
+  }
+
+  /**
+   * The write method writes the image of a save to its file.
+   *
+   * @param save  the save.
+   * @param image the image to write.
+   * @throws IllegalArgumentException if the file cannot be written.
+   */
+  static void write(Save save, int[][][] image) throws IllegalArgumentException {
+    try {
+      if (save.pngOptions) {
+        ImageUtil.writePng(image, image[0].length, image.length, save.path, save.level,
+                save.filter);
+      } else {
+        ImageUtil.writeImage(image, image[0].length, image.length, save.path);
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Error: File path could not be written to.");
+    }
+  }
+}
@@ -0,0 +1,454 @@
+package imagecontroller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import imageprocessor.CancellationToken;
+import imageprocessor.ProgressListener;
+
+/**
+ * The ScriptServer class keeps one JVM running and runs scripts sent to it over a local socket,
+ * so a small job costs only its processing time instead of a JVM start, class loading and a
+ * cold JIT every time.
+ *
+ * <p>The server listens either on a TCP port of the loopback interface or on a Unix-domain
+ * socket. An address made only of digits is a port; anything else is the path of the socket
+ * file. Each connection carries one job: the client sends the text of a script and closes its
+ * side for writing, the server runs the script through an ImageControllerImpl and answers with
+ * one line, either "OK" and the time taken, or "ERROR" and the error message. Jobs from several
+ * connections run at the same time, one per core.</p>
+ *
+ * <p>The scripts run in the server's working directory, so files in a submitted script should
+ * be given by their full path, as they should be for any script.</p>
+ *
+ * <p>A script can read and write any file the server's user can, so only that user may send
+ * one. A Unix-domain socket file is only readable and writable by its owner. A TCP port can be
+ * reached by every user of the machine, so the server writes a random token to a file that only
+ * its owner can read, ".imageprocessor-daemon-" and the port in the home directory, and every
+ * request must start with a line "TOKEN" and that token. submit does this by itself. A request
+ * must be sent within READ_TIMEOUT seconds and be no larger than MAX_REQUEST_BYTES, so a client
+ * that never finishes its request cannot hold on to a worker.</p>
+ *
+ * <p>A script that runs longer than the limit set by the system property
+ * "imageprocessor.daemon.timeout", in seconds, is cancelled and answered with an error, so a
+ * runaway job such as a mistyped "mosaic 1000000" does not hold a core for good. There is no
+ * limit by default. Scripts still running when the server stops are cancelled too.</p>
+ */
+public class ScriptServer {
+
+  /**
+   * The DEFAULT_ADDRESS attribute is the loopback TCP port used when no address is given.
+   */
+  public static final String DEFAULT_ADDRESS = "7465";
+
+  /**
+   * The TIMEOUT_PROPERTY attribute names the system property for the longest time, in seconds,
+   * a script may run.
+   */
+  static final String TIMEOUT_PROPERTY = "imageprocessor.daemon.timeout";
+
+  /**
+   * The MAX_REQUEST_BYTES attribute is the largest request, in bytes, a client may send.
+   */
+  static final int MAX_REQUEST_BYTES = 1 << 20;
+
+  /**
+   * The READ_TIMEOUT attribute is how long, in seconds, a client has to send its whole request.
+   */
+  static final long READ_TIMEOUT = 10;
+
+  /**
+   * The TOKEN_PREFIX attribute starts the line that carries the token of a TCP request.
+   */
+  private static final String TOKEN_PREFIX = "TOKEN ";
+
+  private final String address;
+
+  /**
+   * The readTimeout attribute is how long, in milliseconds, a client has to send its whole
+   * request.
+   */
+  private final long readTimeout;
+
+  /**
+   * The running attribute holds the cancellation token of every script that is running.
+   */
+  private final Set<CancellationToken> running = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The timer attribute cancels scripts that run past the time limit.
+   */
+  private final ScheduledExecutorService timer =
+          Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "Script timeout");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /**
+   * Constructs a ScriptServer.
+   *
+   * @param address a port number, or the path of a Unix-domain socket file.
+   * @throws IllegalArgumentException if the address is null.
+   */
+  public ScriptServer(String address) {
+    this(address, TimeUnit.SECONDS.toMillis(READ_TIMEOUT));
+  }
+
+  /**
+   * Constructs a ScriptServer that gives clients a different time to send their request.
+   *
+   * @param address     a port number, or the path of a Unix-domain socket file.
+   * @param readTimeout how long, in milliseconds, a client has to send its whole request.
+   * @throws IllegalArgumentException if the address is null or the timeout is not positive.
+   */
+  ScriptServer(String address, long readTimeout) {
+    if (address == null) {
+      throw new IllegalArgumentException("Error: Cannot be null.");
+    }
+    if (readTimeout < 1) {
+      throw new IllegalArgumentException("Error: The timeout must be positive.");
+    }
+    this.address = address;
+    this.readTimeout = readTimeout;
+  }
+
+  /**
+   * The serve method listens on the address and runs every script sent to it. It does not
+   * return until the thread is interrupted or the socket fails.
+   *
+   * @throws IOException if the address cannot be bound or the token file cannot be written.
+   */
+  public void serve() throws IOException {
+    ExecutorService workers =
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    Path socketFile = isPort(address) ? null : Paths.get(address);
+    Path tokenFile = null;
+    try (ServerSocketChannel server = open(socketFile)) {
+      String token;
+      if (socketFile == null) {
+        server.bind(socketAddress(address));
+        //written only once the port is ours, so another server's token is never replaced
+        tokenFile = tokenFile(address);
+        token = writeToken(tokenFile);
+      } else {
+        bindPrivately(server, socketFile);
+        token = null;
+      }
+      System.out.print("Listening on " + address + ".\n");
+      while (!Thread.currentThread().isInterrupted()) {
+        SocketChannel client = server.accept();
+        workers.submit(() -> handle(client, token));
+      }
+    } finally {
+      for (CancellationToken token : running) {
+        token.cancel();
+      }
+      workers.shutdownNow();
+      timer.shutdownNow();
+      if (socketFile != null) {
+        Files.deleteIfExists(socketFile);
+      }
+      if (tokenFile != null) {
+        Files.deleteIfExists(tokenFile);
+      }
+    }
+  }
+
+  /**
+   * The submit method sends a script to a running server and waits for its answer.
+   *
+   * @param address a port number, or the path of a Unix-domain socket file.
+   * @param script  the text of the script.
+   * @return the server's answer, without the trailing line break.
+   * @throws IOException if the server cannot be reached, or no server started by this user
+   *                     is listening on the port.
+   */
+  public static String submit(String address, String script) throws IOException {
+    SocketAddress target = socketAddress(address);
+    String text = script;
+    if (isPort(address)) {
+      Path tokenFile = tokenFile(address);
+      if (!Files.exists(tokenFile)) {
+        throw new IOException("Error: No daemon started by this user is listening on port "
+                + address + ".");
+      }
+      text = TOKEN_PREFIX + Files.readString(tokenFile).trim() + "\n" + script;
+    }
+    try (SocketChannel channel = isPort(address) ? SocketChannel.open()
+            : SocketChannel.open(StandardProtocolFamily.UNIX)) {
+      channel.connect(target);
+      ByteBuffer request = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+      while (request.hasRemaining()) {
+        channel.write(request);
+      }
+      channel.shutdownOutput();
+      return readAll(Channels.newInputStream(channel)).trim();
+    }
+  }
+
+  /**
+   * The handle method runs the script sent over one connection, writes the answer back and
+   * closes the connection. The connection is closed early if the client has not sent its whole
+   * request within the read timeout.
+   *
+   * @param channel the connection.
+   * @param token   the token a TCP request must start with, or null for a Unix-domain socket.
+   */
+  private void handle(SocketChannel channel, String token) {
+    try {
+      Future<?> readDeadline = timer.schedule(() -> closeQuietly(channel), readTimeout,
+              TimeUnit.MILLISECONDS);
+      InputStream in = Channels.newInputStream(channel);
+      String request;
+      try {
+        request = readAll(in);
+      } catch (IllegalArgumentException e) {
+        //closing with the rest of the request unread would reset the connection before the
+        //client reads the answer, so the rest is thrown away, still within the deadline
+        write(channel, "ERROR " + e.getMessage() + "\n");
+        channel.shutdownOutput();
+        in.transferTo(OutputStream.nullOutputStream());
+        return;
+      } finally {
+        readDeadline.cancel(false);
+      }
+      String script = request;
+      if (token != null) {
+        int newline = request.indexOf('\n');
+        String first = newline < 0 ? request : request.substring(0, newline);
+        if (!MessageDigest.isEqual((TOKEN_PREFIX + token).getBytes(StandardCharsets.UTF_8),
+                first.trim().getBytes(StandardCharsets.UTF_8))) {
+          write(channel, "ERROR Error: The request did not carry this daemon's token.\n");
+          return;
+        }
+        script = request.substring(newline + 1);
+      }
+      write(channel, run(script));
+    } catch (IOException e) {
+      //the client went away or was too slow; there is no one left to tell
+    } finally {
+      closeQuietly(channel);
+    }
+  }
+
+  /**
+   * The closeQuietly method closes a connection. A failure to close it is ignored, as a blocked
+   * read on it fails either way and there is no one left to tell.
+   *
+   * @param channel the connection.
+   */
+  private static void closeQuietly(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      //nothing more can be done with the connection
+    }
+  }
+
+  /**
+   * The run method runs one script, cancelling it if it runs past the time limit.
+   *
+   * @param script the text of the script.
+   * @return the answer to send back, ending with a line break.
+   */
+  private String run(String script) {
+    String answer;
+    long start = System.nanoTime();
+    CancellationToken token = new CancellationToken();
+    running.add(token);
+    long timeout = Long.getLong(TIMEOUT_PROPERTY, 0);
+    Future<?> deadline = timeout > 0
+            ? timer.schedule(token::cancel, timeout, TimeUnit.SECONDS) : null;
+    try {
+      new ImageControllerImpl(null, new StringReader(script), token, ProgressListener.NONE)
+              .start();
+      answer = "OK " + (System.nanoTime() - start) / 1000000 + " ms\n";
+    } catch (CancellationException e) {
+      answer = "ERROR Error: Script was cancelled after " + (System.nanoTime() - start) / 1000000
+              + " ms.\n";
+    } catch (RuntimeException e) {
+      answer = "ERROR " + (e.getMessage() != null ? e.getMessage() : e.toString()) + "\n";
+    } catch (OutOfMemoryError e) {
+      answer = "ERROR Error: Out of memory.\n";
+    } finally {
+      running.remove(token);
+      if (deadline != null) {
+        deadline.cancel(false);
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * The write method sends an answer to the client.
+   *
+   * @param channel the connection.
+   * @param answer  the answer.
+   * @throws IOException if the client went away.
+   */
+  private static void write(SocketChannel channel, String answer) throws IOException {
+    ByteBuffer response = ByteBuffer.wrap(answer.getBytes(StandardCharsets.UTF_8));
+    while (response.hasRemaining()) {
+      channel.write(response);
+    }
+  }
+
+  /**
+   * The tokenFile method returns the file holding the token of the server on a port, in the
+   * home directory of the user.
+   *
+   * @param port the port.
+   * @return the path of the token file.
+   */
+  private static Path tokenFile(String port) {
+    return Paths.get(System.getProperty("user.home"), ".imageprocessor-daemon-" + port);
+  }
+
+  /**
+   * The writeToken method makes a new random token and writes it to a file only the user can
+   * read, replacing any token left by a server that did not shut down cleanly.
+   *
+   * @param tokenFile the path of the token file.
+   * @return the token.
+   * @throws IOException if the file cannot be written.
+   */
+  private static String writeToken(Path tokenFile) throws IOException {
+    byte[] random = new byte[32];
+    new SecureRandom().nextBytes(random);
+    String token = HexFormat.of().formatHex(random);
+    Files.deleteIfExists(tokenFile);
+    try {
+      Files.createFile(tokenFile,
+              PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    } catch (UnsupportedOperationException e) {
+      //not a POSIX filesystem; the home directory is private to the user already
+      Files.createFile(tokenFile);
+    }
+    Files.writeString(tokenFile, token);
+    return token;
+  }
+
+  /**
+   * The bindPrivately method binds a server to a Unix-domain socket file that only its owner
+   * can connect to. The socket is bound inside a new directory only the owner can enter, made
+   * readable and writable only by the owner, and then moved into place, so no other user can
+   * connect to it in between.
+   *
+   * @param server     the unbound server channel.
+   * @param socketFile the path of the socket file.
+   * @throws IOException if the socket cannot be bound or moved into place.
+   */
+  private static void bindPrivately(ServerSocketChannel server, Path socketFile)
+          throws IOException {
+    Path staging;
+    try {
+      staging = Files.createTempDirectory(socketFile.toAbsolutePath().getParent(), ".daemon",
+              PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+    } catch (UnsupportedOperationException e) {
+      //not a POSIX filesystem, where the socket file takes the permissions of its directory
+      server.bind(UnixDomainSocketAddress.of(socketFile));
+      return;
+    }
+    Path staged = staging.resolve("socket");
+    try {
+      server.bind(UnixDomainSocketAddress.of(staged));
+      Files.setPosixFilePermissions(staged, PosixFilePermissions.fromString("rw-------"));
+      Files.move(staged, socketFile, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(staged);
+      Files.delete(staging);
+    }
+  }
+
+  /**
+   * The open method opens a server channel of the right protocol family. A stale socket file
+   * left by a server that did not shut down cleanly is removed first.
+   *
+   * @param socketFile the path of the Unix-domain socket file, or null for TCP.
+   * @return the unbound server channel.
+   * @throws IOException if the channel cannot be opened.
+   */
+  private static ServerSocketChannel open(Path socketFile) throws IOException {
+    if (socketFile == null) {
+      return ServerSocketChannel.open();
+    }
+    Files.deleteIfExists(socketFile);
+    return ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+  }
+
+  /**
+   * The socketAddress method converts an address to a socket address. Ports are always on the
+   * loopback interface, so the server cannot be reached from other machines.
+   *
+   * @param address a port number, or the path of a Unix-domain socket file.
+   * @return the socket address.
+   */
+  private static SocketAddress socketAddress(String address) {
+    if (isPort(address)) {
+      return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+    }
+    return UnixDomainSocketAddress.of(address);
+  }
+
+  /**
+   * The isPort method checks whether an address is a port number.
+   *
+   * @param address the address.
+   * @return true if the address is made only of digits.
+   */
+  private static boolean isPort(String address) {
+    return address.matches("\\d{1,5}");
+  }
+
+  /**
+   * The readAll method reads a stream to its end as UTF-8 text.
+   *
+   * @param in the stream.
+   * @return the text.
+   * @throws IOException if the stream cannot be read.
+   * @throws IllegalArgumentException if the stream holds more than MAX_REQUEST_BYTES.
+   */
+  private static String readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int count;
+    while ((count = in.read(buffer)) != -1) {
+      if (bytes.size() + count > MAX_REQUEST_BYTES) {
+        throw new IllegalArgumentException("Error: The request is larger than "
+                + (MAX_REQUEST_BYTES >> 10) + " KB.");
+      }
+      bytes.write(buffer, 0, count);
+    }
+    return bytes.toString(StandardCharsets.UTF_8);
+  }
+}
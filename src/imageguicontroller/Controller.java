@@ -4,16 +4,34 @@ import imagecontroller.ImageControllerExtension;
 import imagecontroller.ImageControllerImpl;
 import imageguiview.IView;
 import imageprocessor.Designs;
+import java.awt.Rectangle;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.EmptyStackException;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Stack;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import imageprocessor.CancellationToken;
 import imageprocessor.Filters;
 import imageprocessor.ImageFactory;
 import imageprocessor.ImageModelExtension;
 import imageprocessor.ImageUtil;
+import imageprocessor.ProgressListener;
 
 
 /**
@@ -25,6 +43,25 @@ import imageprocessor.ImageUtil;
  *  cut down direct interaction with the Model. This enables the Controller class to act with all
  *  the methods provided in the Features interface, including loading or saving files, modifying
  *  files, and reading text instructions.</p>
+ *
+ *  <p>Loading, saving, filtering, generating and running text instructions can take a long time
+ *  on a large image, so they never run on the Swing event dispatch thread. Each click is queued
+ *  to a single background thread, which runs the requests one after another in the order they
+ *  were made, while the view shows a progress indicator with a cancel button. Filters report
+ *  their progress row by row and stop within a row when cancelled. Every call back into the
+ *  view is made on the event dispatch thread.</p>
+ *
+ *  <p>In preview mode, a filter is first applied to a copy of the image shrunk to about the size
+ *  of the screen, on a thread of its own, and the result is displayed straight away. The filter
+ *  is only applied to the full image once the user has stopped choosing filters for a moment, or
+ *  does something else with the image, such as saving it; the preview is then replaced by the
+ *  real image when it is ready.</p>
+ *
+ *  <p>Whenever the background thread has nothing left to do, the small copy of the image is
+ *  made with each of the filters in the Apply Filter menu, on a low-priority thread. Hovering
+ *  over a filter in the menu then shows its preview straight away, and choosing it keeps the
+ *  preview on show until the full image is ready. This speculative work stops as soon as the
+ *  user asks for anything else.</p>
  */
 public class Controller {
 
@@ -55,13 +92,43 @@ public class Controller {
    * <p>FeatureImpl contains a constructor with one attribute, the View, and methods for
    * processing images and commands. FeatureImpl is held within the Controller class, so it has
    * access to Controller's static attributes model, undo, and redo.</p>
+   *
+   * <p>The model and the undo and redo history are only changed on the background thread. A
+   * request works on a new model built from the current image and replaces the current model
+   * only once it has finished, so a cancelled request leaves the image as it was. While several
+   * requests are queued, only the image after the last one is displayed.</p>
    */
   private static class FeatureImpl implements Features {
 
+    /**
+     * The PREVIEW_SIZE attribute is the longest side, in pixels, of the copy of the image that
+     * previews are made from.
+     */
+    private static final int PREVIEW_SIZE = 1024;
+
+    /**
+     * The IDLE_DELAY attribute is how long, in milliseconds, the user must stop choosing filters
+     * before the previewed filters are applied to the full image.
+     */
+    private static final int IDLE_DELAY = 1500;
+
+    /**
+     * The REPEATABLE_SEEDS attribute is the most seeds a mosaic may have for the history to make
+     * it again by repeating it, rather than keep a copy of its result. Each seed adds to the
+     * work for every pixel.
+     */
+    private static final int REPEATABLE_SEEDS = 64;
+
+    /**
+     * The SPECULATION_DELAY attribute is how long, in milliseconds, the background thread must
+     * have had nothing to do before filter previews are made speculatively.
+     */
+    private static final int SPECULATION_DELAY = 250;
+
     /**
      * The first attribute, model, is an ImageModelExtension object representing the model.
      */
-    private ImageModelExtension model;
+    private volatile ImageModelExtension model;
 
     /**
      * The attribute view is an IView implementation of a view.
@@ -69,17 +136,148 @@ public class Controller {
     private IView view;
 
     /**
-     * The undo attribute is a stack that holds reverted image representations which can be popped
-     * off the stack to restore a prior version of a image.
+     * The history attribute holds the undo and redo history as a log of the operations applied
+     * to the image, with a full copy of the image only every few steps, so that undo and redo
+     * can restore any prior version of the image within a memory budget.
+     */
+    private final HistoryManager history;
+
+    /**
+     * The worker attribute is the background thread that runs every request in turn.
+     */
+    private final ExecutorService worker;
+
+    /**
+     * The generation attribute counts the cancel requests. A request remembers the generation it
+     * was queued in, and is dropped if a cancel has happened since.
+     */
+    private final AtomicLong generation;
+
+    /**
+     * The queued attribute counts the requests queued or running.
+     */
+    private final AtomicInteger queued;
+
+    /**
+     * The token attribute is the cancellation token of the request that is running.
+     */
+    private volatile CancellationToken token;
+
+    /**
+     * The progress attribute passes the progress of the running request on to the view.
+     */
+    private final ProgressListener progress;
+
+    /**
+     * The lastPercent attribute is the percentage last shown, so that reports that do not change
+     * it are not passed on. It is only used on the background thread.
+     */
+    private int lastPercent;
+
+    /**
+     * The previewMode attribute is true when filters are previewed before they are applied to
+     * the full image. It is only used on the event dispatch thread.
+     */
+    private boolean previewMode;
+
+    /**
+     * The pending attribute holds, in order, the previewed filters not yet applied to the full
+     * image, each as the action that queues it. It is only used on the event dispatch thread.
+     */
+    private final List<Runnable> pending;
+
+    /**
+     * The displayed attribute is the image last handed to the view, so that the view can be told
+     * which part of the next image differs from it. It is only used on the event dispatch
+     * thread.
+     */
+    private int[][][] displayed;
+
+    /**
+     * The idleTimer attribute applies the pending filters to the full image once the user has
+     * stopped choosing filters for a moment.
+     */
+    private final Timer idleTimer;
+
+    /**
+     * The previewWorker attribute is the thread that makes previews, so that they never wait
+     * behind a filter running on the full image.
+     */
+    private final ExecutorService previewWorker;
+
+    /**
+     * The previewImage attribute is the shrunk image with every previewed filter applied, or null
+     * if it must be made again from the current image. It is only used on the preview thread.
+     */
+    private int[][][] previewImage;
+
+    /**
+     * The previewArea attribute is the number of pixels in the shrunk image over the number in
+     * the full image. It is only used on the preview thread.
+     */
+    private double previewArea;
+
+    /**
+     * The Speculation class holds the filter previews made speculatively from one image.
+     */
+    private static class Speculation {
+
+      /**
+       * The source attribute is the model the previews were made from.
+       */
+      private final ImageModelExtension source;
+
+      /**
+       * The token attribute stops the speculative work.
+       */
+      private final CancellationToken token = new CancellationToken();
+
+      /**
+       * The previews attribute holds each preview made so far, keyed by its filter.
+       */
+      private final Map<Filters, int[][][]> previews = new ConcurrentHashMap<>();
+
+      /**
+       * Constructs a Speculation for a model.
+       *
+       * @param source the model to make the previews from.
+       */
+      private Speculation(ImageModelExtension source) {
+        this.source = source;
+      }
+    }
+
+    /**
+     * The speculator attribute is the low-priority thread that makes filter previews
+     * speculatively.
+     */
+    private final ScheduledExecutorService speculator;
+
+    /**
+     * The speculation attribute holds the previews made speculatively from the current image,
+     * or null if they are not being made.
+     */
+    private volatile Speculation speculation;
+
+    /**
+     * The hovering attribute is true while a speculative preview is shown because the user is
+     * hovering over a filter in the menu. It is only used on the event dispatch thread.
+     */
+    private boolean hovering;
+
+    /**
+     * The previewGeneration attribute counts the times the preview was started again from the
+     * current image, so that a preview made before then is never displayed.
      */
-    private Stack<int[][][]> undo;
+    private final AtomicLong previewGeneration;
 
     /**
-     * The redo attribute is a stack where, when undo is pressed, the most recent image is pushed.
-     * The stack holds more recent versions of image representations so that images can be restored
-     * after having clicked undo.
+     * The previewToken attribute is the cancellation token of the previews queued since the
+     * preview was last started again. Starting the preview again cancels it, so a slow preview,
+     * such as a mosaic with many seeds, stops at once instead of holding up the previews queued
+     * behind it.
      */
-    private Stack<int[][][]> redo;
+    private final AtomicReference<CancellationToken> previewToken;
 
     /**
      * The constructor for FeatureImpl establishes a new FeatureImpl with a view, model, and new
@@ -90,27 +288,436 @@ public class Controller {
     public FeatureImpl(ImageModelExtension model, IView view) {
       this.model = model;
       this.view = view;
-      undo = new Stack<>();
-      redo = new Stack<>();
+      history = new HistoryManager();
+      worker = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "Image Processor worker");
+        thread.setDaemon(true);
+        return thread;
+      });
+      generation = new AtomicLong();
+      queued = new AtomicInteger();
+      token = new CancellationToken();
+      progress = (done, total) -> {
+        int percent = (int) (done * 100 / Math.max(1, total));
+        if (percent != lastPercent) {
+          lastPercent = percent;
+          onEdt(() -> view.setProgress(percent));
+        }
+      };
+      pending = new ArrayList<>();
+      previewGeneration = new AtomicLong();
+      previewToken = new AtomicReference<>(new CancellationToken());
+      idleTimer = new Timer(IDLE_DELAY, e -> confirmPreviews());
+      idleTimer.setRepeats(false);
+      previewWorker = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "Image Processor preview");
+        thread.setDaemon(true);
+        return thread;
+      });
+      speculator = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "Image Processor speculation");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      });
+    }
+
+    /**
+     * The Request interface represents one request run on the background thread.
+     */
+    private interface Request {
+
+      /**
+       * The run method does the work of the request.
+       *
+       * @param queuedIn the generation the request was queued in, to check for a cancel.
+       * @throws Exception if the request fails; the message is shown to the user.
+       */
+      void run(long queuedIn) throws Exception;
     }
 
     /**
-     * The loadImage method takes in a filepath defined in its parameter and returns a 3-D int[][][]
-     * array that represents the RGB values of each pixel in the image.
+     * The submit method queues a request to run on the background thread, and shows the
+     * progress indicator until every queued request has finished. When the last queued request
+     * finishes, the current image is displayed.
      *
-     * @param filepath the filepath from which the image should be read.
-     * @return a 3-D int[][][] array representing the RGB values of each pixel in the image.
-     * @throws IllegalArgumentException if the file cannot be loaded.
+     * @param task    a short description of the request, shown next to the progress indicator.
+     * @param request the request.
+     */
+    private void submit(String task, Request request) {
+      long queuedIn = generation.get();
+      queued.incrementAndGet();
+      stopSpeculating();
+      view.showProgress(task);
+      worker.execute(() -> {
+        try {
+          token = new CancellationToken();
+          lastPercent = -1;
+          //a cancel may have come just before the new token was in place
+          if (generation.get() == queuedIn) {
+            onEdt(() -> view.showProgress(task));
+            request.run(queuedIn);
+          }
+        } catch (Exception e) {
+          //the preview may include the result of this request
+          resetPreview();
+          if (generation.get() == queuedIn) {
+            String message = e.getMessage() != null ? e.getMessage() : e.toString();
+            onEdt(() -> view.displayError(message));
+          }
+        } catch (OutOfMemoryError e) {
+          onEdt(() -> view.displayError("The image is too large for the available memory."));
+        } finally {
+          long memory = history.getMemoryUsed();
+          long disk = history.getDiskUsed();
+          onEdt(() -> view.showHistoryUsage(memory, disk, history.getBudget()));
+          if (queued.decrementAndGet() == 0) {
+            ImageModelExtension current = model;
+            int[][][] image = current != null ? current.getModifiedImage() : null;
+            if (current != null) {
+              speculate(current);
+            }
+            onEdt(() -> {
+              //newer previews stay on show until their own filters have been applied
+              if (pending.isEmpty()) {
+                view.hideProgress();
+                if (image != null) {
+                  display(image, null, null);
+                }
+              }
+            });
+          }
+        }
+      });
+    }
+
+    /**
+     * The showPartial method shows part of the result of the running request while the rest is
+     * worked out. It is only worth showing when nothing queued after the request will change the
+     * image again, and not once the request has been cancelled.
+     *
+     * @param queuedIn the generation the request was queued in.
+     * @param partial  the image to show.
+     * @param base     the image the partial image was made from, or null if it is a new image.
+     * @param changed  the part of the partial image that differs from base, or null if all of it
+     *                 may.
+     */
+    private void showPartial(long queuedIn, int[][][] partial, int[][][] base,
+                             Rectangle changed) {
+      if (queued.get() == 1) {
+        onEdt(() -> {
+          if (generation.get() == queuedIn && pending.isEmpty()) {
+            display(partial, base, changed);
+          }
+        });
+      }
+    }
+
+    /**
+     * The display method hands an image to the view, together with the part of it that differs
+     * from the image displayed before, so that the view only rebuilds that part and never has to
+     * compare the two images pixel by pixel. It must be called on the event dispatch thread.
+     *
+     * <p>The same image shown again has changed nowhere. An image made from the one displayed,
+     * such as the visible area of a filter worked out first, has changed where its maker says.
+     * Anything else, such as the result of a filter, an undo or a redo, may have changed
+     * anywhere.</p>
+     *
+     * @param image   the image to show.
+     * @param base    the image it was made from, or null if that is not known.
+     * @param changed the part of the image that differs from base, or null if all of it may.
+     */
+    private void display(int[][][] image, int[][][] base, Rectangle changed) {
+      Rectangle area;
+      if (image == displayed) {
+        area = new Rectangle();
+      } else if (base != null && base == displayed) {
+        area = changed;
+      } else {
+        area = null;
+      }
+      displayed = image;
+      view.displayImage(image, area);
+    }
+
+    /**
+     * The commit method replaces the current model with the result of a request, unless the
+     * request was cancelled while it ran.
+     *
+     * @param queuedIn the generation the request was queued in.
+     * @param result   the new model.
+     * @return true if the model was replaced.
+     */
+    private boolean commit(long queuedIn, ImageModelExtension result) {
+      if (generation.get() != queuedIn) {
+        return false;
+      }
+      model = result;
+      return true;
+    }
+
+    /**
+     * The PreviewStep interface represents a filter applied to the shrunk image for a preview.
+     */
+    private interface PreviewStep {
+
+      /**
+       * The apply method applies the filter to the shrunk image.
+       *
+       * @param shrunk the shrunk image.
+       * @param area   the number of pixels in the shrunk image over the number in the full
+       *               image.
+       * @param token  the token to check for cancellation.
+       * @throws CancellationException if the token is cancelled.
+       */
+      void apply(ImageModelExtension shrunk, double area, CancellationToken token);
+    }
+
+    /**
+     * The preview method applies a filter to the shrunk image on the preview thread and displays
+     * the result, and remembers the filter so that it is applied to the full image later. If the
+     * preview fails, its error is shown and the filter is forgotten.
+     *
+     * @param task  the name of the filter, shown next to the progress indicator.
+     * @param step  the filter, applied to the shrunk image.
+     * @param apply the action that queues the filter on the full image.
+     */
+    private void preview(String task, PreviewStep step, Runnable apply) {
+      stopSpeculating();
+      pending.add(apply);
+      view.showProgress("Previewing " + task);
+      idleTimer.restart();
+      long previewedIn = previewGeneration.get();
+      CancellationToken cancelIn = previewToken.get();
+      previewWorker.execute(() -> {
+        try {
+          cancelIn.throwIfCancelled();
+          if (previewImage == null) {
+            //wait for the requests queued so far, so the preview starts from their result
+            ImageModelExtension current = worker.submit(() -> model).get();
+            if (current == null) {
+              throw new IllegalArgumentException("No image detected.");
+            }
+            int[][][] image = current.getModifiedImage();
+            previewImage = ImageUtil.shrink(image, PREVIEW_SIZE);
+            previewArea = (double) previewImage.length * previewImage[0].length
+                    / ((double) image.length * image[0].length);
+          }
+          ImageModelExtension shrunk = ImageFactory.createImage(previewImage);
+          step.apply(shrunk, previewArea, cancelIn);
+          previewImage = shrunk.getModifiedImage();
+          int[][][] shown = previewImage;
+          onEdt(() -> {
+            boolean waiting = !pending.isEmpty() || queued.get() > 0;
+            if (waiting && previewGeneration.get() == previewedIn) {
+              view.displayPreview(shown);
+            }
+          });
+        } catch (CancellationException e) {
+          //the preview was started again; its filter, if still pending, is applied as usual
+          onEdt(() -> {
+            if (pending.isEmpty() && queued.get() == 0) {
+              view.hideProgress();
+            }
+          });
+        } catch (Exception e) {
+          Throwable cause = e.getCause() != null ? e.getCause() : e;
+          String message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+          onEdt(() -> {
+            if (pending.remove(apply) && pending.isEmpty() && queued.get() == 0) {
+              view.hideProgress();
+            }
+            view.displayError(message);
+          });
+        }
+      });
+    }
+
+    /**
+     * The confirmPreviews method queues every pending filter on the full image, in the order
+     * they were chosen.
+     */
+    private void confirmPreviews() {
+      idleTimer.stop();
+      List<Runnable> confirmed = new ArrayList<>(pending);
+      pending.clear();
+      for (Runnable apply : confirmed) {
+        apply.run();
+      }
+    }
+
+    /**
+     * The resetPreview method makes the next preview start again from the current image, for
+     * when the image changes other than by a previewed filter, and stops the previews running or
+     * queued.
+     */
+    private void resetPreview() {
+      previewGeneration.incrementAndGet();
+      previewToken.getAndSet(new CancellationToken()).cancel();
+      previewWorker.execute(() -> previewImage = null);
+    }
+
+    /**
+     * The speculate method starts making a preview of each filter from an image on the
+     * low-priority thread, once the background thread has had nothing to do for a moment. The
+     * work stops between rows as soon as the user asks for anything else, and previews already
+     * made from the same image are kept.
+     *
+     * @param source the model to make the previews from.
+     */
+    private void speculate(ImageModelExtension source) {
+      Speculation last = speculation;
+      Speculation next = new Speculation(source);
+      if (last != null && last.source == source) {
+        //the image has not changed, so only the previews not made yet are needed
+        next.previews.putAll(last.previews);
+      }
+      speculation = next;
+      speculator.schedule(() -> {
+        try {
+          int[][][] shrunk = null;
+          for (Filters filter : Filters.values()) {
+            if (next.token.isCancelled() || queued.get() > 0) {
+              return;
+            }
+            if (next.previews.containsKey(filter)) {
+              continue;
+            }
+            if (shrunk == null) {
+              shrunk = ImageUtil.shrink(source.getModifiedImage(), PREVIEW_SIZE);
+            }
+            ImageModelExtension preview = ImageFactory.createImage(shrunk);
+            preview.applyFilter(filter, next.token, ProgressListener.NONE);
+            next.previews.put(filter, preview.getModifiedImage());
+          }
+        } catch (CancellationException e) {
+          //the user asked for something else
+        }
+      }, SPECULATION_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The stopSpeculating method stops the speculative work, keeping the previews it made.
+     */
+    private void stopSpeculating() {
+      Speculation current = speculation;
+      if (current != null) {
+        current.token.cancel();
+      }
+    }
+
+    /**
+     * The speculativePreview method returns the preview of a filter made speculatively from the
+     * current image, if it is ready and nothing is waiting to change the image.
+     *
+     * @param filter the filter.
+     * @return the preview, or null if there is none.
+     */
+    private int[][][] speculativePreview(Filters filter) {
+      Speculation current = speculation;
+      if (current == null || current.source != model || queued.get() > 0
+              || !pending.isEmpty()) {
+        return null;
+      }
+      return current.previews.get(filter);
+    }
+
+    /**
+     * The previewFilter method shows the preview of a filter made speculatively from the current
+     * image, if it is ready, while the user hovers over the filter in the menu.
+     *
+     * @param filter the filter the user is hovering over.
      */
     @Override
-    public int[][][] loadImage(String filepath) {
-      try {
-        int[][][] image = ImageUtil.readImage(filepath);
-        model = ImageFactory.createImage(image);
-      } catch (NoSuchElementException | IOException e) {
-        view.displayError("Cannot load file.");
+    public void previewFilter(Filters filter) {
+      int[][][] preview = speculativePreview(filter);
+      if (preview != null) {
+        hovering = true;
+        view.displayPreview(preview);
+      }
+    }
+
+    /**
+     * The endFilterPreview method takes the preview shown by previewFilter away once the user
+     * stops hovering over the filter, unless the filter was chosen.
+     */
+    @Override
+    public void endFilterPreview() {
+      if (hovering) {
+        hovering = false;
+        if (pending.isEmpty() && queued.get() == 0) {
+          view.hidePreview();
+        }
       }
-      return model.getModifiedImage();
+    }
+
+    /**
+     * The onEdt method runs an action on the Swing event dispatch thread.
+     *
+     * @param action the action.
+     */
+    private static void onEdt(Runnable action) {
+      if (SwingUtilities.isEventDispatchThread()) {
+        action.run();
+      } else {
+        SwingUtilities.invokeLater(action);
+      }
+    }
+
+    /**
+     * The cancel method stops the request that is running and drops every queued request. The
+     * image stays as it was before the first of them.
+     */
+    @Override
+    public void cancel() {
+      generation.incrementAndGet();
+      token.cancel();
+      resetPreview();
+      idleTimer.stop();
+      if (!pending.isEmpty()) {
+        pending.clear();
+        //show the current image again in place of the preview
+        submit("Cancelling", queuedIn -> { });
+      }
+    }
+
+    /**
+     * The setPreviewMode method turns preview mode on or off. Turning it off applies any
+     * previewed filters to the full image straight away.
+     *
+     * @param preview true to preview filters before applying them to the full image.
+     */
+    @Override
+    public void setPreviewMode(boolean preview) {
+      previewMode = preview;
+      if (!preview) {
+        confirmPreviews();
+      }
+    }
+
+    /**
+     * The loadImage method reads the image at a filepath on the background thread and displays
+     * it once it has been read. A progressive JPEG or interlaced PNG is also displayed after each
+     * pass of its decoding, so that a large file shows at a low quality straight away.
+     *
+     * @param filepath the filepath from which the image should be read.
+     */
+    @Override
+    public void loadImage(String filepath) {
+      confirmPreviews();
+      resetPreview();
+      submit("Loading", queuedIn -> {
+        ImageModelExtension loaded;
+        try {
+          loaded = ImageFactory.createImage(ImageUtil.readImage(filepath,
+                  partial -> showPartial(queuedIn, partial, null, null), token, progress));
+        } catch (NoSuchElementException | IOException | IllegalArgumentException e) {
+          throw new IllegalArgumentException("Cannot load file.");
+        }
+        if (commit(queuedIn, loaded)) {
+          history.reset(loaded.getModifiedImage());
+        }
+      });
     }
 
     /**
@@ -124,10 +731,27 @@ public class Controller {
      */
     @Override
     public void processTextInstructions(Readable textFile) {
-      ImageControllerExtension newController = new ImageControllerImpl(model, textFile);
-      newController.start();
-      model = newController.getModel();
-      view.displayImage(model.getModifiedImage());
+      confirmPreviews();
+      resetPreview();
+      submit("Running commands", queuedIn -> {
+        ImageModelExtension before = model;
+        ImageControllerExtension newController =
+                new ImageControllerImpl(model, textFile, token, progress);
+        newController.start();
+        ImageModelExtension result = newController.getModel();
+        if (result != null) {
+          //resolve the final image here rather than on the event dispatch thread
+          int[][][] after = result.getModifiedImage();
+          if (commit(queuedIn, result)) {
+            //commands cannot be repeated from the image alone, so the history keeps the result
+            if (before == null) {
+              history.reset(after);
+            } else {
+              history.record(before.getModifiedImage(), null, after);
+            }
+          }
+        }
+      });
     }
 
     /**
@@ -142,16 +766,21 @@ public class Controller {
      */
     @Override
     public void saveImage(String filepath) {
-      try {
-        ImageUtil.writeImage(model.getModifiedImage(), model.getModifiedImage()[0].length,
-                model.getModifiedImage().length, filepath);
-        undo.clear();
-        redo.clear();
-      } catch (NoSuchElementException | IOException e) {
-        view.displayError("File path could not be written to.");
-      } catch (NullPointerException e) {
-        view.displayError("Image not detected.");
-      }
+      confirmPreviews();
+      submit("Saving", queuedIn -> {
+        if (model == null) {
+          throw new IllegalArgumentException("Image not detected.");
+        }
+        int[][][] image = model.getModifiedImage();
+        try {
+          ImageUtil.writeImage(image, image[0].length, image.length, filepath);
+        } catch (NoSuchElementException | IOException e) {
+          throw new IllegalArgumentException("File path could not be written to.");
+        }
+        if (generation.get() == queuedIn) {
+          history.reset(image);
+        }
+      });
     }
 
     /**
@@ -167,83 +796,107 @@ public class Controller {
 
     /**
      * The applyFilter method takes in a Filter enum and applies the specified filter to an image.
+     * In preview mode, the filter is previewed first and applied to the full image later.
      *
      * @param filters the filter type that should be applied to the image.
      */
     @Override
     public void applyFilter(Filters filters) {
-      try {
-        undo.push(this.getModifiedImage());
-        model.applyFilter(filters);
-        int[][][] image = model.getModifiedImage();
-        view.displayImage(image);
-      } catch (NullPointerException e) {
-        view.displayError("No Image detected.");
-      } catch (IllegalArgumentException e) {
-        view.displayError(e.getMessage());
+      //keep the preview the user is looking at on show until the full image is ready
+      int[][][] ready = speculativePreview(filters);
+      hovering = false;
+      if (ready != null) {
+        view.displayPreview(ready);
+      }
+      if (previewMode) {
+        preview(filters.toString().toLowerCase(),
+                (shrunk, area, token) -> shrunk.applyFilter(filters, token,
+                        ProgressListener.NONE), () -> applyFilterNow(filters));
+      } else {
+        applyFilterNow(filters);
       }
     }
 
+    /**
+     * The applyFilterNow method queues a filter on the full image. The part of the image the
+     * user can see is worked out and shown first, and the rest fills in behind it.
+     *
+     * @param filters the filter type that should be applied to the image.
+     */
+    private void applyFilterNow(Filters filters) {
+      Rectangle visible = view.getVisibleArea();
+      submit("Applying " + filters.toString().toLowerCase(), queuedIn -> {
+        if (model == null) {
+          throw new IllegalArgumentException("No Image detected.");
+        }
+        int[][][] before = model.getModifiedImage();
+        ImageModelExtension result = ImageFactory.createImage(before);
+        result.applyFilter(filters, visible,
+                partial -> showPartial(queuedIn, partial, before, visible), token, progress);
+        if (commit(queuedIn, result)) {
+          history.record(before, image -> {
+            ImageModelExtension again = ImageFactory.createImage(image);
+            again.applyFilter(filters);
+            return again.getModifiedImage();
+          }, result.getModifiedImage());
+        }
+      });
+    }
+
     /**
      * The undo method undoes the most recent image filter or transformation and restores the prior
      * image.
      *
-     * <p>It displays the prior image in the View. It stores the most recent image version
-     * in a stack as a 3-D int array. Storing images as arrays in the stack cuts down the amount of
-     * space the stack requires, as compared to storing models in the stack. The undo method can be
+     * <p>It displays the prior image in the View. The history keeps the operations applied to
+     * the image rather than every version of it, so the prior image may be made again by
+     * repeating operations from the nearest copy the history keeps. The undo method can be
      * pressed any number of times until there are no more moves to undo. If there are no moves to
      * undo, an error will pop up saying "No moves to undo!"
      * Users may repeat undo-redo operations
-     * as many times as they want. Any undo move pushes the current image onto the redo stack of
-     * commands, and vice versa. The user will not be able to undo any moves after saving or
+     * as many times as they want. Applying a filter after an undo forgets the moves that could
+     * have been redone. The user will not be able to undo any moves after saving or
      * loading a new image. </p>
      */
     @Override
     public void undo() {
-      if (model != null) {
+      confirmPreviews();
+      resetPreview();
+      submit("Undoing", queuedIn -> {
+        if (model == null) {
+          throw new IllegalArgumentException("No moves to undo!");
+        }
         try {
-          int[][][] img = this.getModifiedImage();
-          int[][][] oldImage = undo.pop();
-          model = ImageFactory.createImage(oldImage);
-          view.displayImage(model.getModifiedImage());
-          redo.push(img);
+          model = ImageFactory.createImage(history.undo());
         } catch (EmptyStackException e) {
-          view.displayError("No moves to undo!");
+          throw new IllegalArgumentException("No moves to undo!");
         }
-      } else {
-        view.displayError("No moves to undo!");
-      }
+      });
     }
 
     /**
      * The redo method redoes the most recent undo operation and restores the image with that
      * operation applied.
      *
-     * <p>It displays the restored image in the View. It stores the most recent
-     * undone image in a stack as a 3-D int[][][] array. Storing images as arrays in the stack cuts
-     * down on the amount of space the stack requires, as opposed to storing models in the stack.
+     * <p>It displays the restored image in the View, made again from the history like undo.
      * The redo method can be pressed any number of times until there are no more moves to redo. If
      * there are no moves to redo, an error will pop up saying "No moves to redo!" Users may repeat
-     * undo-redo operations as many times as they want.
-     * Any redo move pushes the current image onto
-     * the undo stack of commands, and vice versa. If a user loads or saves an image, they will not
-     * be able to redo any preceding undos.</p>
+     * undo-redo operations as many times as they want. If a user loads or saves an image, they will
+     * not be able to redo any preceding undos.</p>
      */
     @Override
     public void redo() {
-      if (model != null) {
+      confirmPreviews();
+      resetPreview();
+      submit("Redoing", queuedIn -> {
+        if (model == null) {
+          throw new IllegalArgumentException("No moves to redo!");
+        }
         try {
-          int[][][] img = this.getModifiedImage();
-          int[][][] oldImage = redo.pop();
-          model = ImageFactory.createImage(oldImage);
-          view.displayImage(model.getModifiedImage());
-          undo.push(img);
+          model = ImageFactory.createImage(history.redo());
         } catch (EmptyStackException e) {
-          view.displayError("No moves to redo!");
+          throw new IllegalArgumentException("No moves to redo!");
         }
-      } else {
-        view.displayError("No moves to redo!");
-      }
+      });
     }
 
     /**
@@ -254,22 +907,58 @@ public class Controller {
      */
     @Override
     public void mosaic() {
-      try {
-        undo.push(this.getModifiedImage());
-        String numOfSeeds = view.getInput("Enter number of seeds: ");
-        if (numOfSeeds != null) {
-          int seeds = Integer.parseInt(numOfSeeds);
-          model.mosaic(seeds);
-          int[][][] image = model.getModifiedImage();
-          view.displayImage(image);
-        }
-      } catch (NullPointerException e) {
+      stopSpeculating();
+      if (model == null && queued.get() == 0) {
         view.displayError("No image detected.");
-      } catch (IllegalArgumentException e) {
+        return;
+      }
+      String numOfSeeds = view.getInput("Enter number of seeds: ");
+      if (numOfSeeds == null) {
+        return;
+      }
+      int seeds;
+      try {
+        seeds = Integer.parseInt(numOfSeeds);
+      } catch (NumberFormatException e) {
         view.displayError(e.getMessage());
+        return;
+      }
+      if (previewMode) {
+        //keep the tiles the same size in the preview as in the full image
+        preview("mosaic", (shrunk, area, token) -> shrunk.mosaic(seeds < 1 ? seeds
+                : Math.max(1, (int) Math.round(seeds * area)), token, ProgressListener.NONE),
+                () -> mosaicNow(seeds));
+      } else {
+        mosaicNow(seeds);
       }
     }
 
+    /**
+     * The mosaicNow method queues a mosaic filter on the full image.
+     *
+     * @param seeds the number of seeds in the mosaic.
+     */
+    private void mosaicNow(int seeds) {
+      submit("Applying mosaic", queuedIn -> {
+        if (model == null) {
+          throw new IllegalArgumentException("No image detected.");
+        }
+        int[][][] before = model.getModifiedImage();
+        ImageModelExtension result = ImageFactory.createImage(before);
+        long randomSeed = ThreadLocalRandom.current().nextLong();
+        result.mosaic(seeds, randomSeed, token, progress);
+        if (commit(queuedIn, result)) {
+          HistoryManager.Operation repeat = image -> {
+            ImageModelExtension again = ImageFactory.createImage(image);
+            again.mosaic(seeds, randomSeed, CancellationToken.NONE, ProgressListener.NONE);
+            return again.getModifiedImage();
+          };
+          history.record(before, seeds <= REPEATABLE_SEEDS ? repeat : null,
+                  result.getModifiedImage());
+        }
+      });
+    }
+
     /**
      * The generateImage method creates a new image based on a Design specified in its parameter.
      *
@@ -321,8 +1010,6 @@ public class Controller {
           default:
             //Will not reach here
         }
-        undo.clear();
-        redo.clear();
       } catch (IllegalArgumentException e) {
         view.displayError(e.getMessage());
       }
@@ -330,19 +1017,22 @@ public class Controller {
 
     /**
      * The uploadImage method is a helper method to generateImage which does the common work of
-     * establishing a new image with the ImageFactory, retrieving a 3-D int[][][] array from the
-     * model, and then displaying the image in the View.
+     * establishing a new image with the ImageFactory, on the background thread, and then
+     * displaying the image in the View.
      *
      * @param type   the type of design to generate, a Designs enum.
      * @param height the height of the new image.
      * @param width  the width of the new image.
      */
     private void uploadImage(Designs type, int height, int width) {
-      model = ImageFactory.generateImage(type, height, width);
-      int[][][] image = model.getModifiedImage();
-      view.displayImage(image);
-      undo.clear();
-      redo.clear();
+      confirmPreviews();
+      resetPreview();
+      submit("Generating", queuedIn -> {
+        ImageModelExtension generated = ImageFactory.generateImage(type, height, width);
+        if (commit(queuedIn, generated)) {
+          history.reset(generated.getModifiedImage());
+        }
+      });
     }
   }
 }
\ No newline at end of file
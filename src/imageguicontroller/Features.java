@@ -10,18 +10,22 @@ import imageprocessor.Filters;
  * <p>These features include: functions for loading and saving an image, applying filters and
  * transformations, generating designs, retrieving a modified image, and processing
  * instructions from a text file.</p>
+ *
+ * <p>Operations that may take a while run in the background, in the order they were requested,
+ * and show their result in the View when they finish, so the GUI stays responsive.</p>
  */
 public interface Features {
 
   /**
-   * The loadImage method takes in a filepath defined in its parameter and returns a 3-D int[][][]
-   * array that represents the RGB values of each pixel in the image.
+   * The loadImage method takes in a filepath defined in its parameter, reads the image there
+   * and displays it in the View.
+   *
+   * <p>The image is read in the background, so the method returns before it has been read. If
+   * the file cannot be loaded, an error pop-up is shown instead.</p>
    *
    * @param filepath the filepath from which the image should be read.
-   * @return a 3-D int[][][] array representing the RGB values of each pixel in the image.
-   * @throws IllegalArgumentException if the file cannot be loaded.
    */
-  int[][][] loadImage(String filepath);
+  void loadImage(String filepath);
 
   /**
    * The processTextInstructions method takes in a Readable object containing text instructions
@@ -104,4 +108,33 @@ public interface Features {
    * @param design the type of design to be generated.
    */
   void generateImage(Designs design);
+
+  /**
+   * The cancel method stops the operation that is running in the background, if any, and drops
+   * the operations queued after it. The image is left as it was before them.
+   */
+  void cancel();
+
+  /**
+   * The setPreviewMode method turns preview mode on or off. In preview mode, a filter is shown
+   * straight away on a small copy of the image, and is applied to the full image once the user
+   * stops choosing filters for a moment or does something else with the image.
+   *
+   * @param preview true to preview filters before applying them to the full image.
+   */
+  void setPreviewMode(boolean preview);
+
+  /**
+   * The previewFilter method shows a preview of a filter while the user hovers over it in the
+   * menu, if one has been made in the background since the image last changed.
+   *
+   * @param filter the filter the user is hovering over.
+   */
+  void previewFilter(Filters filter);
+
+  /**
+   * The endFilterPreview method takes the preview shown by previewFilter away once the user
+   * stops hovering over the filter without choosing it.
+   */
+  void endFilterPreview();
 }
@@ -0,0 +1,21 @@
+package imageguicontroller;
+
+import imageguiview.IView;
+import imageguiview.IViewImpl;
+
+/**
+ * The GuiLauncher class opens the interactive GUI image processor.
+ *
+ * <p>It is kept apart from the ImageProcessor main class so that the command-line modes never
+ * load Swing or the GUI classes; they are only loaded when the GUI is actually opened.</p>
+ */
+public class GuiLauncher {
+
+  /**
+   * The launch method creates the GUI view and its controller, with no image loaded.
+   */
+  public static void launch() {
+    IView view = new IViewImpl("Image Processor");
+    new Controller(null, view);
+  }
+}
@@ -0,0 +1,474 @@
+package imageguicontroller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+import java.util.List;
+
+import imageprocessor.ImageUtil;
+
+/**
+ * The HistoryManager class holds the undo and redo history of the GUI as a log of operations,
+ * within a memory budget, so that a long editing session on a large image does not run out of
+ * memory.
+ *
+ * <p>The history is a line of images, from the oldest to the newest, with the current image
+ * somewhere along it; undo and redo move along the line. Most images can be made again from the
+ * image before them by repeating the operation that made them, so for those only the operation
+ * is kept. A full copy of the image, a checkpoint, is only kept every few steps, and for steps
+ * that cannot be repeated or would take too long to repeat, such as running commands or a
+ * mosaic with many seeds. Undo and redo make an image again by repeating the operations from the
+ * nearest checkpoint before it.</p>
+ *
+ * <p>The images near the current one are kept as they are, so stepping back and forth is
+ * instant. Other checkpoints are compressed without loss with the fast QOI format. When the
+ * history still uses more memory than the budget, the checkpoints furthest from the current
+ * image are moved to a temporary file, which is deleted when the program exits, and read back
+ * only if the user goes that far. If the disk cannot be written, checkpoints simply stay in
+ * memory.</p>
+ *
+ * <p>The budget is set in megabytes by the system property "imageprocessor.history.size", and
+ * is a quarter of the maximum heap by default. The property "imageprocessor.history.interval"
+ * sets how many steps may pass without a checkpoint, 8 by default. The class is not
+ * thread-safe; the Controller only uses it on its background thread.</p>
+ */
+class HistoryManager {
+
+  /**
+   * The SIZE_PROPERTY attribute names the system property for the budget in megabytes.
+   */
+  static final String SIZE_PROPERTY = "imageprocessor.history.size";
+
+  /**
+   * The INTERVAL_PROPERTY attribute names the system property for the number of steps between
+   * checkpoints.
+   */
+  static final String INTERVAL_PROPERTY = "imageprocessor.history.interval";
+
+  private static final int DEFAULT_INTERVAL = 8;
+
+  /**
+   * The HOT_STATES attribute is how many steps either side of the current image are kept
+   * uncompressed.
+   */
+  private static final int HOT_STATES = 2;
+
+  /**
+   * The BYTES_PER_PIXEL attribute estimates the memory an uncompressed pixel takes: an int[3]
+   * array with its header, and the reference to it in its row.
+   */
+  private static final long BYTES_PER_PIXEL = 36;
+
+  /**
+   * The Operation interface represents a step of the history that can be repeated.
+   */
+  interface Operation {
+
+    /**
+     * The apply method repeats the step. It must give the same result every time for the same
+     * image, and must not change the image it is given.
+     *
+     * @param image the image before the step.
+     * @return the image after the step.
+     */
+    int[][][] apply(int[][][] image);
+  }
+
+  /**
+   * The State class holds one image of the history. A checkpoint keeps its image in one of
+   * three forms; any other state keeps the operation that makes it from the state before, and
+   * its image only while it is near the current one.
+   */
+  private static class State {
+    private Operation operation;
+    private int[][][] image;
+    private byte[] compressed;
+    private long offset = -1;
+    private int length;
+
+    /**
+     * The isCheckpoint method checks whether the state keeps a full copy of its image.
+     *
+     * @return true for a checkpoint.
+     */
+    private boolean isCheckpoint() {
+      return operation == null;
+    }
+
+    /**
+     * The memory method estimates the memory this state takes.
+     *
+     * @return the number of bytes.
+     */
+    private long memory() {
+      if (image != null) {
+        return (long) image.length * image[0].length * BYTES_PER_PIXEL;
+      }
+      return compressed != null ? compressed.length : 0;
+    }
+  }
+
+  private final long budget;
+  private final int interval;
+  private final List<State> states = new ArrayList<>();
+
+  /**
+   * The current attribute is the index of the current image in states, or -1 if the history is
+   * empty.
+   */
+  private int current = -1;
+
+  private long memory;
+  private long disk;
+
+  /**
+   * The spill attribute is the temporary file that old checkpoints are moved to, or null until
+   * the first one is.
+   */
+  private FileChannel spill;
+
+  /**
+   * The spillFailed attribute is true once the temporary file could not be written, after which
+   * checkpoints stay in memory.
+   */
+  private boolean spillFailed;
+
+  /**
+   * Constructs a HistoryManager with the budget and interval set by the system properties.
+   */
+  HistoryManager() {
+    this(defaultBudget(), Math.max(1, Integer.getInteger(INTERVAL_PROPERTY, DEFAULT_INTERVAL)));
+  }
+
+  /**
+   * Constructs a HistoryManager with a given budget and interval.
+   *
+   * @param budget   the most memory the history should use, in bytes.
+   * @param interval the most steps that may pass without a checkpoint.
+   */
+  HistoryManager(long budget, int interval) {
+    this.budget = budget;
+    this.interval = interval;
+  }
+
+  /**
+   * The reset method forgets the whole history and starts a new one at an image.
+   *
+   * @param image the current image.
+   */
+  void reset(int[][][] image) {
+    clear();
+    State state = new State();
+    state.image = image;
+    states.add(state);
+    current = 0;
+    memory += state.memory();
+  }
+
+  /**
+   * The record method adds a step after the current image, which becomes the new current image.
+   * Any images that could have been redone are forgotten.
+   *
+   * @param before    the image before the step, used only if the history is empty.
+   * @param operation the operation that repeats the step, or null if it cannot be repeated or
+   *                  would take too long to repeat.
+   * @param after     the image after the step.
+   */
+  void record(int[][][] before, Operation operation, int[][][] after) {
+    if (current < 0) {
+      reset(before);
+    }
+    while (states.size() > current + 1) {
+      release(states.remove(states.size() - 1));
+    }
+    State state = new State();
+    state.image = after;
+    if (operation != null && stepsSinceCheckpoint(current) + 1 < interval) {
+      state.operation = operation;
+    }
+    states.add(state);
+    current++;
+    memory += state.memory();
+    settle();
+  }
+
+  /**
+   * The undo method moves back one step.
+   *
+   * @return the image before the current one.
+   * @throws EmptyStackException if there is nothing to undo.
+   */
+  int[][][] undo() throws EmptyStackException {
+    if (current <= 0) {
+      throw new EmptyStackException();
+    }
+    return moveTo(current - 1);
+  }
+
+  /**
+   * The redo method moves forward one step.
+   *
+   * @return the image after the current one.
+   * @throws EmptyStackException if there is nothing to redo.
+   */
+  int[][][] redo() throws EmptyStackException {
+    if (current < 0 || current >= states.size() - 1) {
+      throw new EmptyStackException();
+    }
+    return moveTo(current + 1);
+  }
+
+  /**
+   * The clear method forgets the whole history.
+   */
+  void clear() {
+    states.clear();
+    current = -1;
+    memory = 0;
+    disk = 0;
+    truncateSpill();
+  }
+
+  /**
+   * The getMemoryUsed method returns the memory the history takes.
+   *
+   * @return the number of bytes, estimated for uncompressed images.
+   */
+  long getMemoryUsed() {
+    return memory;
+  }
+
+  /**
+   * The getDiskUsed method returns the size of the checkpoints the history has moved to disk.
+   *
+   * @return the number of bytes.
+   */
+  long getDiskUsed() {
+    return disk;
+  }
+
+  /**
+   * The getBudget method returns the most memory the history should use.
+   *
+   * @return the number of bytes.
+   */
+  long getBudget() {
+    return budget;
+  }
+
+  /**
+   * The moveTo method makes another image the current one, making it again if it is not kept.
+   *
+   * @param index the index of the image.
+   * @return the image.
+   */
+  private int[][][] moveTo(int index) {
+    int[][][] image = imageOf(index);
+    State state = states.get(index);
+    if (state.image == null) {
+      memory -= state.memory();
+      state.image = image;
+      state.compressed = null;
+      if (state.offset >= 0) {
+        disk -= state.length;
+        state.offset = -1;
+      }
+      memory += state.memory();
+    }
+    current = index;
+    settle();
+    return image;
+  }
+
+  /**
+   * The imageOf method returns an image of the history, repeating the operations from the
+   * nearest kept image before it.
+   *
+   * @param index the index of the image.
+   * @return the image.
+   */
+  private int[][][] imageOf(int index) {
+    int start = index;
+    while (states.get(start).image == null && !states.get(start).isCheckpoint()) {
+      start--;
+    }
+    int[][][] image = read(states.get(start));
+    for (int i = start + 1; i <= index; i++) {
+      image = states.get(i).operation.apply(image);
+    }
+    return image;
+  }
+
+  /**
+   * The read method returns the image of a state that keeps one, from memory or disk.
+   *
+   * @param state the state.
+   * @return the image.
+   */
+  private int[][][] read(State state) {
+    try {
+      if (state.image != null) {
+        return state.image;
+      }
+      if (state.compressed != null) {
+        return ImageUtil.decompress(state.compressed);
+      }
+      ByteBuffer bytes = ByteBuffer.allocate(state.length);
+      while (bytes.hasRemaining()) {
+        if (spill.read(bytes, state.offset + bytes.position()) < 0) {
+          throw new IOException("The history file is shorter than expected.");
+        }
+      }
+      return ImageUtil.decompress(bytes.array());
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Error: The undo history could not be read.");
+    }
+  }
+
+  /**
+   * The settle method brings the history back within its budget after it changed. Images more
+   * than a few steps from the current one are dropped if they can be made again, and
+   * compressed if they are checkpoints. Then, while the history is over its budget, the
+   * checkpoints furthest from the current image are moved to disk, and if that is not enough,
+   * the images near it are compressed too.
+   */
+  private void settle() {
+    for (int i = 0; i < states.size(); i++) {
+      State state = states.get(i);
+      if (Math.abs(i - current) > HOT_STATES && state.image != null) {
+        if (state.isCheckpoint()) {
+          compress(state);
+        } else {
+          memory -= state.memory();
+          state.image = null;
+        }
+      }
+    }
+    for (int distance = states.size(); distance > 0 && memory > budget; distance--) {
+      for (int i : new int[] {current - distance, current + distance}) {
+        if (i < 0 || i >= states.size() || memory <= budget) {
+          continue;
+        }
+        State state = states.get(i);
+        if (!state.isCheckpoint()) {
+          memory -= state.memory();
+          state.image = null;
+          continue;
+        }
+        if (state.image != null) {
+          compress(state);
+        }
+        if (state.compressed != null && !spillFailed) {
+          spill(state);
+        }
+      }
+    }
+    if (disk == 0) {
+      truncateSpill();
+    }
+  }
+
+  /**
+   * The stepsSinceCheckpoint method counts the steps from the last checkpoint up to a state.
+   *
+   * @param index the index of the state.
+   * @return the number of steps, 0 if the state is a checkpoint.
+   */
+  private int stepsSinceCheckpoint(int index) {
+    int steps = 0;
+    while (!states.get(index - steps).isCheckpoint()) {
+      steps++;
+    }
+    return steps;
+  }
+
+  /**
+   * The release method gives back the memory and disk of a state that is forgotten.
+   *
+   * @param state the state.
+   */
+  private void release(State state) {
+    memory -= state.memory();
+    if (state.offset >= 0) {
+      disk -= state.length;
+    }
+  }
+
+  /**
+   * The compress method compresses the image of a checkpoint in memory.
+   *
+   * @param state the checkpoint.
+   */
+  private void compress(State state) {
+    long before = state.memory();
+    state.compressed = ImageUtil.compress(state.image);
+    state.image = null;
+    memory += state.memory() - before;
+  }
+
+  /**
+   * The spill method moves the compressed image of a checkpoint to the end of the temporary
+   * file. If the file cannot be written, the image stays in memory and nothing more is spilled.
+   *
+   * @param state the checkpoint.
+   */
+  private void spill(State state) {
+    try {
+      if (spill == null) {
+        Path file = Files.createTempFile("imageprocessor-history", ".qoi");
+        file.toFile().deleteOnExit();
+        spill = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+      }
+      long offset = spill.size();
+      ByteBuffer bytes = ByteBuffer.wrap(state.compressed);
+      while (bytes.hasRemaining()) {
+        spill.write(bytes, offset + bytes.position());
+      }
+      memory -= state.memory();
+      state.offset = offset;
+      state.length = state.compressed.length;
+      state.compressed = null;
+      disk += state.length;
+    } catch (IOException e) {
+      spillFailed = true;
+    }
+  }
+
+  /**
+   * The truncateSpill method empties the temporary file once nothing in it is needed, so that
+   * it does not keep growing.
+   */
+  private void truncateSpill() {
+    if (spill == null) {
+      return;
+    }
+    try {
+      spill.truncate(0);
+    } catch (IOException e) {
+      //the space is only wasted until the program exits
+    }
+  }
+
+  /**
+   * The defaultBudget method reads the budget from the system property.
+   *
+   * @return the budget in bytes.
+   */
+  private static long defaultBudget() {
+    String megabytes = System.getProperty(SIZE_PROPERTY);
+    if (megabytes != null) {
+      try {
+        return Math.max(1, Long.parseLong(megabytes.trim())) << 20;
+      } catch (NumberFormatException e) {
+        //fall back to the default below
+      }
+    }
+    return Runtime.getRuntime().maxMemory() / 4;
+  }
+}
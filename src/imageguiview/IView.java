@@ -1,6 +1,7 @@
 package imageguiview;
 
 import imageguicontroller.Features;
+import java.awt.Rectangle;
 
 /**
  * The IView interface provides methods that View implementations of a GUI in an Image Processor
@@ -28,6 +29,48 @@ public interface IView {
    */
   void displayImage(int[][][] image);
 
+  /**
+   * The displayImage method shows an image like displayImage(int[][][]), but is told which part
+   * of it differs from the image displayed before, so that only that part is redrawn.
+   *
+   * @param image   the 3-D int[][][] array to be displayed to the user.
+   * @param changed the part of the image that differs from the image displayed before, in image
+   *                pixels, or null if all of it may. An empty rectangle means nothing changed.
+   */
+  void displayImage(int[][][] image, Rectangle changed);
+
+  /**
+   * The displayPreview method shows a preview of an image, a smaller copy of it with the same
+   * proportions, stretched over the image displayed. The preview is replaced by the next image
+   * displayed.
+   *
+   * @param preview the 3-D int[][][] array of the preview.
+   */
+  void displayPreview(int[][][] preview);
+
+  /**
+   * The hidePreview method takes away the preview shown by displayPreview, showing the image
+   * displayed before it again.
+   */
+  void hidePreview();
+
+  /**
+   * The getVisibleArea method returns the part of the image the user can see, so that it can
+   * be worked out first. It must be called on the event dispatch thread.
+   *
+   * @return the visible part of the image, in image pixels, or null if no image is shown.
+   */
+  Rectangle getVisibleArea();
+
+  /**
+   * The showHistoryUsage method shows how much memory and disk the undo and redo history uses.
+   *
+   * @param memoryBytes the memory the history uses, in bytes.
+   * @param diskBytes   the disk space the history uses, in bytes.
+   * @param budgetBytes the most memory the history should use, in bytes.
+   */
+  void showHistoryUsage(long memoryBytes, long diskBytes, long budgetBytes);
+
   /**
    * The displayError method takes a String error message and displays a
    * pop-up Error message to the user, with the text for the error message.
@@ -44,4 +87,26 @@ public interface IView {
    * @return a String representing the user's input of how many seeds they wish for.
    */
   String getInput(String message);
+
+  /**
+   * The showProgress method shows that an operation is running in the background, with a short
+   * description of it and a button to cancel it.
+   *
+   * @param task the description of the operation, such as "Applying blur".
+   */
+  void showProgress(String task);
+
+  /**
+   * The setProgress method shows how much of the operation running in the background is done.
+   * Until it is first called for an operation, the progress indicator only shows that the
+   * operation is running.
+   *
+   * @param percent the percentage done, from 0 to 100.
+   */
+  void setProgress(int percent);
+
+  /**
+   * The hideProgress method hides the progress indicator once no operation is running.
+   */
+  void hideProgress();
 }
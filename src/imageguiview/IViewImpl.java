@@ -3,13 +3,17 @@ package imageguiview;
 import java.awt.FlowLayout;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
-import java.awt.image.BufferedImage;
+import java.awt.Rectangle;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.StringReader;
 
+import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -17,12 +21,13 @@ import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import javax.swing.JMenuBar;
 import javax.swing.JOptionPane;
+import javax.swing.JProgressBar;
 import javax.swing.JFileChooser;
 import javax.swing.JSplitPane;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
+import javax.swing.KeyStroke;
 import javax.swing.filechooser.FileNameExtensionFilter;
-import javax.swing.ImageIcon;
 
 import imageguicontroller.Features;
 import imageprocessor.Designs;
@@ -41,15 +46,42 @@ import imageprocessor.Filters;
 public class IViewImpl extends JFrame implements IView {
 
   /**
-   * The imageLabel attribute is a JLabel representing the label of an image.
+   * The IMAGE_EXTENSIONS attribute lists the image file extensions offered by the load and save
+   * file choosers.
    */
-  private JLabel imageLabel;
+  private static final String[] IMAGE_EXTENSIONS =
+          {"jpg", "jpeg", "gif", "png", "qoi", "ppm", "pgm", "pam", "raw", "tif", "tiff"};
+
+  /**
+   * The imagePanel attribute is the ImagePanel that displays the image.
+   */
+  private ImagePanel imagePanel;
 
   /**
    * The instructions attribute is a JTextArea where users can type in commands to be run.
    */
   private JTextArea instructions;
 
+  /**
+   * The progressBar attribute is shown while an operation runs in the background.
+   */
+  private JProgressBar progressBar;
+
+  /**
+   * The progressLabel attribute describes the operation running in the background.
+   */
+  private JLabel progressLabel;
+
+  /**
+   * The historyLabel attribute shows how much memory and disk the undo history uses.
+   */
+  private JLabel historyLabel;
+
+  /**
+   * The cancel attribute is a button that cancels the operation running in the background.
+   */
+  private JButton cancel;
+
   /**
    * The JMenuItem load is a button to be pressed in the command bar to load an image.
    */
@@ -145,6 +177,31 @@ public class IViewImpl extends JFrame implements IView {
    */
   private JMenuItem verticalRainbow;
 
+  /**
+   * The JMenuItem zoomIn shows the image at twice the size.
+   */
+  private JMenuItem zoomIn;
+
+  /**
+   * The JMenuItem zoomOut shows the image at half the size.
+   */
+  private JMenuItem zoomOut;
+
+  /**
+   * The JMenuItem actualSize shows the image at its actual size.
+   */
+  private JMenuItem actualSize;
+
+  /**
+   * The JMenuItem fitToWindow shows the whole image in the window.
+   */
+  private JMenuItem fitToWindow;
+
+  /**
+   * The JCheckBoxMenuItem previewFilters turns preview mode on or off.
+   */
+  private JCheckBoxMenuItem previewFilters;
+
   /**
    * Constructs and initializes the GUI for the Image Processor.
    *
@@ -173,11 +230,13 @@ public class IViewImpl extends JFrame implements IView {
 
     setImagePanel(image);
     setScriptPanel(text);
+    setProgressPanel(text);
 
     //Create the menu bar.
     JMenuBar menuBar = new JMenuBar();
     setFileMenu(menuBar);
     setEditMenu(menuBar);
+    setViewMenu(menuBar);
     setCommandsMenu(menuBar);
     setDesignTypeMenu(menuBar);
     setFilterTypeMenu(menuBar);
@@ -201,6 +260,8 @@ public class IViewImpl extends JFrame implements IView {
     setLoadFileFeature(features);
     setSaveFileFeature(features);
     quit.addActionListener(e -> System.exit(0));
+    cancel.addActionListener(e -> features.cancel());
+    previewFilters.addActionListener(e -> features.setPreviewMode(previewFilters.isSelected()));
     setEditFeatures(features);
     setDesignTypeFeatures(features);
     setFilterTypeFeatures(features);
@@ -212,8 +273,8 @@ public class IViewImpl extends JFrame implements IView {
    * @param image represents a JPanel that will display an image.
    */
   private void setImagePanel(JPanel image) {
-    imageLabel = new JLabel();
-    JScrollPane imageScroll = new JScrollPane(imageLabel);
+    imagePanel = new ImagePanel();
+    JScrollPane imageScroll = new JScrollPane(imagePanel);
     imageScroll.setPreferredSize(new Dimension(600, 500));
     image.add(imageScroll, BorderLayout.CENTER);
   }
@@ -230,6 +291,25 @@ public class IViewImpl extends JFrame implements IView {
     text.add(areaLabel);
   }
 
+  /**
+   * This method adds a progress indicator and a cancel button to a JPanel. They are hidden until
+   * an operation runs in the background.
+   *
+   * @param text represents the JPanel the progress indicator should be added to.
+   */
+  private void setProgressPanel(JPanel text) {
+    progressLabel = new JLabel();
+    progressBar = new JProgressBar();
+    progressBar.setIndeterminate(true);
+    cancel = new JButton("Cancel");
+    text.add(progressLabel);
+    text.add(progressBar);
+    text.add(cancel);
+    hideProgress();
+    historyLabel = new JLabel();
+    text.add(historyLabel);
+  }
+
   /**
    * This method sets a menu to hold all of the filter type operations.
    *
@@ -295,6 +375,36 @@ public class IViewImpl extends JFrame implements IView {
     menu.add(editMenu);
   }
 
+  /**
+   * This method sets a menu to hold the zoom operations.
+   *
+   * <p>Zooming only changes how the image is displayed, so these items are handled by the view
+   * itself rather than passed to the Controller.</p>
+   *
+   * @param menu represents the JMenuBar that this new View JMenu should be added to.
+   */
+  private void setViewMenu(JMenuBar menu) {
+    JMenu viewMenu = new JMenu("View");
+    zoomIn = new JMenuItem("Zoom In");
+    zoomIn.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS, InputEvent.CTRL_DOWN_MASK));
+    zoomIn.addActionListener(e -> imagePanel.zoomIn());
+    viewMenu.add(zoomIn);
+    zoomOut = new JMenuItem("Zoom Out");
+    zoomOut.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, InputEvent.CTRL_DOWN_MASK));
+    zoomOut.addActionListener(e -> imagePanel.zoomOut());
+    viewMenu.add(zoomOut);
+    actualSize = new JMenuItem("Actual Size");
+    actualSize.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_0, InputEvent.CTRL_DOWN_MASK));
+    actualSize.addActionListener(e -> imagePanel.actualSize());
+    viewMenu.add(actualSize);
+    fitToWindow = new JMenuItem("Fit to Window");
+    fitToWindow.addActionListener(e -> imagePanel.fitToWindow());
+    viewMenu.add(fitToWindow);
+    viewMenu.addSeparator();
+    previewFilters = new JCheckBoxMenuItem("Preview Filters");
+    viewMenu.add(previewFilters);
+    menu.add(viewMenu);
+  }
 
   /**
    * This method sets a menu to hold all of the Run Command type operations.
@@ -352,7 +462,7 @@ public class IViewImpl extends JFrame implements IView {
       final JFileChooser jfc = new JFileChooser();
       jfc.setCurrentDirectory(new File(System.getProperty("user.dir")));
       FileNameExtensionFilter filter = new FileNameExtensionFilter(
-              "JPG, GIF, PNG Images", "jpg", "gif", "png");
+              "Images (JPG, GIF, PNG, QOI, PPM, PGM, PAM, RAW, TIFF)", IMAGE_EXTENSIONS);
       jfc.setFileFilter(filter);
       int retValue = jfc.showSaveDialog(IViewImpl.this);
       if (retValue == JFileChooser.APPROVE_OPTION) {
@@ -411,13 +521,12 @@ public class IViewImpl extends JFrame implements IView {
     load.addActionListener(e -> {
       final JFileChooser jfc = new JFileChooser(".");
       FileNameExtensionFilter filter = new FileNameExtensionFilter(
-              "JPG, GIF, PNG Images", "jpg", "gif", "png");
+              "Images (JPG, GIF, PNG, QOI, PPM, PGM, PAM, RAW, TIFF)", IMAGE_EXTENSIONS);
       jfc.setFileFilter(filter);
       int retValue = jfc.showOpenDialog(IViewImpl.this);
       if (retValue == JFileChooser.APPROVE_OPTION) {
         File f = jfc.getSelectedFile();
-        int[][][] image = features.loadImage(f.getAbsolutePath());
-        displayImage(image);
+        features.loadImage(f.getAbsolutePath());
       }
     });
   }
@@ -458,6 +567,33 @@ public class IViewImpl extends JFrame implements IView {
     greyScale.addActionListener(e -> features.applyFilter(Filters.GREYSCALE));
     dither.addActionListener(e -> features.applyFilter(Filters.DITHER));
     mosaic.addActionListener(e -> features.mosaic());
+    setFilterPreviewFeature(blur, Filters.BLUR, features);
+    setFilterPreviewFeature(sharpen, Filters.SHARPEN, features);
+    setFilterPreviewFeature(sepia, Filters.SEPIA, features);
+    setFilterPreviewFeature(greyScale, Filters.GREYSCALE, features);
+    setFilterPreviewFeature(dither, Filters.DITHER, features);
+  }
+
+  /**
+   * This method lets the Controller show a preview of a filter while the user hovers over its
+   * item in the Apply Filter menu, or moves to it with the keyboard.
+   *
+   * @param item     the menu item of the filter.
+   * @param filter   the filter.
+   * @param features the set of feature callbacks as a Features object.
+   */
+  private void setFilterPreviewFeature(JMenuItem item, Filters filter, Features features) {
+    boolean[] armed = {false};
+    item.addChangeListener(e -> {
+      if (item.isArmed() != armed[0]) {
+        armed[0] = item.isArmed();
+        if (armed[0]) {
+          features.previewFilter(filter);
+        } else {
+          features.endFilterPreview();
+        }
+      }
+    });
   }
 
   /**
@@ -480,22 +616,85 @@ public class IViewImpl extends JFrame implements IView {
    * it into an image displayed in the GUI interface for a user to see. It returns nothing
    * but shows the user the image in the display.
    *
+   * <p>Only the tiles of the image visible at the zoom shown are drawn. The whole image is taken
+   * to have changed.</p>
+   *
    * @param image the 3-D int[][][] array to be displayed to the user.
    */
   public void displayImage(int[][][] image) {
-    BufferedImage output = new BufferedImage(image[0].length,
-            image.length, BufferedImage.TYPE_INT_RGB);
-    for (int i = 0; i < image.length; i++) {
-      for (int j = 0; j < image[0].length; j++) {
-        int r = image[i][j][0];
-        int g = image[i][j][1];
-        int b = image[i][j][2];
-
-        int color = (r << 16) + (g << 8) + b;
-        output.setRGB(j, i, color);
-      }
+    imagePanel.display(image, null);
+  }
+
+  /**
+   * The displayImage method shows an image like displayImage(int[][][]), but only rebuilds and
+   * repaints the part of the display that changed, when the image keeps its size.
+   *
+   * @param image   the 3-D int[][][] array to be displayed to the user.
+   * @param changed the part of the image that differs from the image displayed before, or null
+   *                if all of it may.
+   */
+  @Override
+  public void displayImage(int[][][] image, Rectangle changed) {
+    imagePanel.display(image, changed);
+  }
+
+  /**
+   * The displayPreview method shows a preview of an image, a smaller copy of it with the same
+   * proportions, stretched over the image displayed. The preview is replaced by the next image
+   * displayed.
+   *
+   * @param preview the 3-D int[][][] array of the preview.
+   */
+  @Override
+  public void displayPreview(int[][][] preview) {
+    imagePanel.displayPreview(preview);
+  }
+
+  /**
+   * The hidePreview method takes away the preview shown by displayPreview, showing the image
+   * displayed before it again.
+   */
+  @Override
+  public void hidePreview() {
+    imagePanel.hidePreview();
+  }
+
+  /**
+   * The getVisibleArea method returns the part of the image the user can see, rounded out to
+   * whole tiles of the display.
+   *
+   * @return the visible part of the image, in image pixels, or null if no image is shown.
+   */
+  @Override
+  public Rectangle getVisibleArea() {
+    return imagePanel.visibleArea();
+  }
+
+  /**
+   * The showHistoryUsage method shows how much memory and disk the undo and redo history uses.
+   *
+   * @param memoryBytes the memory the history uses, in bytes.
+   * @param diskBytes   the disk space the history uses, in bytes.
+   * @param budgetBytes the most memory the history should use, in bytes.
+   */
+  @Override
+  public void showHistoryUsage(long memoryBytes, long diskBytes, long budgetBytes) {
+    String usage = "History: " + megabytes(memoryBytes) + " of " + megabytes(budgetBytes)
+            + " MB in memory";
+    if (diskBytes > 0) {
+      usage += ", " + megabytes(diskBytes) + " MB on disk";
     }
-    imageLabel.setIcon(new ImageIcon(output));
+    historyLabel.setText(usage);
+  }
+
+  /**
+   * The megabytes method rounds a number of bytes up to whole megabytes.
+   *
+   * @param bytes the number of bytes.
+   * @return the number of megabytes.
+   */
+  private static long megabytes(long bytes) {
+    return (bytes + (1 << 20) - 1) >> 20;
   }
 
   /**
@@ -521,4 +720,42 @@ public class IViewImpl extends JFrame implements IView {
   public String getInput(String message) {
     return JOptionPane.showInputDialog(this,message);
   }
+
+  /**
+   * The showProgress method shows that an operation is running in the background, with a short
+   * description of it and a button to cancel it.
+   *
+   * @param task the description of the operation, such as "Applying blur".
+   */
+  @Override
+  public void showProgress(String task) {
+    progressLabel.setText(task + "...");
+    progressBar.setIndeterminate(true);
+    progressBar.setStringPainted(false);
+    progressLabel.setVisible(true);
+    progressBar.setVisible(true);
+    cancel.setVisible(true);
+  }
+
+  /**
+   * The setProgress method shows how much of the operation running in the background is done.
+   *
+   * @param percent the percentage done, from 0 to 100.
+   */
+  @Override
+  public void setProgress(int percent) {
+    progressBar.setIndeterminate(false);
+    progressBar.setStringPainted(true);
+    progressBar.setValue(percent);
+  }
+
+  /**
+   * The hideProgress method hides the progress indicator once no operation is running.
+   */
+  @Override
+  public void hideProgress() {
+    progressLabel.setVisible(false);
+    progressBar.setVisible(false);
+    cancel.setVisible(false);
+  }
 }
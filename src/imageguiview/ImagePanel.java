@@ -0,0 +1,769 @@
+package imageguiview;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.swing.JPanel;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+/**
+ * The ImagePanel class displays an image in the GUI at a choice of zoom levels, painting only
+ * the tiles of the image that are visible, so that the memory and time spent on the display are
+ * bounded by the size of the screen rather than the size of the image.
+ *
+ * <p>The zoom is a power of two, from 1/64 to 8 times the size of the image. Zooming out uses a
+ * pyramid of smaller copies of the image, each half the width and height of the last, in which
+ * each pixel is the average of the two by two pixels of the level below that it covers. Zooming
+ * in enlarges the image pixels without smoothing, so every pixel can be seen.</p>
+ *
+ * <p>Every level is cut into square tiles, and a tile is only built, into a BufferedImage backed
+ * by a DataBufferInt whose array is written directly, when it is first painted. A tile of the
+ * image itself is copied from the image while it is painted. A tile of a smaller level is made
+ * from the four tiles of the level below that it covers, using the kept ones and making the
+ * others the same way without keeping them, so a tile far up the pyramid may read every pixel
+ * under it. These tiles are therefore built one at a time on a background thread, and until a
+ * tile arrives, the quarter of the kept tile of the level above that covers it is stretched over
+ * its place, if there is one. No level is ever computed as a whole. Only the most recently
+ * painted tiles are kept, a few screens' worth. When an image of the same size is displayed
+ * again, the caller says which part of it changed, since it knows without looking at the pixels:
+ * the tiles over that part, kept or still being built, are dropped, to be built again when they
+ * are next painted, and only that part is repainted. An image of a new size starts afresh.</p>
+ *
+ * <p>A preview, a smaller copy of the image with a filter applied, can be shown stretched over
+ * the image until the next image is displayed.</p>
+ */
+class ImagePanel extends JPanel implements Scrollable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The TILE_SIZE attribute is the width and height of a tile, in pixels of its level.
+   */
+  private static final int TILE_SIZE = 256;
+
+  /**
+   * The MIN_ZOOM attribute is the most the image can be zoomed out, as a power of two.
+   */
+  private static final int MIN_ZOOM = -6;
+
+  /**
+   * The MAX_ZOOM attribute is the most the image can be zoomed in, as a power of two.
+   */
+  private static final int MAX_ZOOM = 3;
+
+  /**
+   * The MIN_CACHED_TILES attribute is the fewest tiles kept, however small the panel is.
+   */
+  private static final int MIN_CACHED_TILES = 64;
+
+  /**
+   * The UNIT_INCREMENT attribute is the number of pixels scrolled by one click of an arrow.
+   */
+  private static final int UNIT_INCREMENT = 16;
+
+  /**
+   * The BUILDER attribute builds the tiles of the smaller levels of every panel, one at a time,
+   * off the event dispatch thread.
+   */
+  private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(task -> {
+    Thread thread = new Thread(task, "Image Processor tiles");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * The data attribute is the image shown, or null before the first image.
+   */
+  private int[][][] data;
+
+  private int width;
+  private int height;
+
+  /**
+   * The zoom attribute is the zoom shown, as a power of two: 0 is the actual size, -1 is half
+   * the size and 1 is twice the size.
+   */
+  private int zoom;
+
+  /**
+   * The tiles attribute holds the tiles built so far, least recently painted first, keyed by
+   * tileKey. Level k of the pyramid is 2 to the k times smaller than the image in each
+   * direction; level 0 is the image itself.
+   */
+  private final LinkedHashMap<Long, BufferedImage> tiles =
+          new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+              return size() > tileCapacity;
+            }
+          };
+
+  /**
+   * The tileCapacity attribute is the number of tiles kept, which grows with the number of
+   * tiles visible at once.
+   */
+  private int tileCapacity = MIN_CACHED_TILES;
+
+  /**
+   * The building attribute holds the tiles being built on the background thread, keyed by
+   * tileKey. A tile that arrives is only kept if its build is still the one held here.
+   */
+  private final Map<Long, Future<BufferedImage>> building = new HashMap<>();
+
+  /**
+   * The preview attribute is the preview shown over the image, or null if there is none.
+   */
+  private BufferedImage preview;
+
+  /**
+   * Constructs an ImagePanel that shows no image.
+   */
+  ImagePanel() {
+    setOpaque(true);
+  }
+
+  /**
+   * The display method shows an image. If it has the same size as the image shown before, only
+   * the part that changed is rebuilt and repainted. It must be called on the event dispatch
+   * thread.
+   *
+   * @param image   the 3-D int[][][] array of RGB values of the image.
+   * @param changed the part of the image that differs from the image shown before, in image
+   *                pixels, or null if all of it may.
+   */
+  void display(int[][][] image, Rectangle changed) {
+    if (image.length == 0 || image[0].length == 0) {
+      return;
+    }
+    int[][][] previous = data;
+    data = image;
+    if (preview != null) {
+      preview = null;
+      repaint();
+    }
+    if (previous == null || image.length != height || image[0].length != width) {
+      height = image.length;
+      width = image[0].length;
+      dropTiles(null);
+      revalidate();
+      repaint();
+      return;
+    }
+    Rectangle whole = new Rectangle(width, height);
+    Rectangle dirty = changed == null ? whole : whole.intersection(changed);
+    if (dirty.isEmpty()) {
+      return;
+    }
+    dropTiles(dirty);
+    repaint(toPanel(dirty));
+  }
+
+  /**
+   * The dropTiles method drops the tiles over part of the image, both those kept and those still
+   * being built.
+   *
+   * @param area the part of the image, in image pixels, or null for all of it.
+   */
+  private void dropTiles(Rectangle area) {
+    tiles.keySet().removeIf(key -> area == null || overlaps(key, area));
+    Iterator<Map.Entry<Long, Future<BufferedImage>>> builds = building.entrySet().iterator();
+    while (builds.hasNext()) {
+      Map.Entry<Long, Future<BufferedImage>> build = builds.next();
+      if (area == null || overlaps(build.getKey(), area)) {
+        build.getValue().cancel(false);
+        builds.remove();
+      }
+    }
+  }
+
+  /**
+   * The isKept method returns whether a tile is kept, without counting it as painted.
+   *
+   * @param level  the level.
+   * @param column the column of the tile.
+   * @param row    the row of the tile.
+   * @return true if the tile is kept.
+   */
+  boolean isKept(int level, int column, int row) {
+    return tiles.containsKey(tileKey(level, column, row));
+  }
+
+  /**
+   * The isBuilding method returns whether any tiles are still being built on the background
+   * thread.
+   *
+   * @return true if a tile is being built.
+   */
+  boolean isBuilding() {
+    return !building.isEmpty();
+  }
+
+  /**
+   * The displayPreview method shows a preview stretched over the image until the next image is
+   * displayed. It must be called on the event dispatch thread.
+   *
+   * @param image the 3-D int[][][] array of RGB values of the preview.
+   */
+  void displayPreview(int[][][] image) {
+    if (data == null || image.length == 0 || image[0].length == 0) {
+      return;
+    }
+    int previewWidth = image[0].length;
+    preview = new BufferedImage(previewWidth, image.length, BufferedImage.TYPE_INT_RGB);
+    int[] pixels = ((DataBufferInt) preview.getRaster().getDataBuffer()).getData();
+    for (int i = 0; i < image.length; i++) {
+      for (int j = 0; j < previewWidth; j++) {
+        int[] pixel = image[i][j];
+        pixels[i * previewWidth + j] = pixel[0] << 16 | pixel[1] << 8 | pixel[2];
+      }
+    }
+    repaint();
+  }
+
+  /**
+   * The hidePreview method takes the preview away, showing the image again.
+   */
+  void hidePreview() {
+    if (preview != null) {
+      preview = null;
+      repaint();
+    }
+  }
+
+  /**
+   * The visibleArea method returns the part of the image shown in the panel's scroll pane,
+   * rounded out to whole tiles so that the tiles the user sees are each rebuilt once.
+   *
+   * @return the visible part of the image, in image pixels, or null if none is visible.
+   */
+  Rectangle visibleArea() {
+    Rectangle visible = getVisibleRect();
+    if (data == null || visible.isEmpty()) {
+      return null;
+    }
+    double scale = scale();
+    int left = (int) Math.floor((visible.x - originX()) / scale) / TILE_SIZE * TILE_SIZE;
+    int top = (int) Math.floor((visible.y - originY()) / scale) / TILE_SIZE * TILE_SIZE;
+    int right = (int) Math.ceil((visible.x + visible.width - originX()) / scale);
+    int bottom = (int) Math.ceil((visible.y + visible.height - originY()) / scale);
+    right = (right + TILE_SIZE - 1) / TILE_SIZE * TILE_SIZE;
+    bottom = (bottom + TILE_SIZE - 1) / TILE_SIZE * TILE_SIZE;
+    Rectangle area = new Rectangle(left, top, right - left, bottom - top)
+            .intersection(new Rectangle(width, height));
+    return area.isEmpty() ? null : area;
+  }
+
+  /**
+   * The zoomIn method doubles the size the image is shown at, up to 8 times its actual size.
+   */
+  void zoomIn() {
+    setZoom(zoom + 1);
+  }
+
+  /**
+   * The zoomOut method halves the size the image is shown at, down to 1/64 of its actual size.
+   */
+  void zoomOut() {
+    setZoom(zoom - 1);
+  }
+
+  /**
+   * The actualSize method shows the image at its actual size.
+   */
+  void actualSize() {
+    setZoom(0);
+  }
+
+  /**
+   * The fitToWindow method shows the image at the largest zoom, no larger than its actual size,
+   * at which the whole image fits in the panel's scroll pane.
+   */
+  void fitToWindow() {
+    if (data == null) {
+      return;
+    }
+    Rectangle visible = getParent() instanceof JViewport
+            ? ((JViewport) getParent()).getViewRect() : getVisibleRect();
+    int fit = 0;
+    while (fit > MIN_ZOOM && (scaledSize(width, fit) > visible.width
+            || scaledSize(height, fit) > visible.height)) {
+      fit--;
+    }
+    setZoom(fit);
+  }
+
+  /**
+   * The setZoom method changes the zoom, keeping the point at the centre of the scroll pane at
+   * its centre.
+   *
+   * @param newZoom the new zoom, as a power of two.
+   */
+  private void setZoom(int newZoom) {
+    newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, newZoom));
+    if (newZoom == zoom) {
+      return;
+    }
+    if (!(getParent() instanceof JViewport) || data == null) {
+      zoom = newZoom;
+      revalidate();
+      repaint();
+      return;
+    }
+    JViewport viewport = (JViewport) getParent();
+    Rectangle view = viewport.getViewRect();
+    double centreX = (view.getCenterX() - originX()) / scale();
+    double centreY = (view.getCenterY() - originY()) / scale();
+    zoom = newZoom;
+    revalidate();
+    viewport.getParent().validate();
+    Dimension size = getSize();
+    int x = (int) Math.round(centreX * scale() + originX() - view.width / 2.0);
+    int y = (int) Math.round(centreY * scale() + originY() - view.height / 2.0);
+    viewport.setViewPosition(new Point(Math.max(0, Math.min(x, size.width - view.width)),
+            Math.max(0, Math.min(y, size.height - view.height))));
+    repaint();
+  }
+
+  /**
+   * The paintComponent method paints the tiles of the image that are inside the clip. Tiles of
+   * the image itself that are not kept yet are built at once; tiles of smaller levels are asked
+   * for from the background thread, with a stand-in painted until they arrive.
+   *
+   * @param g the graphics to paint with.
+   */
+  @Override
+  protected void paintComponent(Graphics g) {
+    super.paintComponent(g);
+    if (data == null) {
+      return;
+    }
+    if (preview != null) {
+      Graphics2D smooth = (Graphics2D) g.create();
+      smooth.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+              RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      Dimension size = getPreferredSize();
+      smooth.drawImage(preview, originX(), originY(), size.width, size.height, null);
+      smooth.dispose();
+      return;
+    }
+    Rectangle clip = g.getClipBounds();
+    if (clip == null) {
+      clip = new Rectangle(getSize());
+    }
+    int level = Math.max(0, -zoom);
+    int factor = 1 << Math.max(0, zoom);
+    int levelWidth = scaledSize(width, -level);
+    int levelHeight = scaledSize(height, -level);
+    int originX = originX();
+    int originY = originY();
+    int tileSpan = TILE_SIZE * factor;
+    int firstColumn = Math.max(0, (clip.x - originX) / tileSpan);
+    int firstRow = Math.max(0, (clip.y - originY) / tileSpan);
+    int lastColumn = Math.min((levelWidth - 1) / TILE_SIZE,
+            (clip.x + clip.width - originX) / tileSpan);
+    int lastRow = Math.min((levelHeight - 1) / TILE_SIZE,
+            (clip.y + clip.height - originY) / tileSpan);
+    int visibleTiles = (lastColumn - firstColumn + 1) * (lastRow - firstRow + 1);
+    tileCapacity = Math.max(tileCapacity, Math.max(MIN_CACHED_TILES, 2 * visibleTiles));
+    Map<Long, BufferedImage> kept = null;
+    for (int row = firstRow; row <= lastRow; row++) {
+      for (int column = firstColumn; column <= lastColumn; column++) {
+        int x = originX + column * tileSpan;
+        int y = originY + row * tileSpan;
+        long key = tileKey(level, column, row);
+        BufferedImage tile = tiles.get(key);
+        if (tile == null && level == 0) {
+          tile = buildTile(data, tiles, 0, column, row);
+          tiles.put(key, tile);
+        }
+        if (tile != null) {
+          g.drawImage(tile, x, y, tile.getWidth() * factor, tile.getHeight() * factor, null);
+          continue;
+        }
+        if (kept == null) {
+          kept = new HashMap<>(tiles);
+        }
+        requestTile(level, column, row, kept);
+        paintStandIn(g, level, column, row, x, y);
+      }
+    }
+  }
+
+  /**
+   * The paintStandIn method paints, in place of a tile that is still being built, the quarter of
+   * the kept tile of the level above that covers it, stretched to twice its size. If that tile
+   * is not kept either, nothing is painted.
+   *
+   * @param g      the graphics to paint with.
+   * @param level  the level of the missing tile.
+   * @param column the column of the missing tile.
+   * @param row    the row of the missing tile.
+   * @param x      where the missing tile goes in the panel.
+   * @param y      where the missing tile goes in the panel.
+   */
+  private void paintStandIn(Graphics g, int level, int column, int row, int x, int y) {
+    BufferedImage parent = tiles.get(tileKey(level + 1, column / 2, row / 2));
+    if (parent == null) {
+      return;
+    }
+    int tileWidth = Math.min(TILE_SIZE, scaledSize(width, -level) - column * TILE_SIZE);
+    int tileHeight = Math.min(TILE_SIZE, scaledSize(height, -level) - row * TILE_SIZE);
+    int left = column % 2 * TILE_SIZE / 2;
+    int top = row % 2 * TILE_SIZE / 2;
+    g.drawImage(parent, x, y, x + tileWidth, y + tileHeight, left, top,
+            left + (tileWidth + 1) / 2, top + (tileHeight + 1) / 2, null);
+  }
+
+  /**
+   * The requestTile method asks the background thread to build a tile, unless it is already
+   * being built. When the tile arrives on the event dispatch thread it is kept, if it has not
+   * been dropped in the meantime, and its part of the panel is repainted.
+   *
+   * @param level  the level.
+   * @param column the column of the tile.
+   * @param row    the row of the tile.
+   * @param kept   a copy of the kept tiles, which the build may use.
+   */
+  private void requestTile(int level, int column, int row, Map<Long, BufferedImage> kept) {
+    long key = tileKey(level, column, row);
+    if (building.containsKey(key)) {
+      return;
+    }
+    int[][][] image = data;
+    FutureTask<BufferedImage> build = new FutureTask<BufferedImage>(
+            () -> buildTile(image, kept, level, column, row)) {
+      @Override
+      protected void done() {
+        SwingUtilities.invokeLater(() -> tileBuilt(key, this));
+      }
+    };
+    building.put(key, build);
+    BUILDER.execute(build);
+  }
+
+  /**
+   * The tileBuilt method keeps a tile built on the background thread and repaints it, unless it
+   * was dropped while it was being built.
+   *
+   * @param key   the key of the tile.
+   * @param build the build of the tile.
+   */
+  private void tileBuilt(long key, Future<BufferedImage> build) {
+    if (!building.remove(key, build)) {
+      return;
+    }
+    try {
+      tiles.put(key, build.get());
+    } catch (InterruptedException | ExecutionException e) {
+      //the tile is asked for again the next time it is painted
+      return;
+    }
+    int level = tileLevel(key);
+    Rectangle bounds = tileBounds(key);
+    repaint(toPanel(new Rectangle(bounds.x << level, bounds.y << level,
+            bounds.width << level, bounds.height << level)));
+  }
+
+  /**
+   * The buildTile method builds a tile of a level of the pyramid. A tile of level 0 is copied
+   * from the image. A tile of a higher level is made from the tiles of the level below that it
+   * covers, using those given as kept and building the others without keeping them, so that
+   * building one tile far up the pyramid does not push the tiles on show out of the cache. It
+   * only reads its arguments, so it may run on any thread.
+   *
+   * @param image  the 3-D int[][][] array of RGB values of the image.
+   * @param kept   tiles already built from the image, keyed by tileKey.
+   * @param level  the level.
+   * @param column the column of the tile.
+   * @param row    the row of the tile.
+   * @return the tile.
+   */
+  static BufferedImage buildTile(int[][][] image, Map<Long, BufferedImage> kept, int level,
+                                 int column, int row) {
+    int imageWidth = image[0].length;
+    int imageHeight = image.length;
+    int levelWidth = scaledSize(imageWidth, -level);
+    int levelHeight = scaledSize(imageHeight, -level);
+    int left = column * TILE_SIZE;
+    int top = row * TILE_SIZE;
+    int tileWidth = Math.min(TILE_SIZE, levelWidth - left);
+    int tileHeight = Math.min(TILE_SIZE, levelHeight - top);
+    BufferedImage tile = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_RGB);
+    int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+    if (level == 0) {
+      for (int i = 0; i < tileHeight; i++) {
+        int[][] source = image[top + i];
+        for (int j = 0; j < tileWidth; j++) {
+          int[] pixel = source[left + j];
+          pixels[i * tileWidth + j] = pixel[0] << 16 | pixel[1] << 8 | pixel[2];
+        }
+      }
+      return tile;
+    }
+    int belowWidth = scaledSize(imageWidth, 1 - level);
+    int belowHeight = scaledSize(imageHeight, 1 - level);
+    for (int half = 0; half < 4; half++) {
+      int childColumn = column * 2 + half % 2;
+      int childRow = row * 2 + half / 2;
+      if (childColumn * TILE_SIZE >= belowWidth || childRow * TILE_SIZE >= belowHeight) {
+        continue;
+      }
+      BufferedImage child = kept.get(tileKey(level - 1, childColumn, childRow));
+      if (child == null) {
+        child = buildTile(image, kept, level - 1, childColumn, childRow);
+      }
+      shrinkInto(child, pixels, tileWidth, (half % 2) * TILE_SIZE / 2,
+              (half / 2) * TILE_SIZE / 2);
+    }
+    return tile;
+  }
+
+  /**
+   * The shrinkInto method halves a tile in each direction, averaging each two by two block of
+   * its pixels, and writes the result into one quarter of the tile of the level above. Blocks
+   * at the right and bottom edges of the image may be cut short.
+   *
+   * @param child     the tile of the level below.
+   * @param pixels    the packed pixels of the tile of the level above.
+   * @param tileWidth the width of the tile of the level above.
+   * @param left      the column of the quarter to write, in the tile of the level above.
+   * @param top       the row of the quarter to write, in the tile of the level above.
+   */
+  private static void shrinkInto(BufferedImage child, int[] pixels, int tileWidth, int left,
+                                 int top) {
+    int[] source = ((DataBufferInt) child.getRaster().getDataBuffer()).getData();
+    int childWidth = child.getWidth();
+    int childHeight = child.getHeight();
+    for (int y = 0; y * 2 < childHeight; y++) {
+      int bottom = Math.min(childHeight, y * 2 + 2);
+      for (int x = 0; x * 2 < childWidth; x++) {
+        int right = Math.min(childWidth, x * 2 + 2);
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        for (int i = y * 2; i < bottom; i++) {
+          for (int j = x * 2; j < right; j++) {
+            int pixel = source[i * childWidth + j];
+            r += pixel >> 16 & 0xff;
+            g += pixel >> 8 & 0xff;
+            b += pixel & 0xff;
+          }
+        }
+        int count = (bottom - y * 2) * (right - x * 2);
+        pixels[(top + y) * tileWidth + left + x] = r / count << 16 | g / count << 8 | b / count;
+      }
+    }
+  }
+
+  /**
+   * The scaleDown method returns the pixels of a level of the pyramid that cover a rectangle of
+   * image pixels.
+   *
+   * @param image the rectangle, in image pixels.
+   * @param level the level.
+   * @return the rectangle, in pixels of the level.
+   */
+  private static Rectangle scaleDown(Rectangle image, int level) {
+    int left = image.x >> level;
+    int top = image.y >> level;
+    int right = (image.x + image.width - 1 >> level) + 1;
+    int bottom = (image.y + image.height - 1 >> level) + 1;
+    return new Rectangle(left, top, right - left, bottom - top);
+  }
+
+  /**
+   * The overlaps method returns whether a tile covers any of a rectangle of image pixels.
+   *
+   * @param key   the key of the tile.
+   * @param image the rectangle, in image pixels.
+   * @return true if the tile covers part of the rectangle.
+   */
+  private static boolean overlaps(long key, Rectangle image) {
+    return scaleDown(image, tileLevel(key)).intersects(tileBounds(key));
+  }
+
+  /**
+   * The toPanel method returns where a rectangle of image pixels is painted in the panel.
+   *
+   * @param image the rectangle, in image pixels.
+   * @return the rectangle, in panel coordinates.
+   */
+  private Rectangle toPanel(Rectangle image) {
+    double scale = scale();
+    int left = (int) Math.floor(image.x * scale);
+    int top = (int) Math.floor(image.y * scale);
+    int right = (int) Math.ceil((image.x + image.width) * scale);
+    int bottom = (int) Math.ceil((image.y + image.height) * scale);
+    return new Rectangle(originX() + left, originY() + top, right - left, bottom - top);
+  }
+
+  /**
+   * The tileKey method packs the level, column and row of a tile into one key.
+   *
+   * @param level  the level.
+   * @param column the column of the tile.
+   * @param row    the row of the tile.
+   * @return the key.
+   */
+  static long tileKey(int level, int column, int row) {
+    return (long) level << 48 | (long) row << 24 | column;
+  }
+
+  /**
+   * The tileLevel method returns the level of a tile from its key.
+   *
+   * @param key the key of the tile.
+   * @return the level.
+   */
+  private static int tileLevel(long key) {
+    return (int) (key >>> 48);
+  }
+
+  /**
+   * The tileBounds method returns the pixels of its level that a tile covers, from its key.
+   *
+   * @param key the key of the tile.
+   * @return the rectangle, in pixels of the tile's level.
+   */
+  private static Rectangle tileBounds(long key) {
+    int row = (int) (key >>> 24 & 0xffffff);
+    int column = (int) (key & 0xffffff);
+    return new Rectangle(column * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+  }
+
+  /**
+   * The scaledSize method returns a length of the image at a zoom.
+   *
+   * @param length the length, in image pixels.
+   * @param zoom   the zoom, as a power of two.
+   * @return the length at the zoom, rounded up when zoomed out.
+   */
+  private static int scaledSize(int length, int zoom) {
+    if (zoom >= 0) {
+      return length << zoom;
+    }
+    return (length + (1 << -zoom) - 1) >> -zoom;
+  }
+
+  /**
+   * The scale method returns the number of panel pixels per image pixel at the zoom shown.
+   *
+   * @return the scale.
+   */
+  private double scale() {
+    return zoom >= 0 ? 1 << zoom : 1.0 / (1 << -zoom);
+  }
+
+  /**
+   * The getPreferredSize method returns the size of the image at the zoom shown, so that the
+   * scroll pane around the panel scrolls over all of it.
+   *
+   * @return the size of the image, or no size before the first image.
+   */
+  @Override
+  public Dimension getPreferredSize() {
+    return data == null ? new Dimension(0, 0)
+            : new Dimension(scaledSize(width, zoom), scaledSize(height, zoom));
+  }
+
+  /**
+   * The getPreferredScrollableViewportSize method returns the size of the image at the zoom
+   * shown.
+   *
+   * @return the size of the image.
+   */
+  @Override
+  public Dimension getPreferredScrollableViewportSize() {
+    return getPreferredSize();
+  }
+
+  /**
+   * The getScrollableUnitIncrement method returns how far one click of a scroll arrow moves.
+   *
+   * @param visible     the visible part of the panel.
+   * @param orientation the direction of the scroll bar.
+   * @param direction   less than zero to scroll up or left, more than zero otherwise.
+   * @return the distance in pixels.
+   */
+  @Override
+  public int getScrollableUnitIncrement(Rectangle visible, int orientation, int direction) {
+    return UNIT_INCREMENT;
+  }
+
+  /**
+   * The getScrollableBlockIncrement method returns how far a click in the scroll bar track
+   * moves, which is one screen.
+   *
+   * @param visible     the visible part of the panel.
+   * @param orientation the direction of the scroll bar.
+   * @param direction   less than zero to scroll up or left, more than zero otherwise.
+   * @return the distance in pixels.
+   */
+  @Override
+  public int getScrollableBlockIncrement(Rectangle visible, int orientation, int direction) {
+    return orientation == SwingConstants.VERTICAL ? visible.height : visible.width;
+  }
+
+  /**
+   * The getScrollableTracksViewportWidth method stretches the panel to the width of the scroll
+   * pane when the image is narrower, so that the image can be centred like it was in a label.
+   *
+   * @return true if the image is narrower than the scroll pane.
+   */
+  @Override
+  public boolean getScrollableTracksViewportWidth() {
+    return getParent() instanceof JViewport
+            && getParent().getWidth() > getPreferredSize().width;
+  }
+
+  /**
+   * The getScrollableTracksViewportHeight method stretches the panel to the height of the scroll
+   * pane when the image is shorter.
+   *
+   * @return true if the image is shorter than the scroll pane.
+   */
+  @Override
+  public boolean getScrollableTracksViewportHeight() {
+    return getParent() instanceof JViewport
+            && getParent().getHeight() > getPreferredSize().height;
+  }
+
+  /**
+   * The originX method returns where the left edge of the image is painted, so that an image
+   * narrower than the panel is centred.
+   *
+   * @return the x coordinate of the image in the panel.
+   */
+  private int originX() {
+    return Math.max(0, (getWidth() - getPreferredSize().width) / 2);
+  }
+
+  /**
+   * The originY method returns where the top edge of the image is painted.
+   *
+   * @return the y coordinate of the image in the panel.
+   */
+  private int originY() {
+    return Math.max(0, (getHeight() - getPreferredSize().height) / 2);
+  }
+}
@@ -1,5 +1,8 @@
 package imageprocessor;
 
+import java.awt.Rectangle;
+import java.util.function.Consumer;
+
 /**
  * The AbstractFilter class is an abstract class that implements the Filter interface.
  *
@@ -78,13 +81,95 @@ abstract class AbstractFilter implements Filter {
    */
   @Override
   public int[][][] modifyImage() {
+    return modifyImage(CancellationToken.NONE, ProgressListener.NONE);
+  }
+
+  /**
+   * The modifyImage method applies a filter like modifyImage(), but checks the token before
+   * each row and reports each finished row to the listener. A volatile read per row is all it
+   * costs when nobody cancels.
+   *
+   * @param token    the token to check for cancellation.
+   * @param progress the listener to report the rows done to.
+   * @return a 3-D int[][][] array representing the RGB values of each pixel in a modified image.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  @Override
+  public int[][][] modifyImage(CancellationToken token, ProgressListener progress) {
     int[][][] result = new int[height][width][3];
     for (int i = 0; i < height; i++) {
+      token.throwIfCancelled();
       for (int j = 0; j < width; j++) {
         for (int k = 0; k < 3; k++) {
           result[i][j][k] = changePixel(i, j, k);
         }
       }
+      progress.progress(i + 1, height);
+    }
+    return result;
+  }
+
+  /**
+   * The modifyImage method applies a filter like modifyImage(CancellationToken,
+   * ProgressListener), but works out the pixels in one area of the image first and hands an
+   * image with just that area filtered to a callback before working out the rest, so that the
+   * area can be shown straight away.
+   *
+   * <p>Every new pixel is worked out from the original image, which is never changed, so a
+   * kernel reaching past the edge of the area reads the original pixels around it and no halo
+   * has to be copied. The image handed to the callback shares the original's rows and pixels
+   * outside the area, and the finished image shares the area's pixels with it, so the area is
+   * only worked out once. This suits every filter whose new pixels depend only on the original
+   * image, which is every filter but Dither. If the area covers the whole image or none of it,
+   * the callback is not called.</p>
+   *
+   * @param first     the area to work out first, in image pixels.
+   * @param firstDone the callback that receives the image with the area filtered.
+   * @param token     the token to check for cancellation.
+   * @param progress  the listener to report the rows done to.
+   * @return a 3-D int[][][] array representing the RGB values of each pixel in a modified image.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  public int[][][] modifyImage(Rectangle first, Consumer<int[][][]> firstDone,
+                               CancellationToken token, ProgressListener progress) {
+    Rectangle area = first.intersection(new Rectangle(width, height));
+    if (area.isEmpty() || area.width == width && area.height == height) {
+      return modifyImage(token, progress);
+    }
+    int top = area.y;
+    int bottom = area.y + area.height;
+    int left = area.x;
+    int right = area.x + area.width;
+    long total = (long) area.height + height;
+    int[][][] partial = new int[height][][];
+    for (int i = 0; i < height; i++) {
+      if (i < top || i >= bottom) {
+        partial[i] = image[i];
+        continue;
+      }
+      token.throwIfCancelled();
+      int[][] row = image[i].clone();
+      for (int j = left; j < right; j++) {
+        row[j] = new int[] {changePixel(i, j, 0), changePixel(i, j, 1), changePixel(i, j, 2)};
+      }
+      partial[i] = row;
+      progress.progress(i - top + 1, total);
+    }
+    firstDone.accept(partial);
+    int[][][] result = new int[height][][];
+    for (int i = 0; i < height; i++) {
+      token.throwIfCancelled();
+      boolean inArea = i >= top && i < bottom;
+      int[][] row = new int[width][];
+      for (int j = 0; j < width; j++) {
+        if (inArea && j >= left && j < right) {
+          row[j] = partial[i][j];
+        } else {
+          row[j] = new int[] {changePixel(i, j, 0), changePixel(i, j, 1), changePixel(i, j, 2)};
+        }
+      }
+      result[i] = row;
+      progress.progress(area.height + i + 1, total);
     }
     return result;
   }
@@ -0,0 +1,70 @@
+package imageprocessor;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * The CancellationToken class lets one thread ask an operation running on another thread to
+ * stop early.
+ *
+ * <p>Filters check the token once per row of the image, so a cancelled filter stops within one
+ * row and throws a CancellationException, leaving the image it was applied to unchanged. A
+ * token may have a parent, in which case it is also cancelled when its parent is; this lets a
+ * script stop its own work without cancelling the caller that started it.</p>
+ */
+public class CancellationToken {
+
+  /**
+   * The NONE attribute is a token that is never cancelled, for callers that do not need to stop
+   * an operation.
+   */
+  public static final CancellationToken NONE = new CancellationToken();
+
+  private final CancellationToken parent;
+  private volatile boolean cancelled;
+
+  /**
+   * Constructs a CancellationToken that is not cancelled.
+   */
+  public CancellationToken() {
+    this(null);
+  }
+
+  /**
+   * Constructs a CancellationToken that is cancelled when it or its parent is cancelled.
+   *
+   * @param parent the parent token, or null.
+   */
+  public CancellationToken(CancellationToken parent) {
+    this.parent = parent;
+  }
+
+  /**
+   * The cancel method asks every operation checking this token to stop. Cancelling NONE has no
+   * effect.
+   */
+  public void cancel() {
+    if (this != NONE) {
+      cancelled = true;
+    }
+  }
+
+  /**
+   * The isCancelled method checks whether this token or its parent has been cancelled.
+   *
+   * @return true if the operation should stop.
+   */
+  public boolean isCancelled() {
+    return cancelled || parent != null && parent.isCancelled();
+  }
+
+  /**
+   * The throwIfCancelled method stops the calling operation if the token has been cancelled.
+   *
+   * @throws CancellationException if this token or its parent has been cancelled.
+   */
+  public void throwIfCancelled() throws CancellationException {
+    if (isCancelled()) {
+      throw new CancellationException("Error: Operation was cancelled.");
+    }
+  }
+}
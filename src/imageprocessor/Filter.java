@@ -18,6 +18,17 @@ interface Filter {
    */
   int[][][] modifyImage();
 
+  /**
+   * The modifyImage method applies a filter to an existing image's int[][][] pixel array,
+   * checking for cancellation and reporting progress once per row.
+   *
+   * @param token    the token to check for cancellation.
+   * @param progress the listener to report the rows done to.
+   * @return a 3-D int[][][] array representing the RGB values of each pixel in the image.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  int[][][] modifyImage(CancellationToken token, ProgressListener progress);
+
   /**
    * The changePixel() method modifies an individual pixel's RGB values.
    *
@@ -1,5 +1,7 @@
 package imageprocessor;
 
+import java.io.IOException;
+
 /**
  * Represents an ImageFactory to create and generate images.
  */
@@ -17,6 +19,24 @@ public class ImageFactory {
     return new ImageModelImpl(image);
   }
 
+  /**
+   * Returns a new image loaded from a file.
+   *
+   * <p>JPEG files are not decoded until the first operation on the image. If that operation is
+   * Dither, only the luminance channel of the file is read, which skips the conversion to RGB.
+   * Any other file is decoded right away.</p>
+   *
+   * @param filepath the path of the image file.
+   * @return a new image.
+   * @throws IOException if the file cannot be read.
+   */
+  public static ImageModelExtension loadImage(String filepath) throws IOException {
+    if (ImageUtil.isJpeg(filepath)) {
+      return new JpegImageModel(filepath);
+    }
+    return new ImageModelImpl(ImageUtil.readImage(filepath));
+  }
+
   /**
    * Returns a new design type image.
    *
@@ -15,6 +15,26 @@ public interface ImageModel {
    */
   void applyFilter(Filters filter) throws IllegalArgumentException;
 
+  /**
+   * The applyFilter method applies a filter like applyFilter(Filters), but can be stopped early
+   * and reports its progress. If it is stopped, the image is left as it was.
+   *
+   * <p>The default implementation only checks the token before and after the filter, for
+   * models that cannot stop part of the way through.</p>
+   *
+   * @param filter   the filter to be applied to the image.
+   * @param token    the token to check for cancellation.
+   * @param progress the listener to report progress to.
+   * @throws IllegalArgumentException if the specified filter is not a valid Features enum value.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  default void applyFilter(Filters filter, CancellationToken token, ProgressListener progress)
+          throws IllegalArgumentException {
+    token.throwIfCancelled();
+    applyFilter(filter);
+    progress.progress(1, 1);
+  }
+
   /**
    * The saveModifiedImage(filename) method saves a representation of an image to a specified
    * outfile address. The image will be what is produced following any modifications, or will
@@ -1,5 +1,8 @@
 package imageprocessor;
 
+import java.awt.Rectangle;
+import java.util.function.Consumer;
+
 /**
  * The ImageModelExtension interface contains methods for applying a mosaic filter to an image and
  * for saving an image.
@@ -23,9 +26,63 @@ public interface ImageModelExtension extends ImageModel {
    */
   int[][][] getOriginalImage();
 
+  /**
+   * The method applies a filter like applyFilter(Filters, CancellationToken, ProgressListener),
+   * but works out one area of the image first, such as the part the user can see, and hands an
+   * image with just that area filtered to a callback while the rest is worked out.
+   *
+   * <p>The default implementation filters the whole image at once without calling the
+   * callback, for models and filters that cannot work on one area first.</p>
+   *
+   * @param filter    the Filters enum the user wishes to apply to this image.
+   * @param first     the area to work out first, in image pixels, or null for none.
+   * @param firstDone the callback that receives the image with the area filtered.
+   * @param token     the token to check for cancellation.
+   * @param progress  the listener to report progress to.
+   * @throws IllegalArgumentException if the filter is null.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  default void applyFilter(Filters filter, Rectangle first, Consumer<int[][][]> firstDone,
+                           CancellationToken token, ProgressListener progress)
+          throws IllegalArgumentException {
+    applyFilter(filter, token, progress);
+  }
+
   /**
    * The method applies a mosaic filter to an image based on the number of seeds the user specifies.
    * @param numOfSeeds the number of seeds to produce
    */
   void mosaic(int numOfSeeds);
+
+  /**
+   * The method applies a mosaic filter like mosaic(int), but can be stopped early and reports
+   * its progress. If it is stopped, the image is left as it was.
+   *
+   * <p>The default implementation only checks the token before and after the mosaic, for
+   * models that cannot stop part of the way through.</p>
+   *
+   * @param numOfSeeds the number of seeds to produce
+   * @param token      the token to check for cancellation.
+   * @param progress   the listener to report progress to.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  default void mosaic(int numOfSeeds, CancellationToken token, ProgressListener progress) {
+    token.throwIfCancelled();
+    mosaic(numOfSeeds);
+    progress.progress(1, 1);
+  }
+
+  /**
+   * The method applies a mosaic filter like mosaic(int, CancellationToken, ProgressListener),
+   * but places the seeds with a random number generator made from a given seed, so that the
+   * same image and seed always give the same mosaic.
+   *
+   * @param numOfSeeds the number of seeds to produce
+   * @param randomSeed the seed of the random number generator that places them
+   * @param token      the token to check for cancellation.
+   * @param progress   the listener to report progress to.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  void mosaic(int numOfSeeds, long randomSeed, CancellationToken token,
+              ProgressListener progress);
 }
@@ -1,6 +1,9 @@
 package imageprocessor;
 
+import java.awt.Rectangle;
 import java.io.IOException;
+import java.util.Random;
+import java.util.function.Consumer;
 
 /**
  * The ImageModelImpl class represents an image object, whose data is stored as a 3-D int[][][]
@@ -105,6 +108,23 @@ public class ImageModelImpl implements ImageModelExtension {
    */
   @Override
   public void applyFilter(Filters filter) throws IllegalArgumentException {
+    applyFilter(filter, CancellationToken.NONE, ProgressListener.NONE);
+  }
+
+  /**
+   * The applyFilter method applies a filter like applyFilter(Filters), checking the token and
+   * reporting progress once per row. Dither runs in two passes, greyscale and then dither, each
+   * counting for half of the progress.
+   *
+   * @param filter   the Filters enum the user wishes to apply to this image.
+   * @param token    the token to check for cancellation.
+   * @param progress the listener to report progress to.
+   * @throws IllegalArgumentException if the user's chosen filter is null.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  @Override
+  public void applyFilter(Filters filter, CancellationToken token, ProgressListener progress)
+          throws IllegalArgumentException {
     if (filter == null) {
       throw new IllegalArgumentException("Sorry, that filter is not supported.");
     }
@@ -125,12 +145,40 @@ public class ImageModelImpl implements ImageModelExtension {
         break;
       case DITHER:
         GreyScale greyImage = new GreyScale(modifiedData, height, width);
-        newImage = new Dither(greyImage.modifyImage(), height, width);
+        newImage = new Dither(greyImage.modifyImage(token,
+                ProgressListener.stage(progress, 0, 2)), height, width);
+        progress = ProgressListener.stage(progress, 1, 2);
         break;
       default:
         throw new IllegalArgumentException("Sorry, that filter is not supported.");
     }
-    this.modifiedData = newImage.modifyImage();
+    this.modifiedData = newImage.modifyImage(token, progress);
+  }
+
+  /**
+   * The applyFilter method applies a filter like applyFilter(Filters, CancellationToken,
+   * ProgressListener), working out one area of the image first for Blur and Sharpen. These are
+   * the filters slow enough for the wait to show; the others filter the whole image at once.
+   *
+   * @param filter    the Filters enum the user wishes to apply to this image.
+   * @param first     the area to work out first, in image pixels, or null for none.
+   * @param firstDone the callback that receives the image with the area filtered.
+   * @param token     the token to check for cancellation.
+   * @param progress  the listener to report progress to.
+   * @throws IllegalArgumentException if the user's chosen filter is null.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  @Override
+  public void applyFilter(Filters filter, Rectangle first, Consumer<int[][][]> firstDone,
+                          CancellationToken token, ProgressListener progress)
+          throws IllegalArgumentException {
+    if (first == null || filter != Filters.BLUR && filter != Filters.SHARPEN) {
+      applyFilter(filter, token, progress);
+      return;
+    }
+    AbstractFilter newImage = filter == Filters.BLUR
+            ? new Blur(modifiedData, height, width) : new Sharpen(modifiedData, height, width);
+    this.modifiedData = newImage.modifyImage(first, firstDone, token, progress);
   }
 
   /**
@@ -261,7 +309,38 @@ public class ImageModelImpl implements ImageModelExtension {
    */
   @Override
   public void mosaic(int numOfSeeds) {
+    mosaic(numOfSeeds, CancellationToken.NONE, ProgressListener.NONE);
+  }
+
+  /**
+   * The method applies a mosaic filter like mosaic(int), checking the token and reporting
+   * progress once per row.
+   *
+   * @param numOfSeeds the number of seeds to be selected in the Mosaic.
+   * @param token      the token to check for cancellation.
+   * @param progress   the listener to report progress to.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  @Override
+  public void mosaic(int numOfSeeds, CancellationToken token, ProgressListener progress) {
     Filter mosaic = new Mosaic(modifiedData, height, width, numOfSeeds);
-    modifiedData = mosaic.modifyImage();
+    modifiedData = mosaic.modifyImage(token, progress);
+  }
+
+  /**
+   * The method applies a mosaic filter like mosaic(int, CancellationToken, ProgressListener),
+   * placing the seeds with a random number generator made from the given seed.
+   *
+   * @param numOfSeeds the number of seeds to be selected in the Mosaic.
+   * @param randomSeed the seed of the random number generator that places them.
+   * @param token      the token to check for cancellation.
+   * @param progress   the listener to report progress to.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  @Override
+  public void mosaic(int numOfSeeds, long randomSeed, CancellationToken token,
+                     ProgressListener progress) {
+    Filter mosaic = new Mosaic(modifiedData, height, width, numOfSeeds, new Random(randomSeed));
+    modifiedData = mosaic.modifyImage(token, progress);
   }
 }
@@ -1,39 +1,162 @@
 package imageprocessor;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+
+import org.w3c.dom.Node;
 
 /**
  * This class contains utility methods to read an image from file and write to a file.
  */
 public class ImageUtil {
 
+  /**
+   * The DEFAULT_PNG_LEVEL attribute is the deflate level used when a PNG is written through
+   * writeImage.
+   */
+  public static final int DEFAULT_PNG_LEVEL = 6;
+
+  /**
+   * The DEFAULT_PNG_FILTER attribute is the scanline filter strategy used when a PNG is written
+   * through writeImage.
+   */
+  public static final PngFilter DEFAULT_PNG_FILTER = PngFilter.ADAPTIVE;
+
+  /**
+   * The JPEG_METADATA_FORMAT attribute is the name of the native metadata format of the JPEG
+   * reader.
+   */
+  private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+  /**
+   * The PNG_METADATA_FORMAT attribute is the name of the native metadata format of the PNG
+   * reader.
+   */
+  private static final String PNG_METADATA_FORMAT = "javax_imageio_png_1.0";
+
   /**
    * Read an image file and return the contents as an array.
    *
+   * <p>Binary PPM, PGM and PAM images and the headered raw format are read directly through a
+   * FileChannel, QOI images are decoded by QoiCodec and TIFF or BigTIFF images are read through a
+   * TiffTileReader. Every other format goes through ImageIO.</p>
+   *
    * @param filename the path of the file. Look at the ImageIO documentation to see which file
    *                 formats are supported.
    * @return the image as a 3D array of integer values
    */
   public static int[][][] readImage(String filename) throws IOException {
+    if (UncompressedCodec.isSupported(getExtension(filename))) {
+      return UncompressedCodec.read(filename);
+    }
+    if (getExtension(filename).equals("qoi")) {
+      return QoiCodec.read(filename);
+    }
+    if (isTiff(getExtension(filename))) {
+      try (TiffTileReader reader = new TiffTileReader(filename)) {
+        return reader.readRegion(0, 0, reader.getWidth(), reader.getHeight());
+      }
+    }
     BufferedImage input;
 
-    input = ImageIO.read(new FileInputStream(filename));
+    try (FileInputStream in = new FileInputStream(filename)) {
+      input = ImageIO.read(in);
+    }
+    if (input == null) {
+      throw new IOException("No reader is available for " + filename + ".");
+    }
+    return toArray(input);
+  }
+
+  /**
+   * Read an image file like readImage(String), handing each partly decoded image to a callback
+   * as it arrives.
+   *
+   * <p>Progressive JPEGs and interlaced PNGs are decoded in passes, the first of which already
+   * shows the whole picture at a low quality, so a large file can be shown long before it has
+   * been read completely. Files read through ImageIO are read with a PassListener, which reports
+   * the reader's progress and stops it when the token is cancelled. It only listens for passes
+   * when the image is stored in several, because listening makes the JPEG reader convert every
+   * pass to RGB, which would slow down an image stored in one pass for nothing. Formats read
+   * directly are read as readImage(String) reads them, and the callback is not called.</p>
+   *
+   * @param filename the path of the file.
+   * @param partial  the callback that receives each partly decoded image.
+   * @param token    the token to check for cancellation.
+   * @param progress the listener to report progress to.
+   * @return the image as a 3D array of integer values
+   * @throws IOException if the file cannot be read.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  public static int[][][] readImage(String filename, Consumer<int[][][]> partial,
+                                    CancellationToken token, ProgressListener progress)
+          throws IOException {
+    String extension = getExtension(filename);
+    if (UncompressedCodec.isSupported(extension) || extension.equals("qoi")
+            || isTiff(extension)) {
+      token.throwIfCancelled();
+      return readImage(filename);
+    }
+    try (ImageInputStream stream = ImageIO.createImageInputStream(new File(filename))) {
+      if (stream == null) {
+        throw new IOException("Cannot open " + filename + ".");
+      }
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+      if (!readers.hasNext()) {
+        throw new IOException("No reader is available for " + filename + ".");
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(stream, true, false);
+        PassListener listener = new PassListener(partial, token, progress);
+        if (isInterlaced(reader.getImageMetadata(0))) {
+          reader.addIIOReadUpdateListener(listener);
+        }
+        reader.addIIOReadProgressListener(listener);
+        BufferedImage input = reader.read(0);
+        token.throwIfCancelled();
+        return toArray(input);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
 
-    int[][][] result = new int[input.getHeight()][input.getWidth()][3];
+  /**
+   * The toArray method converts a decoded image to an array.
+   *
+   * @param input the decoded image.
+   * @return the image as a 3D array of integer values
+   */
+  private static int[][][] toArray(BufferedImage input) {
+    int width = input.getWidth();
+    int[][][] result = new int[input.getHeight()][width][3];
+    int[] row = new int[width];
 
     for (int i = 0; i < input.getHeight(); i++) {
-      for (int j = 0; j < input.getWidth(); j++) {
-        int color = input.getRGB(j, i);
-        Color c = new Color(color);
-        result[i][j][0] = c.getRed();
-        result[i][j][1] = c.getGreen();
-        result[i][j][2] = c.getBlue();
+      input.getRGB(0, i, width, 1, row, 0, width);
+      for (int j = 0; j < width; j++) {
+        int color = row[j];
+        result[i][j][0] = (color >> 16) & 0xff;
+        result[i][j][1] = (color >> 8) & 0xff;
+        result[i][j][2] = color & 0xff;
       }
     }
     return result;
@@ -49,11 +172,18 @@ public class ImageUtil {
    */
 
   public static int getWidth(String filename) throws IOException {
-    BufferedImage input;
-
-    input = ImageIO.read(new FileInputStream(filename));
-
-    return input.getWidth();
+    if (UncompressedCodec.isSupported(getExtension(filename))) {
+      return UncompressedCodec.readSize(filename)[0];
+    }
+    if (getExtension(filename).equals("qoi")) {
+      return QoiCodec.readSize(filename)[0];
+    }
+    if (isTiff(getExtension(filename))) {
+      try (TiffTileReader reader = new TiffTileReader(filename)) {
+        return reader.getWidth();
+      }
+    }
+    return readSizeWithImageIO(filename)[0];
   }
 
   /**
@@ -65,16 +195,99 @@ public class ImageUtil {
    * @throws IOException if the file is not found
    */
   public static int getHeight(String filename) throws IOException {
-    BufferedImage input;
+    if (UncompressedCodec.isSupported(getExtension(filename))) {
+      return UncompressedCodec.readSize(filename)[1];
+    }
+    if (getExtension(filename).equals("qoi")) {
+      return QoiCodec.readSize(filename)[1];
+    }
+    if (isTiff(getExtension(filename))) {
+      try (TiffTileReader reader = new TiffTileReader(filename)) {
+        return reader.getHeight();
+      }
+    }
+    return readSizeWithImageIO(filename)[1];
+  }
+
+  /**
+   * Shrink an image so that neither side is longer than a given size.
+   *
+   * <p>The image is shrunk by a whole factor, the smallest that makes it fit, and each pixel of
+   * the result is the average of the block of pixels it covers; blocks at the right and bottom
+   * edges may be cut short by the edge of the image. An image that already fits is copied
+   * unchanged. The result is a new array either way.</p>
+   *
+   * @param rgb     the image data as a 3D array of integers. The dimensions are row, col and
+   *                channel respectively
+   * @param maxSize the longest either side of the result may be
+   * @return the shrunk image
+   * @throws IllegalArgumentException if maxSize is less than one
+   */
+  public static int[][][] shrink(int[][][] rgb, int maxSize) throws IllegalArgumentException {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Error: The size must be at least 1.");
+    }
+    int height = rgb.length;
+    int width = rgb[0].length;
+    int factor = Math.max(1, (Math.max(width, height) + maxSize - 1) / maxSize);
+    int newHeight = (height + factor - 1) / factor;
+    int newWidth = (width + factor - 1) / factor;
+    int[][][] result = new int[newHeight][newWidth][3];
+    for (int i = 0; i < newHeight; i++) {
+      int bottom = Math.min(height, (i + 1) * factor);
+      for (int j = 0; j < newWidth; j++) {
+        int right = Math.min(width, (j + 1) * factor);
+        long r = 0;
+        long g = 0;
+        long b = 0;
+        for (int y = i * factor; y < bottom; y++) {
+          for (int x = j * factor; x < right; x++) {
+            r += rgb[y][x][0];
+            g += rgb[y][x][1];
+            b += rgb[y][x][2];
+          }
+        }
+        long count = (long) (bottom - i * factor) * (right - j * factor);
+        result[i][j][0] = (int) (r / count);
+        result[i][j][1] = (int) (g / count);
+        result[i][j][2] = (int) (b / count);
+      }
+    }
+    return result;
+  }
 
-    input = ImageIO.read(new FileInputStream(filename));
+  /**
+   * Compress an image into memory without loss, using the fast QOI format.
+   *
+   * @param rgb the image data as a 3D array of integers. The dimensions are row, col and
+   *            channel respectively
+   * @return the compressed bytes
+   * @throws IllegalArgumentException if the image is too large for the format
+   */
+  public static byte[] compress(int[][][] rgb) throws IllegalArgumentException {
+    return QoiCodec.encode(rgb, rgb[0].length, rgb.length);
+  }
 
-    return input.getHeight();
+  /**
+   * Decompress an image compressed by compress.
+   *
+   * @param data the compressed bytes
+   * @return the image data as a 3D array of integers. The dimensions are row, col and channel
+   *         respectively
+   * @throws IOException if the bytes are not a compressed image
+   */
+  public static int[][][] decompress(byte[] data) throws IOException {
+    return QoiCodec.decode(data);
   }
 
   /**
    * Write an image to a file in a given format.
    *
+   * <p>The extensions ppm, pgm, pam and raw are written uncompressed through a FileChannel, qoi
+   * is encoded by QoiCodec and png is compressed on several cores with the default level and
+   * filter strategy. tif and tiff are written as tiled, uncompressed TIFF (or BigTIFF for very
+   * large images). Every other extension is handed to ImageIO.</p>
+   *
    * @param rgb      the image data as a 3D array of integers. The dimensions are row, col and
    *                 channel respectively
    * @param width    the width of the image
@@ -86,6 +299,30 @@ public class ImageUtil {
   public static void writeImage(int[][][] rgb, int width, int height, String
           filename)
           throws IOException {
+    String extension = getExtension(filename);
+    if (UncompressedCodec.isSupported(extension)) {
+      UncompressedCodec.write(rgb, width, height, filename, extension);
+      return;
+    }
+    if (extension.equals("qoi")) {
+      QoiCodec.write(rgb, width, height, filename);
+      return;
+    }
+    if (extension.equals("png")) {
+      PngEncoder.write(rgb, width, height, filename, DEFAULT_PNG_LEVEL, DEFAULT_PNG_FILTER);
+      return;
+    }
+    if (isTiff(extension)) {
+      try (TiffTileWriter writer = new TiffTileWriter(filename, width, height)) {
+        for (int ty = 0; ty < writer.getTilesDown(); ty++) {
+          for (int tx = 0; tx < writer.getTilesAcross(); tx++) {
+            writer.writeTile(tx, ty, crop(rgb, tx * writer.getTileWidth(),
+                    ty * writer.getTileHeight(), writer.getTileWidth(), writer.getTileHeight()));
+          }
+        }
+      }
+      return;
+    }
 
     BufferedImage output = new BufferedImage(
             width,
@@ -105,7 +342,345 @@ public class ImageUtil {
         output.setRGB(j, i, color);
       }
     }
-    String extension = filename.substring(filename.indexOf(".") + 1);
     ImageIO.write(output, extension, new FileOutputStream(filename));
   }
+
+  /**
+   * Write an image to a PNG file with a chosen compression level and filter strategy.
+   *
+   * <p>Blocks of scanlines are filtered and deflated on several cores at once, and the results
+   * are stitched into a single valid PNG. Lower levels and simpler filters write faster; higher
+   * levels and the ADAPTIVE filter write smaller files.</p>
+   *
+   * @param rgb      the image data as a 3D array of integers. The dimensions are row, col and
+   *                 channel respectively
+   * @param width    the width of the image
+   * @param height   the height of the image
+   * @param filename the full path of where the image must be stored
+   * @param level    the deflate compression level, from 0 (no compression) to 9 (smallest file)
+   * @param filter   the scanline filter strategy
+   * @throws IOException if the file cannot be written to the provided path
+   * @throws IllegalArgumentException if the level is out of range or the filter is null
+   */
+  public static void writePng(int[][][] rgb, int width, int height, String filename, int level,
+                              PngFilter filter) throws IOException {
+    PngEncoder.write(rgb, width, height, filename, level, filter);
+  }
+
+  /**
+   * The readSizeWithImageIO method reads the width and height of an image from its header
+   * through ImageIO, without decoding any pixels.
+   *
+   * @param filename the path of the image file.
+   * @return a two-element array holding the width and the height of the image.
+   * @throws IOException if the file cannot be opened or no ImageIO reader understands it.
+   */
+  private static int[] readSizeWithImageIO(String filename) throws IOException {
+    try (ImageInputStream stream = ImageIO.createImageInputStream(new File(filename))) {
+      if (stream == null) {
+        throw new IOException("Cannot open " + filename + ".");
+      }
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+      if (!readers.hasNext()) {
+        throw new IOException("No reader is available for " + filename + ".");
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(stream, true, true);
+        return new int[]{reader.getWidth(0), reader.getHeight(0)};
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * The readLuma method reads only the luminance (Y) channel of a JPEG file, skipping the
+   * conversion to RGB. The result is the same kind of array readImage returns, but every pixel
+   * of a given grey level refers to one shared {Y, Y, Y} array, as the colours of the designs
+   * are shared, so it takes a small fraction of the memory of an RGB image. Callers that change
+   * pixels in place, as Dither does, must copy it first.
+   *
+   * <p>The method only applies to greyscale JPEGs and to JFIF JPEGs, whose first channel is known
+   * to be luminance. This is checked from the metadata before any pixels are decoded, and only
+   * the luminance is decoded. For any other file, such as an Adobe RGB or CMYK JPEG, it returns
+   * null and the caller should decode the file with readImage instead.</p>
+   *
+   * @param filename the path of the JPEG file.
+   * @return the luminance of the image as a 3D array, or null if it cannot be read directly.
+   * @throws IOException if the file cannot be read.
+   */
+  static int[][][] readLuma(String filename) throws IOException {
+    try (ImageInputStream stream = ImageIO.createImageInputStream(new File(filename))) {
+      if (stream == null) {
+        throw new IOException("Cannot open " + filename + ".");
+      }
+      Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("jpeg");
+      if (!readers.hasNext()) {
+        return null;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(stream, true, false);
+        IIOMetadata metadata = reader.getImageMetadata(0);
+        int components = componentCount(metadata);
+        if (components != 1 && !(components == 3 && isJfif(metadata))) {
+          return null;
+        }
+        //a grey destination makes the decoder output Y alone, skipping the chroma entirely;
+        //the JPEG reader rejects a subset of source bands when reading a raster
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestinationType(ImageTypeSpecifier.createGrayscale(8, DataBuffer.TYPE_BYTE,
+                false));
+        Raster raster = reader.read(0, param).getRaster();
+        int[][] greys = new int[256][];
+        for (int level = 0; level < greys.length; level++) {
+          greys[level] = new int[] {level, level, level};
+        }
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int[][][] result = new int[height][width][];
+        int[] row = new int[width];
+        for (int i = 0; i < height; i++) {
+          raster.getSamples(raster.getMinX(), raster.getMinY() + i, width, 1, 0, row);
+          for (int j = 0; j < width; j++) {
+            result[i][j] = greys[row[j]];
+          }
+        }
+        return result;
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * The componentCount method reads the number of colour components of a JPEG from its frame
+   * header.
+   *
+   * @param metadata the image metadata read by the JPEG reader.
+   * @return the number of components, or 0 if the metadata has no frame header.
+   */
+  private static int componentCount(IIOMetadata metadata) {
+    Node root = metadata.getAsTree(JPEG_METADATA_FORMAT);
+    for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeName().equals("markerSequence")) {
+        for (Node marker = child.getFirstChild(); marker != null;
+             marker = marker.getNextSibling()) {
+          if (marker.getNodeName().equals("sof")) {
+            return marker.getChildNodes().getLength();
+          }
+        }
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * The isJfif method checks whether JPEG metadata contains a JFIF marker, which means the
+   * image is stored as YCbCr.
+   *
+   * @param metadata the image metadata read by the JPEG reader.
+   * @return true if the image is a JFIF image.
+   */
+  private static boolean isJfif(IIOMetadata metadata) {
+    Node root = metadata.getAsTree(JPEG_METADATA_FORMAT);
+    for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeName().equals("JPEGvariety")) {
+        for (Node marker = child.getFirstChild(); marker != null;
+             marker = marker.getNextSibling()) {
+          if (marker.getNodeName().equals("app0JFIF")) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The isInterlaced method checks whether image metadata describes a progressive JPEG or an
+   * interlaced PNG, which are decoded in several passes.
+   *
+   * @param metadata the image metadata read by the reader, or null if it has none.
+   * @return true if the image is stored in several passes.
+   */
+  private static boolean isInterlaced(IIOMetadata metadata) {
+    if (metadata == null) {
+      return false;
+    }
+    String format = metadata.getNativeMetadataFormatName();
+    if (JPEG_METADATA_FORMAT.equals(format)) {
+      Node root = metadata.getAsTree(JPEG_METADATA_FORMAT);
+      for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+        if (child.getNodeName().equals("markerSequence")) {
+          for (Node marker = child.getFirstChild(); marker != null;
+               marker = marker.getNextSibling()) {
+            if (marker.getNodeName().equals("sof")) {
+              Node process = marker.getAttributes().getNamedItem("process");
+              return process != null && process.getNodeValue().equals("2");
+            }
+          }
+        }
+      }
+    } else if (PNG_METADATA_FORMAT.equals(format)) {
+      Node root = metadata.getAsTree(PNG_METADATA_FORMAT);
+      for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+        if (child.getNodeName().equals("IHDR")) {
+          Node interlace = child.getAttributes().getNamedItem("interlaceMethod");
+          return interlace != null && interlace.getNodeValue().equals("adam7");
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The isJpeg method checks whether a file name has a JPEG extension.
+   *
+   * @param filename the name or path of the file.
+   * @return true if the extension is jpg or jpeg.
+   */
+  static boolean isJpeg(String filename) {
+    String extension = getExtension(filename);
+    return extension.equals("jpg") || extension.equals("jpeg");
+  }
+
+  /**
+   * Apply filters to a TIFF or BigTIFF image tile by tile, writing the result to a tiled TIFF.
+   *
+   * <p>The image is never held in memory as a whole. Each output tile is read together with a
+   * halo of neighbouring pixels wide enough for the filters' kernels, filtered, cropped and
+   * streamed to the output file, and independent tiles are processed in parallel. The result is
+   * identical to filtering the whole image at once. Dither is not supported, because its error
+   * diffusion crosses tile borders; neither is Mosaic, which is not a Filters value.</p>
+   *
+   * @param input   the path of the TIFF or BigTIFF image to read.
+   * @param output  the path of the tiled TIFF to write.
+   * @param filters the filters to apply, in order.
+   * @throws IOException if a file cannot be read or written.
+   * @throws IllegalArgumentException if no filters are given or a filter cannot be tiled.
+   */
+  public static void applyFiltersTiled(String input, String output, Filters... filters)
+          throws IOException {
+    if (filters == null || filters.length == 0) {
+      throw new IllegalArgumentException("Error: Missing filter type.");
+    }
+    int halo = 0;
+    for (Filters filter : filters) {
+      halo += tileHalo(filter);
+    }
+    int margin = halo;
+    try (TiffTileReader reader = new TiffTileReader(input)) {
+      int tileWidth = roundToTileSize(reader.getTileWidth());
+      int tileHeight = roundToTileSize(reader.getTileHeight());
+      try (TiffTileWriter writer = new TiffTileWriter(output, reader.getWidth(),
+              reader.getHeight(), tileWidth, tileHeight)) {
+        int across = writer.getTilesAcross();
+        try {
+          IntStream.range(0, across * writer.getTilesDown()).parallel().forEach(index -> {
+            int x = (index % across) * tileWidth;
+            int y = (index / across) * tileHeight;
+            int left = Math.max(0, x - margin);
+            int top = Math.max(0, y - margin);
+            try {
+              ImageModelExtension tile = new ImageModelImpl(reader.readRegion(left, top,
+                      tileWidth + (x - left) + margin, tileHeight + (y - top) + margin));
+              for (Filters filter : filters) {
+                tile.applyFilter(filter);
+              }
+              writer.writeTile(index % across, index / across,
+                      crop(tile.getModifiedImage(), x - left, y - top, tileWidth, tileHeight));
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+      }
+    }
+  }
+
+  /**
+   * The tileHalo method returns how many pixels beyond a tile a filter reads.
+   *
+   * @param filter the filter to be applied tile by tile.
+   * @return the radius of the filter's kernel.
+   * @throws IllegalArgumentException if the filter cannot be applied tile by tile.
+   */
+  private static int tileHalo(Filters filter) {
+    if (filter == null) {
+      throw new IllegalArgumentException("Sorry, that filter is not supported.");
+    }
+    switch (filter) {
+      case BLUR:
+        return 1;
+      case SHARPEN:
+        return 2;
+      case GREYSCALE:
+      case SEPIA:
+        return 0;
+      default:
+        throw new IllegalArgumentException("Error: " + filter + " cannot be applied tile by tile.");
+    }
+  }
+
+  /**
+   * The roundToTileSize method rounds a tile dimension of an input image to a valid TIFF tile
+   * dimension, a multiple of 16 no larger than 1024.
+   *
+   * @param size the tile dimension of the input image.
+   * @return the tile dimension to write.
+   */
+  private static int roundToTileSize(int size) {
+    if (size % 16 != 0 || size > 1024) {
+      return TiffTileWriter.DEFAULT_TILE_SIZE;
+    }
+    return size;
+  }
+
+  /**
+   * The crop method copies a rectangle out of an image, clipped to the image's bounds.
+   *
+   * @param rgb    the image data as a 3D array of integers.
+   * @param x      the left edge of the rectangle.
+   * @param y      the top edge of the rectangle.
+   * @param width  the width of the rectangle.
+   * @param height the height of the rectangle.
+   * @return the pixels inside the rectangle.
+   */
+  static int[][][] crop(int[][][] rgb, int x, int y, int width, int height) {
+    int rows = Math.min(height, rgb.length - y);
+    int columns = Math.min(width, rgb[0].length - x);
+    int[][][] result = new int[rows][][];
+    for (int i = 0; i < rows; i++) {
+      result[i] = Arrays.copyOfRange(rgb[y + i], x, x + columns);
+    }
+    return result;
+  }
+
+  /**
+   * The isTiff method checks whether a file extension belongs to a TIFF image.
+   *
+   * @param extension the lower-case file extension, without the dot.
+   * @return true if the extension is tif or tiff.
+   */
+  private static boolean isTiff(String extension) {
+    return extension.equals("tif") || extension.equals("tiff");
+  }
+
+  /**
+   * The getExtension method returns the lower-case extension of a file name, without the dot.
+   *
+   * @param filename the name or path of the file.
+   * @return the extension, or an empty String if the file name has none.
+   */
+  static String getExtension(String filename) {
+    int dot = filename.lastIndexOf('.');
+    if (dot < 0 || dot < filename.lastIndexOf(File.separatorChar)) {
+      return "";
+    }
+    return filename.substring(dot + 1).toLowerCase();
+  }
 }
@@ -0,0 +1,255 @@
+package imageprocessor;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * The JpegImageModel class represents an image loaded from a JPEG file whose decoding is
+ * deferred until the first operation on it.
+ *
+ * <p>A JPEG stores its pixels as luminance (Y) and chrominance (Cb, Cr). If the first operation
+ * is Dither, the model reads only the raw Y channel and skips the conversion to RGB and the RGB
+ * BufferedImage entirely. Any other first operation decodes the file to RGB as usual and hands
+ * over to an ImageModelImpl.</p>
+ *
+ * <p>The luminance stored in a JPEG uses the BT.601 weights rather than the BT.709 weights of
+ * the GreyScale filter, and it cannot be converted to them without the chrominance. GreyScale
+ * therefore always decodes the colours, so a greyscale JPEG matches the same image loaded from
+ * any other format. Dither only keeps black and white, so dithering the luminance is close
+ * enough: the two grey levels of a pixel differ by a few levels at most on strongly saturated
+ * colours, which can move a few dots of the pattern but never changes its overall tone.</p>
+ */
+class JpegImageModel implements ImageModelExtension {
+
+  /**
+   * The filepath attribute stores the path of the JPEG file.
+   */
+  private final String filepath;
+
+  /**
+   * The delegate attribute stores the decoded model, or null until the file has been decoded.
+   */
+  private ImageModelExtension delegate;
+
+  /**
+   * The original attribute stores the RGB pixels of the file once they have been decoded.
+   */
+  private int[][][] original;
+
+  /**
+   * The JpegImageModel constructor checks that the file is a readable JPEG but does not decode
+   * its pixels.
+   *
+   * @param filepath the path of the JPEG file.
+   * @throws IOException if the file cannot be opened or its header cannot be read.
+   */
+  JpegImageModel(String filepath) throws IOException {
+    this.filepath = filepath;
+    ImageUtil.getWidth(filepath);
+  }
+
+  /**
+   * The applyFilter method applies a filter to the image. When the image has not been decoded
+   * yet and the filter is Dither, the luminance channel is read directly from the file instead
+   * of decoding it to RGB first.
+   *
+   * @param filter the Filters enum the user wishes to apply to this image.
+   * @throws IllegalArgumentException if the filter is null or the file cannot be decoded.
+   */
+  @Override
+  public void applyFilter(Filters filter) throws IllegalArgumentException {
+    applyFilter(filter, CancellationToken.NONE, ProgressListener.NONE);
+  }
+
+  /**
+   * The applyFilter method applies a filter like applyFilter(Filters), checking the token and
+   * reporting progress once per row.
+   *
+   * @param filter   the Filters enum the user wishes to apply to this image.
+   * @param token    the token to check for cancellation.
+   * @param progress the listener to report progress to.
+   * @throws IllegalArgumentException if the filter is null or the file cannot be decoded.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  @Override
+  public void applyFilter(Filters filter, CancellationToken token, ProgressListener progress)
+          throws IllegalArgumentException {
+    token.throwIfCancelled();
+    if (delegate == null && filter == Filters.DITHER) {
+      int[][][] luma;
+      try {
+        luma = ImageUtil.readLuma(filepath);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Error: Cannot load file.");
+      }
+      if (luma != null) {
+        //Dither changes its input in place, and the grey levels of luma are shared
+        int[][][] grey = new int[luma.length][luma[0].length][];
+        for (int i = 0; i < luma.length; i++) {
+          for (int j = 0; j < luma[0].length; j++) {
+            grey[i][j] = luma[i][j].clone();
+          }
+        }
+        delegate = new ImageModelImpl(
+                new Dither(grey, luma.length, luma[0].length).modifyImage(token, progress));
+        return;
+      }
+    }
+    decoded().applyFilter(filter, token, progress);
+  }
+
+  /**
+   * The applyFilter method decodes the image and applies a filter to it, working out one area
+   * first like ImageModelImpl. Dither still reads the luminance channel directly when it can,
+   * as it does not work on one area first.
+   *
+   * @param filter    the Filters enum the user wishes to apply to this image.
+   * @param first     the area to work out first, in image pixels, or null for none.
+   * @param firstDone the callback that receives the image with the area filtered.
+   * @param token     the token to check for cancellation.
+   * @param progress  the listener to report progress to.
+   * @throws IllegalArgumentException if the filter is null or the file cannot be decoded.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  @Override
+  public void applyFilter(Filters filter, Rectangle first, Consumer<int[][][]> firstDone,
+                          CancellationToken token, ProgressListener progress)
+          throws IllegalArgumentException {
+    if (filter == Filters.DITHER) {
+      applyFilter(filter, token, progress);
+      return;
+    }
+    token.throwIfCancelled();
+    decoded().applyFilter(filter, first, firstDone, token, progress);
+  }
+
+  /**
+   * The mosaic method decodes the image and applies a mosaic filter to it.
+   *
+   * @param numOfSeeds the number of seeds to produce.
+   */
+  @Override
+  public void mosaic(int numOfSeeds) {
+    decoded().mosaic(numOfSeeds);
+  }
+
+  /**
+   * The mosaic method decodes the image and applies a mosaic filter to it, checking the token
+   * and reporting progress once per row.
+   *
+   * @param numOfSeeds the number of seeds to produce.
+   * @param token      the token to check for cancellation.
+   * @param progress   the listener to report progress to.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  @Override
+  public void mosaic(int numOfSeeds, CancellationToken token, ProgressListener progress) {
+    token.throwIfCancelled();
+    decoded().mosaic(numOfSeeds, token, progress);
+  }
+
+  /**
+   * The mosaic method decodes the image and applies a mosaic filter to it, placing the seeds
+   * with a random number generator made from the given seed.
+   *
+   * @param numOfSeeds the number of seeds to produce.
+   * @param randomSeed the seed of the random number generator that places them.
+   * @param token      the token to check for cancellation.
+   * @param progress   the listener to report progress to.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  @Override
+  public void mosaic(int numOfSeeds, long randomSeed, CancellationToken token,
+                     ProgressListener progress) {
+    token.throwIfCancelled();
+    decoded().mosaic(numOfSeeds, randomSeed, token, progress);
+  }
+
+  /**
+   * Return a modified image, decoding the file first if no operation has been applied yet.
+   *
+   * @return a modified image.
+   */
+  @Override
+  public int[][][] getModifiedImage() {
+    return decoded().getModifiedImage();
+  }
+
+  /**
+   * Return the original image. The file is decoded to RGB if that has not happened yet, even
+   * if a filter was applied through the luminance path.
+   *
+   * @return an original image.
+   */
+  @Override
+  public int[][][] getOriginalImage() {
+    if (original == null) {
+      original = decodeRgb();
+    }
+    return original;
+  }
+
+  /**
+   * The saveModifiedImage method saves the modified image to a file.
+   *
+   * @param filename a String representing the name of the outfile the image should be written to.
+   * @throws IllegalArgumentException if the filepath is invalid.
+   * @deprecated refer to getModifiedImage()
+   */
+  @Deprecated
+  @Override
+  public void saveModifiedImage(String filename) throws IllegalArgumentException {
+    decoded().saveModifiedImage(filename);
+  }
+
+  /**
+   * The saveOriginalImage method saves the original image to a file.
+   *
+   * @param filename a String representing the name of the outfile the image should be written to.
+   * @throws IllegalArgumentException if the filepath is invalid.
+   * @deprecated refer to getOriginalImage()
+   */
+  @Deprecated
+  @Override
+  public void saveOriginalImage(String filename) throws IllegalArgumentException {
+    if (filename == null) {
+      throw new IllegalArgumentException("Error: Invalid filepath.");
+    }
+    int[][][] image = getOriginalImage();
+    try {
+      ImageUtil.writeImage(image, image[0].length, image.length, filename);
+    } catch (IOException e) {
+      System.out.println("Error when saving file.");
+    }
+  }
+
+  /**
+   * The decoded method returns the decoded model, decoding the file to RGB if that has not
+   * happened yet.
+   *
+   * @return the decoded model.
+   * @throws IllegalArgumentException if the file cannot be decoded.
+   */
+  private ImageModelExtension decoded() {
+    if (delegate == null) {
+      original = decodeRgb();
+      delegate = new ImageModelImpl(original);
+    }
+    return delegate;
+  }
+
+  /**
+   * The decodeRgb method decodes the file to RGB.
+   *
+   * @return the RGB pixels of the file.
+   * @throws IllegalArgumentException if the file cannot be decoded.
+   */
+  private int[][][] decodeRgb() {
+    try {
+      return ImageUtil.readImage(filepath);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Error: Cannot load file.");
+    }
+  }
+}
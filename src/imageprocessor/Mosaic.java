@@ -1,5 +1,7 @@
 package imageprocessor;
 
+import java.util.Random;
+
 /**
  * The Mosaic class represents a Mosaic image transformation, which can be applied to a
  * 3-D int[][][] array representation of an image.
@@ -12,6 +14,9 @@ package imageprocessor;
  * a 3-D int[][][] array of RGB values, the height of the image, and the width of the image in
  * pixels.  The class also features an integer called seeds, which stores the number of
  * seeds that should be used when creating a Mosaic image pattern.</p>
+ *
+ * <p>The seeds are placed by a random number generator. Given a generator made from a fixed
+ * seed, the same image always gives the same Mosaic, so that it can be repeated.</p>
  */
 class Mosaic extends AbstractFilter {
 
@@ -34,8 +39,22 @@ class Mosaic extends AbstractFilter {
    * @param seedNumber the number of seeds to be present in the Mosaic.
    */
   protected Mosaic(int[][][] data, int height, int width, int seedNumber) {
+    this(data, height, width, seedNumber, new Random());
+  }
+
+  /**
+   * This constructor of the Mosaic places its seeds with a given random number generator, so
+   * that a generator made from the same seed gives the same Mosaic every time.
+   *
+   * @param data       the original data set, represented as a 3D array (int[][][]).
+   * @param height     the height of the data set in pixels, represented as an integer.
+   * @param width      the width of the data set in pixels, represented as an integer.
+   * @param seedNumber the number of seeds to be present in the Mosaic.
+   * @param random     the random number generator that places the seeds.
+   */
+  protected Mosaic(int[][][] data, int height, int width, int seedNumber, Random random) {
     super(data, height, width);
-    seeds = createSeedArray(seedNumber);
+    seeds = createSeedArray(seedNumber, random);
   }
 
   /**
@@ -50,13 +69,32 @@ class Mosaic extends AbstractFilter {
    */
   @Override
   public int[][][] modifyImage() {
+    return modifyImage(CancellationToken.NONE, ProgressListener.NONE);
+  }
+
+  /**
+   * The modifyImage method transforms the image into a Mosaic like modifyImage(), but checks
+   * the token before each pixel and reports each finished row to the listener. Every pixel is
+   * compared with every seed, so with a mistyped seed count a single row can take seconds;
+   * checking the token per pixel lets such a Mosaic be stopped at once. The check is a single
+   * read, which is nothing next to the search through the seeds.
+   *
+   * @param token    the token to check for cancellation.
+   * @param progress the listener to report the rows done to.
+   * @return a 3-D int[][][] array representing the RGB values of each pixel in the new Mosaic.
+   * @throws java.util.concurrent.CancellationException if the token is cancelled.
+   */
+  @Override
+  public int[][][] modifyImage(CancellationToken token, ProgressListener progress) {
     int[][] seedAssignments = new int[height][width];
     for (int i = 0; i < height; i++) {
       for (int j = 0; j < width; j++) {
+        token.throwIfCancelled();
         int closestSeed = selectNearestSeed(i, j);
         seedAssignments[i][j] = closestSeed;
         updateSeedColor(closestSeed, i, j);
       }
+      progress.progress(i + 1, height);
     }
     return constructFinalMosaic(seedAssignments);
   }
@@ -86,10 +124,12 @@ class Mosaic extends AbstractFilter {
    * seed.</p>
    *
    * @param seedNumber the number of seeds that are to be used in the Mosaic construction.
+   * @param random     the random number generator that places the seeds.
    * @return a 2-D int[][] array representing each seed's coordinates and RGB values.
    * @throws IllegalArgumentException when the seed amount is less than 1.
    */
-  private int[][] createSeedArray(int seedNumber) throws IllegalArgumentException {
+  private int[][] createSeedArray(int seedNumber, Random random)
+          throws IllegalArgumentException {
     if (seedNumber < 1) {
       throw new IllegalArgumentException("Error: Not a valid number amount.");
     }
@@ -97,8 +137,8 @@ class Mosaic extends AbstractFilter {
     int maxHeight = height - 1;
     int maxWidth = width - 1;
     for (int i = 0; i < seedNumber; i++) {
-      seedArray[i][0] = (int) (Math.random() * maxHeight); // the seed row
-      seedArray[i][1] = (int) (Math.random() * maxWidth);  // the seed column
+      seedArray[i][0] = (int) (random.nextDouble() * maxHeight); // the seed row
+      seedArray[i][1] = (int) (random.nextDouble() * maxWidth);  // the seed column
       seedArray[i][2] = 0; // the seed R value
       seedArray[i][3] = 0; // G value
       seedArray[i][4] = 0; // B value
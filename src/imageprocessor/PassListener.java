@@ -0,0 +1,341 @@
+package imageprocessor;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOReadUpdateListener;
+
+/**
+ * The PassListener class listens to an ImageReader decoding an image and hands each partly
+ * decoded image to a callback, so that a progressive JPEG or an interlaced PNG can be shown long
+ * before it has been read completely. It also reports the reader's progress to a
+ * ProgressListener and stops the reader when a CancellationToken is cancelled.
+ *
+ * <p>Each pass of a progressive JPEG covers every pixel at a higher quality than the last. Each
+ * pass of an interlaced PNG covers a finer grid of pixels, and the pixels between the grid points
+ * decoded so far are filled in from the decoded pixel before them, so the image first shows in
+ * coarse blocks. Converting a partly decoded image costs about as much as converting the
+ * finished one, so after the first pass, which is handed over as soon as it is decoded, a pass
+ * is only handed over when UPDATE_INTERVAL has gone by since the last one.</p>
+ */
+class PassListener implements IIOReadUpdateListener, IIOReadProgressListener {
+
+  /**
+   * The UPDATE_INTERVAL attribute is the shortest time, in nanoseconds, between two partly
+   * decoded images handed to the callback.
+   */
+  private static final long UPDATE_INTERVAL = 200_000_000L;
+
+  private final Consumer<int[][][]> partial;
+  private final CancellationToken token;
+  private final ProgressListener progress;
+
+  /**
+   * The passes attribute holds the grid of pixels, as {minX, minY, periodX, periodY}, of each
+   * pass that has been decoded completely.
+   */
+  private final List<int[]> passes = new ArrayList<>();
+
+  /**
+   * The current attribute is the grid of pixels of the pass being decoded.
+   */
+  private int[] current;
+
+  /**
+   * The nextUpdate attribute is the earliest time, from System.nanoTime, at which the next
+   * partly decoded image may be handed over. The first may be handed over at once.
+   */
+  private long nextUpdate = System.nanoTime();
+
+  /**
+   * Constructs a PassListener.
+   *
+   * @param partial  the callback that receives each partly decoded image.
+   * @param token    the token to check for cancellation.
+   * @param progress the listener to report progress to.
+   */
+  PassListener(Consumer<int[][][]> partial, CancellationToken token, ProgressListener progress) {
+    this.partial = partial;
+    this.token = token;
+    this.progress = progress;
+  }
+
+  /**
+   * The passStarted method remembers which pixels the pass that is starting covers.
+   *
+   * @param source   the reader.
+   * @param theImage the image being decoded.
+   * @param pass     the number of the pass, counting from zero.
+   * @param minPass  the first pass that will be decoded.
+   * @param maxPass  the last pass that will be decoded.
+   * @param minX     the first column of the pass.
+   * @param minY     the first row of the pass.
+   * @param periodX  the distance between the columns of the pass.
+   * @param periodY  the distance between the rows of the pass.
+   * @param bands    the bands being decoded.
+   */
+  @Override
+  public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass,
+                          int maxPass, int minX, int minY, int periodX, int periodY,
+                          int[] bands) {
+    current = new int[] {minX, minY, Math.max(1, periodX), Math.max(1, periodY)};
+  }
+
+  /**
+   * The passComplete method hands the image decoded so far to the callback, unless one was
+   * handed over too recently or the read has been cancelled.
+   *
+   * @param source   the reader.
+   * @param theImage the image being decoded.
+   */
+  @Override
+  public void passComplete(ImageReader source, BufferedImage theImage) {
+    if (current != null) {
+      passes.add(current);
+      current = null;
+    }
+    if (token.isCancelled()) {
+      source.abort();
+      return;
+    }
+    if (System.nanoTime() >= nextUpdate) {
+      partial.accept(decodedSoFar(theImage));
+      nextUpdate = System.nanoTime() + UPDATE_INTERVAL;
+    }
+  }
+
+  /**
+   * The imageProgress method reports how much of the image has been read, and stops the reader
+   * if the read has been cancelled.
+   *
+   * @param source         the reader.
+   * @param percentageDone how much of the image has been read, from 0 to 100.
+   */
+  @Override
+  public void imageProgress(ImageReader source, float percentageDone) {
+    if (token.isCancelled()) {
+      source.abort();
+      return;
+    }
+    progress.progress(Math.round(percentageDone), 100);
+  }
+
+  /**
+   * The decodedSoFar method converts a partly decoded image to an array, filling each pixel no
+   * pass has reached yet from the pixel before it in its row, or from the row above if no pass
+   * has reached its row.
+   *
+   * @param image the image being decoded.
+   * @return the image as a 3D array of integer values.
+   */
+  private int[][][] decodedSoFar(BufferedImage image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[][][] result = new int[height][][];
+    int[] row = new int[width];
+    List<int[]> rowPasses = new ArrayList<>();
+    for (int i = 0; i < height; i++) {
+      rowPasses.clear();
+      for (int[] pass : passes) {
+        if (i >= pass[1] && (i - pass[1]) % pass[3] == 0) {
+          rowPasses.add(pass);
+        }
+      }
+      if (rowPasses.isEmpty()) {
+        result[i] = i > 0 ? result[i - 1] : new int[width][3];
+        continue;
+      }
+      image.getRGB(0, i, width, 1, row, 0, width);
+      int[][] pixels = new int[width][];
+      for (int j = 0; j < width; j++) {
+        if (isDecoded(rowPasses, j)) {
+          int color = row[j];
+          pixels[j] = new int[] {(color >> 16) & 0xff, (color >> 8) & 0xff, color & 0xff};
+        } else if (j > 0) {
+          pixels[j] = pixels[j - 1];
+        } else {
+          pixels[j] = i > 0 ? result[i - 1][0] : new int[3];
+        }
+      }
+      result[i] = pixels;
+    }
+    return result;
+  }
+
+  /**
+   * The isDecoded method checks whether any of the passes covering a row has reached a column.
+   *
+   * @param rowPasses the grids of the passes covering the row.
+   * @param column    the column.
+   * @return true if the pixel has been decoded.
+   */
+  private static boolean isDecoded(List<int[]> rowPasses, int column) {
+    for (int[] pass : rowPasses) {
+      if (column >= pass[0] && (column - pass[0]) % pass[2] == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The imageUpdate method does nothing, as the whole pass is converted when it completes.
+   *
+   * @param source   the reader.
+   * @param theImage the image being decoded.
+   * @param minX     the first column updated.
+   * @param minY     the first row updated.
+   * @param width    the number of columns updated, counting only those of the pass.
+   * @param height   the number of rows updated, counting only those of the pass.
+   * @param periodX  the distance between the columns updated.
+   * @param periodY  the distance between the rows updated.
+   * @param bands    the bands being decoded.
+   */
+  @Override
+  public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY,
+                          int width, int height, int periodX, int periodY, int[] bands) {
+    //the whole pass is converted when it completes
+  }
+
+  /**
+   * The thumbnailPassStarted method does nothing, as thumbnails are not read.
+   *
+   * @param source       the reader.
+   * @param theThumbnail the thumbnail being decoded.
+   * @param pass         the number of the pass, counting from zero.
+   * @param minPass      the first pass that will be decoded.
+   * @param maxPass      the last pass that will be decoded.
+   * @param minX         the first column of the pass.
+   * @param minY         the first row of the pass.
+   * @param periodX      the distance between the columns of the pass.
+   * @param periodY      the distance between the rows of the pass.
+   * @param bands        the bands being decoded.
+   */
+  @Override
+  public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass,
+                                   int minPass, int maxPass, int minX, int minY, int periodX,
+                                   int periodY, int[] bands) {
+    //thumbnails are not read
+  }
+
+  /**
+   * The thumbnailUpdate method does nothing, as thumbnails are not read.
+   *
+   * @param source       the reader.
+   * @param theThumbnail the thumbnail being decoded.
+   * @param minX         the first column updated.
+   * @param minY         the first row updated.
+   * @param width        the number of columns updated, counting only those of the pass.
+   * @param height       the number of rows updated, counting only those of the pass.
+   * @param periodX      the distance between the columns updated.
+   * @param periodY      the distance between the rows updated.
+   * @param bands        the bands being decoded.
+   */
+  @Override
+  public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX,
+                              int minY, int width, int height, int periodX, int periodY,
+                              int[] bands) {
+    //thumbnails are not read
+  }
+
+  /**
+   * The thumbnailPassComplete method does nothing, as thumbnails are not read.
+   *
+   * @param source       the reader.
+   * @param theThumbnail the thumbnail being decoded.
+   */
+  @Override
+  public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+    //thumbnails are not read
+  }
+
+  /**
+   * The sequenceStarted method does nothing, as only one image is read.
+   *
+   * @param source   the reader.
+   * @param minIndex the index of the first image of the sequence.
+   */
+  @Override
+  public void sequenceStarted(ImageReader source, int minIndex) {
+    //only one image is read
+  }
+
+  /**
+   * The sequenceComplete method does nothing, as only one image is read.
+   *
+   * @param source the reader.
+   */
+  @Override
+  public void sequenceComplete(ImageReader source) {
+    //only one image is read
+  }
+
+  /**
+   * The imageStarted method reports that none of the image has been read yet.
+   *
+   * @param source     the reader.
+   * @param imageIndex the index of the image.
+   */
+  @Override
+  public void imageStarted(ImageReader source, int imageIndex) {
+    progress.progress(0, 100);
+  }
+
+  /**
+   * The imageComplete method reports that all of the image has been read.
+   *
+   * @param source the reader.
+   */
+  @Override
+  public void imageComplete(ImageReader source) {
+    progress.progress(100, 100);
+  }
+
+  /**
+   * The thumbnailStarted method does nothing, as thumbnails are not read.
+   *
+   * @param source         the reader.
+   * @param imageIndex     the index of the image.
+   * @param thumbnailIndex the index of the thumbnail.
+   */
+  @Override
+  public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+    //thumbnails are not read
+  }
+
+  /**
+   * The thumbnailProgress method does nothing, as thumbnails are not read.
+   *
+   * @param source         the reader.
+   * @param percentageDone how much of the thumbnail has been read, from 0 to 100.
+   */
+  @Override
+  public void thumbnailProgress(ImageReader source, float percentageDone) {
+    //thumbnails are not read
+  }
+
+  /**
+   * The thumbnailComplete method does nothing, as thumbnails are not read.
+   *
+   * @param source the reader.
+   */
+  @Override
+  public void thumbnailComplete(ImageReader source) {
+    //thumbnails are not read
+  }
+
+  /**
+   * The readAborted method does nothing, as the caller checks the token once the reader
+   * returns.
+   *
+   * @param source the reader.
+   */
+  @Override
+  public void readAborted(ImageReader source) {
+    //the caller checks the token once the reader returns
+  }
+}
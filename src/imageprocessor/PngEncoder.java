@@ -0,0 +1,326 @@
+package imageprocessor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The PngEncoder class writes 8-bit RGB PNG files, compressing blocks of scanlines on several
+ * cores at once.
+ *
+ * <p>The encoder works in two parallel passes. First, the image is cut into blocks of whole
+ * scanlines and each block is filtered independently. Then each block is deflated on its own
+ * worker, the way pigz does it: the block is primed with the last 32 KB of the block before it
+ * so the compression ratio stays close to a single-threaded stream, and every block but the
+ * last ends with a sync flush so the raw deflate streams can simply be concatenated. The
+ * concatenated blocks are wrapped in one zlib stream and written as IDAT chunks.</p>
+ */
+class PngEncoder {
+
+  /**
+   * The SIGNATURE attribute stores the eight bytes that start every PNG file.
+   */
+  private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+  /**
+   * The BLOCK_SIZE attribute is the approximate number of filtered bytes in each block.
+   */
+  private static final int BLOCK_SIZE = 128 * 1024;
+
+  /**
+   * The WINDOW_SIZE attribute is the size of the deflate window, and so the largest useful
+   * dictionary for a block.
+   */
+  private static final int WINDOW_SIZE = 32 * 1024;
+
+  /**
+   * The write method writes an image to a PNG file.
+   *
+   * @param rgb      the image data as a 3D array of integers.
+   * @param width    the width of the image.
+   * @param height   the height of the image.
+   * @param filename the full path of where the image must be stored.
+   * @param level    the deflate compression level, from 0 (no compression) to 9 (smallest).
+   * @param filter   the scanline filter strategy.
+   * @throws IOException if the file cannot be written to the provided path.
+   * @throws IllegalArgumentException if the level or filter is invalid.
+   */
+  static void write(int[][][] rgb, int width, int height, String filename, int level,
+                    PngFilter filter) throws IOException {
+    if (level < 0 || level > 9) {
+      throw new IllegalArgumentException("Error: Compression level must be between 0 and 9.");
+    }
+    if (filter == null) {
+      throw new IllegalArgumentException("Error: Filter strategy cannot be null.");
+    }
+    int rowsPerBlock = Math.max(1, BLOCK_SIZE / (width * 3 + 1));
+    int blockCount = (height + rowsPerBlock - 1) / rowsPerBlock;
+
+    byte[][] filtered = new byte[blockCount][];
+    IntStream.range(0, blockCount).parallel().forEach(block -> filtered[block] =
+            filterRows(rgb, width, block * rowsPerBlock,
+                    Math.min(height, (block + 1) * rowsPerBlock), filter));
+
+    byte[][] compressed = new byte[blockCount][];
+    IntStream.range(0, blockCount).parallel().forEach(block -> compressed[block] =
+            deflate(filtered[block], block == 0 ? null : filtered[block - 1], level,
+                    block == blockCount - 1));
+
+    Adler32 adler = new Adler32();
+    for (byte[] block : filtered) {
+      adler.update(block);
+    }
+
+    try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(filename)))) {
+      out.write(SIGNATURE);
+      byte[] header = new byte[13];
+      writeInt(header, 0, width);
+      writeInt(header, 4, height);
+      header[8] = 8;  // bit depth
+      header[9] = 2;  // color type: RGB
+      writeChunk(out, "IHDR", header, header.length);
+      writeChunk(out, "IDAT", zlibHeader(level), 2);
+      for (byte[] block : compressed) {
+        writeChunk(out, "IDAT", block, block.length);
+      }
+      byte[] checksum = new byte[4];
+      writeInt(checksum, 0, (int) adler.getValue());
+      writeChunk(out, "IDAT", checksum, 4);
+      writeChunk(out, "IEND", new byte[0], 0);
+    }
+  }
+
+  /**
+   * The filterRows method converts a run of scanlines to bytes and filters each of them.
+   *
+   * @param rgb    the image data as a 3D array of integers.
+   * @param width  the width of the image.
+   * @param start  the first row of the block, inclusive.
+   * @param end    the last row of the block, exclusive.
+   * @param filter the scanline filter strategy.
+   * @return the filtered scanlines, each preceded by its filter type byte.
+   */
+  private static byte[] filterRows(int[][][] rgb, int width, int start, int end,
+                                   PngFilter filter) {
+    int rowBytes = width * 3;
+    byte[] result = new byte[(end - start) * (rowBytes + 1)];
+    byte[] previous = start == 0 ? new byte[rowBytes] : toBytes(rgb[start - 1], width);
+    byte[][] candidates = new byte[5][rowBytes];
+    int position = 0;
+    for (int i = start; i < end; i++) {
+      byte[] current = toBytes(rgb[i], width);
+      int type;
+      if (filter == PngFilter.ADAPTIVE) {
+        type = 0;
+        long best = Long.MAX_VALUE;
+        for (int t = 0; t < 5; t++) {
+          applyFilter(t, current, previous, candidates[t]);
+          long cost = cost(candidates[t]);
+          if (cost < best) {
+            best = cost;
+            type = t;
+          }
+        }
+      } else {
+        type = filter.ordinal();
+        applyFilter(type, current, previous, candidates[type]);
+      }
+      result[position++] = (byte) type;
+      System.arraycopy(candidates[type], 0, result, position, rowBytes);
+      position += rowBytes;
+      previous = current;
+    }
+    return result;
+  }
+
+  /**
+   * The applyFilter method applies one PNG filter type to a scanline.
+   *
+   * @param type     the PNG filter type, from 0 (None) to 4 (Paeth).
+   * @param current  the unfiltered bytes of the scanline.
+   * @param previous the unfiltered bytes of the scanline above, or zeros for the first row.
+   * @param out      the array the filtered bytes are written to.
+   */
+  private static void applyFilter(int type, byte[] current, byte[] previous, byte[] out) {
+    for (int x = 0; x < current.length; x++) {
+      int raw = current[x] & 0xff;
+      int left = x >= 3 ? current[x - 3] & 0xff : 0;
+      int up = previous[x] & 0xff;
+      int upLeft = x >= 3 ? previous[x - 3] & 0xff : 0;
+      int predictor;
+      switch (type) {
+        case 1:
+          predictor = left;
+          break;
+        case 2:
+          predictor = up;
+          break;
+        case 3:
+          predictor = (left + up) >> 1;
+          break;
+        case 4:
+          predictor = paeth(left, up, upLeft);
+          break;
+        default:
+          predictor = 0;
+      }
+      out[x] = (byte) (raw - predictor);
+    }
+  }
+
+  /**
+   * The paeth method computes the Paeth predictor defined by the PNG specification.
+   *
+   * @param a the byte to the left.
+   * @param b the byte above.
+   * @param c the byte above and to the left.
+   * @return whichever of a, b and c is closest to a + b - c.
+   */
+  private static int paeth(int a, int b, int c) {
+    int p = a + b - c;
+    int pa = Math.abs(p - a);
+    int pb = Math.abs(p - b);
+    int pc = Math.abs(p - c);
+    if (pa <= pb && pa <= pc) {
+      return a;
+    }
+    return pb <= pc ? b : c;
+  }
+
+  /**
+   * The cost method estimates how well a filtered scanline will compress, using the usual
+   * minimum sum of absolute differences heuristic.
+   *
+   * @param filtered the filtered bytes of the scanline.
+   * @return the sum of the bytes read as signed values.
+   */
+  private static long cost(byte[] filtered) {
+    long sum = 0;
+    for (byte value : filtered) {
+      sum += Math.abs(value);
+    }
+    return sum;
+  }
+
+  /**
+   * The toBytes method converts one row of the image to interleaved RGB bytes.
+   *
+   * @param row   the row of the image.
+   * @param width the width of the image.
+   * @return the row as bytes.
+   */
+  private static byte[] toBytes(int[][] row, int width) {
+    byte[] bytes = new byte[width * 3];
+    for (int j = 0; j < width; j++) {
+      bytes[j * 3] = (byte) row[j][0];
+      bytes[j * 3 + 1] = (byte) row[j][1];
+      bytes[j * 3 + 2] = (byte) row[j][2];
+    }
+    return bytes;
+  }
+
+  /**
+   * The deflate method compresses one block into a raw deflate stream.
+   *
+   * @param block    the filtered bytes of the block.
+   * @param previous the filtered bytes of the block before, or null for the first block.
+   * @param level    the deflate compression level.
+   * @param last     whether this is the last block of the image.
+   * @return the compressed bytes.
+   */
+  private static byte[] deflate(byte[] block, byte[] previous, int level, boolean last) {
+    Deflater deflater = new Deflater(level, true);
+    try {
+      if (previous != null && level > 0) {
+        int length = Math.min(WINDOW_SIZE, previous.length);
+        deflater.setDictionary(previous, previous.length - length, length);
+      }
+      deflater.setInput(block);
+      if (last) {
+        deflater.finish();
+      }
+      byte[] out = new byte[block.length + block.length / 8 + 64];
+      int size = 0;
+      while (true) {
+        if (size == out.length) {
+          out = Arrays.copyOf(out, out.length * 2);
+        }
+        int count = last ? deflater.deflate(out, size, out.length - size)
+                : deflater.deflate(out, size, out.length - size, Deflater.SYNC_FLUSH);
+        size += count;
+        if (last ? deflater.finished() : (deflater.needsInput() && size < out.length)) {
+          break;
+        }
+      }
+      return Arrays.copyOf(out, size);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * The zlibHeader method builds the two-byte zlib header for a compression level.
+   *
+   * @param level the deflate compression level.
+   * @return the zlib header bytes.
+   */
+  private static byte[] zlibHeader(int level) {
+    int compressionFlag;
+    if (level < 2) {
+      compressionFlag = 0;
+    } else if (level < 6) {
+      compressionFlag = 1;
+    } else if (level == 6) {
+      compressionFlag = 2;
+    } else {
+      compressionFlag = 3;
+    }
+    int cmf = 0x78;
+    int flg = compressionFlag << 6;
+    flg += 31 - (cmf * 256 + flg) % 31;
+    return new byte[]{(byte) cmf, (byte) flg};
+  }
+
+  /**
+   * The writeChunk method writes one PNG chunk, including its length and CRC.
+   *
+   * @param out    the stream to write to.
+   * @param type   the four-letter chunk type.
+   * @param data   the chunk data.
+   * @param length the number of bytes of data to write.
+   * @throws IOException if the stream cannot be written to.
+   */
+  private static void writeChunk(DataOutputStream out, String type, byte[] data, int length)
+          throws IOException {
+    byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data, 0, length);
+    out.writeInt(length);
+    out.write(typeBytes);
+    out.write(data, 0, length);
+    out.writeInt((int) crc.getValue());
+  }
+
+  /**
+   * The writeInt method writes a big-endian 32-bit integer into a byte array.
+   *
+   * @param data   the byte array to write to.
+   * @param offset the position of the first byte.
+   * @param value  the integer to write.
+   */
+  private static void writeInt(byte[] data, int offset, int value) {
+    data[offset] = (byte) (value >>> 24);
+    data[offset + 1] = (byte) (value >>> 16);
+    data[offset + 2] = (byte) (value >>> 8);
+    data[offset + 3] = (byte) value;
+  }
+}
@@ -0,0 +1,13 @@
+package imageprocessor;
+
+/**
+ * The PngFilter enum class specifies the scanline filter strategies the PNG writer in ImageUtil
+ * can use before compressing an image.
+ *
+ * <p>NONE, SUB, UP, AVERAGE and PAETH apply the PNG filter of the same name to every scanline.
+ * ADAPTIVE tries every filter on each scanline and keeps the one that is likely to compress best,
+ * which gives smaller files at the cost of some encoding speed.</p>
+ */
+public enum PngFilter {
+  NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE
+}
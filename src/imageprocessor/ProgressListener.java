@@ -0,0 +1,41 @@
+package imageprocessor;
+
+/**
+ * The ProgressListener interface receives progress reports from a long-running operation, such
+ * as a filter, so that a user interface can show how far along it is.
+ *
+ * <p>Filters report once per row of the image, from the thread running the filter. A listener
+ * that updates a user interface should pass the update on to the interface's own thread, and
+ * may skip reports that do not change what is shown.</p>
+ */
+public interface ProgressListener {
+
+  /**
+   * The NONE attribute is a listener that ignores every report.
+   */
+  ProgressListener NONE = (done, total) -> { };
+
+  /**
+   * The progress method reports how much of an operation is done.
+   *
+   * @param done  the units of work done so far.
+   * @param total the units of work in the whole operation.
+   */
+  void progress(long done, long total);
+
+  /**
+   * The stage method returns a listener for one stage of an operation made of several stages
+   * of equal weight, which reports to a listener for the whole operation.
+   *
+   * @param whole  the listener for the whole operation.
+   * @param stage  the stage, counting from zero.
+   * @param stages the number of stages.
+   * @return a listener for the stage.
+   */
+  static ProgressListener stage(ProgressListener whole, int stage, int stages) {
+    if (whole == NONE) {
+      return NONE;
+    }
+    return (done, total) -> whole.progress(stage * total + done, stages * total);
+  }
+}
@@ -0,0 +1,279 @@
+package imageprocessor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * The QoiCodec class encodes and decodes images in the QOI ("Quite OK Image") format.
+ *
+ * <p>QOI is a lossless format that trades some file size for very fast encoding and decoding,
+ * which makes it a good fit for intermediate and cache files. The codec works on pixels packed
+ * into single 0xRRGGBB integers and writes 3-channel sRGB images. Images with an alpha channel
+ * can be read, but the alpha values are dropped.</p>
+ *
+ * <p>The format is described at https://qoiformat.org/qoi-specification.pdf.</p>
+ */
+class QoiCodec {
+
+  private static final int OP_INDEX = 0x00;
+  private static final int OP_DIFF = 0x40;
+  private static final int OP_LUMA = 0x80;
+  private static final int OP_RUN = 0xc0;
+  private static final int OP_RGB = 0xfe;
+  private static final int OP_RGBA = 0xff;
+  private static final int MASK_2 = 0xc0;
+
+  /**
+   * The MAGIC attribute stores the four bytes "qoif" that start every QOI file.
+   */
+  private static final int MAGIC = ('q' << 24) | ('o' << 16) | ('i' << 8) | 'f';
+
+  /**
+   * The HEADER_SIZE attribute is the size of the QOI header in bytes.
+   */
+  private static final int HEADER_SIZE = 14;
+
+  /**
+   * The PADDING attribute stores the end marker that closes every QOI stream.
+   */
+  private static final byte[] PADDING = {0, 0, 0, 0, 0, 0, 0, 1};
+
+  /**
+   * The read method decodes a QOI file into a 3-D int[][][] array.
+   *
+   * @param filename the path of the file to read.
+   * @return the image as a 3-D array of integer values.
+   * @throws IOException if the file cannot be read or is not a valid QOI image.
+   */
+  static int[][][] read(String filename) throws IOException {
+    return decode(Files.readAllBytes(Paths.get(filename)));
+  }
+
+  /**
+   * The readSize method reads the width and height from the header of a QOI file.
+   *
+   * @param filename the path of the file to read.
+   * @return a two-element array holding the width and the height of the image.
+   * @throws IOException if the file cannot be read or is not a valid QOI image.
+   */
+  static int[] readSize(String filename) throws IOException {
+    byte[] header = new byte[HEADER_SIZE];
+    try (InputStream in = Files.newInputStream(Paths.get(filename))) {
+      if (in.readNBytes(header, 0, HEADER_SIZE) < HEADER_SIZE || readInt(header, 0) != MAGIC) {
+        throw new IOException("Not a QOI image.");
+      }
+    }
+    return new int[]{readInt(header, 4), readInt(header, 8)};
+  }
+
+  /**
+   * The write method encodes a 3-D int[][][] array as a QOI file.
+   *
+   * @param rgb      the image data as a 3D array of integers.
+   * @param width    the width of the image.
+   * @param height   the height of the image.
+   * @param filename the full path of where the image must be stored.
+   * @throws IOException if the file cannot be written to the provided path.
+   */
+  static void write(int[][][] rgb, int width, int height, String filename) throws IOException {
+    Files.write(Paths.get(filename), encode(rgb, width, height));
+  }
+
+  /**
+   * The encode method encodes a 3-D int[][][] array as a QOI byte stream.
+   *
+   * @param rgb    the image data as a 3D array of integers.
+   * @param width  the width of the image.
+   * @param height the height of the image.
+   * @return the encoded bytes, including header and end marker.
+   */
+  static byte[] encode(int[][][] rgb, int width, int height) {
+    long maxSize = (long) width * height * 4 + HEADER_SIZE + PADDING.length;
+    if (maxSize > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Image is too large for QOI encoding.");
+    }
+    byte[] out = new byte[(int) maxSize];
+    writeInt(out, 0, MAGIC);
+    writeInt(out, 4, width);
+    writeInt(out, 8, height);
+    out[12] = 3;
+    out[13] = 0;
+    int p = HEADER_SIZE;
+
+    //index entries are stored as 0xRRGGBBAA, so an empty slot never matches an opaque pixel
+    int[] index = new int[64];
+    int previous = 0;
+    int run = 0;
+    for (int i = 0; i < height; i++) {
+      int[][] row = rgb[i];
+      for (int j = 0; j < width; j++) {
+        int[] pixel = row[j];
+        int r = pixel[0];
+        int g = pixel[1];
+        int b = pixel[2];
+        int packed = (r << 16) | (g << 8) | b;
+
+        if (packed == previous) {
+          run++;
+          if (run == 62) {
+            out[p++] = (byte) (OP_RUN | (run - 1));
+            run = 0;
+          }
+          continue;
+        }
+        if (run > 0) {
+          out[p++] = (byte) (OP_RUN | (run - 1));
+          run = 0;
+        }
+
+        int hash = hash(r, g, b);
+        int entry = packed << 8 | 0xff;
+        if (index[hash] == entry) {
+          out[p++] = (byte) (OP_INDEX | hash);
+        } else {
+          index[hash] = entry;
+          int dr = (byte) (r - (previous >> 16 & 0xff));
+          int dg = (byte) (g - (previous >> 8 & 0xff));
+          int db = (byte) (b - (previous & 0xff));
+          int drg = dr - dg;
+          int dbg = db - dg;
+          if (dr > -3 && dr < 2 && dg > -3 && dg < 2 && db > -3 && db < 2) {
+            out[p++] = (byte) (OP_DIFF | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+          } else if (drg > -9 && drg < 8 && dg > -33 && dg < 32 && dbg > -9 && dbg < 8) {
+            out[p++] = (byte) (OP_LUMA | (dg + 32));
+            out[p++] = (byte) ((drg + 8) << 4 | (dbg + 8));
+          } else {
+            out[p++] = (byte) OP_RGB;
+            out[p++] = (byte) r;
+            out[p++] = (byte) g;
+            out[p++] = (byte) b;
+          }
+        }
+        previous = packed;
+      }
+    }
+    if (run > 0) {
+      out[p++] = (byte) (OP_RUN | (run - 1));
+    }
+    System.arraycopy(PADDING, 0, out, p, PADDING.length);
+    p += PADDING.length;
+    return Arrays.copyOf(out, p);
+  }
+
+  /**
+   * The decode method decodes a QOI byte stream into a 3-D int[][][] array.
+   *
+   * @param data the encoded bytes, including header.
+   * @return the image as a 3-D array of integer values.
+   * @throws IOException if the bytes are not a valid QOI image.
+   */
+  static int[][][] decode(byte[] data) throws IOException {
+    if (data.length < HEADER_SIZE + PADDING.length || readInt(data, 0) != MAGIC) {
+      throw new IOException("Not a QOI image.");
+    }
+    int width = readInt(data, 4);
+    int height = readInt(data, 8);
+    int channels = data[12];
+    if (width < 1 || height < 1 || (channels != 3 && channels != 4)) {
+      throw new IOException("Malformed QOI header.");
+    }
+    int end = data.length - PADDING.length;
+    int p = HEADER_SIZE;
+
+    int[][][] result = new int[height][width][3];
+    int[] index = new int[64];
+    int r = 0;
+    int g = 0;
+    int b = 0;
+    int a = 255;
+    int run = 0;
+    for (int i = 0; i < height; i++) {
+      int[][] row = result[i];
+      for (int j = 0; j < width; j++) {
+        if (run > 0) {
+          run--;
+        } else {
+          if (p >= end) {
+            throw new IOException("QOI data is truncated.");
+          }
+          int b1 = data[p++] & 0xff;
+          if (b1 == OP_RGB) {
+            r = data[p++] & 0xff;
+            g = data[p++] & 0xff;
+            b = data[p++] & 0xff;
+          } else if (b1 == OP_RGBA) {
+            r = data[p++] & 0xff;
+            g = data[p++] & 0xff;
+            b = data[p++] & 0xff;
+            a = data[p++] & 0xff;
+          } else if ((b1 & MASK_2) == OP_INDEX) {
+            int packed = index[b1];
+            r = packed >> 24 & 0xff;
+            g = packed >> 16 & 0xff;
+            b = packed >> 8 & 0xff;
+            a = packed & 0xff;
+          } else if ((b1 & MASK_2) == OP_DIFF) {
+            r = (r + ((b1 >> 4) & 0x03) - 2) & 0xff;
+            g = (g + ((b1 >> 2) & 0x03) - 2) & 0xff;
+            b = (b + (b1 & 0x03) - 2) & 0xff;
+          } else if ((b1 & MASK_2) == OP_LUMA) {
+            int b2 = data[p++] & 0xff;
+            int vg = (b1 & 0x3f) - 32;
+            r = (r + vg - 8 + ((b2 >> 4) & 0x0f)) & 0xff;
+            g = (g + vg) & 0xff;
+            b = (b + vg - 8 + (b2 & 0x0f)) & 0xff;
+          } else {
+            run = b1 & 0x3f;
+          }
+          index[(r * 3 + g * 5 + b * 7 + a * 11) % 64] = r << 24 | g << 16 | b << 8 | a;
+        }
+        int[] pixel = row[j];
+        pixel[0] = r;
+        pixel[1] = g;
+        pixel[2] = b;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The hash method computes the QOI index position of an opaque pixel.
+   *
+   * @param r the red value of the pixel.
+   * @param g the green value of the pixel.
+   * @param b the blue value of the pixel.
+   * @return the position of the pixel in the 64-entry index.
+   */
+  private static int hash(int r, int g, int b) {
+    return (r * 3 + g * 5 + b * 7 + 255 * 11) % 64;
+  }
+
+  /**
+   * The readInt method reads a big-endian 32-bit integer from a byte array.
+   *
+   * @param data   the byte array to read from.
+   * @param offset the position of the first byte.
+   * @return the integer that was read.
+   */
+  private static int readInt(byte[] data, int offset) {
+    return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16
+            | (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+  }
+
+  /**
+   * The writeInt method writes a big-endian 32-bit integer into a byte array.
+   *
+   * @param data   the byte array to write to.
+   * @param offset the position of the first byte.
+   * @param value  the integer to write.
+   */
+  private static void writeInt(byte[] data, int offset, int value) {
+    data[offset] = (byte) (value >>> 24);
+    data[offset + 1] = (byte) (value >>> 16);
+    data[offset + 2] = (byte) (value >>> 8);
+    data[offset + 3] = (byte) value;
+  }
+}
@@ -0,0 +1,505 @@
+package imageprocessor;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * The TiffTileReader class reads rectangular regions of a TIFF or BigTIFF image on demand, so an
+ * image far larger than the heap can be processed one tile at a time.
+ *
+ * <p>Uncompressed 8-bit greyscale (BlackIsZero) and RGB TIFF and BigTIFF files, tiled or
+ * striped, are read directly: each tile is fetched with a positional FileChannel read, so any
+ * number of threads may read tiles at the same time. Every other TIFF (for example a compressed,
+ * palette, WhiteIsZero or CMYK one) is read through the ImageIO TIFF plugin, with a separate
+ * ImageReader for each thread and only the requested region decoded.</p>
+ */
+public class TiffTileReader implements AutoCloseable {
+
+  private static final int TAG_IMAGE_WIDTH = 256;
+  private static final int TAG_IMAGE_LENGTH = 257;
+  private static final int TAG_BITS_PER_SAMPLE = 258;
+  private static final int TAG_COMPRESSION = 259;
+  private static final int TAG_PHOTOMETRIC_INTERPRETATION = 262;
+  private static final int TAG_STRIP_OFFSETS = 273;
+  private static final int TAG_SAMPLES_PER_PIXEL = 277;
+  private static final int TAG_ROWS_PER_STRIP = 278;
+  private static final int TAG_PLANAR_CONFIGURATION = 284;
+  private static final int TAG_TILE_WIDTH = 322;
+  private static final int TAG_TILE_LENGTH = 323;
+  private static final int TAG_TILE_OFFSETS = 324;
+
+  /**
+   * The DEFAULT_TILE_SIZE attribute is the tile size reported for images that are read through
+   * ImageIO and are not tiled themselves.
+   */
+  private static final int DEFAULT_TILE_SIZE = 256;
+
+  /**
+   * The BLACK_IS_ZERO and RGB attributes are the photometric interpretations whose samples are
+   * the pixel values themselves, so they can be read directly.
+   */
+  private static final int BLACK_IS_ZERO = 1;
+  private static final int RGB = 2;
+
+  private final String filename;
+  private final FileChannel channel;
+  private final int width;
+  private final int height;
+  private final int tileWidth;
+  private final int tileHeight;
+
+  /**
+   * The samplesPerPixel attribute stores how many 8-bit samples each pixel has when the file is
+   * read directly, or zero when it is read through ImageIO.
+   */
+  private final int samplesPerPixel;
+
+  /**
+   * The tileOffsets attribute stores the file offset of every tile (or strip), in row-major
+   * order, when the file is read directly.
+   */
+  private final long[] tileOffsets;
+
+  /**
+   * The striped attribute stores whether the file is read directly and stored in strips, whose
+   * last strip stops at the bottom of the image instead of being padded like a tile.
+   */
+  private final boolean striped;
+
+  /**
+   * The readers attribute stores one ImageIO reader for each thread that has read from a file
+   * that cannot be read directly.
+   */
+  private final ThreadLocal<ImageReader> readers;
+
+  /**
+   * The openReaders attribute keeps track of every ImageIO reader created, so they can all be
+   * disposed of when this reader is closed.
+   */
+  private final List<ImageReader> openReaders = new CopyOnWriteArrayList<>();
+
+  /**
+   * Constructs a TiffTileReader by reading the header and first image directory of a TIFF file.
+   * No pixel data is read until a region is requested.
+   *
+   * @param filename the path of the TIFF or BigTIFF file.
+   * @throws IOException if the file cannot be opened or is not a TIFF image.
+   */
+  public TiffTileReader(String filename) throws IOException {
+    this.filename = filename;
+    this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+    try {
+      Map<Integer, long[]> directory = readDirectory();
+      long[] bits = directory.getOrDefault(TAG_BITS_PER_SAMPLE, new long[]{1});
+      int samples = (int) first(directory, TAG_SAMPLES_PER_PIXEL, 1);
+      long photometric = first(directory, TAG_PHOTOMETRIC_INTERPRETATION, -1);
+      boolean direct = first(directory, TAG_COMPRESSION, 1) == 1
+              && first(directory, TAG_PLANAR_CONFIGURATION, 1) == 1
+              && (photometric == BLACK_IS_ZERO && samples == 1
+              || photometric == RGB && (samples == 3 || samples == 4));
+      for (long bit : bits) {
+        direct &= bit == 8;
+      }
+      this.width = (int) first(directory, TAG_IMAGE_WIDTH, 0);
+      this.height = (int) first(directory, TAG_IMAGE_LENGTH, 0);
+      if (width < 1 || height < 1) {
+        throw new IOException("TIFF image has no size.");
+      }
+      if (direct && directory.containsKey(TAG_TILE_OFFSETS)) {
+        this.tileWidth = (int) first(directory, TAG_TILE_WIDTH, 0);
+        this.tileHeight = (int) first(directory, TAG_TILE_LENGTH, 0);
+        this.tileOffsets = directory.get(TAG_TILE_OFFSETS);
+        this.striped = false;
+      } else if (direct && directory.containsKey(TAG_STRIP_OFFSETS)) {
+        this.tileWidth = width;
+        this.tileHeight = (int) Math.min(height, first(directory, TAG_ROWS_PER_STRIP, height));
+        this.tileOffsets = directory.get(TAG_STRIP_OFFSETS);
+        this.striped = true;
+      } else {
+        direct = false;
+        this.tileWidth = Math.min(width, DEFAULT_TILE_SIZE);
+        this.tileHeight = Math.min(height, DEFAULT_TILE_SIZE);
+        this.tileOffsets = null;
+        this.striped = false;
+      }
+      if (direct && (tileWidth < 1 || tileHeight < 1
+              || tileOffsets.length < getTilesAcross() * getTilesDown())) {
+        throw new IOException("TIFF tile layout is malformed.");
+      }
+      this.samplesPerPixel = direct ? samples : 0;
+      this.readers = ThreadLocal.withInitial(this::createReader);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the width of the image in pixels.
+   *
+   * @return the width of the image.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the height of the image in pixels.
+   *
+   * @return the height of the image.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the width of one tile in pixels. Tiles in the last column may be cut off by the
+   * right edge of the image.
+   *
+   * @return the width of a tile.
+   */
+  public int getTileWidth() {
+    return tileWidth;
+  }
+
+  /**
+   * Returns the height of one tile in pixels. Tiles in the last row may be cut off by the bottom
+   * edge of the image.
+   *
+   * @return the height of a tile.
+   */
+  public int getTileHeight() {
+    return tileHeight;
+  }
+
+  /**
+   * Returns the number of tile columns in the image.
+   *
+   * @return the number of tiles across.
+   */
+  public int getTilesAcross() {
+    return (width + tileWidth - 1) / tileWidth;
+  }
+
+  /**
+   * Returns the number of tile rows in the image.
+   *
+   * @return the number of tiles down.
+   */
+  public int getTilesDown() {
+    return (height + tileHeight - 1) / tileHeight;
+  }
+
+  /**
+   * The readTile method reads one tile of the image. This method may be called from several
+   * threads at once.
+   *
+   * @param tileX the column of the tile.
+   * @param tileY the row of the tile.
+   * @return the tile as a 3-D int[][][] array, cut off at the edges of the image.
+   * @throws IOException if the tile cannot be read.
+   */
+  public int[][][] readTile(int tileX, int tileY) throws IOException {
+    return readRegion(tileX * tileWidth, tileY * tileHeight, tileWidth, tileHeight);
+  }
+
+  /**
+   * The readRegion method reads a rectangular region of the image. The region is clipped to the
+   * bounds of the image, and only the tiles it intersects are read. This method may be called
+   * from several threads at once.
+   *
+   * @param x      the left edge of the region.
+   * @param y      the top edge of the region.
+   * @param width  the width of the region.
+   * @param height the height of the region.
+   * @return the region as a 3-D int[][][] array.
+   * @throws IOException if the region cannot be read.
+   * @throws IllegalArgumentException if the region does not intersect the image.
+   */
+  public int[][][] readRegion(int x, int y, int width, int height) throws IOException {
+    Rectangle region = new Rectangle(x, y, width, height)
+            .intersection(new Rectangle(0, 0, this.width, this.height));
+    if (region.isEmpty()) {
+      throw new IllegalArgumentException("Error: Region is outside the image.");
+    }
+    if (samplesPerPixel == 0) {
+      return readRegionWithImageIO(region);
+    }
+    int[][][] result = new int[region.height][region.width][3];
+    int tileBytes = tileWidth * tileHeight * samplesPerPixel;
+    ByteBuffer buffer = ByteBuffer.allocate(tileBytes);
+    for (int ty = region.y / tileHeight; ty * tileHeight < region.y + region.height; ty++) {
+      int rows = striped ? Math.min(tileHeight, this.height - ty * tileHeight) : tileHeight;
+      for (int tx = region.x / tileWidth; tx * tileWidth < region.x + region.width; tx++) {
+        buffer.clear();
+        buffer.limit(rows * tileWidth * samplesPerPixel);
+        long offset = tileOffsets[ty * getTilesAcross() + tx];
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer, offset + buffer.position()) < 0) {
+            throw new IOException("TIFF file is truncated.");
+          }
+        }
+        copyTile(buffer.array(), tx, ty, region, result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The copyTile method copies the part of a tile that lies inside a region into the region's
+   * pixel array.
+   *
+   * @param tile   the raw samples of the tile.
+   * @param tileX  the column of the tile.
+   * @param tileY  the row of the tile.
+   * @param region the region being read.
+   * @param result the pixel array of the region.
+   */
+  private void copyTile(byte[] tile, int tileX, int tileY, Rectangle region, int[][][] result) {
+    int startRow = Math.max(region.y, tileY * tileHeight);
+    int endRow = Math.min(region.y + region.height, (tileY + 1) * tileHeight);
+    int startColumn = Math.max(region.x, tileX * tileWidth);
+    int endColumn = Math.min(region.x + region.width, (tileX + 1) * tileWidth);
+    for (int i = startRow; i < endRow; i++) {
+      int index = ((i - tileY * tileHeight) * tileWidth + (startColumn - tileX * tileWidth))
+              * samplesPerPixel;
+      int[][] row = result[i - region.y];
+      for (int j = startColumn; j < endColumn; j++) {
+        int[] pixel = row[j - region.x];
+        if (samplesPerPixel == 1) {
+          int grey = tile[index] & 0xff;
+          pixel[0] = grey;
+          pixel[1] = grey;
+          pixel[2] = grey;
+        } else {
+          pixel[0] = tile[index] & 0xff;
+          pixel[1] = tile[index + 1] & 0xff;
+          pixel[2] = tile[index + 2] & 0xff;
+        }
+        index += samplesPerPixel;
+      }
+    }
+  }
+
+  /**
+   * The readRegionWithImageIO method reads a region through this thread's ImageIO reader,
+   * decoding only that region of the file.
+   *
+   * @param region the region to read, already clipped to the image.
+   * @return the region as a 3-D int[][][] array.
+   * @throws IOException if the region cannot be read.
+   */
+  private int[][][] readRegionWithImageIO(Rectangle region) throws IOException {
+    ImageReader reader;
+    try {
+      reader = readers.get();
+    } catch (IllegalStateException e) {
+      throw new IOException(e.getMessage());
+    }
+    ImageReadParam param = reader.getDefaultReadParam();
+    param.setSourceRegion(region);
+    BufferedImage image = reader.read(0, param);
+    int[][][] result = new int[region.height][region.width][3];
+    for (int i = 0; i < region.height; i++) {
+      for (int j = 0; j < region.width; j++) {
+        int color = image.getRGB(j, i);
+        result[i][j][0] = color >> 16 & 0xff;
+        result[i][j][1] = color >> 8 & 0xff;
+        result[i][j][2] = color & 0xff;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The createReader method opens a new ImageIO TIFF reader on the file, for the calling thread.
+   *
+   * @return the new reader.
+   * @throws IllegalStateException if no reader can be opened on the file.
+   */
+  private ImageReader createReader() {
+    try {
+      ImageInputStream stream = ImageIO.createImageInputStream(new File(filename));
+      Iterator<ImageReader> candidates = ImageIO.getImageReaders(stream);
+      if (!candidates.hasNext()) {
+        stream.close();
+        throw new IllegalStateException("No reader is available for " + filename + ".");
+      }
+      ImageReader reader = candidates.next();
+      reader.setInput(stream, true, true);
+      openReaders.add(reader);
+      return reader;
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot open " + filename + ".");
+    }
+  }
+
+  /**
+   * The readDirectory method reads the header of the file and every entry of its first image
+   * file directory.
+   *
+   * @return a map from each tag in the directory to its values.
+   * @throws IOException if the file is not a TIFF or BigTIFF image.
+   */
+  private Map<Integer, long[]> readDirectory() throws IOException {
+    ByteBuffer header = readAt(0, 16);
+    if (header.get(0) == 'I' && header.get(1) == 'I') {
+      header.order(ByteOrder.LITTLE_ENDIAN);
+    } else if (header.get(0) != 'M' || header.get(1) != 'M') {
+      throw new IOException("Not a TIFF image.");
+    }
+    ByteOrder order = header.order();
+    int version = header.getShort(2);
+    boolean big;
+    long directoryOffset;
+    if (version == 42) {
+      big = false;
+      directoryOffset = header.getInt(4) & 0xffffffffL;
+    } else if (version == 43) {
+      big = true;
+      directoryOffset = header.getLong(8);
+    } else {
+      throw new IOException("Not a TIFF image.");
+    }
+
+    int countSize = big ? 8 : 2;
+    int entrySize = big ? 20 : 12;
+    ByteBuffer countBuffer = readAt(directoryOffset, countSize).order(order);
+    long count = big ? countBuffer.getLong(0) : countBuffer.getShort(0) & 0xffff;
+    ByteBuffer entries = readAt(directoryOffset + countSize, (int) (count * entrySize))
+            .order(order);
+    Map<Integer, long[]> directory = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      int base = i * entrySize;
+      int tag = entries.getShort(base) & 0xffff;
+      int type = entries.getShort(base + 2) & 0xffff;
+      long valueCount = big ? entries.getLong(base + 4) : entries.getInt(base + 4) & 0xffffffffL;
+      int typeSize = typeSize(type);
+      if (typeSize == 0 || valueCount > Integer.MAX_VALUE / 8) {
+        continue;
+      }
+      int inlineSize = big ? 8 : 4;
+      int valueOffset = base + (big ? 12 : 8);
+      ByteBuffer values;
+      int start;
+      if (valueCount * typeSize <= inlineSize) {
+        values = entries;
+        start = valueOffset;
+      } else {
+        long offset = big ? entries.getLong(valueOffset)
+                : entries.getInt(valueOffset) & 0xffffffffL;
+        values = readAt(offset, (int) (valueCount * typeSize)).order(order);
+        start = 0;
+      }
+      long[] result = new long[(int) valueCount];
+      for (int k = 0; k < valueCount; k++) {
+        int position = start + k * typeSize;
+        switch (typeSize) {
+          case 1:
+            result[k] = values.get(position) & 0xff;
+            break;
+          case 2:
+            result[k] = values.getShort(position) & 0xffff;
+            break;
+          case 4:
+            result[k] = values.getInt(position) & 0xffffffffL;
+            break;
+          default:
+            result[k] = values.getLong(position);
+        }
+      }
+      directory.put(tag, result);
+    }
+    return directory;
+  }
+
+  /**
+   * The typeSize method returns the size in bytes of the integer TIFF field types.
+   *
+   * @param type the TIFF field type.
+   * @return the size of one value, or zero for types this reader does not need.
+   */
+  private static int typeSize(int type) {
+    switch (type) {
+      case 1:  // BYTE
+      case 7:  // UNDEFINED
+        return 1;
+      case 3:  // SHORT
+        return 2;
+      case 4:  // LONG
+      case 13: // IFD
+        return 4;
+      case 16: // LONG8
+      case 18: // IFD8
+        return 8;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * The first method returns the first value of a tag, or a default if the tag is missing.
+   *
+   * @param directory    the image file directory.
+   * @param tag          the tag to look up.
+   * @param defaultValue the value to return if the tag is missing.
+   * @return the first value of the tag.
+   */
+  private static long first(Map<Integer, long[]> directory, int tag, long defaultValue) {
+    long[] values = directory.get(tag);
+    return values == null || values.length == 0 ? defaultValue : values[0];
+  }
+
+  /**
+   * The readAt method reads a number of bytes from a position of the file.
+   *
+   * @param position the position of the first byte.
+   * @param length   the number of bytes to read.
+   * @return a buffer holding the bytes.
+   * @throws IOException if the file ends before all bytes were read.
+   */
+  private ByteBuffer readAt(long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("TIFF file is truncated.");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * The close method closes the file and disposes of every ImageIO reader that was opened.
+   *
+   * @throws IOException if the file cannot be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    for (ImageReader reader : openReaders) {
+      Object input = reader.getInput();
+      reader.dispose();
+      if (input instanceof ImageInputStream) {
+        ((ImageInputStream) input).close();
+      }
+    }
+    channel.close();
+  }
+}
@@ -0,0 +1,315 @@
+package imageprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The TiffTileWriter class streams tiles of an image into an uncompressed, tiled 8-bit RGB TIFF
+ * file, so an image far larger than the heap can be written one tile at a time.
+ *
+ * <p>Because the tiles are uncompressed, every tile has a fixed place in the file. Tiles may
+ * therefore be written in any order and from several threads at once, each with a positional
+ * FileChannel write. The image file directory is written when the writer is closed. Images whose
+ * pixel data would not fit in a classic TIFF's 32-bit offsets are written as BigTIFF.</p>
+ */
+public class TiffTileWriter implements AutoCloseable {
+
+  /**
+   * The DEFAULT_TILE_SIZE attribute is the tile width and height used when none is given.
+   */
+  public static final int DEFAULT_TILE_SIZE = 256;
+
+  private static final short TYPE_SHORT = 3;
+  private static final short TYPE_LONG = 4;
+  private static final short TYPE_LONG8 = 16;
+
+  private final FileChannel channel;
+  private final int width;
+  private final int height;
+  private final int tileWidth;
+  private final int tileHeight;
+  private final boolean bigTiff;
+
+  /**
+   * The dataOffset attribute is the file offset of the first tile.
+   */
+  private final long dataOffset;
+
+  /**
+   * The tileBytes attribute is the size of one tile in bytes. Edge tiles are padded to the full
+   * size, as the TIFF specification requires.
+   */
+  private final long tileBytes;
+
+  /**
+   * Constructs a TiffTileWriter with the default tile size.
+   *
+   * @param filename the path of the TIFF file to create.
+   * @param width    the width of the image in pixels.
+   * @param height   the height of the image in pixels.
+   * @throws IOException if the file cannot be created.
+   */
+  public TiffTileWriter(String filename, int width, int height) throws IOException {
+    this(filename, width, height, DEFAULT_TILE_SIZE, DEFAULT_TILE_SIZE);
+  }
+
+  /**
+   * Constructs a TiffTileWriter and writes the header of the file. BigTIFF is chosen
+   * automatically when the image is too large for a classic TIFF.
+   *
+   * @param filename   the path of the TIFF file to create.
+   * @param width      the width of the image in pixels.
+   * @param height     the height of the image in pixels.
+   * @param tileWidth  the width of each tile; must be a positive multiple of 16.
+   * @param tileHeight the height of each tile; must be a positive multiple of 16.
+   * @throws IOException if the file cannot be created.
+   * @throws IllegalArgumentException if a dimension or tile size is invalid.
+   */
+  public TiffTileWriter(String filename, int width, int height, int tileWidth, int tileHeight)
+          throws IOException {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Error: Height and width must be at least 1.");
+    }
+    if (tileWidth < 16 || tileHeight < 16 || tileWidth % 16 != 0 || tileHeight % 16 != 0) {
+      throw new IllegalArgumentException("Error: Tile sizes must be positive multiples of 16.");
+    }
+    this.width = width;
+    this.height = height;
+    this.tileWidth = tileWidth;
+    this.tileHeight = tileHeight;
+    this.tileBytes = (long) tileWidth * tileHeight * 3;
+    long tileCount = (long) getTilesAcross() * getTilesDown();
+    this.bigTiff = tileCount * tileBytes + tileCount * 8 + 1024 > 0xffffffffL;
+    this.dataOffset = bigTiff ? 16 : 8;
+    this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  /**
+   * Returns the width of one tile in pixels.
+   *
+   * @return the width of a tile.
+   */
+  public int getTileWidth() {
+    return tileWidth;
+  }
+
+  /**
+   * Returns the height of one tile in pixels.
+   *
+   * @return the height of a tile.
+   */
+  public int getTileHeight() {
+    return tileHeight;
+  }
+
+  /**
+   * Returns the number of tile columns in the image.
+   *
+   * @return the number of tiles across.
+   */
+  public int getTilesAcross() {
+    return (width + tileWidth - 1) / tileWidth;
+  }
+
+  /**
+   * Returns the number of tile rows in the image.
+   *
+   * @return the number of tiles down.
+   */
+  public int getTilesDown() {
+    return (height + tileHeight - 1) / tileHeight;
+  }
+
+  /**
+   * Returns whether the file is being written as BigTIFF.
+   *
+   * @return true if the file uses 64-bit offsets.
+   */
+  public boolean isBigTiff() {
+    return bigTiff;
+  }
+
+  /**
+   * The writeTile method writes one tile of the image. The tile may be smaller than the tile
+   * size at the right and bottom edges of the image; it is padded with black. This method may be
+   * called from several threads at once, and tiles may be written in any order.
+   *
+   * @param tileX the column of the tile.
+   * @param tileY the row of the tile.
+   * @param tile  the pixels of the tile as a 3-D int[][][] array.
+   * @throws IOException if the tile cannot be written.
+   * @throws IllegalArgumentException if the tile position is outside the image.
+   */
+  public void writeTile(int tileX, int tileY, int[][][] tile) throws IOException {
+    if (tileX < 0 || tileY < 0 || tileX >= getTilesAcross() || tileY >= getTilesDown()) {
+      throw new IllegalArgumentException("Error: Tile is outside the image.");
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) tileBytes);
+    byte[] bytes = buffer.array();
+    int rows = Math.min(tile.length, tileHeight);
+    for (int i = 0; i < rows; i++) {
+      int columns = Math.min(tile[i].length, tileWidth);
+      int index = i * tileWidth * 3;
+      for (int j = 0; j < columns; j++) {
+        int[] pixel = tile[i][j];
+        bytes[index++] = (byte) pixel[0];
+        bytes[index++] = (byte) pixel[1];
+        bytes[index++] = (byte) pixel[2];
+      }
+    }
+    long position = tileOffset(tileY * getTilesAcross() + tileX);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+  }
+
+  /**
+   * The tileOffset method returns the file offset of a tile.
+   *
+   * @param index the row-major index of the tile.
+   * @return the offset of the tile's first byte.
+   */
+  private long tileOffset(int index) {
+    return dataOffset + index * tileBytes;
+  }
+
+  /**
+   * The close method writes the header and the image file directory, then closes the file.
+   * Tiles that were never written are left black.
+   *
+   * @throws IOException if the file cannot be written.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      int tileCount = getTilesAcross() * getTilesDown();
+      long directoryOffset = tileOffset(tileCount);
+      int entryCount = 11;
+      int entrySize = bigTiff ? 20 : 12;
+      int directorySize = (bigTiff ? 8 : 2) + entryCount * entrySize + (bigTiff ? 8 : 4);
+      int offsetSize = bigTiff ? 8 : 4;
+      long bitsOffset = directoryOffset + directorySize;
+      long offsetsOffset = bitsOffset + 8;
+      long countsOffset = offsetsOffset + (long) tileCount * offsetSize;
+
+      ByteBuffer header = ByteBuffer.allocate((int) dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+      header.put((byte) 'I').put((byte) 'I');
+      if (bigTiff) {
+        header.putShort((short) 43).putShort((short) 8).putShort((short) 0)
+                .putLong(directoryOffset);
+      } else {
+        header.putShort((short) 42).putInt((int) directoryOffset);
+      }
+      header.flip();
+      writeFully(header, 0);
+
+      ByteBuffer directory = ByteBuffer.allocate((int) (countsOffset - directoryOffset
+              + (long) tileCount * offsetSize)).order(ByteOrder.LITTLE_ENDIAN);
+      if (bigTiff) {
+        directory.putLong(entryCount);
+      } else {
+        directory.putShort((short) entryCount);
+      }
+      putEntry(directory, 256, TYPE_LONG, 1, width);
+      putEntry(directory, 257, TYPE_LONG, 1, height);
+      if (bigTiff) {
+        putBitsPerSampleInline(directory);
+      } else {
+        putEntry(directory, 258, TYPE_SHORT, 3, bitsOffset);
+      }
+      putEntry(directory, 259, TYPE_SHORT, 1, 1);
+      putEntry(directory, 262, TYPE_SHORT, 1, 2);
+      putEntry(directory, 277, TYPE_SHORT, 1, 3);
+      putEntry(directory, 284, TYPE_SHORT, 1, 1);
+      putEntry(directory, 322, TYPE_LONG, 1, tileWidth);
+      putEntry(directory, 323, TYPE_LONG, 1, tileHeight);
+      short arrayType = bigTiff ? TYPE_LONG8 : TYPE_LONG;
+      putEntry(directory, 324, arrayType, tileCount,
+              tileCount == 1 ? tileOffset(0) : offsetsOffset);
+      putEntry(directory, 325, arrayType, tileCount, tileCount == 1 ? tileBytes : countsOffset);
+      putOffset(directory, 0);
+
+      directory.putShort((short) 8).putShort((short) 8).putShort((short) 8).putShort((short) 0);
+      for (int i = 0; i < tileCount; i++) {
+        putOffset(directory, tileOffset(i));
+      }
+      for (int i = 0; i < tileCount; i++) {
+        putOffset(directory, tileBytes);
+      }
+      directory.flip();
+      writeFully(directory, directoryOffset);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * The putEntry method adds one entry to the image file directory. Values that fit in the entry
+   * are stored inline; otherwise the value is the offset where they are stored.
+   *
+   * @param directory the buffer holding the directory.
+   * @param tag       the TIFF tag.
+   * @param type      the TIFF field type.
+   * @param count     the number of values.
+   * @param value     the inline value, or the offset of the values.
+   */
+  private void putEntry(ByteBuffer directory, int tag, short type, long count, long value) {
+    directory.putShort((short) tag).putShort(type);
+    if (bigTiff) {
+      directory.putLong(count);
+    } else {
+      directory.putInt((int) count);
+    }
+    if (count == 1 && type == TYPE_SHORT) {
+      directory.putShort((short) value).putShort((short) 0);
+      if (bigTiff) {
+        directory.putInt(0);
+      }
+    } else {
+      putOffset(directory, value);
+    }
+  }
+
+  /**
+   * The putBitsPerSampleInline method adds the BitsPerSample entry with its three values stored
+   * inline, which only fits in a BigTIFF directory entry.
+   *
+   * @param directory the buffer holding the directory.
+   */
+  private void putBitsPerSampleInline(ByteBuffer directory) {
+    directory.putShort((short) 258).putShort(TYPE_SHORT).putLong(3);
+    directory.putShort((short) 8).putShort((short) 8).putShort((short) 8).putShort((short) 0);
+  }
+
+  /**
+   * The putOffset method writes a file offset in the size this file uses.
+   *
+   * @param buffer the buffer to write to.
+   * @param value  the offset.
+   */
+  private void putOffset(ByteBuffer buffer, long value) {
+    if (bigTiff) {
+      buffer.putLong(value);
+    } else {
+      buffer.putInt((int) value);
+    }
+  }
+
+  /**
+   * The writeFully method writes a whole buffer at a position of the file.
+   *
+   * @param buffer   the buffer to write.
+   * @param position the position of the first byte.
+   * @throws IOException if the file cannot be written.
+   */
+  private void writeFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+  }
+}
@@ -0,0 +1,410 @@
+package imageprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The UncompressedCodec class reads and writes images in uncompressed formats: binary PPM (P6),
+ * binary PGM (P5), PAM (P7) and a simple headered raw format (".raw").
+ *
+ * <p>These formats exist so that intermediate results between chained scripts can be stored
+ * without paying for compression. All reads go through a memory-mapped FileChannel and all writes
+ * go through a direct ByteBuffer, so the cost of an intermediate is close to the disk bandwidth.
+ * </p>
+ *
+ * <p>The raw format is a 20-byte big-endian header followed by interleaved 8-bit RGB samples, row
+ * by row. The header holds the magic bytes "IPRW", the format version, the width, the height and
+ * the number of channels (always 3).</p>
+ */
+class UncompressedCodec {
+
+  /**
+   * The RAW_MAGIC attribute stores the four magic bytes that start every raw image file.
+   */
+  private static final int RAW_MAGIC = ('I' << 24) | ('P' << 16) | ('R' << 8) | 'W';
+
+  /**
+   * The RAW_VERSION attribute stores the version of the raw format written by this codec.
+   */
+  private static final int RAW_VERSION = 1;
+
+  /**
+   * The WRITE_BUFFER_SIZE attribute is the size in bytes of the direct buffer used for writing.
+   */
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+  /**
+   * The isSupported method checks whether a file extension belongs to one of the formats this
+   * codec can read and write.
+   *
+   * @param extension the lower-case file extension, without the dot.
+   * @return true if the extension is ppm, pgm, pam or raw.
+   */
+  static boolean isSupported(String extension) {
+    switch (extension) {
+      case "ppm":
+      case "pgm":
+      case "pam":
+      case "raw":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * The read method reads an uncompressed image file into a 3-D int[][][] array.
+   *
+   * <p>The format is detected from the magic bytes of the file rather than from its extension.
+   * Greyscale samples are copied into all three channels, alpha samples are dropped and 16-bit
+   * samples are scaled down to 8 bits.</p>
+   *
+   * @param filename the path of the file to read.
+   * @return the image as a 3-D array of integer values.
+   * @throws IOException if the file cannot be read or is not a supported uncompressed image.
+   */
+  static int[][][] read(String filename) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      Header header = readHeader(buffer);
+      return readPixels(buffer, header);
+    }
+  }
+
+  /**
+   * The readSize method reads only the header of an uncompressed image file.
+   *
+   * @param filename the path of the file to read.
+   * @return a two-element array holding the width and the height of the image.
+   * @throws IOException if the file cannot be read or is not a supported uncompressed image.
+   */
+  static int[] readSize(String filename) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      Header header = readHeader(buffer);
+      return new int[]{header.width, header.height};
+    }
+  }
+
+  /**
+   * The write method writes a 3-D int[][][] array to an uncompressed image file. The format is
+   * chosen from the extension: ppm writes P6, pgm writes P5 (using the same luma coefficients as
+   * the GreyScale filter), pam writes a P7 RGB image and raw writes the headered raw format.
+   *
+   * @param rgb       the image data as a 3D array of integers.
+   * @param width     the width of the image.
+   * @param height    the height of the image.
+   * @param filename  the full path of where the image must be stored.
+   * @param extension the lower-case file extension, without the dot.
+   * @throws IOException if the file cannot be written to the provided path.
+   */
+  static void write(int[][][] rgb, int width, int height, String filename, String extension)
+          throws IOException {
+    boolean grey = extension.equals("pgm");
+    byte[] header;
+    switch (extension) {
+      case "ppm":
+        header = ascii("P6\n" + width + " " + height + "\n255\n");
+        break;
+      case "pgm":
+        header = ascii("P5\n" + width + " " + height + "\n255\n");
+        break;
+      case "pam":
+        header = ascii("P7\nWIDTH " + width + "\nHEIGHT " + height
+                + "\nDEPTH 3\nMAXVAL 255\nTUPLTYPE RGB\nENDHDR\n");
+        break;
+      case "raw":
+        header = ByteBuffer.allocate(20).putInt(RAW_MAGIC).putInt(RAW_VERSION).putInt(width)
+                .putInt(height).putInt(3).array();
+        break;
+      default:
+        throw new IOException("Unsupported uncompressed format: " + extension);
+    }
+    int rowBytes = grey ? width : width * 3;
+    ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(WRITE_BUFFER_SIZE, rowBytes));
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      buffer.put(header);
+      for (int i = 0; i < height; i++) {
+        if (buffer.remaining() < rowBytes) {
+          drain(buffer, channel);
+        }
+        int[][] row = rgb[i];
+        for (int j = 0; j < width; j++) {
+          int[] pixel = row[j];
+          if (grey) {
+            buffer.put((byte) Math.round(0.2126 * pixel[0] + 0.7152 * pixel[1]
+                    + 0.0722 * pixel[2]));
+          } else {
+            buffer.put((byte) pixel[0]);
+            buffer.put((byte) pixel[1]);
+            buffer.put((byte) pixel[2]);
+          }
+        }
+      }
+      drain(buffer, channel);
+    }
+  }
+
+  /**
+   * The drain method writes everything in a buffer to a channel and clears the buffer.
+   *
+   * @param buffer  the buffer to be written out.
+   * @param channel the channel to write to.
+   * @throws IOException if the channel cannot be written to.
+   */
+  private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * The readPixels method converts the samples following a header into a 3-D int[][][] array.
+   *
+   * @param buffer the buffer, positioned at the first sample.
+   * @param header the parsed header of the image.
+   * @return the image as a 3-D array of integer values.
+   * @throws IOException if the file ends before all samples were read.
+   */
+  private static int[][][] readPixels(ByteBuffer buffer, Header header) throws IOException {
+    int bytesPerSample = header.maxValue > 255 ? 2 : 1;
+    int rowBytes = header.width * header.depth * bytesPerSample;
+    if ((long) rowBytes * header.height > buffer.remaining()) {
+      throw new IOException("Image data is truncated.");
+    }
+    int[][][] result = new int[header.height][header.width][3];
+    byte[] row = new byte[rowBytes];
+    boolean color = header.depth >= 3;
+    for (int i = 0; i < header.height; i++) {
+      buffer.get(row);
+      int index = 0;
+      for (int j = 0; j < header.width; j++) {
+        for (int k = 0; k < header.depth; k++) {
+          int sample;
+          if (bytesPerSample == 1) {
+            sample = row[index++] & 0xFF;
+          } else {
+            sample = ((row[index] & 0xFF) << 8) | (row[index + 1] & 0xFF);
+            index += 2;
+          }
+          if (header.maxValue != 255) {
+            sample = sample * 255 / header.maxValue;
+          }
+          if (color && k < 3) {
+            result[i][j][k] = sample;
+          } else if (!color && k == 0) {
+            result[i][j][0] = sample;
+            result[i][j][1] = sample;
+            result[i][j][2] = sample;
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The readHeader method parses the header of an uncompressed image and leaves the buffer
+   * positioned at the first sample.
+   *
+   * @param buffer the buffer holding the whole file.
+   * @return the parsed header.
+   * @throws IOException if the header is missing or malformed.
+   */
+  private static Header readHeader(ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < 4) {
+      throw new IOException("Not an uncompressed image.");
+    }
+    if (buffer.getInt(0) == RAW_MAGIC) {
+      if (buffer.remaining() < 20) {
+        throw new IOException("Raw header is truncated.");
+      }
+      buffer.getInt();
+      if (buffer.getInt() != RAW_VERSION) {
+        throw new IOException("Unsupported raw version.");
+      }
+      int width = buffer.getInt();
+      int height = buffer.getInt();
+      int depth = buffer.getInt();
+      return new Header(width, height, depth, 255);
+    }
+    if (buffer.get() != 'P') {
+      throw new IOException("Not an uncompressed image.");
+    }
+    char type = (char) buffer.get();
+    switch (type) {
+      case '5':
+      case '6': {
+        int width = nextNumber(buffer);
+        int height = nextNumber(buffer);
+        int maxValue = nextNumber(buffer);
+        buffer.get();
+        return new Header(width, height, type == '5' ? 1 : 3, maxValue);
+      }
+      case '7':
+        return readPamHeader(buffer);
+      default:
+        throw new IOException("Only binary PPM, PGM and PAM images are supported.");
+    }
+  }
+
+  /**
+   * The readPamHeader method parses the key-value header of a PAM (P7) image.
+   *
+   * @param buffer the buffer, positioned right after the magic number.
+   * @return the parsed header.
+   * @throws IOException if the header is malformed.
+   */
+  private static Header readPamHeader(ByteBuffer buffer) throws IOException {
+    int width = -1;
+    int height = -1;
+    int depth = -1;
+    int maxValue = -1;
+    while (true) {
+      String line = nextLine(buffer).trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      if (line.equals("ENDHDR")) {
+        break;
+      }
+      String[] parts = line.split("\\s+", 2);
+      try {
+        switch (parts[0]) {
+          case "WIDTH":
+            width = Integer.parseInt(parts[1]);
+            break;
+          case "HEIGHT":
+            height = Integer.parseInt(parts[1]);
+            break;
+          case "DEPTH":
+            depth = Integer.parseInt(parts[1]);
+            break;
+          case "MAXVAL":
+            maxValue = Integer.parseInt(parts[1]);
+            break;
+          default:
+            //TUPLTYPE and unknown keys carry no information we need
+        }
+      } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+        throw new IOException("Malformed PAM header.");
+      }
+    }
+    if (depth < 1 || depth > 4) {
+      throw new IOException("Unsupported PAM depth.");
+    }
+    return new Header(width, height, depth, maxValue);
+  }
+
+  /**
+   * The nextNumber method reads the next decimal number of a PPM or PGM header, skipping
+   * whitespace and comments.
+   *
+   * @param buffer the buffer to read from.
+   * @return the number that was read.
+   * @throws IOException if the header ends or does not contain a number.
+   */
+  private static int nextNumber(ByteBuffer buffer) throws IOException {
+    int c = skipWhitespace(buffer);
+    if (c < '0' || c > '9') {
+      throw new IOException("Malformed header.");
+    }
+    int value = 0;
+    while (c >= '0' && c <= '9') {
+      value = value * 10 + (c - '0');
+      if (!buffer.hasRemaining()) {
+        throw new IOException("Header is truncated.");
+      }
+      c = buffer.get();
+    }
+    buffer.position(buffer.position() - 1);
+    return value;
+  }
+
+  /**
+   * The skipWhitespace method skips whitespace and '#' comments in a header.
+   *
+   * @param buffer the buffer to read from.
+   * @return the first character that is not whitespace or part of a comment.
+   * @throws IOException if the header ends.
+   */
+  private static int skipWhitespace(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      int c = buffer.get();
+      if (c == '#') {
+        while (buffer.hasRemaining() && buffer.get() != '\n') {
+          //skip the rest of the comment
+        }
+      } else if (!Character.isWhitespace(c)) {
+        return c;
+      }
+    }
+    throw new IOException("Header is truncated.");
+  }
+
+  /**
+   * The nextLine method reads one line of a PAM header.
+   *
+   * @param buffer the buffer to read from.
+   * @return the line without its line terminator.
+   * @throws IOException if the header ends before the line does.
+   */
+  private static String nextLine(ByteBuffer buffer) throws IOException {
+    StringBuilder line = new StringBuilder();
+    while (buffer.hasRemaining()) {
+      char c = (char) buffer.get();
+      if (c == '\n') {
+        return line.toString();
+      }
+      line.append(c);
+    }
+    throw new IOException("Header is truncated.");
+  }
+
+  /**
+   * The ascii method encodes a header string as US-ASCII bytes.
+   *
+   * @param text the header text.
+   * @return the encoded bytes.
+   */
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * The Header class stores the dimensions and sample layout of an uncompressed image.
+   */
+  private static class Header {
+    private final int width;
+    private final int height;
+    private final int depth;
+    private final int maxValue;
+
+    /**
+     * Constructs a Header and validates its values.
+     *
+     * @param width    the width of the image in pixels.
+     * @param height   the height of the image in pixels.
+     * @param depth    the number of samples per pixel.
+     * @param maxValue the largest value a sample may hold.
+     * @throws IOException if any of the values is out of range.
+     */
+    Header(int width, int height, int depth, int maxValue) throws IOException {
+      if (width < 1 || height < 1 || depth < 1 || maxValue < 1 || maxValue > 65535) {
+        throw new IOException("Malformed header.");
+      }
+      this.width = width;
+      this.height = height;
+      this.depth = depth;
+      this.maxValue = maxValue;
+    }
+  }
+}
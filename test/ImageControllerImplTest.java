@@ -1,9 +1,11 @@
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
 
 import imageprocessor.Designs;
 import imageprocessor.Filters;
@@ -12,6 +14,7 @@ import imageprocessor.ImageModelImpl;
 import imageprocessor.ImageUtil;
 
 import imagecontroller.ImageController;
+import imagecontroller.ImageControllerExtension;
 import imagecontroller.ImageControllerImpl;
 
 import static junit.framework.TestCase.fail;
@@ -273,4 +276,77 @@ public class ImageControllerImplTest {
       Assert.assertEquals("Error: Not a valid command.", e.getMessage());
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void invalidCommandFoundBeforeAnySave() {
+    new File("res/validatedFirst.png").delete();
+    try {
+      ImageController testController =
+              new ImageControllerImpl(null,
+                      new StringReader("generate checkerboard 8 8 save res/validatedFirst.png "
+                              + "apply blur bogus"));
+      testController.start();
+      fail("An error should have been thrown.");
+    }
+    catch (IllegalArgumentException e) {
+      Assert.assertEquals("Error: Not a valid command.", e.getMessage());
+    }
+    Assert.assertFalse(new File("res/validatedFirst.png").exists());
+  }
+
+  @Test
+  public void sharedChainsMatchSeparateRuns() throws IOException {
+    ImageControllerExtension testController =
+            new ImageControllerImpl(null,
+                    new StringReader("generate checkerboard 8 8 apply blur save res/shared1.png "
+                            + "generate checkerboard 8 8 apply blur apply sepia "
+                            + "save res/shared2.png"));
+    testController.start();
+    ImageModelExtension n = new ImageModelImpl(Designs.CHECKERBOARD, 8, 8);
+    n.applyFilter(Filters.BLUR);
+    n.applyFilter(Filters.SEPIA);
+    int[][][] expected = n.getModifiedImage();
+    int[][][] actual = ImageUtil.readImage("res/shared2.png");
+    for (int i = 0; i < expected.length; i++) {
+      for (int j = 0; j < expected[0].length; j++) {
+        for (int k = 0; k < 3; k++) {
+          assertEquals(expected[i][j][k], actual[i][j][k]);
+        }
+      }
+    }
+    assertEquals(expected[3][5][1], testController.getModel().getModifiedImage()[3][5][1]);
+  }
+
+  @Test
+  public void branchesStartFromTheSameImage() throws IOException {
+    ImageControllerExtension testController =
+            new ImageControllerImpl(null,
+                    new StringReader("generate checkerboard 8 8 "
+                            + "branch soft { apply blur save res/branchSoft.png } "
+                            + "branch old { apply sepia save res/branchOld.png }"));
+    testController.start();
+    ImageModelExtension soft = new ImageModelImpl(Designs.CHECKERBOARD, 8, 8);
+    soft.applyFilter(Filters.BLUR);
+    ImageModelExtension old = new ImageModelImpl(Designs.CHECKERBOARD, 8, 8);
+    old.applyFilter(Filters.SEPIA);
+    ImageModelExtension plain = new ImageModelImpl(Designs.CHECKERBOARD, 8, 8);
+    Assert.assertArrayEquals(soft.getModifiedImage(), ImageUtil.readImage("res/branchSoft.png"));
+    Assert.assertArrayEquals(old.getModifiedImage(), ImageUtil.readImage("res/branchOld.png"));
+    Assert.assertArrayEquals(plain.getModifiedImage(),
+            testController.getModel().getModifiedImage());
+  }
+
+  @Test
+  public void unclosedBranch() {
+    try {
+      ImageController testController =
+              new ImageControllerImpl(null,
+                      new StringReader("generate checkerboard 8 8 branch soft { apply blur"));
+      testController.start();
+      fail("An error should have been thrown.");
+    }
+    catch (IllegalArgumentException e) {
+      Assert.assertEquals("Error: Branch is missing a closing brace.", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,271 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import imageprocessor.CancellationToken;
+import imageprocessor.Filters;
+import imageprocessor.ImageFactory;
+import imageprocessor.ImageModelExtension;
+import imageprocessor.ImageModelImpl;
+import imageprocessor.ImageUtil;
+import imageprocessor.PngFilter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This is a test class for the ImageUtil class. It ensures images survive a round trip through
+ * each of the file formats that ImageUtil writes itself.
+ */
+public class ImageUtilTest {
+
+  /**
+   * Builds a small image whose channels all differ, so that swapped channels or rows are caught.
+   *
+   * @return a 5 by 7 image.
+   */
+  private int[][][] sampleImage() {
+    int[][][] image = new int[5][7][3];
+    for (int i = 0; i < 5; i++) {
+      for (int j = 0; j < 7; j++) {
+        image[i][j][0] = (i * 50 + j) % 256;
+        image[i][j][1] = (j * 36 + i) % 256;
+        image[i][j][2] = (i * j * 11) % 256;
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Writes the sample image with the given extension and reads it back.
+   *
+   * @param extension the extension of the temporary file.
+   * @return the image that was read back.
+   * @throws IOException if the file cannot be written or read.
+   */
+  private int[][][] roundTrip(String extension) throws IOException {
+    File file = File.createTempFile("imageutil", "." + extension);
+    file.deleteOnExit();
+    ImageUtil.writeImage(sampleImage(), 7, 5, file.getAbsolutePath());
+    assertEquals(7, ImageUtil.getWidth(file.getAbsolutePath()));
+    assertEquals(5, ImageUtil.getHeight(file.getAbsolutePath()));
+    return ImageUtil.readImage(file.getAbsolutePath());
+  }
+
+  @Test
+  public void testPpmRoundTrip() throws IOException {
+    assertArrayEquals(sampleImage(), roundTrip("ppm"));
+  }
+
+  @Test
+  public void testPamRoundTrip() throws IOException {
+    assertArrayEquals(sampleImage(), roundTrip("pam"));
+  }
+
+  @Test
+  public void testRawRoundTrip() throws IOException {
+    assertArrayEquals(sampleImage(), roundTrip("raw"));
+  }
+
+  @Test
+  public void testQoiRoundTrip() throws IOException {
+    assertArrayEquals(sampleImage(), roundTrip("qoi"));
+  }
+
+  @Test
+  public void testPngRoundTripEveryFilter() throws IOException {
+    for (PngFilter filter : PngFilter.values()) {
+      File file = File.createTempFile("imageutil", ".png");
+      file.deleteOnExit();
+      ImageUtil.writePng(sampleImage(), 7, 5, file.getAbsolutePath(), 9, filter);
+      assertArrayEquals(sampleImage(), ImageUtil.readImage(file.getAbsolutePath()));
+    }
+  }
+
+  @Test
+  public void testTiffRoundTrip() throws IOException {
+    assertArrayEquals(sampleImage(), roundTrip("tif"));
+  }
+
+  @Test
+  public void testPaletteTiffReadThroughColours() throws IOException {
+    byte[] red = {(byte) 255, 0, 0, 0};
+    byte[] green = {0, (byte) 255, 0, 0};
+    byte[] blue = {0, 0, (byte) 255, 0};
+    BufferedImage palette = new BufferedImage(4, 4, BufferedImage.TYPE_BYTE_INDEXED,
+            new IndexColorModel(8, 4, red, green, blue));
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        palette.getRaster().setSample(j, i, 0, (i + j) % 4);
+      }
+    }
+    File file = File.createTempFile("palette", ".tif");
+    file.deleteOnExit();
+    assertTrue(ImageIO.write(palette, "tiff", file));
+
+    int[][][] image = ImageUtil.readImage(file.getAbsolutePath());
+    assertArrayEquals(new int[]{255, 0, 0}, image[0][0]);
+    assertArrayEquals(new int[]{0, 255, 0}, image[0][1]);
+    assertArrayEquals(new int[]{0, 0, 255}, image[1][1]);
+    assertArrayEquals(new int[]{0, 0, 0}, image[3][0]);
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedTiffRejected() throws IOException {
+    BufferedImage rgb = new BufferedImage(7, 5, BufferedImage.TYPE_3BYTE_BGR);
+    File file = File.createTempFile("truncated", ".tif");
+    file.deleteOnExit();
+    assertTrue(ImageIO.write(rgb, "tiff", file));
+    //ImageIO writes the image directory before the strips, so this cuts off pixel data
+    try (RandomAccessFile data = new RandomAccessFile(file, "rw")) {
+      data.setLength(data.length() - 10);
+    }
+    ImageUtil.readImage(file.getAbsolutePath());
+  }
+
+  @Test
+  public void testTiledFiltersMatchWholeImage() throws IOException {
+    int[][][] image = new int[300][280][3];
+    for (int i = 0; i < 300; i++) {
+      for (int j = 0; j < 280; j++) {
+        image[i][j] = new int[]{(i * j) % 256, (i + 3 * j) % 256, (7 * i) % 256};
+      }
+    }
+    File input = File.createTempFile("tiled", ".tif");
+    File output = File.createTempFile("tiled", ".tif");
+    input.deleteOnExit();
+    output.deleteOnExit();
+    ImageUtil.writeImage(image, 280, 300, input.getAbsolutePath());
+    ImageUtil.applyFiltersTiled(input.getAbsolutePath(), output.getAbsolutePath(),
+            Filters.BLUR, Filters.SHARPEN);
+
+    ImageModelExtension whole = new ImageModelImpl(image);
+    whole.applyFilter(Filters.BLUR);
+    whole.applyFilter(Filters.SHARPEN);
+    assertArrayEquals(whole.getModifiedImage(), ImageUtil.readImage(output.getAbsolutePath()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTiledDitherRejected() throws IOException {
+    File input = File.createTempFile("tiled", ".tif");
+    input.deleteOnExit();
+    ImageUtil.writeImage(sampleImage(), 7, 5, input.getAbsolutePath());
+    ImageUtil.applyFiltersTiled(input.getAbsolutePath(), input.getAbsolutePath() + ".out.tif",
+            Filters.DITHER);
+  }
+
+  @Test
+  public void testPgmIsGrey() throws IOException {
+    int[][][] grey = roundTrip("pgm");
+    for (int[][] row : grey) {
+      for (int[] pixel : row) {
+        assertEquals(pixel[0], pixel[1]);
+        assertEquals(pixel[0], pixel[2]);
+      }
+    }
+  }
+
+  @Test
+  public void testJpegGreyscaleMatchesDecodedColours() throws IOException {
+    int[][][] image = new int[40][60][3];
+    for (int i = 0; i < 40; i++) {
+      for (int j = 0; j < 60; j++) {
+        image[i][j] = new int[]{90 + i * 2, 90 + j, 90 + i + j};
+      }
+    }
+    File file = File.createTempFile("luma", ".jpg");
+    file.deleteOnExit();
+    ImageUtil.writeImage(image, 60, 40, file.getAbsolutePath());
+
+    ImageModelExtension loaded = ImageFactory.loadImage(file.getAbsolutePath());
+    loaded.applyFilter(Filters.GREYSCALE);
+    ImageModelExtension decoded = new ImageModelImpl(ImageUtil.readImage(file.getAbsolutePath()));
+    decoded.applyFilter(Filters.GREYSCALE);
+    assertArrayEquals(decoded.getModifiedImage(), loaded.getModifiedImage());
+
+    ImageModelExtension dithered = ImageFactory.loadImage(file.getAbsolutePath());
+    dithered.applyFilter(Filters.DITHER);
+    int[][][] fromLuma = dithered.getModifiedImage();
+    assertEquals(40, fromLuma.length);
+    assertEquals(60, fromLuma[0].length);
+    for (int[][] row : fromLuma) {
+      for (int[] pixel : row) {
+        assertTrue(pixel[0] == 0 || pixel[0] == 255);
+        assertEquals(pixel[0], pixel[1]);
+        assertEquals(pixel[0], pixel[2]);
+      }
+    }
+  }
+
+  @Test
+  public void testInterlacedPngReadInPasses() throws IOException {
+    int width = 61;
+    int height = 45;
+    BufferedImage written = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        written.setRGB(j, i, (i * 37 + j * 11) % 256 << 16 | (j * j + i) % 256 << 8 | i * j % 256);
+      }
+    }
+    File file = File.createTempFile("interlaced", ".png");
+    file.deleteOnExit();
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+    try (ImageOutputStream stream = ImageIO.createImageOutputStream(file)) {
+      writer.setOutput(stream);
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+      writer.write(null, new IIOImage(written, null, null), param);
+    } finally {
+      writer.dispose();
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      //the interlace method is the last byte of the IHDR chunk; 1 is Adam7
+      raf.seek(28);
+      assertEquals(1, raf.read());
+    }
+
+    List<int[][][]> partials = new ArrayList<>();
+    List<Integer> progress = new ArrayList<>();
+    int[][][] read = ImageUtil.readImage(file.getAbsolutePath(), partials::add,
+            CancellationToken.NONE, (done, total) -> progress.add((int) (done * 100 / total)));
+    int[][][] expected = ImageUtil.readImage(file.getAbsolutePath());
+    assertArrayEquals(expected, read);
+    assertEquals(100, (int) progress.get(progress.size() - 1));
+
+    //the first pass decodes every eighth pixel of every eighth row, and the rest copy them
+    assertTrue(partials.size() >= 1);
+    int[][][] first = partials.get(0);
+    assertEquals(height, first.length);
+    assertEquals(width, first[0].length);
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        assertArrayEquals(expected[i / 8 * 8][j / 8 * 8], first[i][j]);
+      }
+    }
+  }
+
+  @Test
+  public void testShrinkAveragesBlocks() {
+    int[][][] shrunk = ImageUtil.shrink(sampleImage(), 4);
+    assertEquals(3, shrunk.length);
+    assertEquals(4, shrunk[0].length);
+    //the top left pixel covers rows 0-1 and columns 0-1
+    assertEquals((0 + 1 + 50 + 51) / 4, shrunk[0][0][0]);
+    //the bottom right pixel covers only row 4 and column 6
+    assertArrayEquals(sampleImage()[4][6], shrunk[2][3]);
+    assertArrayEquals(sampleImage(), ImageUtil.shrink(sampleImage(), 7));
+  }
+}
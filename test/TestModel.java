@@ -2,23 +2,68 @@
 import org.junit.Assert;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import imageprocessor.CancellationToken;
 import imageprocessor.Designs;
 import imageprocessor.Filters;
 import imageprocessor.ImageModel;
 import imageprocessor.ImageModelExtension;
 import imageprocessor.ImageModelImpl;
 import imageprocessor.ImageUtil;
+import imageprocessor.ProgressListener;
 
+import java.awt.Rectangle;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This is a test class for the ImageModelImpl class.
  */
 public class TestModel {
 
+  /**
+   * Makes an image whose pixels all differ.
+   *
+   * @param height the height of the image.
+   * @param width  the width of the image.
+   * @return the image.
+   */
+  private static int[][][] gradient(int height, int width) {
+    int[][][] image = new int[height][width][3];
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        image[i][j] = new int[]{i % 256, j % 256, (i + j) % 256};
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Makes an image whose colours change unevenly from pixel to pixel, so that blurring or
+   * sharpening changes every pixel.
+   *
+   * @param height the height of the image.
+   * @param width  the width of the image.
+   * @return the image.
+   */
+  private static int[][][] speckled(int height, int width) {
+    int[][][] image = new int[height][width][3];
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        image[i][j] = new int[]{(i * i + 7 * j) % 256, (3 * j * j + i) % 256, i * j % 256};
+      }
+    }
+    return image;
+  }
+
   @Test
   public void testWrongFilePathInModel() {
     try {
@@ -441,4 +486,82 @@ public class TestModel {
       }
     }
   }
+
+  @Test(timeout = 60000)
+  public void testCancelledMosaicStops() throws InterruptedException {
+    int[][][] original = gradient(200, 200);
+    ImageModelExtension m = new ImageModelImpl(gradient(200, 200));
+    CancellationToken token = new CancellationToken();
+    CountDownLatch started = new CountDownLatch(1);
+    AtomicBoolean stopped = new AtomicBoolean();
+    Thread worker = new Thread(() -> {
+      try {
+        m.mosaic(1000000, token, (done, total) -> started.countDown());
+      } catch (CancellationException e) {
+        stopped.set(true);
+      }
+    });
+    worker.start();
+    started.await();
+    token.cancel();
+    worker.join();
+    assertTrue(stopped.get());
+    assertArrayEquals(original, m.getModifiedImage());
+  }
+
+  @Test
+  public void testCancelledFilterLeavesImage() {
+    int[][][] original = gradient(50, 40);
+    ImageModelExtension m = new ImageModelImpl(gradient(50, 40));
+    CancellationToken token = new CancellationToken();
+    token.cancel();
+    try {
+      m.applyFilter(Filters.BLUR, token, ProgressListener.NONE);
+      fail("Exception not thrown.");
+    } catch (CancellationException e) {
+      assertArrayEquals(original, m.getModifiedImage());
+    }
+  }
+
+  @Test
+  public void testAreaFilteredFirstMatchesWholeImage() {
+    int[][][] original = speckled(50, 40);
+    Rectangle[] areas = {new Rectangle(0, 0, 10, 8), new Rectangle(30, 20, 10, 30),
+        new Rectangle(-5, 42, 20, 20), new Rectangle(15, -3, 40, 12),
+        new Rectangle(12, 17, 9, 6)};
+    for (Filters filter : new Filters[]{Filters.BLUR, Filters.SHARPEN}) {
+      ImageModelExtension whole = new ImageModelImpl(speckled(50, 40));
+      whole.applyFilter(filter);
+      int[][][] expected = whole.getModifiedImage();
+      for (Rectangle area : areas) {
+        ImageModelExtension m = new ImageModelImpl(speckled(50, 40));
+        List<int[][][]> partials = new ArrayList<>();
+        m.applyFilter(filter, area, partials::add, CancellationToken.NONE,
+                ProgressListener.NONE);
+        assertArrayEquals(expected, m.getModifiedImage());
+        assertEquals(1, partials.size());
+        Rectangle inside = area.intersection(new Rectangle(40, 50));
+        for (int i = 0; i < 50; i++) {
+          for (int j = 0; j < 40; j++) {
+            assertArrayEquals(inside.contains(j, i) ? expected[i][j] : original[i][j],
+                    partials.get(0)[i][j]);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testEmptyOrWholeAreaSkipsCallback() {
+    ImageModelExtension whole = new ImageModelImpl(speckled(50, 40));
+    whole.applyFilter(Filters.BLUR);
+    Rectangle[] areas = {new Rectangle(0, 0, 40, 50), new Rectangle(-10, -10, 60, 70),
+        new Rectangle(40, 0, 10, 10), new Rectangle(5, 5, 0, 10)};
+    for (Rectangle area : areas) {
+      ImageModelExtension m = new ImageModelImpl(speckled(50, 40));
+      m.applyFilter(Filters.BLUR, area, partial -> fail("Callback called for " + area + "."),
+              CancellationToken.NONE, ProgressListener.NONE);
+      assertArrayEquals(whole.getModifiedImage(), m.getModifiedImage());
+    }
+  }
 }
@@ -0,0 +1,73 @@
+package imagecontroller;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This is a test class for the BatchCoordinator class. It merges reports as the workers would
+ * print them, without starting any workers.
+ */
+public class BatchCoordinatorTest {
+
+  @Test
+  public void testMergeReportsAddsUpShards() {
+    String[] reports = {
+      "FAILED in/a.png: Error: Cannot load file.\n"
+              + "Processed 3 files: 1 succeeded, 1 up to date, 1 failed.\n",
+      "Processed 2 files: 2 succeeded, 0 up to date, 0 failed.\n"
+    };
+    BatchRunner.BatchReport report = BatchCoordinator.mergeReports(Collections.emptyList(),
+            reports, new HashSet<>(Arrays.asList("in/a.png", "in/b.png", "in/c.png", "in/d.png",
+                    "in/e.png")));
+    assertEquals(5, report.getTotal());
+    assertEquals(3, report.getSucceeded());
+    assertEquals(1, report.getUpToDate());
+    assertEquals(Collections.singletonMap("in/a.png", "Error: Cannot load file."),
+            report.getFailures());
+  }
+
+  @Test
+  public void testMergeReportsSplitsAfterKnownPath() {
+    Set<String> files = new HashSet<>(Arrays.asList("in/a: b.png", "in/a", "C:/in/c.png"));
+    String[] reports = {
+      "FAILED in/a: b.png: Error: Cannot load file: in/a: b.png\n"
+              + "FAILED C:/in/c.png: Error: Not a valid filter type.\n"
+              + "Processed 3 files: 1 succeeded, 0 up to date, 2 failed.\n"
+    };
+    BatchRunner.BatchReport report = BatchCoordinator.mergeReports(Collections.emptyList(),
+            reports, files);
+    assertEquals(2, report.getFailures().size());
+    assertEquals("Error: Cannot load file: in/a: b.png", report.getFailures().get("in/a: b.png"));
+    assertEquals("Error: Not a valid filter type.", report.getFailures().get("C:/in/c.png"));
+  }
+
+  @Test
+  public void testMissingReportFailsShard() {
+    String[] reports = {
+      "Processed 1 files: 1 succeeded, 0 up to date, 0 failed.\n",
+      null
+    };
+    BatchRunner.BatchReport report = BatchCoordinator.mergeReports(Collections.emptyList(),
+            reports, Collections.singleton("in/a.png"));
+    assertEquals(1, report.getTotal());
+    assertTrue(report.getFailures().get("shard 2/2").startsWith("Error: Worker stopped."));
+  }
+
+  @Test
+  public void testUnsharedOptionsNotPassedToWorkers() {
+    List<String> options = Arrays.asList("-Xmx4g",
+            "-agentlib:jdwp=transport=dt_socket,server=y,suspend=n,address=5005",
+            "-XX:ArchiveClassesAtExit=app.jsa", "-Dimageprocessor.cache.dir=/tmp/cache",
+            "-Xlog:gc:file=gc.log", "-XX:SharedArchiveFile=app.jsa");
+    assertEquals(Arrays.asList("-Xmx4g", "-Dimageprocessor.cache.dir=/tmp/cache",
+            "-XX:SharedArchiveFile=app.jsa"), BatchCoordinator.workerOptions(options));
+  }
+}
@@ -0,0 +1,204 @@
+package imagecontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This is a test class for the BatchManifest class. It records inputs in a temporary
+ * directory and reads the journals back.
+ */
+public class BatchManifestTest {
+
+  private static final String SCRIPT = "script";
+
+  private Path directory;
+
+  /**
+   * Makes a temporary output directory for each test.
+   *
+   * @throws IOException if the directory cannot be made.
+   */
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("manifest");
+  }
+
+  /**
+   * Deletes the temporary directory and everything in it.
+   *
+   * @throws IOException if the directory cannot be listed.
+   */
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  /**
+   * Writes an input file and the output it is recorded with.
+   *
+   * @param name     the name of the input file.
+   * @param contents the contents of the input file.
+   * @return the path of the input file.
+   * @throws IOException if a file cannot be written.
+   */
+  private Path writeInput(String name, String contents) throws IOException {
+    Path input = directory.resolve(name);
+    Files.write(input, contents.getBytes(StandardCharsets.UTF_8));
+    Files.write(output(input), new byte[] {0});
+    return input;
+  }
+
+  /**
+   * Returns the output recorded for an input file.
+   *
+   * @param input the input file.
+   * @return the path of its output.
+   */
+  private static Path output(Path input) {
+    return input.resolveSibling("out-" + input.getFileName());
+  }
+
+  /**
+   * Records an input file as done.
+   *
+   * @param manifest the manifest to record it in.
+   * @param input    the input file.
+   * @throws IOException if the input cannot be read or the journal cannot be written.
+   */
+  private static void recordDone(BatchManifest manifest, Path input) throws IOException {
+    manifest.recordDone(input, Files.readAttributes(input, BasicFileAttributes.class), SCRIPT,
+            Collections.singletonList(output(input).toString()));
+  }
+
+  /**
+   * Reads the lines of a journal.
+   *
+   * @param journal the journal.
+   * @return its lines, without line breaks.
+   * @throws IOException if the journal cannot be read.
+   */
+  private static List<String> lines(Path journal) throws IOException {
+    return Files.readAllLines(journal, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Tests that a line cut short by a crash is ignored when the journal is read back, so its file
+   * is run again, and that it is dropped when the journal is compacted.
+   */
+  @Test
+  public void testTornLastLineIgnored() throws IOException {
+    Path first = writeInput("a.txt", "first");
+    Path second = writeInput("b.txt", "second");
+    try (BatchManifest manifest = new BatchManifest(directory)) {
+      recordDone(manifest, first);
+      recordDone(manifest, second);
+    }
+    Path journal = directory.resolve(BatchManifest.FILE_NAME);
+    try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 5);
+    }
+
+    try (BatchManifest manifest = new BatchManifest(directory)) {
+      assertTrue(manifest.isUpToDate(first, SCRIPT));
+      assertFalse(manifest.isUpToDate(second, SCRIPT));
+    }
+    assertEquals(2, lines(journal).size());
+  }
+
+  /**
+   * Tests that opening the main manifest merges the journals of the shards into it, keeps only
+   * the latest line for each file, and deletes the shard journals.
+   */
+  @Test
+  public void testShardJournalsMergedAndCompacted() throws IOException {
+    Path first = writeInput("a.txt", "first");
+    Path second = writeInput("b.txt", "second");
+    try (BatchManifest shard = new BatchManifest(directory, "1-of-2")) {
+      recordDone(shard, first);
+      shard.recordFailed(second, "Error: Cannot load file.");
+    }
+    try (BatchManifest shard = new BatchManifest(directory, "2-of-2")) {
+      recordDone(shard, second);
+      recordDone(shard, second);
+    }
+
+    try (BatchManifest manifest = new BatchManifest(directory)) {
+      assertTrue(manifest.isUpToDate(first, SCRIPT));
+      assertTrue(manifest.isUpToDate(second, SCRIPT));
+      assertFalse(manifest.isUpToDate(second, "another script"));
+    }
+    assertFalse(Files.exists(directory.resolve(BatchManifest.FILE_NAME + ".1-of-2")));
+    assertFalse(Files.exists(directory.resolve(BatchManifest.FILE_NAME + ".2-of-2")));
+    assertEquals(3, lines(directory.resolve(BatchManifest.FILE_NAME)).size());
+  }
+
+  /**
+   * Tests that an input that was only touched is compared by digest and stays up to date, with
+   * its new modification time recorded, while one whose contents changed is run again.
+   */
+  @Test
+  public void testTouchedInputRefreshed() throws IOException {
+    Path input = writeInput("a.txt", "first");
+    try (BatchManifest manifest = new BatchManifest(directory)) {
+      recordDone(manifest, input);
+    }
+    Path journal = directory.resolve(BatchManifest.FILE_NAME);
+    FileTime touched = FileTime.fromMillis(
+            Files.getLastModifiedTime(input).toMillis() + 5000);
+    Files.setLastModifiedTime(input, touched);
+
+    try (BatchManifest manifest = new BatchManifest(directory)) {
+      assertTrue(manifest.isUpToDate(input, SCRIPT));
+    }
+    List<String> lines = lines(journal);
+    assertEquals(3, lines.size());
+    assertTrue(lines.get(2).contains("\t" + touched.toMillis() + "\t"));
+
+    Files.write(input, "fifth".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(input, FileTime.fromMillis(touched.toMillis() + 5000));
+    try (BatchManifest manifest = new BatchManifest(directory)) {
+      assertFalse(manifest.isUpToDate(input, SCRIPT));
+    }
+  }
+
+  /**
+   * Tests that a file recorded under one spelling of its path is found under another, such as
+   * a path relative to the working directory.
+   */
+  @Test
+  public void testPathsRecordedAbsolute() throws IOException {
+    Path input = writeInput("a.txt", "first");
+    Files.createDirectories(directory.resolve("sub"));
+    try (BatchManifest manifest = new BatchManifest(directory)) {
+      recordDone(manifest, directory.resolve("sub").resolve("..").resolve("a.txt"));
+    }
+
+    try (BatchManifest manifest = new BatchManifest(directory)) {
+      assertTrue(manifest.isUpToDate(input, SCRIPT));
+      assertTrue(manifest.isUpToDate(
+              Paths.get("").toAbsolutePath().relativize(input), SCRIPT));
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package imagecontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import imageprocessor.ImageUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This is a test class for the BatchRunner class. It runs small batches over images in a
+ * temporary directory.
+ */
+public class BatchRunnerTest {
+
+  private Path directory;
+
+  /**
+   * Makes a temporary directory for the inputs and outputs of each test.
+   *
+   * @throws IOException if the directory cannot be made.
+   */
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("batch");
+  }
+
+  /**
+   * Deletes the temporary directory and everything in it.
+   *
+   * @throws IOException if the directory cannot be listed.
+   */
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  /**
+   * Writes a small image into the temporary directory.
+   *
+   * @param name the name of the file.
+   * @return the path of the file.
+   * @throws IOException if the file cannot be written.
+   */
+  private Path writeImage(String name) throws IOException {
+    Path file = directory.resolve(name);
+    int[][][] image = new int[2][3][3];
+    image[1][2] = new int[]{10, 20, 30};
+    ImageUtil.writeImage(image, 3, 2, file.toString());
+    return file;
+  }
+
+  @Test
+  public void testPathWithSpacesFailsClearly() throws IOException {
+    Path inputs = Files.createDirectory(directory.resolve("in"));
+    Path spaced = writeImage("in/a b.ppm");
+    writeImage("in/c.ppm");
+    BatchRunner.BatchReport report = new BatchRunner("load $input save $output.ppm",
+            inputs.toString(), directory.resolve("out").toString(), 1).run();
+    assertEquals(2, report.getTotal());
+    assertEquals(1, report.getSucceeded());
+    assertEquals(1, report.getFailures().size());
+    assertTrue(report.getFailures().get(spaced.toString()).contains("spaces"));
+    assertTrue(Files.exists(directory.resolve("out").resolve("c.ppm")));
+  }
+
+  @Test
+  public void testOutputNameClashesFail() throws IOException {
+    Path inputs = Files.createDirectory(directory.resolve("in"));
+    Path first = writeImage("in/x.ppm");
+    Path second = writeImage("in/x.pgm");
+    writeImage("in/y.ppm");
+    BatchRunner.BatchReport report = new BatchRunner("load $input save $output.ppm",
+            inputs.toString(), directory.resolve("out").toString(), 2).run();
+    assertEquals(3, report.getTotal());
+    assertEquals(1, report.getSucceeded());
+    assertTrue(report.getFailures().get(first.toString()).contains(second.toString()));
+    assertTrue(report.getFailures().get(second.toString()).contains(first.toString()));
+    assertFalse(Files.exists(directory.resolve("out").resolve("x.ppm")));
+    assertTrue(Files.exists(directory.resolve("out").resolve("y.ppm")));
+  }
+
+  @Test
+  public void testShardsDisjointAndComplete() throws IOException {
+    Path inputs = Files.createDirectory(directory.resolve("in"));
+    Set<String> all = new HashSet<>();
+    for (int i = 0; i < 20; i++) {
+      writeImage("in/image" + i + ".ppm");
+      all.add("image" + i + ".ppm");
+    }
+    Set<String> seen = new HashSet<>();
+    int total = 0;
+    for (int shard = 0; shard < 3; shard++) {
+      Path outputs = directory.resolve("out" + shard);
+      BatchRunner.BatchReport report = new BatchRunner("load $input save $output.ppm",
+              inputs.toString(), outputs.toString(), 2, shard, 3).run();
+      assertEquals(report.getTotal(), report.getSucceeded());
+      total += report.getTotal();
+      try (Stream<Path> files = Files.list(outputs)) {
+        for (String name : files.map(file -> file.getFileName().toString())
+                .filter(name -> name.endsWith(".ppm")).collect(Collectors.toList())) {
+          assertTrue(seen.add(name));
+        }
+      }
+    }
+    assertEquals(all.size(), total);
+    assertEquals(all, seen);
+  }
+
+  @Test
+  public void testShardOfSpreadsFiles() {
+    int[] counts = new int[4];
+    for (int i = 0; i < 400; i++) {
+      counts[BatchRunner.shardOf(directory.resolve("image" + i + ".png"), 4)]++;
+    }
+    for (int count : counts) {
+      assertFalse(count < 50);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOutputDirectoryWithSpacesRejected() {
+    new BatchRunner("load $input save $output.ppm", directory.toString(),
+            directory.resolve("out put").toString(), 1);
+  }
+}
@@ -0,0 +1,285 @@
+package imagecontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import imageprocessor.CancellationToken;
+import imageprocessor.Filters;
+import imageprocessor.ImageFactory;
+import imageprocessor.ImageModelExtension;
+import imageprocessor.ImageUtil;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This is a test class for the PipelinedExecutor class. It runs scripts with several saves over
+ * images in a temporary directory, with more than one compute thread.
+ */
+public class PipelinedExecutorTest {
+
+  private static final int THREADS = 4;
+
+  /**
+   * The MeetingToken class is a cancellation token that records the threads checking it. The
+   * first check on each thread waits, for a few seconds at most, until two threads have checked
+   * it, so two saves only both get past it if they are computed at the same time.
+   */
+  private static class MeetingToken extends CancellationToken {
+    private final Set<Thread> threads = new HashSet<>();
+
+    @Override
+    public boolean isCancelled() {
+      synchronized (threads) {
+        if (threads.add(Thread.currentThread())) {
+          threads.notifyAll();
+          long deadline = System.currentTimeMillis() + 5000;
+          long left = deadline - System.currentTimeMillis();
+          while (threads.size() < 2 && left > 0) {
+            try {
+              threads.wait(left);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              break;
+            }
+            left = deadline - System.currentTimeMillis();
+          }
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Returns how many threads have checked the token.
+     *
+     * @return the number of threads.
+     */
+    int getThreadCount() {
+      synchronized (threads) {
+        return threads.size();
+      }
+    }
+  }
+
+  private Path directory;
+
+  /**
+   * Makes a temporary directory for the inputs and outputs of each test.
+   *
+   * @throws IOException if the directory cannot be made.
+   */
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("pipeline");
+  }
+
+  /**
+   * Deletes the temporary directory and everything in it.
+   *
+   * @throws IOException if the directory cannot be listed.
+   */
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  /**
+   * Makes an image whose pixels all differ, starting from a given value.
+   *
+   * @param height the height of the image.
+   * @param width  the width of the image.
+   * @param start  the value of the first pixel.
+   * @return the image.
+   */
+  private static int[][][] image(int height, int width, int start) {
+    int[][][] image = new int[height][width][3];
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        image[i][j] = new int[]{(start + i) % 256, (start + j) % 256, (start + i + j) % 256};
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Writes an image into the temporary directory.
+   *
+   * @param name  the name of the file.
+   * @param image the image.
+   * @return the path of the file, as a string to put into a script.
+   * @throws IOException if the file cannot be written.
+   */
+  private String write(String name, int[][][] image) throws IOException {
+    Path file = directory.resolve(name);
+    ImageUtil.writeImage(image, image[0].length, image.length, file.toString());
+    return file.toString();
+  }
+
+  /**
+   * Returns the path of a file in the temporary directory.
+   *
+   * @param name the name of the file.
+   * @return the path, as a string to put into a script.
+   */
+  private String path(String name) {
+    return directory.resolve(name).toString();
+  }
+
+  /**
+   * Applies filters to an image the way a plain run of a script would.
+   *
+   * @param image   the image.
+   * @param filters the filters to apply, in order.
+   * @return the filtered image.
+   */
+  private static int[][][] filtered(int[][][] image, Filters... filters) {
+    ImageModelExtension model = ImageFactory.createImage(image);
+    for (Filters filter : filters) {
+      model.applyFilter(filter);
+    }
+    return model.getModifiedImage();
+  }
+
+  /**
+   * Compiles a script and runs it through a PipelinedExecutor.
+   *
+   * @param script the script.
+   */
+  private static void run(String script) {
+    ScriptPlan plan = ScriptCompiler.compile(new StringReader(script), null);
+    new PipelinedExecutor(plan, THREADS).execute();
+  }
+
+  @Test
+  public void testSavesToOneFileLandInScriptOrder() throws IOException {
+    int[][][] large = image(300, 300, 0);
+    int[][][] small = image(4, 5, 100);
+    String output = path("out.ppm");
+    run("load " + write("large.ppm", large) + " apply blur apply blur apply sharpen save "
+            + output + " load " + write("small.ppm", small) + " save " + output);
+    assertArrayEquals(small, ImageUtil.readImage(output));
+
+    run("load " + path("small.ppm") + " save " + output + " load " + path("large.ppm")
+            + " apply blur apply blur apply sharpen save " + output);
+    assertArrayEquals(filtered(large, Filters.BLUR, Filters.BLUR, Filters.SHARPEN),
+            ImageUtil.readImage(output));
+  }
+
+  @Test
+  public void testLoadWaitsForEarlierSaveOfFile() throws IOException {
+    int[][][] large = image(300, 300, 0);
+    //a stale file of another size, which the load must not see
+    String middle = write("middle.ppm", image(3, 3, 50));
+    String output = path("out.ppm");
+    run("load " + write("large.ppm", large) + " apply blur apply blur save " + middle
+            + " load " + middle + " apply sepia save " + output);
+    assertArrayEquals(filtered(large, Filters.BLUR, Filters.BLUR, Filters.SEPIA),
+            ImageUtil.readImage(output));
+  }
+
+  @Test
+  public void testEarliestFailingSaveReported() throws IOException {
+    String input = write("in.ppm", image(40, 50, 0));
+    Path broken = directory.resolve("broken.png");
+    Files.write(broken, "not an image".getBytes(StandardCharsets.UTF_8));
+    String first = path("first.ppm");
+    String last = path("last.ppm");
+    try {
+      run("load " + input + " apply blur save " + first + " load " + broken + " save "
+              + path("broken.ppm") + " load " + input + " save "
+              + path("missing/out.ppm") + " load " + input + " save " + last);
+      fail("The script should have failed.");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Error: Cannot load file.", e.getMessage());
+    }
+    assertTrue(Files.exists(directory.resolve("first.ppm")));
+    assertFalse(Files.exists(directory.resolve("broken.ppm")));
+    assertFalse(Files.exists(directory.resolve("last.ppm")));
+
+    try {
+      run("load " + input + " save " + first + " load " + input + " save "
+              + path("missing/out.ppm") + " load " + broken + " save " + last);
+      fail("The script should have failed.");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Error: File path could not be written to.", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testIndependentGroupsFilteredAtOnce() throws IOException {
+    int[][][] first = image(60, 70, 0);
+    int[][][] second = image(50, 40, 30);
+    ScriptPlan plan = ScriptCompiler.compile(new StringReader("load "
+            + write("first.ppm", first) + " apply blur save " + path("a.ppm") + " load "
+            + write("second.ppm", second) + " apply sepia save " + path("b.ppm")), null);
+    MeetingToken token = new MeetingToken();
+    plan.setCancellationToken(token);
+    new PipelinedExecutor(plan, THREADS).execute();
+
+    assertEquals(2, token.getThreadCount());
+    assertArrayEquals(filtered(first, Filters.BLUR), ImageUtil.readImage(path("a.ppm")));
+    assertArrayEquals(filtered(second, Filters.SEPIA), ImageUtil.readImage(path("b.ppm")));
+  }
+
+  @Test
+  public void testSharedLoadDecodedOnce() throws Exception {
+    int[][][] input = image(40, 50, 0);
+    String file = write("in.ppm", input);
+    ScriptPlan plan = ScriptCompiler.compile(new StringReader("load " + file + " apply blur save "
+            + path("a.ppm") + " load " + file + " apply sepia save " + path("b.ppm")), null);
+    PlanNode load = plan.getSaves().get(0).source.parent;
+    assertSame(load, plan.getSaves().get(1).source.parent);
+
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<int[][][]>> results = new ArrayList<>();
+      for (int k = 0; k < THREADS; k++) {
+        results.add(pool.submit(() -> plan.evaluate(load)));
+      }
+      for (Future<int[][][]> result : results) {
+        assertSame(results.get(0).get(), result.get());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    assertArrayEquals(input, load.pixels);
+  }
+
+  @Test
+  public void testLaterGroupFailingFirstNotReported() throws IOException {
+    Path broken = directory.resolve("broken.png");
+    Files.write(broken, "not an image".getBytes(StandardCharsets.UTF_8));
+    try {
+      run("load " + write("large.ppm", image(300, 300, 0))
+              + " apply blur apply blur apply sharpen save " + path("missing/out.ppm")
+              + " load " + broken + " save " + path("broken.ppm"));
+      fail("The script should have failed.");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Error: File path could not be written to.", e.getMessage());
+    }
+    assertFalse(Files.exists(directory.resolve("broken.ppm")));
+  }
+}
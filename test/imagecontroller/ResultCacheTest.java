@@ -0,0 +1,227 @@
+package imagecontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import imageprocessor.Filters;
+import imageprocessor.ImageFactory;
+import imageprocessor.ImageModelExtension;
+import imageprocessor.ImageUtil;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This is a test class for the ResultCache class and the way scripts use it. Each test turns
+ * the cache on in a temporary directory of its own.
+ */
+public class ResultCacheTest {
+
+  private Path directory;
+  private Path cacheDirectory;
+
+  /**
+   * Makes a temporary directory for the inputs and outputs of each test, and turns the cache on
+   * in a directory inside it.
+   *
+   * @throws IOException if the directory cannot be made.
+   */
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("cache");
+    cacheDirectory = directory.resolve("cache");
+    System.setProperty(ResultCache.DIRECTORY_PROPERTY, cacheDirectory.toString());
+    System.setProperty(ResultCache.SIZE_PROPERTY, "1");
+  }
+
+  /**
+   * Turns the cache off again and deletes the temporary directory and everything in it.
+   *
+   * @throws IOException if the directory cannot be listed.
+   */
+  @After
+  public void tearDown() throws IOException {
+    System.clearProperty(ResultCache.DIRECTORY_PROPERTY);
+    System.clearProperty(ResultCache.SIZE_PROPERTY);
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  /**
+   * Makes an image whose pixels all differ, starting from a given value.
+   *
+   * @param height the height of the image.
+   * @param width  the width of the image.
+   * @param start  the value of the first pixel.
+   * @return the image.
+   */
+  private static int[][][] image(int height, int width, int start) {
+    int[][][] image = new int[height][width][3];
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        image[i][j] = new int[]{(start + i) % 256, (start + j) % 256, (start + i + j) % 256};
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Runs a script with no initial image.
+   *
+   * @param script the script.
+   */
+  private static void run(String script) {
+    ScriptCompiler.compile(new StringReader(script), null).execute();
+  }
+
+  /**
+   * Counts the results stored in the cache.
+   *
+   * @return the number of result files.
+   * @throws IOException if the cache directory cannot be listed.
+   */
+  private long countEntries() throws IOException {
+    try (Stream<Path> files = Files.walk(cacheDirectory)) {
+      return files.filter(file -> file.toString().endsWith(".raw")).count();
+    }
+  }
+
+  /**
+   * Sets when a result was last used, as the cache records it, so the order of results does not
+   * depend on the resolution of the file system's clock.
+   *
+   * @param key    the key of the result.
+   * @param millis the time, in milliseconds since the epoch.
+   * @throws IOException if the result file cannot be found or changed.
+   */
+  private void setLastUsed(String key, long millis) throws IOException {
+    try (Stream<Path> files = Files.walk(cacheDirectory)) {
+      Path file = files.filter(path -> path.getFileName().toString().equals(key + ".raw"))
+              .findFirst().orElseThrow(IOException::new);
+      Files.setLastModifiedTime(file, FileTime.fromMillis(millis));
+    }
+  }
+
+  /**
+   * Tests that each filter's key chains on the key of the image it was applied to, so a script
+   * sharing a prefix of filters with an earlier one reuses its results, and changing the loaded
+   * file changes every key after it.
+   */
+  @Test
+  public void testKeysChainThroughFilters() throws IOException {
+    Path input = directory.resolve("in.ppm");
+    ImageUtil.writeImage(image(4, 5, 0), 5, 4, input.toString());
+
+    run("load " + input + " apply blur apply sepia save " + directory.resolve("a.ppm"));
+    assertEquals(2, countEntries());
+
+    Path output = directory.resolve("b.ppm");
+    run("load " + input + " apply blur apply greyscale save " + output);
+    assertEquals(3, countEntries());
+    ImageModelExtension expected = ImageFactory.createImage(image(4, 5, 0));
+    expected.applyFilter(Filters.BLUR);
+    expected.applyFilter(Filters.GREYSCALE);
+    assertArrayEquals(expected.getModifiedImage(), ImageUtil.readImage(output.toString()));
+
+    ImageUtil.writeImage(image(4, 5, 100), 5, 4, input.toString());
+    Files.setLastModifiedTime(input, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+    run("load " + input + " apply blur save " + directory.resolve("c.ppm"));
+    assertEquals(4, countEntries());
+  }
+
+  /**
+   * Tests that a greyscale of a JPEG read with the cache on is computed from the decoded
+   * colours, as it would be if the load were shared, rather than from the luminance alone.
+   */
+  @Test
+  public void testJpegGreyscaleKeyStandsForOneImage() throws IOException {
+    Path input = directory.resolve("in.jpg");
+    ImageUtil.writeImage(image(40, 60, 30), 60, 40, input.toString());
+    Path output = directory.resolve("grey.ppm");
+
+    run("load " + input + " apply greyscale save " + output);
+
+    ImageModelExtension expected = ImageFactory.createImage(ImageUtil.readImage(input.toString()));
+    expected.applyFilter(Filters.GREYSCALE);
+    assertArrayEquals(expected.getModifiedImage(), ImageUtil.readImage(output.toString()));
+  }
+
+  /**
+   * Tests that the cache deletes the least recently used results once it grows past its limit,
+   * and that reading a result counts as using it.
+   */
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws IOException {
+    ResultCache cache = ResultCache.getDefault();
+    int[][][] image = image(300, 300, 0);
+    String[] keys = new String[4];
+    for (int k = 0; k < keys.length; k++) {
+      keys[k] = ResultCache.digest("entry " + k);
+    }
+    long now = System.currentTimeMillis();
+    for (int k = 0; k < 3; k++) {
+      cache.put(keys[k], image);
+      setLastUsed(keys[k], now - 60000 + k * 10000);
+    }
+    assertArrayEquals(image, cache.get(keys[0]));
+    cache.put(keys[3], image);
+
+    assertTrue(cache.contains(keys[0]));
+    assertFalse(cache.contains(keys[1]));
+    assertTrue(cache.contains(keys[2]));
+    assertTrue(cache.contains(keys[3]));
+  }
+
+  /**
+   * Tests that storing a result again under the same key replaces it without growing the
+   * cache, so the result is not evicted by copies of itself.
+   */
+  @Test
+  public void testReplacingKeepsEntry() throws IOException {
+    ResultCache cache = ResultCache.getDefault();
+    int[][][] image = image(300, 300, 0);
+    String key = ResultCache.digest("replaced");
+    for (int k = 0; k < 6; k++) {
+      cache.put(key, image);
+    }
+    assertTrue(cache.contains(key));
+    assertEquals(1, countEntries());
+  }
+
+  /**
+   * Tests that the digest of a file is remembered while its size and modification time stay
+   * the same, and worked out again once either changes.
+   */
+  @Test
+  public void testFileDigestRememberedByModificationTime() throws IOException {
+    ResultCache cache = ResultCache.getDefault();
+    Path file = directory.resolve("data.bin");
+    Files.write(file, new byte[]{1, 2, 3, 4});
+    FileTime time = Files.getLastModifiedTime(file);
+    String first = cache.fileDigest(file.toString());
+    assertEquals(ResultCache.digest(file), first);
+
+    Files.write(file, new byte[]{5, 6, 7, 8});
+    Files.setLastModifiedTime(file, time);
+    assertEquals(first, cache.fileDigest(file.toString()));
+
+    Files.setLastModifiedTime(file, FileTime.fromMillis(time.toMillis() + 5000));
+    String second = cache.fileDigest(file.toString());
+    assertNotEquals(first, second);
+    assertEquals(ResultCache.digest(file), second);
+  }
+}
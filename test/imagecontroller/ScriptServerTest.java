@@ -0,0 +1,198 @@
+package imagecontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This is a test class for the ScriptServer class. Each test starts a server on a thread of its
+ * own, talks to it over a socket and stops it again.
+ */
+public class ScriptServerTest {
+
+  private Path directory;
+  private String home;
+  private Thread serverThread;
+
+  /**
+   * Makes a temporary directory for the socket, token and image files of each test, and uses it
+   * as the home directory, where a server on a port writes its token.
+   *
+   * @throws IOException if the directory cannot be made.
+   */
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("daemon");
+    home = System.getProperty("user.home");
+    System.setProperty("user.home", directory.toString());
+  }
+
+  /**
+   * Stops the server, restores the home directory and deletes the temporary directory.
+   *
+   * @throws Exception if the server does not stop or the directory cannot be listed.
+   */
+  @After
+  public void tearDown() throws Exception {
+    if (serverThread != null) {
+      serverThread.interrupt();
+      serverThread.join(5000);
+    }
+    System.setProperty("user.home", home);
+    System.clearProperty(ScriptServer.TIMEOUT_PROPERTY);
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  /**
+   * Starts a server on a thread of its own and waits until it is listening.
+   *
+   * @param server the server.
+   * @param ready  the file that exists once the server is listening.
+   * @throws InterruptedException if the test is interrupted while waiting.
+   */
+  private void start(ScriptServer server, Path ready) throws InterruptedException {
+    serverThread = new Thread(() -> {
+      try {
+        server.serve();
+      } catch (IOException e) {
+        //the server stops when the test interrupts it
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+    for (int k = 0; k < 500 && !Files.exists(ready); k++) {
+      Thread.sleep(10);
+    }
+    assertTrue(Files.exists(ready));
+  }
+
+  /**
+   * Starts a server on a Unix-domain socket in the temporary directory.
+   *
+   * @param readTimeout how long, in milliseconds, a client has to send its request.
+   * @return the address of the server.
+   * @throws InterruptedException if the test is interrupted while waiting.
+   */
+  private String startOnSocket(long readTimeout) throws InterruptedException {
+    Path socket = directory.resolve("daemon.socket");
+    start(new ScriptServer(socket.toString(), readTimeout), socket);
+    return socket.toString();
+  }
+
+  /**
+   * Connects to a server on a Unix-domain socket and sends a request, without closing the
+   * connection for writing.
+   *
+   * @param address the path of the socket file.
+   * @param request the request.
+   * @return the open connection.
+   * @throws IOException if the server cannot be reached.
+   */
+  private static SocketChannel send(String address, byte[] request) throws IOException {
+    SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+    channel.connect(UnixDomainSocketAddress.of(address));
+    ByteBuffer buffer = ByteBuffer.wrap(request);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    return channel;
+  }
+
+  /**
+   * Reads the answer of a server until it closes the connection.
+   *
+   * @param channel the connection.
+   * @return the answer, without the trailing line break.
+   * @throws IOException if the connection cannot be read.
+   */
+  private static String answer(SocketChannel channel) throws IOException {
+    StringBuilder answer = new StringBuilder();
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    while (channel.read(buffer) != -1) {
+      buffer.flip();
+      answer.append(StandardCharsets.UTF_8.decode(buffer));
+      buffer.clear();
+    }
+    return answer.toString().trim();
+  }
+
+  @Test(timeout = 20000)
+  public void testRequestWithoutTokenRejected() throws Exception {
+    int port;
+    try (ServerSocket free = new ServerSocket(0)) {
+      port = free.getLocalPort();
+    }
+    String address = String.valueOf(port);
+    start(new ScriptServer(address), directory.resolve(".imageprocessor-daemon-" + port));
+    String image = directory.resolve("flag.ppm").toString();
+
+    try (SocketChannel channel = SocketChannel.open(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port))) {
+      ByteBuffer request = ByteBuffer.wrap(("TOKEN guessed\ngenerate french_flag 4 6 save " + image)
+              .getBytes(StandardCharsets.UTF_8));
+      while (request.hasRemaining()) {
+        channel.write(request);
+      }
+      channel.shutdownOutput();
+      assertEquals("ERROR Error: The request did not carry this daemon's token.",
+              answer(channel));
+    }
+    assertTrue(Files.notExists(directory.resolve("flag.ppm")));
+
+    assertTrue(ScriptServer.submit(address, "generate french_flag 4 6 save " + image)
+            .startsWith("OK "));
+    assertTrue(Files.exists(directory.resolve("flag.ppm")));
+  }
+
+  @Test(timeout = 20000)
+  public void testLargeRequestRejected() throws Exception {
+    String address = startOnSocket(10000);
+    byte[] request = new byte[ScriptServer.MAX_REQUEST_BYTES + 1];
+    Arrays.fill(request, (byte) ' ');
+    try (SocketChannel channel = send(address, request)) {
+      channel.shutdownOutput();
+      assertEquals("ERROR Error: The request is larger than 1024 KB.", answer(channel));
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void testSlowClientDisconnected() throws Exception {
+    String address = startOnSocket(200);
+    long start = System.nanoTime();
+    try (SocketChannel channel = send(address,
+            "generate french_flag 4 6".getBytes(StandardCharsets.UTF_8))) {
+      assertEquals("", answer(channel));
+    }
+    assertTrue(System.nanoTime() - start < 5_000_000_000L);
+  }
+
+  @Test(timeout = 20000)
+  public void testLongScriptCancelled() throws Exception {
+    System.setProperty(ScriptServer.TIMEOUT_PROPERTY, "1");
+    String address = startOnSocket(10000);
+    String answer = ScriptServer.submit(address, "generate horizontal_rainbow 1000 1000 "
+            + "apply mosaic 100000 save " + directory.resolve("mosaic.ppm"));
+    assertTrue(answer, answer.startsWith("ERROR Error: Script was cancelled after "));
+  }
+}
@@ -0,0 +1,263 @@
+package imageguicontroller;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This is a test class for the HistoryManager class. Most tests give it a budget of one byte,
+ * so that every checkpoint it can move to disk is moved there.
+ */
+public class HistoryManagerTest {
+
+  private static final int HEIGHT = 20;
+  private static final int WIDTH = 30;
+
+  /**
+   * Makes the first image of a history.
+   *
+   * @return the image.
+   */
+  private static int[][][] first() {
+    int[][][] image = new int[HEIGHT][WIDTH][3];
+    for (int i = 0; i < HEIGHT; i++) {
+      for (int j = 0; j < WIDTH; j++) {
+        image[i][j] = new int[]{i * 5 % 256, j * 7 % 256, (i * j) % 256};
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Makes a new image from another by brightening every channel by an amount of its own.
+   *
+   * @param image the image.
+   * @param step  the number of the step, which sets the amount.
+   * @return the new image.
+   */
+  private static int[][][] brighten(int[][][] image, int step) {
+    int[][][] result = new int[image.length][image[0].length][];
+    for (int i = 0; i < image.length; i++) {
+      for (int j = 0; j < image[0].length; j++) {
+        int[] pixel = image[i][j];
+        result[i][j] = new int[]{(pixel[0] + step) % 256, (pixel[1] + 2 * step) % 256,
+                (pixel[2] + 3 * step) % 256};
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Records a number of steps, each kept as a full image.
+   *
+   * @param history the history to record the steps in.
+   * @param steps   the number of steps.
+   * @return every image of the history, from the first.
+   */
+  private static List<int[][][]> recordImages(HistoryManager history, int steps) {
+    List<int[][][]> images = new ArrayList<>();
+    images.add(first());
+    history.reset(images.get(0));
+    for (int step = 1; step <= steps; step++) {
+      int[][][] before = images.get(step - 1);
+      int[][][] after = brighten(before, step);
+      history.record(before, null, after);
+      images.add(after);
+    }
+    return images;
+  }
+
+  /**
+   * Records a number of steps as operations, counting how often each is repeated. Every step
+   * listed as not repeatable is recorded without its operation.
+   *
+   * @param history      the history to record the steps in.
+   * @param steps        the number of steps.
+   * @param repeats      the number of times each step has been repeated, indexed by step.
+   * @param unrepeatable the steps to record without their operation.
+   * @return every image of the history, from the first.
+   */
+  private static List<int[][][]> recordOperations(HistoryManager history, int steps,
+                                                  int[] repeats, int... unrepeatable) {
+    List<int[][][]> images = new ArrayList<>();
+    images.add(first());
+    history.reset(images.get(0));
+    for (int step = 1; step <= steps; step++) {
+      int number = step;
+      HistoryManager.Operation operation = image -> {
+        repeats[number]++;
+        return brighten(image, number);
+      };
+      int[][][] before = images.get(step - 1);
+      int[][][] after = brighten(before, step);
+      boolean repeatable = true;
+      for (int skip : unrepeatable) {
+        repeatable &= skip != step;
+      }
+      history.record(before, repeatable ? operation : null, after);
+      images.add(after);
+    }
+    return images;
+  }
+
+  /**
+   * Adds up how often the steps have been repeated.
+   *
+   * @param repeats the number of times each step has been repeated.
+   * @return the total.
+   */
+  private static int total(int[] repeats) {
+    int total = 0;
+    for (int count : repeats) {
+      total += count;
+    }
+    return total;
+  }
+
+  @Test
+  public void testUndoRedoRoundTripSpilledToDisk() {
+    HistoryManager history = new HistoryManager(1, 4);
+    List<int[][][]> images = recordImages(history, 20);
+    assertTrue(history.getDiskUsed() > 0);
+
+    for (int step = images.size() - 2; step >= 0; step--) {
+      assertArrayEquals(images.get(step), history.undo());
+    }
+    try {
+      history.undo();
+      fail("Exception not thrown.");
+    } catch (EmptyStackException e) {
+      //nothing left to undo
+    }
+    for (int step = 1; step < images.size(); step++) {
+      assertArrayEquals(images.get(step), history.redo());
+    }
+    try {
+      history.redo();
+      fail("Exception not thrown.");
+    } catch (EmptyStackException e) {
+      //nothing left to redo
+    }
+  }
+
+  @Test
+  public void testMemoryKeptNearCurrentImage() {
+    long image = (long) HEIGHT * WIDTH * 36;
+    HistoryManager history = new HistoryManager(1, 4);
+    recordImages(history, 30);
+    //only the current image and the two either side of it stay uncompressed
+    assertTrue(history.getMemoryUsed() <= 3 * image);
+    assertEquals(1, history.getBudget());
+  }
+
+  @Test
+  public void testCompressedInMemoryWithinBudget() {
+    HistoryManager history = new HistoryManager(Long.MAX_VALUE, 4);
+    List<int[][][]> images = recordImages(history, 12);
+    assertEquals(0, history.getDiskUsed());
+    for (int step = images.size() - 2; step >= 0; step--) {
+      assertArrayEquals(images.get(step), history.undo());
+    }
+  }
+
+  @Test
+  public void testRecordAfterUndoForgetsRedo() {
+    HistoryManager history = new HistoryManager(1, 4);
+    List<int[][][]> images = recordImages(history, 10);
+    history.undo();
+    history.undo();
+    int[][][] branch = brighten(images.get(8), 100);
+    history.record(images.get(8), null, branch);
+    try {
+      history.redo();
+      fail("Exception not thrown.");
+    } catch (EmptyStackException e) {
+      //the undone steps were forgotten
+    }
+    assertArrayEquals(images.get(8), history.undo());
+    assertArrayEquals(branch, history.redo());
+  }
+
+  @Test
+  public void testClearForgetsEverything() {
+    HistoryManager history = new HistoryManager(1, 4);
+    recordImages(history, 12);
+    history.clear();
+    assertEquals(0, history.getMemoryUsed());
+    assertEquals(0, history.getDiskUsed());
+    try {
+      history.undo();
+      fail("Exception not thrown.");
+    } catch (EmptyStackException e) {
+      //the history is empty
+    }
+  }
+
+  @Test
+  public void testOperationsRepeatedFromCheckpoint() {
+    int[] repeats = new int[21];
+    HistoryManager history = new HistoryManager(1, 4);
+    List<int[][][]> images = recordOperations(history, 20, repeats);
+    for (int step = images.size() - 2; step >= 0; step--) {
+      assertArrayEquals(images.get(step), history.undo());
+    }
+    assertTrue(total(repeats) > 0);
+    for (int step = 1; step < images.size(); step++) {
+      assertArrayEquals(images.get(step), history.redo());
+    }
+  }
+
+  @Test
+  public void testIntervalBoundsRepeatedSteps() {
+    int[] repeats = new int[31];
+    HistoryManager history = new HistoryManager(Long.MAX_VALUE, 3);
+    List<int[][][]> images = recordOperations(history, 30, repeats);
+    for (int step = images.size() - 2; step >= 0; step--) {
+      int before = total(repeats);
+      assertArrayEquals(images.get(step), history.undo());
+      //a checkpoint is at most two steps back, so at most two operations are repeated
+      assertTrue(total(repeats) - before <= 2);
+    }
+  }
+
+  @Test
+  public void testUnrepeatableStepBecomesCheckpoint() {
+    int[] repeats = new int[11];
+    HistoryManager history = new HistoryManager(Long.MAX_VALUE, 100);
+    List<int[][][]> images = recordOperations(history, 10, repeats, 4);
+    for (int step = 9; step >= 4; step--) {
+      assertArrayEquals(images.get(step), history.undo());
+    }
+    //the images after step 4 are made again from it, not from the first image
+    assertEquals(0, repeats[1] + repeats[2] + repeats[3]);
+    assertTrue(repeats[5] > 0);
+    for (int step = 3; step >= 0; step--) {
+      assertArrayEquals(images.get(step), history.undo());
+    }
+  }
+
+  @Test
+  public void testBackAndForthAcrossSpilledCheckpoints() {
+    int[] repeats = new int[17];
+    HistoryManager history = new HistoryManager(1, 4);
+    List<int[][][]> images = recordOperations(history, 16, repeats, 6, 11);
+    int position = images.size() - 1;
+    for (int step = 0; step < 10; step++) {
+      assertArrayEquals(images.get(--position), history.undo());
+    }
+    for (int step = 0; step < 4; step++) {
+      assertArrayEquals(images.get(++position), history.redo());
+    }
+    for (int step = 0; step < 10; step++) {
+      assertArrayEquals(images.get(--position), history.undo());
+    }
+    assertEquals(0, position);
+  }
+}
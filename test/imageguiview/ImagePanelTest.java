@@ -0,0 +1,223 @@
+package imageguiview;
+
+import org.junit.Test;
+
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This is a test class for the ImagePanel class. It compares the tiles of the pyramid with
+ * levels computed whole, pixel by pixel, and paints panels off screen.
+ */
+public class ImagePanelTest {
+
+  private static final int TILE_SIZE = 256;
+
+  /**
+   * Makes an image of random colours.
+   *
+   * @param height the height of the image.
+   * @param width  the width of the image.
+   * @param seed   the seed of the random colours.
+   * @return the image.
+   */
+  private static int[][][] image(int height, int width, long seed) {
+    Random random = new Random(seed);
+    int[][][] image = new int[height][width][];
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        image[i][j] = new int[]{random.nextInt(256), random.nextInt(256), random.nextInt(256)};
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Computes every level of the pyramid of an image whole, each pixel the average of the two by
+   * two pixels of the level below, cut short at the right and bottom edges.
+   *
+   * @param image  the image.
+   * @param levels the number of levels above the image itself.
+   * @return the packed RGB pixels of each level, level 0 being the image.
+   */
+  private static int[][][] pyramid(int[][][] image, int levels) {
+    int[][][] pyramid = new int[levels + 1][][];
+    pyramid[0] = new int[image.length][image[0].length];
+    for (int i = 0; i < image.length; i++) {
+      for (int j = 0; j < image[0].length; j++) {
+        int[] pixel = image[i][j];
+        pyramid[0][i][j] = pixel[0] << 16 | pixel[1] << 8 | pixel[2];
+      }
+    }
+    for (int k = 1; k <= levels; k++) {
+      int[][] below = pyramid[k - 1];
+      int[][] level = new int[(below.length + 1) / 2][(below[0].length + 1) / 2];
+      for (int y = 0; y < level.length; y++) {
+        for (int x = 0; x < level[0].length; x++) {
+          int r = 0;
+          int g = 0;
+          int b = 0;
+          int count = 0;
+          for (int i = 2 * y; i < Math.min(below.length, 2 * y + 2); i++) {
+            for (int j = 2 * x; j < Math.min(below[0].length, 2 * x + 2); j++) {
+              r += below[i][j] >> 16 & 0xff;
+              g += below[i][j] >> 8 & 0xff;
+              b += below[i][j] & 0xff;
+              count++;
+            }
+          }
+          level[y][x] = r / count << 16 | g / count << 8 | b / count;
+        }
+      }
+      pyramid[k] = level;
+    }
+    return pyramid;
+  }
+
+  /**
+   * Checks that a tile holds the pixels of a level computed whole that it covers.
+   *
+   * @param level  the level computed whole.
+   * @param column the column of the tile.
+   * @param row    the row of the tile.
+   * @param tile   the tile.
+   */
+  private static void assertTile(int[][] level, int column, int row, BufferedImage tile) {
+    assertEquals(Math.min(TILE_SIZE, level[0].length - column * TILE_SIZE), tile.getWidth());
+    assertEquals(Math.min(TILE_SIZE, level.length - row * TILE_SIZE), tile.getHeight());
+    for (int y = 0; y < tile.getHeight(); y++) {
+      for (int x = 0; x < tile.getWidth(); x++) {
+        assertEquals(level[row * TILE_SIZE + y][column * TILE_SIZE + x],
+                tile.getRGB(x, y) & 0xffffff);
+      }
+    }
+  }
+
+  /**
+   * Runs an action on the event dispatch thread and waits for its result.
+   *
+   * @param action the action.
+   * @param <T>    the type of the result.
+   * @return the result.
+   * @throws Exception if the action fails or the wait is interrupted.
+   */
+  private static <T> T onEdt(Callable<T> action) throws Exception {
+    AtomicReference<T> result = new AtomicReference<>();
+    SwingUtilities.invokeAndWait(() -> {
+      try {
+        result.set(action.call());
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    return result.get();
+  }
+
+  /**
+   * Paints a panel off screen until none of its tiles are still being built.
+   *
+   * @param panel the panel, sized to the image at its zoom.
+   * @return the packed RGB pixels of the last painting.
+   * @throws Exception if painting fails or the wait is interrupted.
+   */
+  private static int[][] paint(ImagePanel panel) throws Exception {
+    BufferedImage canvas = new BufferedImage(panel.getWidth(), panel.getHeight(),
+            BufferedImage.TYPE_INT_RGB);
+    boolean building = true;
+    while (building) {
+      building = onEdt(() -> {
+        Graphics g = canvas.createGraphics();
+        panel.paint(g);
+        g.dispose();
+        return panel.isBuilding();
+      });
+      Thread.sleep(10);
+    }
+    int[][] pixels = new int[canvas.getHeight()][canvas.getWidth()];
+    for (int y = 0; y < canvas.getHeight(); y++) {
+      for (int x = 0; x < canvas.getWidth(); x++) {
+        pixels[y][x] = canvas.getRGB(x, y) & 0xffffff;
+      }
+    }
+    return pixels;
+  }
+
+  @Test
+  public void testTilesMatchPyramidComputedWhole() {
+    int[][][] image = image(1300, 900, 1);
+    int[][][] pyramid = pyramid(image, 6);
+    Map<Long, BufferedImage> none = new HashMap<>();
+    for (int k = 0; k <= 6; k++) {
+      int[][] level = pyramid[k];
+      for (int row = 0; row * TILE_SIZE < level.length; row++) {
+        for (int column = 0; column * TILE_SIZE < level[0].length; column++) {
+          assertTile(level, column, row, ImagePanel.buildTile(image, none, k, column, row));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testKeptTilesUsedForLevelAbove() {
+    int[][][] image = image(1300, 900, 2);
+    int[][][] pyramid = pyramid(image, 2);
+    Map<Long, BufferedImage> kept = new HashMap<>();
+    kept.put(ImagePanel.tileKey(1, 1, 0), ImagePanel.buildTile(image, kept, 1, 1, 0));
+    kept.put(ImagePanel.tileKey(1, 0, 1), ImagePanel.buildTile(image, kept, 1, 0, 1));
+    kept.put(ImagePanel.tileKey(0, 0, 0), ImagePanel.buildTile(image, kept, 0, 0, 0));
+    for (int row = 0; row * TILE_SIZE < pyramid[2].length; row++) {
+      assertTile(pyramid[2], 0, row, ImagePanel.buildTile(image, kept, 2, 0, row));
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testChangedAreaRebuiltAlone() throws Exception {
+    int[][][] image = image(1300, 900, 3);
+    ImagePanel panel = onEdt(() -> {
+      ImagePanel created = new ImagePanel();
+      created.display(image, null);
+      created.zoomOut();
+      created.setSize(created.getPreferredSize());
+      return created;
+    });
+    assertArrayEquals(pyramid(image, 1)[1], paint(panel));
+
+    int[][][] changed = new int[image.length][][];
+    for (int i = 0; i < image.length; i++) {
+      changed[i] = image[i].clone();
+    }
+    for (int i = 700; i < 710; i++) {
+      for (int j = 600; j < 610; j++) {
+        changed[i][j] = new int[]{255 - image[i][j][0], image[i][j][1], 0};
+      }
+    }
+    onEdt(() -> {
+      panel.display(changed, new Rectangle(600, 700, 10, 10));
+      return null;
+    });
+    assertFalse(onEdt(() -> panel.isKept(1, 1, 1)));
+    for (int row = 0; row < 3; row++) {
+      for (int column = 0; column < 2; column++) {
+        int tileColumn = column;
+        int tileRow = row;
+        assertEquals(column != 1 || row != 1,
+                onEdt(() -> panel.isKept(1, tileColumn, tileRow)));
+      }
+    }
+    assertArrayEquals(pyramid(changed, 1)[1], paint(panel));
+    assertTrue(onEdt(() -> panel.isKept(1, 1, 1)));
+  }
+}